@@ -0,0 +1,72 @@
+package cz.muni.fi.pv168.common;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Inserting of rows in batches with retrieving of generated ids, created by
+ * {@link Dialect#prepareBatchInsert(java.sql.Connection, String, String)}.
+ * Engines differ in which generated keys they return for executed batch,
+ * so the way of retrieving ids is dialect specific.
+ *
+ * <pre>
+ * BatchInsert insert = dialect.prepareBatchInsert(conn, "Grave", sql);
+ * st = insert.getStatement();
+ * insert.begin();
+ * for (...) {
+ *     st.setXxx(...);
+ *     st.addBatch();
+ *     // insert.executeBatch() after each batchSize rows
+ * }
+ * insert.executeBatch();
+ * List&lt;Long&gt; ids = insert.getGeneratedIds();
+ * conn.commit();
+ * </pre>
+ *
+ * @author agent
+ */
+public abstract class BatchInsert {
+
+    private final PreparedStatement statement;
+
+    protected BatchInsert(PreparedStatement statement) {
+        this.statement = statement;
+    }
+
+    /**
+     * Returns the insert statement. Parameters are set and rows are added
+     * to the batch directly on this statement. Caller is responsible for
+     * closing of the statement.
+     *
+     * @return insert statement
+     */
+    public PreparedStatement getStatement() {
+        return statement;
+    }
+
+    /**
+     * Starts inserting of rows in current transaction. It must be called
+     * after each commit before the next row is added.
+     *
+     * @throws SQLException when operation fails
+     */
+    public abstract void begin() throws SQLException;
+
+    /**
+     * Executes rows added to the batch and checks their update counts.
+     *
+     * @throws SQLException when operation fails
+     * @throws ServiceFailureException when some update count is unexpected
+     */
+    public abstract void executeBatch() throws SQLException, ServiceFailureException;
+
+    /**
+     * Returns ids of rows inserted since the last call of {@link #begin()},
+     * in the order of inserting. All rows must be already executed.
+     *
+     * @return generated ids
+     * @throws SQLException when operation fails
+     */
+    public abstract List<Long> getGeneratedIds() throws SQLException;
+}
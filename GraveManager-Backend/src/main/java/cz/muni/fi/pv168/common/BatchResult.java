@@ -0,0 +1,99 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of bulk operation which processes entities one by one and skips
+ * entities which can not be processed.
+ *
+ * @param <T> type of entity
+ * @author agent
+ */
+public class BatchResult<T> {
+
+    private long processedCount;
+    private final List<Failure<T>> failures = new ArrayList<>();
+
+    /**
+     * Records successfully processed entities.
+     *
+     * @param count number of processed entities
+     */
+    public void addProcessed(int count) {
+        processedCount += count;
+    }
+
+    /**
+     * Records entity which was skipped.
+     *
+     * @param entity skipped entity
+     * @param cause reason why the entity was skipped
+     */
+    public void addFailure(T entity, RuntimeException cause) {
+        failures.add(new Failure<>(entity, cause));
+    }
+
+    /**
+     * Returns number of successfully processed entities.
+     *
+     * @return number of successfully processed entities
+     */
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * Returns list of skipped entities together with reason of failure.
+     *
+     * @return unmodifiable list of failures
+     */
+    public List<Failure<T>> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{"
+                + "processedCount=" + processedCount
+                + ", failures=" + failures
+                + '}';
+    }
+
+    /**
+     * Entity which was skipped together with reason of failure.
+     *
+     * @param <T> type of entity
+     */
+    public static final class Failure<T> {
+
+        private final T entity;
+        private final RuntimeException cause;
+
+        Failure(T entity, RuntimeException cause) {
+            this.entity = entity;
+            this.cause = cause;
+        }
+
+        public T getEntity() {
+            return entity;
+        }
+
+        public RuntimeException getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{"
+                    + "entity=" + entity
+                    + ", cause=" + cause
+                    + '}';
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package cz.muni.fi.pv168.common;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -21,6 +24,61 @@ public class DBUtils {
     private static final Logger logger = Logger.getLogger(
             DBUtils.class.getName());
 
+    private static volatile SlowQueryLog slowQueryLog;
+
+    /**
+     * Installs log of slow statements. Statements prepared by
+     * {@link #prepareStatement(Connection, String)} after this call are timed
+     * and reported to the log.
+     *
+     * @param log slow query log or null for turning the logging off
+     */
+    public static void setSlowQueryLog(SlowQueryLog log) {
+        slowQueryLog = log;
+    }
+
+    /**
+     * Returns installed log of slow statements.
+     *
+     * @return slow query log or null if it is not installed
+     */
+    public static SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Prepares statement. This method should be used by managers instead of
+     * {@link Connection#prepareStatement(String)}, so the statement is
+     * reported to the slow query log when it is installed. Otherwise the
+     * statement is returned as it is.
+     *
+     * @param conn connection
+     * @param sql SQL of the statement
+     * @return prepared statement
+     * @throws SQLException when the statement can not be prepared
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PreparedStatement st = conn.prepareStatement(sql);
+        SlowQueryLog log = slowQueryLog;
+        return log == null ? st : log.wrap(st, sql);
+    }
+
+    /**
+     * Prepares statement, see {@link #prepareStatement(Connection, String)}.
+     *
+     * @param conn connection
+     * @param sql SQL of the statement
+     * @param autoGeneratedKeys {@link Statement#RETURN_GENERATED_KEYS} or
+     * {@link Statement#NO_GENERATED_KEYS}
+     * @return prepared statement
+     * @throws SQLException when the statement can not be prepared
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement st = conn.prepareStatement(sql, autoGeneratedKeys);
+        SlowQueryLog log = slowQueryLog;
+        return log == null ? st : log.wrap(st, sql);
+    }
+
     /**
      * Closes connection and logs possible error.
      * 
@@ -92,46 +150,186 @@ public class DBUtils {
     }
 
     /**
-     * Reads SQL statements from file. SQL commands in file must be separated by 
-     * a semicolon.
+     * Locks given table in exclusive mode for the rest of current transaction
+     * and returns the highest id currently stored in the table. Identity values
+     * generated by following inserts in the same transaction are greater than
+     * the returned value and they are assigned in the order of inserting, so
+     * they can be retrieved with {@link #getIdsInsertedAfter(Connection, String, long)}.
+     *
+     * <p>This is needed for batch inserts, because Derby returns generated key
+     * only for the last row when batch is executed. The statement is Derby
+     * specific, managers should use {@link Dialect#prepareBatchInsert(Connection, String, String)}.</p>
+     *
+     * @param conn connection with autocommit mode turned off
+     * @param table table name
+     * @return highest id in the table or zero if table is empty
+     * @throws SQLException when operation fails
+     */
+    public static long lockTableForBatchInsert(Connection conn, String table) throws SQLException {
+        if (conn.getAutoCommit()) {
+            throw new IllegalStateException("Connection is in the autocommit mode!");
+        }
+        try (Statement st = conn.createStatement()) {
+            st.execute("LOCK TABLE " + table + " IN EXCLUSIVE MODE");
+            try (ResultSet rs = st.executeQuery("SELECT MAX(id) FROM " + table)) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns ids of rows inserted into the table locked with
+     * {@link #lockTableForBatchInsert(Connection, String)}, in the order of
+     * inserting.
+     *
+     * @param conn connection used for inserting
+     * @param table table name
+     * @param lastId id returned by {@link #lockTableForBatchInsert(Connection, String)}
+     * @return list of generated ids
+     * @throws SQLException when operation fails
+     */
+    public static List<Long> getIdsInsertedAfter(Connection conn, String table, long lastId) throws SQLException {
+        try (PreparedStatement st = prepareStatement(conn,
+                "SELECT id FROM " + table + " WHERE id > ? ORDER BY id")) {
+            st.setLong(1, lastId);
+            ResultSet rs = st.executeQuery();
+            List<Long> result = new ArrayList<>();
+            while (rs.next()) {
+                result.add(rs.getLong(1));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Check if all update counts returned by executing of batch are one.
+     * Otherwise appropriate exception is thrown.
+     *
+     * @param counts update counts returned by {@link Statement#executeBatch()}
+     * @throws ServiceFailureException when some update count is unexpected number
+     */
+    public static void checkBatchUpdatesCount(int[] counts) throws ServiceFailureException {
+        for (int count : counts) {
+            if (count != 1 && count != Statement.SUCCESS_NO_INFO) {
+                throw new ServiceFailureException("Internal integrity error: Unexpected rows count in database affected: " + count);
+            }
+        }
+    }
+
+    /**
+     * Sizes of IN lists used by {@link #inListSize(int)}. Only these few
+     * sizes are used, so the number of distinct statements stays small and
+     * they can be cached.
+     */
+    private static final int[] IN_LIST_SIZES = {1, 8, 32, 128, 512};
+
+    /**
+     * Maximal number of values in single IN list.
+     */
+    public static final int MAX_IN_LIST_SIZE = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+
+    /**
+     * Returns size of IN list which should be used for given number of values.
+     * It is the smallest of few standard sizes which is sufficient for all 
+     * values, or {@link #MAX_IN_LIST_SIZE} when values need to be split into
+     * more chunks. Unused places of the IN list should be filled with 
+     * repeated last value.
+     * 
+     * @param count number of values
+     * @return number of placeholders in the IN list
+     */
+    public static int inListSize(int count) {
+        for (int size : IN_LIST_SIZES) {
+            if (size >= count) {
+                return size;
+            }
+        }
+        return MAX_IN_LIST_SIZE;
+    }
+
+    /**
+     * Creates comma separated list of given number of placeholders.
+     * 
+     * @param count number of placeholders
+     * @return placeholders for IN list
+     */
+    public static String inListPlaceholders(int count) {
+        StringBuilder result = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            result.append(i == 0 ? "?" : ",?");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Sets ids from given chunk as parameters of IN list, starting with
+     * parameter at given index. Unused parameters are filled with the last id.
+     * 
+     * @param st statement
+     * @param firstIndex index of the first parameter of IN list
+     * @param size number of placeholders in the IN list
+     * @param ids ids to set, at most size and at least one
+     * @throws SQLException when operation fails
+     */
+    public static void setInListIds(PreparedStatement st, int firstIndex, int size,
+            List<Long> ids) throws SQLException {
+        for (int i = 0; i < size; i++) {
+            st.setLong(firstIndex + i, ids.get(Math.min(i, ids.size() - 1)));
+        }
+    }
+
+    /**
+     * Executes update statement with IN list for all given ids. Ids are split
+     * into chunks of at most {@link #MAX_IN_LIST_SIZE} values and the 
+     * statement is executed for each chunk.
      * 
-     * @param url url of the file
-     * @return array of command  strings
+     * @param conn connection
+     * @param sql SQL statement with single IN list, in format 
+     * {@code ... IN (%s) ...}
+     * @param ids ids for the IN list
+     * @return total number of updated rows
+     * @throws SQLException when operation fails
      */
-    private static String[] readSqlStatements(URL url) {
+    public static int executeUpdateForIds(Connection conn, String sql, List<Long> ids) throws SQLException {
+        int result = 0;
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
         try {
-            char buffer[] = new char[256];
-            StringBuilder result = new StringBuilder();
-            InputStreamReader reader = new InputStreamReader(url.openStream(), "UTF-8");
-            while (true) {
-                int count = reader.read(buffer);
-                if (count < 0) {
-                    break;
+            for (int from = 0; from < ids.size(); from += MAX_IN_LIST_SIZE) {
+                List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_LIST_SIZE));
+                int size = inListSize(chunk.size());
+                PreparedStatement st = statements.get(size);
+                if (st == null) {
+                    st = prepareStatement(conn, String.format(sql, inListPlaceholders(size)));
+                    statements.put(size, st);
                 }
-                result.append(buffer, 0, count);
+                setInListIds(st, 1, size, chunk);
+                result += st.executeUpdate();
             }
-            return result.toString().split(";");
-        } catch (IOException ex) {
-            throw new RuntimeException("Cannot read " + url, ex);
+            return result;
+        } finally {
+            closeQuietly(null, statements.values().toArray(new Statement[0]));
         }
     }
-    
+
     /**
      * Try to execute script for creating tables. If tables already exist, 
-     * appropriate exception is catched and ignored.
+     * appropriate exception is catched and ignored. The exception is 
+     * recognized by {@link Dialect#isAlreadyExists(SQLException)}.
      * 
      * @param ds dataSource 
      * @param scriptUrl url of script for creating tables
      * @throws SQLException when operation fails
+     * @deprecated the script is executed on every start and the schema can
+     * not evolve, use {@link SchemaMigrator} instead
      */
+    @Deprecated
     public static void tryCreateTables(DataSource ds, URL scriptUrl) throws SQLException {
         try {
             executeSqlScript(ds, scriptUrl);
             logger.warning("Tables created");
         } catch (SQLException ex) {
-            if ("X0Y32".equals(ex.getSQLState())) {
-                // This code represents "Table/View/... already exists"
-                // This code is Derby specific!
+            if (Dialect.of(ds).isAlreadyExists(ex)) {
                 return;
             } else {
                 throw ex;
@@ -140,24 +338,48 @@ public class DBUtils {
     }
     
     /**
-     * Executes SQL script.
+     * Executes SQL script in single transaction, see {@link SqlScriptRunner}.
      * 
      * @param ds datasource
      * @param scriptUrl url of sql script to be executed
      * @throws SQLException when operation fails
      */
     public static void executeSqlScript(DataSource ds, URL scriptUrl) throws SQLException {
-        Connection conn = null;
-        try {
-            conn = ds.getConnection();
-            for (String sqlStatement : readSqlStatements(scriptUrl)) {
-                if (!sqlStatement.trim().isEmpty()) {
-                    conn.prepareStatement(sqlStatement).executeUpdate();
-                }
+        new SqlScriptRunner(ds).run(scriptUrl);
+    }
+
+    /**
+     * Returns true if given exception was caused by violation of unique 
+     * constraint or unique index.
+     * 
+     * @param ex exception to check
+     * @return true if the exception represents unique constraint violation
+     */
+    public static boolean isUniqueViolation(SQLException ex) {
+        for (SQLException e = ex; e != null; e = e.getNextException()) {
+            if ("23505".equals(e.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if given exception was caused by violation of foreign key
+     * constraint, e.g. when deleted row is still referenced by another row.
+     * 
+     * @param ex exception to check
+     * @return true if the exception represents foreign key violation
+     */
+    public static boolean isForeignKeyViolation(SQLException ex) {
+        for (SQLException e = ex; e != null; e = e.getNextException()) {
+            // Derby uses 23503 for both directions, H2 uses 23506 when 
+            // the referenced row does not exist
+            if ("23503".equals(e.getSQLState()) || "23506".equals(e.getSQLState())) {
+                return true;
             }
-        } finally {
-            closeQuietly(conn);
         }
+        return false;
     }
 
     /**
@@ -0,0 +1,74 @@
+package cz.muni.fi.pv168.common;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Dialect of Apache Derby.
+ *
+ * <p>Derby returns generated key only for the last row of executed batch,
+ * so tables are locked during batch inserts and generated ids are read
+ * after inserting, see {@link DBUtils#lockTableForBatchInsert(Connection, String)}.
+ * Derby does not support returning of updated rows.</p>
+ *
+ * @author agent
+ */
+public final class DerbyDialect extends Dialect {
+
+    static final String PRODUCT_NAME = "Apache Derby";
+
+    public static final DerbyDialect INSTANCE = new DerbyDialect();
+
+    private DerbyDialect() {
+    }
+
+    @Override
+    public String getId() {
+        return "derby";
+    }
+
+    @Override
+    public boolean isAlreadyExists(SQLException ex) {
+        // This code represents "Table/View/... already exists"
+        return "X0Y32".equals(ex.getSQLState());
+    }
+
+    @Override
+    public String daysBetween(String from, String to) {
+        return "{fn TIMESTAMPDIFF(SQL_TSI_DAY, CAST(" + from + " AS TIMESTAMP), CAST(" + to + " AS TIMESTAMP))}";
+    }
+
+    @Override
+    public BatchInsert prepareBatchInsert(Connection conn, String table, String sql) throws SQLException {
+        return new DerbyBatchInsert(conn, table, sql);
+    }
+
+    private static final class DerbyBatchInsert extends BatchInsert {
+
+        private final Connection conn;
+        private final String table;
+        private long lastId;
+
+        DerbyBatchInsert(Connection conn, String table, String sql) throws SQLException {
+            super(DBUtils.prepareStatement(conn, sql));
+            this.conn = conn;
+            this.table = table;
+        }
+
+        @Override
+        public void begin() throws SQLException {
+            lastId = DBUtils.lockTableForBatchInsert(conn, table);
+        }
+
+        @Override
+        public void executeBatch() throws SQLException {
+            DBUtils.checkBatchUpdatesCount(getStatement().executeBatch());
+        }
+
+        @Override
+        public List<Long> getGeneratedIds() throws SQLException {
+            return DBUtils.getIdsInsertedAfter(conn, table, lastId);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package cz.muni.fi.pv168.common;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Features of SQL which differ between database engines. Managers use
+ * standard SQL wherever possible and ask the dialect only for things which
+ * can not be expressed in the same way for all supported engines, or which
+ * have faster engine specific variant.
+ *
+ * <p>Dialect of the database is detected by {@link #of(Connection)} from
+ * its product name. Currently supported engines are Apache Derby and H2.</p>
+ *
+ * @author agent
+ */
+public abstract class Dialect {
+
+    /**
+     * Returns dialect of database the connection is connected to.
+     *
+     * @param conn connection
+     * @return dialect
+     * @throws SQLException when database metadata can not be read
+     * @throws ServiceFailureException when the database is not supported
+     */
+    public static Dialect of(Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName();
+        if (DerbyDialect.PRODUCT_NAME.equals(product)) {
+            return DerbyDialect.INSTANCE;
+        }
+        if (H2Dialect.PRODUCT_NAME.equals(product)) {
+            return H2Dialect.INSTANCE;
+        }
+        throw new ServiceFailureException("Unsupported database " + product);
+    }
+
+    /**
+     * Returns dialect of given database, see {@link #of(Connection)}.
+     *
+     * @param ds data source
+     * @return dialect
+     * @throws SQLException when connection can not be obtained
+     * @throws ServiceFailureException when the database is not supported
+     */
+    public static Dialect of(DataSource ds) throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            return of(conn);
+        }
+    }
+
+    /**
+     * Returns short identifier of the dialect, which is used also as suffix
+     * of dialect specific scripts.
+     *
+     * @return identifier, e.g. {@code derby}
+     */
+    public abstract String getId();
+
+    /**
+     * Returns true if given exception was caused by creating of table,
+     * index or another object which already exists.
+     *
+     * @param ex exception to check
+     * @return true if the object already exists
+     */
+    public abstract boolean isAlreadyExists(SQLException ex);
+
+    /**
+     * Returns SQL script for this dialect. Script {@code <name>-<id>.sql}
+     * is used when it exists, otherwise common script {@code <name>.sql} is
+     * returned.
+     *
+     * @param base class used for loading of the script resource
+     * @param name name of the script without suffix
+     * @return url of the script or null if neither script exists
+     */
+    public URL getScript(Class<?> base, String name) {
+        URL script = base.getResource(name + "-" + getId() + ".sql");
+        return script != null ? script : base.getResource(name + ".sql");
+    }
+
+    /**
+     * Prepares inserting of rows in batches with retrieving of generated
+     * ids. Table must have identity column {@code id}.
+     *
+     * @param conn connection with autocommit mode turned off
+     * @param table table name
+     * @param sql insert statement
+     * @return batch insert
+     * @throws SQLException when the statement can not be prepared
+     */
+    public abstract BatchInsert prepareBatchInsert(Connection conn, String table, String sql) throws SQLException;
+
+    /**
+     * Creates expression which computes number of days between two dates.
+     *
+     * @param from expression with the first date
+     * @param to expression with the second date
+     * @return integer expression, negative when {@code to} is before
+     * {@code from} and null when some date is null
+     */
+    public abstract String daysBetween(String from, String to);
+
+    /**
+     * Returns true if the dialect can return columns of rows changed by
+     * update, see {@link #updateReturning(String, String)}.
+     *
+     * @return true if updated rows can be returned
+     */
+    public boolean supportsUpdateReturning() {
+        return false;
+    }
+
+    /**
+     * Creates query which executes given update and returns given columns
+     * of updated rows, with values after the update. This saves one round
+     * trip compared to update followed by select.
+     *
+     * @param update update statement
+     * @param columns comma separated list of returned columns or expressions
+     * @return query
+     * @throws UnsupportedOperationException when the dialect does not
+     * {@link #supportsUpdateReturning() support} it
+     */
+    public String updateReturning(String update, String columns) {
+        throw new UnsupportedOperationException("Dialect " + getId() + " does not support update returning");
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+}
@@ -0,0 +1,91 @@
+package cz.muni.fi.pv168.common;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Dialect of H2 database.
+ *
+ * <p>H2 returns generated keys of all rows of executed batch, so batch
+ * inserts do not need to lock the table. Rows changed by update can be
+ * returned by {@code SELECT ... FROM FINAL TABLE (UPDATE ...)}.</p>
+ *
+ * <p>Word {@code ROW} is keyword in H2 2.x, so it must be allowed as column
+ * name in the connection url, e.g.
+ * {@code jdbc:h2:mem:gravemgr;DB_CLOSE_DELAY=-1;NON_KEYWORDS=ROW}.</p>
+ *
+ * @author agent
+ */
+public final class H2Dialect extends Dialect {
+
+    static final String PRODUCT_NAME = "H2";
+
+    public static final H2Dialect INSTANCE = new H2Dialect();
+
+    private H2Dialect() {
+    }
+
+    @Override
+    public String getId() {
+        return "h2";
+    }
+
+    @Override
+    public boolean isAlreadyExists(SQLException ex) {
+        // Table or view already exists, index already exists
+        return "42S01".equals(ex.getSQLState()) || "42S11".equals(ex.getSQLState());
+    }
+
+    @Override
+    public String daysBetween(String from, String to) {
+        return "DATEDIFF(DAY, " + from + ", " + to + ")";
+    }
+
+    @Override
+    public BatchInsert prepareBatchInsert(Connection conn, String table, String sql) throws SQLException {
+        return new H2BatchInsert(conn, sql);
+    }
+
+    @Override
+    public boolean supportsUpdateReturning() {
+        return true;
+    }
+
+    @Override
+    public String updateReturning(String update, String columns) {
+        return "SELECT " + columns + " FROM FINAL TABLE (" + update + ")";
+    }
+
+    private static final class H2BatchInsert extends BatchInsert {
+
+        private final List<Long> ids = new ArrayList<>();
+
+        H2BatchInsert(Connection conn, String sql) throws SQLException {
+            super(DBUtils.prepareStatement(conn, sql, Statement.RETURN_GENERATED_KEYS));
+        }
+
+        @Override
+        public void begin() {
+            ids.clear();
+        }
+
+        @Override
+        public void executeBatch() throws SQLException {
+            DBUtils.checkBatchUpdatesCount(getStatement().executeBatch());
+            try (ResultSet keys = getStatement().getGeneratedKeys()) {
+                while (keys.next()) {
+                    ids.add(keys.getLong(1));
+                }
+            }
+        }
+
+        @Override
+        public List<Long> getGeneratedIds() {
+            return new ArrayList<>(ids);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Decorator of DataSource which records how long {@link #getConnection()}
+ * takes, i.e. how long managers wait for connection from the pool. Metrics
+ * are recorded as operation {@code getConnection} of component
+ * {@code DataSource}. Returned connections are not wrapped.
+ *
+ * @author agent
+ */
+public class InstrumentedDataSource implements DataSource {
+
+    private final DataSource target;
+    private final OperationMetrics getConnection;
+
+    public InstrumentedDataSource(DataSource target, MetricsRegistry registry) {
+        if (target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+        if (registry == null) {
+            throw new IllegalArgumentException("registry is null");
+        }
+        this.target = target;
+        this.getConnection = registry.getOperationMetrics("DataSource", "getConnection");
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection result = target.getConnection();
+            getConnection.recordSuccess(start);
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            getConnection.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection result = target.getConnection(username, password);
+            getConnection.recordSuccess(start);
+            return result;
+        } catch (SQLException | RuntimeException ex) {
+            getConnection.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,192 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Simple cache with limited size. When the cache is full, the least recently
+ * used entry is evicted.
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @param <K> type of key
+ * @param <V> type of value
+ * @author agent
+ */
+public class LruCache<K, V> {
+
+    private final int maxSize;
+    private final Map<K, V> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates new cache.
+     *
+     * @param maxSize maximal number of entries in the cache
+     */
+    public LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize is not positive number");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns value stored in the cache for given key.
+     *
+     * @param key key
+     * @return value or null if there is no value for given key in the cache
+     */
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Stores value into the cache.
+     *
+     * @param key key
+     * @param value value, must not be null
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        entries.put(key, value);
+    }
+
+    /**
+     * Stores value into the cache only if no value was removed from the cache
+     * since given moment. This prevents storing of value which was read 
+     * before concurrent modification, but after the cache was invalidated.
+     *
+     * @param key key
+     * @param value value, must not be null
+     * @param invalidationCount value returned by {@link #getInvalidationCount()}
+     * before the value was read
+     * @return true if the value was stored
+     */
+    public synchronized boolean putIfNotInvalidatedSince(K key, V value, long invalidationCount) {
+        if (invalidations != invalidationCount) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * Returns number of calls of {@link #remove(Object)} and {@link #clear()}.
+     *
+     * @return number of invalidations
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * Removes value for given key from the cache.
+     *
+     * @param key key
+     */
+    public synchronized void remove(K key) {
+        invalidations++;
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public synchronized void clear() {
+        invalidations++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns snapshot of cache statistics.
+     *
+     * @return statistics
+     */
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits, misses, evictions, entries.size());
+    }
+
+    /**
+     * Statistics of the cache usage.
+     */
+    public static final class Statistics {
+
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+
+        Statistics(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns ratio of lookups which found the value in the cache.
+         *
+         * @return hit ratio between 0 and 1, or 0 if there was no lookup yet
+         */
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{"
+                    + "hits=" + hits
+                    + ", misses=" + misses
+                    + ", evictions=" + evictions
+                    + ", size=" + size
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of {@link OperationMetrics} which publishes them as JMX MBeans
+ * named {@code <domain>:type=<component>,name=<operation>}.
+ *
+ * <p>Metrics created before {@link #register(MBeanServer)} is called are
+ * registered by that call, metrics created later are registered immediately.
+ * This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class MetricsRegistry {
+
+    private static final Logger logger = Logger.getLogger(
+            MetricsRegistry.class.getName());
+
+    /**
+     * Default JMX domain.
+     */
+    public static final String DEFAULT_DOMAIN = "cz.muni.fi.pv168.gravemanager";
+
+    private final String domain;
+    private final Map<ObjectName, OperationMetrics> metrics = new LinkedHashMap<>();
+    private MBeanServer server;
+
+    public MetricsRegistry() {
+        this(DEFAULT_DOMAIN);
+    }
+
+    public MetricsRegistry(String domain) {
+        if (domain == null) {
+            throw new IllegalArgumentException("domain is null");
+        }
+        this.domain = domain;
+    }
+
+    /**
+     * Returns metrics of given operation. Metrics are created when they
+     * are requested for the first time.
+     *
+     * @param component name of component, e.g. {@code GraveManager}
+     * @param operation name of operation, e.g. {@code getGrave}
+     * @return metrics of the operation
+     */
+    public synchronized OperationMetrics getOperationMetrics(String component, String operation) {
+        ObjectName objectName = objectName(component, operation);
+        OperationMetrics result = metrics.get(objectName);
+        if (result == null) {
+            result = new OperationMetrics(component + "." + operation);
+            metrics.put(objectName, result);
+            if (server != null) {
+                registerMBean(objectName, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all metrics of this registry.
+     *
+     * @return list of metrics in order of creation
+     */
+    public synchronized List<OperationMetrics> getAllOperationMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * Registers all metrics as MBeans in given server.
+     *
+     * @param server MBean server, e.g.
+     * {@link java.lang.management.ManagementFactory#getPlatformMBeanServer()}
+     * @throws ServiceFailureException when some MBean can not be registered
+     */
+    public synchronized void register(MBeanServer server) throws ServiceFailureException {
+        if (server == null) {
+            throw new IllegalArgumentException("server is null");
+        }
+        if (this.server != null) {
+            throw new IllegalStateException("Registry is already registered");
+        }
+        this.server = server;
+        for (Map.Entry<ObjectName, OperationMetrics> entry : metrics.entrySet()) {
+            registerMBean(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Unregisters all MBeans registered by this registry.
+     */
+    public synchronized void unregister() {
+        if (server == null) {
+            return;
+        }
+        for (ObjectName objectName : metrics.keySet()) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (JMException ex) {
+                logger.log(Level.WARNING, "Error when unregistering MBean " + objectName, ex);
+            }
+        }
+        server = null;
+    }
+
+    private void registerMBean(ObjectName objectName, OperationMetrics operationMetrics) {
+        try {
+            server.registerMBean(operationMetrics, objectName);
+        } catch (JMException ex) {
+            String msg = "Error when registering MBean " + objectName;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+    }
+
+    private ObjectName objectName(String component, String operation) {
+        if (component == null) {
+            throw new IllegalArgumentException("component is null");
+        }
+        if (operation == null) {
+            throw new IllegalArgumentException("operation is null");
+        }
+        try {
+            return new ObjectName(domain + ":type=" + component + ",name=" + operation);
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("Invalid name of metrics " + component + "." + operation, ex);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call count, error counts and latency histogram of single operation. 
+ * Typical usage is:
+ *
+ * <pre>
+ * long start = System.nanoTime();
+ * try {
+ *     Grave result = delegate.getGrave(id);
+ *     metrics.recordSuccess(start);
+ *     return result;
+ * } catch (RuntimeException ex) {
+ *     metrics.recordFailure(start, ex);
+ *     throw ex;
+ * }
+ * </pre>
+ *
+ * <p>Recording does not allocate and does not lock, so it costs only few 
+ * nanoseconds. This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final String name;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder serviceFailureErrors = new LongAdder();
+    private final LongAdder illegalEntityErrors = new LongAdder();
+    private final LongAdder validationErrors = new LongAdder();
+    private final LongAdder otherErrors = new LongAdder();
+
+    public OperationMetrics(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name is null");
+        }
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records successful call.
+     *
+     * @param startNanos value of {@link System#nanoTime()} when the call 
+     * started
+     */
+    public void recordSuccess(long startNanos) {
+        latencies.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records call which failed with given exception.
+     *
+     * @param startNanos value of {@link System#nanoTime()} when the call 
+     * started
+     * @param ex exception thrown by the call
+     */
+    public void recordFailure(long startNanos, Throwable ex) {
+        latencies.record(System.nanoTime() - startNanos);
+        if (ex instanceof ServiceFailureException) {
+            serviceFailureErrors.increment();
+        } else if (ex instanceof IllegalEntityException) {
+            illegalEntityErrors.increment();
+        } else if (ex instanceof ValidationException) {
+            validationErrors.increment();
+        } else {
+            otherErrors.increment();
+        }
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public long getCalls() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getServiceFailureErrors() {
+        return serviceFailureErrors.sum();
+    }
+
+    @Override
+    public long getIllegalEntityErrors() {
+        return illegalEntityErrors.sum();
+    }
+
+    @Override
+    public long getValidationErrors() {
+        return validationErrors.sum();
+    }
+
+    @Override
+    public long getOtherErrors() {
+        return otherErrors.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return latencies.getMean() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP50LatencyMicros() {
+        return latencies.getPercentile(0.5) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getP99LatencyMicros() {
+        return latencies.getPercentile(0.99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getMaxLatencyMicros() {
+        return latencies.getMax() / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        serviceFailureErrors.reset();
+        illegalEntityErrors.reset();
+        validationErrors.reset();
+        otherErrors.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{"
+                + "name=" + name
+                + ", calls=" + getCalls()
+                + ", p50=" + getP50LatencyMicros()
+                + "us, p99=" + getP99LatencyMicros()
+                + "us, max=" + getMaxLatencyMicros()
+                + "us}";
+    }
+}
@@ -0,0 +1,33 @@
+package cz.muni.fi.pv168.common;
+
+/**
+ * Management interface of {@link OperationMetrics}. Latencies are reported
+ * in microseconds.
+ *
+ * @author agent
+ */
+public interface OperationMetricsMXBean {
+
+    long getCalls();
+
+    long getServiceFailureErrors();
+
+    long getIllegalEntityErrors();
+
+    long getValidationErrors();
+
+    long getOtherErrors();
+
+    double getMeanLatencyMicros();
+
+    double getP50LatencyMicros();
+
+    double getP99LatencyMicros();
+
+    double getMaxLatencyMicros();
+
+    /**
+     * Resets all counters and the latency histogram.
+     */
+    void reset();
+}
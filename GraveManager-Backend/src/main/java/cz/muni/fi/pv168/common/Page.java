@@ -0,0 +1,85 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of entities returned by keyset paginated query. Entities are
+ * ordered by id and the next page starts after the id stored in continuation
+ * token, so the cost of fetching a page does not depend on its position.
+ *
+ * @param <T> type of entity
+ * @author agent
+ */
+public final class Page<T> {
+
+    private final List<T> items;
+    private final Long continuationToken;
+
+    /**
+     * Creates new page.
+     *
+     * @param items entities on this page
+     * @param continuationToken id after which the next page starts or null
+     * if this is the last page
+     */
+    public Page(List<T> items, Long continuationToken) {
+        if (items == null) {
+            throw new IllegalArgumentException("items is null");
+        }
+        this.items = Collections.unmodifiableList(items);
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Creates page from the result of query which was limited to
+     * {@code pageSize + 1} rows. The extra row is not included in the page,
+     * it only indicates that there is the next page.
+     *
+     * @param <T> type of entity
+     * @param rows entities returned by the query, ordered by id
+     * @param pageSize requested page size
+     * @param idGetter function for getting id of entity
+     * @return new page
+     */
+    public static <T> Page<T> fromRows(List<T> rows, int pageSize, Function<T, Long> idGetter) {
+        if (rows.size() <= pageSize) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = rows.subList(0, pageSize);
+        return new Page<>(items, idGetter.apply(items.get(pageSize - 1)));
+    }
+
+    /**
+     * Returns entities on this page.
+     *
+     * @return unmodifiable list of entities
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns token which should be passed to the query for getting the next
+     * page.
+     *
+     * @return id after which the next page starts or null if this is the
+     * last page
+     */
+    public Long getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasNext() {
+        return continuationToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{"
+                + "items=" + items
+                + ", continuationToken=" + continuationToken
+                + '}';
+    }
+}
@@ -0,0 +1,691 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * DataSource which keeps a pool of physical connections obtained from another
+ * DataSource and caches prepared statements for each physical connection.
+ *
+ * <p>Connections returned by {@link #getConnection()} are lightweight handles.
+ * Closing the handle returns the physical connection back to the pool (with
+ * autocommit mode switched back on and uncommitted work rolled back). Calling
+ * {@code prepareStatement(sql)} or {@code prepareStatement(sql, autoGeneratedKeys)}
+ * on the handle returns a statement cached under its SQL text, so repeated
+ * calls do not compile the same statement again. Closing such statement
+ * only releases it back to the cache.</p>
+ *
+ * <p>The pool is intended as drop-in replacement of plain DataSource for
+ * managers, e.g. {@code manager.setDataSource(new PooledDataSource(ds))}.</p>
+ *
+ * @author agent
+ */
+public class PooledDataSource implements DataSource, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(
+            PooledDataSource.class.getName());
+
+    public static final int DEFAULT_MAX_POOL_SIZE = 10;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30_000;
+
+    private final DataSource target;
+    private final int maxPoolSize;
+    private final int statementCacheSize;
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private volatile boolean closed;
+
+    private final Semaphore permits;
+    private final BlockingDeque<PhysicalConnection> idleConnections = new LinkedBlockingDeque<>();
+
+    private final LongAdder connectionRequests = new LongAdder();
+    private final LongAdder connectionsCreated = new LongAdder();
+    private final LongAdder connectionsReused = new LongAdder();
+    private final LongAdder connectionsDiscarded = new LongAdder();
+    private final LongAdder connectionWaits = new LongAdder();
+    private final LongAdder connectionWaitNanos = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+
+    /**
+     * Creates pool with default size and statement cache size.
+     *
+     * @param target DataSource providing physical connections
+     */
+    public PooledDataSource(DataSource target) {
+        this(target, DEFAULT_MAX_POOL_SIZE, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates pool.
+     *
+     * @param target DataSource providing physical connections
+     * @param maxPoolSize maximal number of physical connections
+     * @param statementCacheSize maximal number of cached statements per
+     * physical connection, zero disables statement caching
+     */
+    public PooledDataSource(DataSource target, int maxPoolSize, int statementCacheSize) {
+        if (target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("maxPoolSize is not positive number");
+        }
+        if (statementCacheSize < 0) {
+            throw new IllegalArgumentException("statementCacheSize is negative number");
+        }
+        this.target = target;
+        this.maxPoolSize = maxPoolSize;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxPoolSize, true);
+    }
+
+    /**
+     * Sets how long {@link #getConnection()} waits for free connection when
+     * all connections are in use.
+     *
+     * @param maxWaitMillis timeout in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxWaitMillis is negative number");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("DataSource is closed", "08003");
+        }
+        connectionRequests.increment();
+        acquirePermit();
+        try {
+            PhysicalConnection physical = idleConnections.pollFirst();
+            if (physical == null) {
+                physical = new PhysicalConnection(target.getConnection());
+                connectionsCreated.increment();
+            } else {
+                connectionsReused.increment();
+            }
+            return physical.open();
+        } catch (SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private void acquirePermit() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        connectionWaits.increment();
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timeout when waiting for free connection "
+                        + "(pool size " + maxPoolSize + ")", "08001");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted when waiting for free connection", "08001", ex);
+        } finally {
+            connectionWaitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void release(PhysicalConnection physical, boolean broken) {
+        try {
+            if (!broken && !closed && physical.reset()) {
+                idleConnections.offerFirst(physical);
+                if (closed && idleConnections.remove(physical)) {
+                    physical.destroy();
+                }
+            } else {
+                connectionsDiscarded.increment();
+                physical.destroy();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle physical connections and refuses further requests.
+     * Connections which are in use are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PhysicalConnection physical;
+        while ((physical = idleConnections.pollFirst()) != null) {
+            physical.destroy();
+        }
+    }
+
+    /**
+     * Returns snapshot of pool and statement cache statistics.
+     *
+     * @return statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(this);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use credentials of target DataSource");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static boolean isConnectionFailure(Throwable ex) {
+        return ex instanceof SQLException
+                && ((SQLException) ex).getSQLState() != null
+                && ((SQLException) ex).getSQLState().startsWith("08");
+    }
+
+    //--------------------------------------------------------------------------
+    // Physical connection with its statement cache
+    //--------------------------------------------------------------------------
+
+    private static final class StatementKey {
+
+        private final String sql;
+        private final int autoGeneratedKeys;
+
+        StatementKey(String sql, int autoGeneratedKeys) {
+            this.sql = sql;
+            this.autoGeneratedKeys = autoGeneratedKeys;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StatementKey)) {
+                return false;
+            }
+            StatementKey other = (StatementKey) obj;
+            return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sql.hashCode() + autoGeneratedKeys;
+        }
+    }
+
+    private final class PhysicalConnection {
+
+        private final Connection connection;
+        private final int defaultIsolation;
+        private final Map<StatementKey, CachedStatement> statements;
+
+        PhysicalConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.defaultIsolation = connection.getTransactionIsolation();
+            // Access order, so iteration starts with least recently used
+            this.statements = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        Connection open() {
+            ConnectionHandle handle = new ConnectionHandle(this);
+            handle.proxy = (Connection) Proxy.newProxyInstance(
+                    PooledDataSource.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    handle);
+            return handle.proxy;
+        }
+
+        PreparedStatement prepare(ConnectionHandle handle, String sql, int autoGeneratedKeys) throws SQLException {
+            if (statementCacheSize == 0) {
+                statementCacheMisses.increment();
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            StatementKey key = new StatementKey(sql, autoGeneratedKeys);
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.inUse) {
+                // The same statement is already used by the caller, so we
+                // need another (uncached) instance
+                statementCacheMisses.increment();
+                return connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            if (cached == null) {
+                statementCacheMisses.increment();
+                cached = new CachedStatement(connection.prepareStatement(sql, autoGeneratedKeys));
+                statements.put(key, cached);
+            } else {
+                statementCacheHits.increment();
+            }
+            PreparedStatement result = cached.open(handle);
+            evictStatements();
+            return result;
+        }
+
+        /**
+         * Closes least recently used statements which are not in use until
+         * the cache fits into its size. Statements in use are never evicted,
+         * so the cache can temporarily exceed its size when the caller keeps
+         * more statements open.
+         */
+        private void evictStatements() {
+            for (Iterator<CachedStatement> it = statements.values().iterator();
+                    statements.size() > statementCacheSize && it.hasNext();) {
+                CachedStatement cached = it.next();
+                if (!cached.inUse) {
+                    statementCacheEvictions.increment();
+                    cached.destroy();
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Prepares connection for next usage.
+         *
+         * @return true if connection can be returned to the pool
+         */
+        boolean reset() {
+            try {
+                // Statements not closed by the caller are released too, their
+                // proxies are invalidated by the new generation
+                for (CachedStatement cached : statements.values()) {
+                    cached.release();
+                }
+                evictStatements();
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                if (connection.getTransactionIsolation() != defaultIsolation) {
+                    connection.setTransactionIsolation(defaultIsolation);
+                }
+                if (connection.isReadOnly()) {
+                    connection.setReadOnly(false);
+                }
+                connection.clearWarnings();
+                return true;
+            } catch (SQLException ex) {
+                logger.log(Level.WARNING, "Error when resetting pooled connection, connection will be discarded", ex);
+                return false;
+            }
+        }
+
+        void destroy() {
+            for (Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext();) {
+                it.next().destroy();
+                it.remove();
+            }
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, "Error when closing pooled connection", ex);
+            }
+        }
+    }
+
+    private final class ConnectionHandle implements InvocationHandler {
+
+        private final PhysicalConnection physical;
+        private Connection proxy;
+        private boolean closed;
+        private boolean broken;
+
+        ConnectionHandle(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(physical, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + physical.connection;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed", "08003");
+            }
+            try {
+                if ("prepareStatement".equals(method.getName())) {
+                    if (args.length == 1) {
+                        return physical.prepare(this, (String) args[0], java.sql.Statement.NO_GENERATED_KEYS);
+                    }
+                    if (args.length == 2 && method.getParameterTypes()[1] == int.class) {
+                        return physical.prepare(this, (String) args[0], (Integer) args[1]);
+                    }
+                }
+                return PooledDataSource.invoke(physical.connection, method, args);
+            } catch (Throwable ex) {
+                if (isConnectionFailure(ex)) {
+                    broken = true;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Cached statement
+    //--------------------------------------------------------------------------
+
+    private static final class CachedStatement {
+
+        private final PreparedStatement statement;
+        private boolean inUse;
+        // Incremented on each release, proxies of older generations are stale
+        private int generation;
+        private ResultSet lastResultSet;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement open(ConnectionHandle handle) {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(
+                    PooledDataSource.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    new StatementHandle(this, handle, generation));
+        }
+
+        /**
+         * Releases statement back to the cache, so it can be used again.
+         */
+        void release() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            generation++;
+            try {
+                if (lastResultSet != null) {
+                    lastResultSet.close();
+                    lastResultSet = null;
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, "Error when releasing cached statement", ex);
+            }
+        }
+
+        void destroy() {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, "Error when closing cached statement", ex);
+            }
+        }
+    }
+
+    private static final class StatementHandle implements InvocationHandler {
+
+        private final CachedStatement cached;
+        private final ConnectionHandle connectionHandle;
+        private final int generation;
+        private boolean closed;
+
+        StatementHandle(CachedStatement cached, ConnectionHandle connectionHandle, int generation) {
+            this.cached = cached;
+            this.connectionHandle = connectionHandle;
+            this.generation = generation;
+        }
+
+        /**
+         * Statement is closed also when its connection was returned to the
+         * pool, the cached statement may already belong to next borrower.
+         */
+        private boolean isClosed() {
+            return closed || connectionHandle.closed || generation != cached.generation;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!isClosed()) {
+                        cached.release();
+                    }
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached" + cached.statement;
+                default:
+                    break;
+            }
+            if (isClosed()) {
+                throw new SQLException("Statement is closed", "XJ012");
+            }
+            if ("getConnection".equals(method.getName())) {
+                return connectionHandle.proxy;
+            }
+            try {
+                Object result = PooledDataSource.invoke(cached.statement, method, args);
+                if (result instanceof ResultSet && method.getName().startsWith("execute")) {
+                    cached.lastResultSet = (ResultSet) result;
+                }
+                return result;
+            } catch (Throwable ex) {
+                if (isConnectionFailure(ex)) {
+                    connectionHandle.broken = true;
+                }
+                throw ex;
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    // Statistics
+    //--------------------------------------------------------------------------
+
+    /**
+     * Snapshot of pool and statement cache statistics.
+     */
+    public static final class Statistics {
+
+        private final long connectionRequests;
+        private final long connectionsCreated;
+        private final long connectionsReused;
+        private final long connectionsDiscarded;
+        private final long connectionWaits;
+        private final long connectionWaitNanos;
+        private final int idleConnections;
+        private final int activeConnections;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+        private final long statementCacheEvictions;
+
+        private Statistics(PooledDataSource ds) {
+            this.connectionRequests = ds.connectionRequests.sum();
+            this.connectionsCreated = ds.connectionsCreated.sum();
+            this.connectionsReused = ds.connectionsReused.sum();
+            this.connectionsDiscarded = ds.connectionsDiscarded.sum();
+            this.connectionWaits = ds.connectionWaits.sum();
+            this.connectionWaitNanos = ds.connectionWaitNanos.sum();
+            this.idleConnections = ds.idleConnections.size();
+            this.activeConnections = ds.maxPoolSize - ds.permits.availablePermits();
+            this.statementCacheHits = ds.statementCacheHits.sum();
+            this.statementCacheMisses = ds.statementCacheMisses.sum();
+            this.statementCacheEvictions = ds.statementCacheEvictions.sum();
+        }
+
+        public long getConnectionRequests() {
+            return connectionRequests;
+        }
+
+        public long getConnectionsCreated() {
+            return connectionsCreated;
+        }
+
+        public long getConnectionsReused() {
+            return connectionsReused;
+        }
+
+        public long getConnectionsDiscarded() {
+            return connectionsDiscarded;
+        }
+
+        public long getConnectionWaits() {
+            return connectionWaits;
+        }
+
+        public long getConnectionWaitNanos() {
+            return connectionWaitNanos;
+        }
+
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        public int getActiveConnections() {
+            return activeConnections;
+        }
+
+        public long getStatementCacheHits() {
+            return statementCacheHits;
+        }
+
+        public long getStatementCacheMisses() {
+            return statementCacheMisses;
+        }
+
+        public long getStatementCacheEvictions() {
+            return statementCacheEvictions;
+        }
+
+        /**
+         * Returns ratio of connection requests served by already existing
+         * physical connection.
+         *
+         * @return pool hit ratio in range 0..1
+         */
+        public double getPoolHitRatio() {
+            return ratio(connectionsReused, connectionRequests);
+        }
+
+        /**
+         * Returns ratio of prepareStatement calls served from cache.
+         *
+         * @return statement cache hit ratio in range 0..1
+         */
+        public double getStatementCacheHitRatio() {
+            return ratio(statementCacheHits, statementCacheHits + statementCacheMisses);
+        }
+
+        private static double ratio(long part, long total) {
+            return total == 0 ? 0 : (double) part / total;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{"
+                    + "connectionRequests=" + connectionRequests
+                    + ", connectionsCreated=" + connectionsCreated
+                    + ", connectionsReused=" + connectionsReused
+                    + ", connectionsDiscarded=" + connectionsDiscarded
+                    + ", connectionWaits=" + connectionWaits
+                    + ", connectionWaitNanos=" + connectionWaitNanos
+                    + ", idleConnections=" + idleConnections
+                    + ", activeConnections=" + activeConnections
+                    + ", statementCacheHits=" + statementCacheHits
+                    + ", statementCacheMisses=" + statementCacheMisses
+                    + ", statementCacheEvictions=" + statementCacheEvictions
+                    + '}';
+        }
+    }
+}
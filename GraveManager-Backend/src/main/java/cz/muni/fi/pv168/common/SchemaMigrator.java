@@ -0,0 +1,379 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.sql.DataSource;
+
+/**
+ * Applies versioned SQL scripts to the database. Applied versions and
+ * checksums of their scripts are recorded in table {@value #METADATA_TABLE},
+ * so only pending scripts are executed. When no script is pending,
+ * {@link #migrate()} executes just one query.
+ *
+ * <p>Each script is executed together with recording of its version in
+ * single transaction. Checksums of already applied scripts are verified, so
+ * accidental modification of applied script is detected.</p>
+ *
+ * <pre>
+ * SchemaMigrator migrator = new SchemaMigrator(dataSource);
+ * migrator.addMigration(1, "Create tables", getClass().getResource("V1__create_tables.sql"));
+ * migrator.addMigration(2, "Add index", getClass().getResource("V2__add_index.sql"));
+ * migrator.migrate();
+ * </pre>
+ *
+ * @author agent
+ */
+public class SchemaMigrator {
+
+    private static final Logger logger = Logger.getLogger(
+            SchemaMigrator.class.getName());
+
+    /**
+     * Name of table with applied versions.
+     */
+    public static final String METADATA_TABLE = "SCHEMA_VERSION";
+
+    private final DataSource dataSource;
+    private final SortedMap<Integer, Migration> migrations = new TreeMap<>();
+    private int baselineVersion;
+    private String baselineTable;
+    private boolean validateChecksums = true;
+
+    public SchemaMigrator(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Adds migration script.
+     *
+     * @param version version, must be positive and unique
+     * @param description description of the migration
+     * @param script url of SQL script encoded in UTF-8
+     */
+    public void addMigration(int version, String description, URL script) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("version is not positive number");
+        }
+        if (description == null) {
+            throw new IllegalArgumentException("description is null");
+        }
+        if (script == null) {
+            throw new IllegalArgumentException("script is null");
+        }
+        if (migrations.containsKey(version)) {
+            throw new IllegalArgumentException("Migration with version " + version + " already exists");
+        }
+        migrations.put(version, new Migration(version, description, script));
+    }
+
+    /**
+     * Configures baseline for databases created before the migrator was
+     * used. When no version is recorded in table {@value #METADATA_TABLE}
+     * yet (the table may be missing or empty), but given table exists,
+     * migrations up to given version are recorded as applied without
+     * executing them.
+     *
+     * @param version last version which is already present in such database
+     * @param existingTable name of table created by that version
+     */
+    public void setBaseline(int version, String existingTable) {
+        if (existingTable == null) {
+            throw new IllegalArgumentException("existingTable is null");
+        }
+        this.baselineVersion = version;
+        this.baselineTable = existingTable;
+    }
+
+    /**
+     * Sets if checksums of applied scripts are verified, default is true.
+     *
+     * @param validateChecksums true for verifying of checksums
+     */
+    public void setValidateChecksums(boolean validateChecksums) {
+        this.validateChecksums = validateChecksums;
+    }
+
+    /**
+     * Returns the highest version applied to the database.
+     *
+     * @return version or 0 if no migration was applied
+     * @throws ServiceFailureException when the database can not be read
+     */
+    public int getCurrentVersion() throws ServiceFailureException {
+        Map<Integer, Long> applied = readAppliedVersions();
+        return applied == null || applied.isEmpty() ? 0 : new TreeMap<>(applied).lastKey();
+    }
+
+    /**
+     * Applies all pending migrations in order of their versions.
+     *
+     * @return number of applied migrations
+     * @throws ServiceFailureException when some migration fails, or when
+     * checksum of applied script does not match, or when the database
+     * contains version unknown to this migrator
+     */
+    public int migrate() throws ServiceFailureException {
+        Map<Integer, Long> applied = readAppliedVersions();
+        if (applied == null) {
+            createMetadataTable();
+            applied = new HashMap<>();
+        }
+        // The baseline is not recorded together with creating of the 
+        // metadata table, so it is checked whenever no version is recorded
+        if (applied.isEmpty() && baselineTable != null && tableExists(baselineTable)) {
+            applied = baseline();
+        }
+        for (Integer version : applied.keySet()) {
+            if (!migrations.containsKey(version)) {
+                throw new ServiceFailureException("Database contains unknown schema version " + version);
+            }
+        }
+        int count = 0;
+        for (Migration migration : migrations.values()) {
+            Long checksum = applied.get(migration.version);
+            if (checksum == null) {
+                apply(migration);
+                count++;
+            } else if (validateChecksums && checksum != migration.checksum()) {
+                throw new ServiceFailureException("Checksum of applied migration " + migration
+                        + " does not match, the script was modified");
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads applied versions and their checksums.
+     *
+     * @return map of versions to checksums or null if the metadata table
+     * does not exist
+     */
+    private Map<Integer, Long> readAppliedVersions() {
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            String sql = "SELECT version, checksum FROM " + METADATA_TABLE;
+            ResultSet rs;
+            try {
+                st = conn.prepareStatement(sql);
+                rs = st.executeQuery();
+            } catch (SQLException ex) {
+                if (!tableExists(conn, METADATA_TABLE)) {
+                    return null;
+                }
+                // The table was created by another process in the meantime
+                DBUtils.closeQuietly(null, st);
+                st = conn.prepareStatement(sql);
+                rs = st.executeQuery();
+            }
+            Map<Integer, Long> result = new HashMap<>();
+            while (rs.next()) {
+                result.put(rs.getInt("version"), rs.getLong("checksum"));
+            }
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when reading applied schema versions";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private void createMetadataTable() {
+        Connection conn = null;
+        Statement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = conn.createStatement();
+            st.executeUpdate("CREATE TABLE " + METADATA_TABLE + " ("
+                    + "VERSION INTEGER NOT NULL PRIMARY KEY, "
+                    + "DESCRIPTION VARCHAR(200) NOT NULL, "
+                    + "CHECKSUM BIGINT NOT NULL, "
+                    + "INSTALLED_ON TIMESTAMP NOT NULL, "
+                    + "EXECUTION_MILLIS BIGINT NOT NULL)");
+            logger.log(Level.INFO, "Table {0} created", METADATA_TABLE);
+        } catch (SQLException ex) {
+            if (isCreatedConcurrently(conn)) {
+                logger.log(Level.INFO, "Table {0} was created by another process", METADATA_TABLE);
+                return;
+            }
+            String msg = "Error when creating table " + METADATA_TABLE;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private static boolean isCreatedConcurrently(Connection conn) {
+        try {
+            return conn != null && tableExists(conn, METADATA_TABLE);
+        } catch (SQLException ex) {
+            logger.log(Level.WARNING, "Error when checking existence of table " + METADATA_TABLE, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Records baseline versions and returns versions applied to the 
+     * database. When another process records the baseline at the same time,
+     * its versions are returned.
+     */
+    private Map<Integer, Long> baseline() {
+        TransactionRunner tx = new TransactionRunner(dataSource);
+        try {
+            tx.inTransaction(() -> {
+                for (Migration migration : migrations.headMap(baselineVersion + 1).values()) {
+                    recordVersion(tx.getDataSource(), migration, 0);
+                }
+            });
+            logger.log(Level.INFO, "Existing schema recorded as version {0}", baselineVersion);
+        } catch (ServiceFailureException ex) {
+            if (!(ex.getCause() instanceof SQLException)
+                    || !DBUtils.isUniqueViolation((SQLException) ex.getCause())) {
+                throw ex;
+            }
+            logger.log(Level.INFO, "Existing schema was recorded by another process");
+        }
+        return readAppliedVersions();
+    }
+
+    private void apply(Migration migration) {
+        logger.log(Level.INFO, "Applying schema migration {0}", migration);
+        TransactionRunner tx = new TransactionRunner(dataSource);
+        tx.inTransaction(() -> {
+            long start = System.nanoTime();
+            try {
+                new SqlScriptRunner(tx.getDataSource()).run(migration.script);
+            } catch (SQLException ex) {
+                String msg = "Error when applying schema migration " + migration;
+                logger.log(Level.SEVERE, msg, ex);
+                throw new ServiceFailureException(msg, ex);
+            }
+            recordVersion(tx.getDataSource(), migration, (System.nanoTime() - start) / 1_000_000);
+        });
+    }
+
+    private void recordVersion(DataSource ds, Migration migration, long executionMillis) {
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = ds.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            st = conn.prepareStatement("INSERT INTO " + METADATA_TABLE
+                    + " (version, description, checksum, installed_on, execution_millis)"
+                    + " VALUES (?, ?, ?, ?, ?)");
+            st.setInt(1, migration.version);
+            st.setString(2, migration.description);
+            st.setLong(3, migration.checksum());
+            st.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            st.setLong(5, executionMillis);
+            DBUtils.checkUpdatesCount(st.executeUpdate(), migration, true);
+            conn.commit();
+        } catch (SQLException ex) {
+            String msg = "Error when recording schema version " + migration.version;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private boolean tableExists(String table) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            return tableExists(conn, table);
+        } catch (SQLException ex) {
+            String msg = "Error when checking existence of table " + table;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        String[] names = {table, table.toUpperCase(Locale.ROOT), table.toLowerCase(Locale.ROOT)};
+        for (String name : names) {
+            try (ResultSet rs = conn.getMetaData().getTables(null, null, name, null)) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Single migration script.
+     */
+    private static final class Migration {
+
+        private final int version;
+        private final String description;
+        private final URL script;
+        private Long checksum;
+
+        Migration(int version, String description, URL script) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+        }
+
+        /**
+         * Returns CRC32 of the script. Line endings are ignored, so the
+         * checksum does not depend on the platform.
+         *
+         * @return checksum
+         */
+        long checksum() {
+            if (checksum == null) {
+                CRC32 crc = new CRC32();
+                byte[] buffer = new byte[8192];
+                try (InputStream in = script.openStream()) {
+                    int count;
+                    while ((count = in.read(buffer)) >= 0) {
+                        for (int i = 0; i < count; i++) {
+                            if (buffer[i] != '\r') {
+                                crc.update(buffer[i]);
+                            }
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new ServiceFailureException("Cannot read " + script, ex);
+                }
+                checksum = crc.getValue();
+            }
+            return checksum;
+        }
+
+        @Override
+        public String toString() {
+            return "V" + version + " (" + description + ")";
+        }
+    }
+}
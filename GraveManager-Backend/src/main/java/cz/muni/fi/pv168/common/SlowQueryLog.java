@@ -0,0 +1,460 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log of slow SQL statements. Statements prepared by
+ * {@link DBUtils#prepareStatement(java.sql.Connection, String)} are timed
+ * when this log is installed by {@link DBUtils#setSlowQueryLog(SlowQueryLog)}.
+ * Statements which take longer than the threshold are logged with their SQL,
+ * bound parameters, number of rows and calling method, and the slowest
+ * statements are kept in memory, see {@link #getSlowestStatements()}.
+ *
+ * <p>Duration of update is the duration of execute call. Duration of query
+ * is the duration of execute call plus the time spent in
+ * {@link ResultSet#next()}, because rows are usually produced lazily while
+ * the result set is read. Time spent by the caller between reading rows is
+ * not included. The query is recorded when its result set (or the
+ * statement) is closed.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class SlowQueryLog {
+
+    private static final Logger logger = Logger.getLogger(
+            SlowQueryLog.class.getName());
+
+    /**
+     * Default threshold for logging of statement.
+     */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+    /**
+     * Default number of slowest statements kept in memory.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 20;
+
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final long thresholdNanos;
+    private final int maxEntries;
+    private final PriorityQueue<Entry> slowest = new PriorityQueue<>(
+            Comparator.comparingLong(Entry::getDurationNanos));
+    // Statements which are not slower are not kept, so they are recorded 
+    // without locking. Long.MIN_VALUE while there is space for more entries.
+    private volatile long minKeptNanos = Long.MIN_VALUE;
+
+    public SlowQueryLog() {
+        this(DEFAULT_THRESHOLD_MILLIS, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates new log.
+     *
+     * @param thresholdMillis statements taking longer are logged
+     * @param maxEntries number of slowest statements kept in memory
+     */
+    public SlowQueryLog(long thresholdMillis, int maxEntries) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("thresholdMillis is negative number");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries is not positive number");
+        }
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.maxEntries = maxEntries;
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the slowest statements recorded since this log was created or
+     * cleared.
+     *
+     * @return statements ordered from the slowest one
+     */
+    public synchronized List<Entry> getSlowestStatements() {
+        List<Entry> result = new ArrayList<>(slowest);
+        result.sort(Comparator.comparingLong(Entry::getDurationNanos).reversed());
+        return result;
+    }
+
+    /**
+     * Removes all statements kept in memory.
+     */
+    public synchronized void clear() {
+        slowest.clear();
+        minKeptNanos = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns statement which reports its executions to this log.
+     *
+     * @param st statement to be wrapped
+     * @param sql SQL of the statement
+     * @return wrapped statement
+     */
+    PreparedStatement wrap(PreparedStatement st, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new StatementHandler(st, sql));
+    }
+
+    void record(String sql, List<String> parameters, int batchSize, long rows, long durationNanos) {
+        boolean kept = durationNanos > minKeptNanos;
+        boolean logged = durationNanos >= thresholdNanos && logger.isLoggable(Level.WARNING);
+        if (!kept && !logged) {
+            return;
+        }
+        // Walking of the stack is expensive, so it is done without the lock
+        Entry entry = new Entry(sql, parameters, batchSize, rows, durationNanos, findCaller(), Instant.now());
+        if (kept) {
+            synchronized (this) {
+                if (slowest.size() < maxEntries || slowest.peek().durationNanos < durationNanos) {
+                    slowest.add(entry);
+                    if (slowest.size() > maxEntries) {
+                        slowest.poll();
+                    }
+                    if (slowest.size() == maxEntries) {
+                        minKeptNanos = slowest.peek().durationNanos;
+                    }
+                }
+            }
+        }
+        if (logged) {
+            logger.log(Level.WARNING, "Slow statement: {0}", entry);
+        }
+    }
+
+    private static String findCaller() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+            if (!className.startsWith(SlowQueryLog.class.getPackage().getName() + ".")
+                    && !className.startsWith("java.")
+                    && !className.startsWith("javax.")
+                    && !className.startsWith("sun.")
+                    && !className.startsWith("com.sun.")
+                    && !className.startsWith("jdk.")
+                    && !className.contains("$Proxy")) {
+                return className + "." + element.getMethodName();
+            }
+        }
+        return "unknown";
+    }
+
+    private static String formatParameter(Object value) {
+        if (value == null) {
+            return "NULL";
+        }
+        if (value instanceof InputStream || value instanceof Reader
+                || value instanceof byte[] || value instanceof java.sql.Blob
+                || value instanceof java.sql.Clob) {
+            return "<" + value.getClass().getSimpleName() + ">";
+        }
+        String text = String.valueOf(value);
+        if (text.length() > MAX_PARAMETER_LENGTH) {
+            text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+        }
+        return value instanceof String ? "'" + text + "'" : text;
+    }
+
+    /**
+     * Single execution of statement.
+     */
+    public static final class Entry {
+
+        private final String sql;
+        private final List<String> parameters;
+        private final int batchSize;
+        private final long rows;
+        private final long durationNanos;
+        private final String caller;
+        private final Instant timestamp;
+
+        Entry(String sql, List<String> parameters, int batchSize, long rows,
+                long durationNanos, String caller, Instant timestamp) {
+            this.sql = sql;
+            this.parameters = Collections.unmodifiableList(parameters);
+            this.batchSize = batchSize;
+            this.rows = rows;
+            this.durationNanos = durationNanos;
+            this.caller = caller;
+            this.timestamp = timestamp;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Returns formatted values of bound parameters. For batch, these are
+         * parameters of its first row.
+         *
+         * @return parameter values ordered by parameter index
+         */
+        public List<String> getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Returns number of rows in the batch.
+         *
+         * @return batch size or 0 if the statement was not executed as batch
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Returns number of rows returned by query or affected by update.
+         *
+         * @return number of rows or -1 if it is not known
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Returns class and method which executed the statement.
+         *
+         * @return calling method
+         */
+        public String getCaller() {
+            return caller;
+        }
+
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f ms, %d rows%s, %s: %s %s",
+                    durationNanos / 1_000_000.0, rows,
+                    batchSize > 0 ? ", batch of " + batchSize : "",
+                    caller, sql, parameters);
+        }
+    }
+
+    /**
+     * Handler of statement which records bound parameters and times
+     * executions.
+     */
+    private final class StatementHandler implements InvocationHandler {
+
+        private final PreparedStatement statement;
+        private final String sql;
+        private Object[] parameters = new Object[8];
+        private int parameterCount;
+        private List<String> firstBatchParameters;
+        private int batchSize;
+        private long queryNanos;
+        private long queryRows;
+        private List<String> queryParameters;
+        private boolean queryActive;
+
+        StatementHandler(PreparedStatement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer) {
+                setParameter((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else {
+                switch (name) {
+                    case "clearParameters":
+                        Arrays.fill(parameters, null);
+                        parameterCount = 0;
+                        break;
+                    case "addBatch":
+                        if (args == null) {
+                            if (batchSize == 0) {
+                                firstBatchParameters = formatParameters();
+                            }
+                            batchSize++;
+                        }
+                        break;
+                    case "clearBatch":
+                        batchSize = 0;
+                        firstBatchParameters = null;
+                        break;
+                    case "executeQuery":
+                        return executeQuery(method, args);
+                    case "execute":
+                    case "executeUpdate":
+                    case "executeLargeUpdate":
+                    case "executeBatch":
+                    case "executeLargeBatch":
+                        return executeUpdate(method, args);
+                    case "close":
+                        finishQuery();
+                        break;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        break;
+                }
+            }
+            return invokeTarget(statement, method, args);
+        }
+
+        private void setParameter(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+            }
+            parameters[index - 1] = value;
+            parameterCount = Math.max(parameterCount, index);
+        }
+
+        private List<String> formatParameters() {
+            List<String> result = new ArrayList<>(parameterCount);
+            for (int i = 0; i < parameterCount; i++) {
+                result.add(formatParameter(parameters[i]));
+            }
+            return result;
+        }
+
+        private Object executeQuery(Method method, Object[] args) throws Throwable {
+            finishQuery();
+            queryParameters = formatParameters();
+            queryRows = 0;
+            long start = System.nanoTime();
+            ResultSet rs = (ResultSet) invokeTarget(statement, method, args);
+            queryNanos = System.nanoTime() - start;
+            queryActive = true;
+            return Proxy.newProxyInstance(
+                    ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class},
+                    new ResultSetHandler(this, rs));
+        }
+
+        private Object executeUpdate(Method method, Object[] args) throws Throwable {
+            finishQuery();
+            boolean batch = method.getName().endsWith("Batch");
+            List<String> executedParameters = batch && firstBatchParameters != null
+                    ? firstBatchParameters : formatParameters();
+            int executedBatchSize = batch ? batchSize : 0;
+            long start = System.nanoTime();
+            Object result = invokeTarget(statement, method, args);
+            long duration = System.nanoTime() - start;
+            if (batch) {
+                batchSize = 0;
+                firstBatchParameters = null;
+            }
+            record(args == null ? sql : String.valueOf(args[0]), executedParameters,
+                    executedBatchSize, countRows(result), duration);
+            return result;
+        }
+
+        void finishQuery() {
+            if (queryActive) {
+                queryActive = false;
+                record(sql, queryParameters, 0, queryRows, queryNanos);
+            }
+        }
+
+        private long countRows(Object result) {
+            if (result instanceof Integer || result instanceof Long) {
+                return ((Number) result).longValue();
+            }
+            if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(count, 0);
+                }
+                return rows;
+            }
+            if (result instanceof long[]) {
+                long rows = 0;
+                for (long count : (long[]) result) {
+                    rows += Math.max(count, 0);
+                }
+                return rows;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Handler of result set which counts read rows, times reading of them
+     * and reports the query when closed.
+     */
+    private static final class ResultSetHandler implements InvocationHandler {
+
+        private final StatementHandler statementHandler;
+        private final ResultSet resultSet;
+
+        ResultSetHandler(StatementHandler statementHandler, ResultSet resultSet) {
+            this.statementHandler = statementHandler;
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    long start = System.nanoTime();
+                    Object hasNext = invokeTarget(resultSet, method, args);
+                    statementHandler.queryNanos += System.nanoTime() - start;
+                    if ((Boolean) hasNext) {
+                        statementHandler.queryRows++;
+                    }
+                    return hasNext;
+                case "close":
+                    statementHandler.finishQuery();
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            return invokeTarget(resultSet, method, args);
+        }
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Executes SQL scripts. The script is split into statements while it is
+ * read, so also large scripts can be executed with constant memory. All
+ * statements are executed by single {@link Statement} in single transaction,
+ * so the script is either executed completely or not at all. Consecutive
+ * {@code INSERT}, {@code UPDATE}, {@code DELETE} and {@code MERGE} statements
+ * are executed in batches.
+ *
+ * <pre>
+ * new SqlScriptRunner(dataSource).run(getClass().getResource("seed.sql"));
+ * </pre>
+ *
+ * @author agent
+ */
+public class SqlScriptRunner {
+
+    private static final Logger logger = Logger.getLogger(
+            SqlScriptRunner.class.getName());
+
+    /**
+     * Default maximal number of statements in single batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final DataSource dataSource;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private ProgressListener progressListener;
+
+    /**
+     * Listener notified when statements are executed.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * Called after single statement or batch of statements was
+         * executed.
+         *
+         * @param progress information about executed statements
+         */
+        void statementsExecuted(Progress progress);
+    }
+
+    public SqlScriptRunner(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Sets maximal number of statements executed in single batch.
+     *
+     * @param batchSize batch size, 1 turns batching off
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive number");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Executes SQL script encoded in UTF-8.
+     *
+     * @param scriptUrl url of the script
+     * @return number of executed statements
+     * @throws SQLException when some statement fails; the exception has the
+     * same SQL state as the original one and its message contains line of the
+     * failed statement
+     */
+    public int run(URL scriptUrl) throws SQLException {
+        if (scriptUrl == null) {
+            throw new IllegalArgumentException("scriptUrl is null");
+        }
+        try (Reader reader = new InputStreamReader(scriptUrl.openStream(), StandardCharsets.UTF_8)) {
+            return run(reader);
+        } catch (IOException ex) {
+            throw new ServiceFailureException("Cannot read " + scriptUrl, ex);
+        }
+    }
+
+    /**
+     * Executes SQL script. See {@link #run(URL)}.
+     *
+     * @param script reader of the script, it is not closed by this method
+     * @return number of executed statements
+     * @throws SQLException when some statement fails
+     * @throws IOException when the script can not be read
+     */
+    public int run(Reader script) throws SQLException, IOException {
+        SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(
+                script instanceof BufferedReader ? script : new BufferedReader(script));
+        Connection conn = null;
+        Statement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            st = conn.createStatement();
+            Execution execution = new Execution(st);
+            String sql;
+            while ((sql = tokenizer.next()) != null) {
+                execution.add(sql, tokenizer.getStatementLine());
+            }
+            execution.flush();
+            conn.commit();
+            return execution.executed;
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private static boolean isBatchable(String sql) {
+        int end = 0;
+        while (end < sql.length() && Character.isLetter(sql.charAt(end))) {
+            end++;
+        }
+        switch (sql.substring(0, end).toUpperCase(Locale.ROOT)) {
+            case "INSERT":
+            case "UPDATE":
+            case "DELETE":
+            case "MERGE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * State of single script execution.
+     */
+    private final class Execution {
+
+        private final Statement statement;
+        private int executed;
+        private int batched;
+        private String firstBatchedSql;
+        private int[] batchedLines;
+
+        Execution(Statement statement) {
+            this.statement = statement;
+        }
+
+        void add(String sql, int line) throws SQLException {
+            if (batchSize > 1 && isBatchable(sql)) {
+                if (batched == 0) {
+                    firstBatchedSql = sql;
+                }
+                if (batchedLines == null) {
+                    batchedLines = new int[batchSize];
+                }
+                statement.addBatch(sql);
+                batchedLines[batched++] = line;
+                if (batched == batchSize) {
+                    flush();
+                }
+                return;
+            }
+            flush();
+            long start = System.nanoTime();
+            try {
+                statement.execute(sql);
+            } catch (SQLException ex) {
+                throw failure(ex, line);
+            }
+            executed(sql, line, 1, System.nanoTime() - start);
+        }
+
+        void flush() throws SQLException {
+            if (batched == 0) {
+                return;
+            }
+            int count = batched;
+            batched = 0;
+            long start = System.nanoTime();
+            try {
+                statement.executeBatch();
+            } catch (BatchUpdateException ex) {
+                // update counts of statements executed before the failed one
+                int[] counts = ex.getUpdateCounts();
+                int failed = counts == null ? 0 : Math.min(counts.length, count - 1);
+                throw failure(ex, batchedLines[failed]);
+            } catch (SQLException ex) {
+                throw failure(ex, batchedLines[0]);
+            } finally {
+                statement.clearBatch();
+            }
+            executed(firstBatchedSql, batchedLines[0], count, System.nanoTime() - start);
+        }
+
+        private void executed(String sql, int line, int count, long durationNanos) {
+            executed += count;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "Executed {0} statement(s) from line {1} in {2} ms: {3}",
+                        new Object[]{count, line, durationNanos / 1_000_000.0, sql});
+            }
+            if (progressListener != null) {
+                progressListener.statementsExecuted(new Progress(sql, line, count, durationNanos, executed));
+            }
+        }
+
+        private SQLException failure(SQLException ex, int line) {
+            String msg = "Error when executing statement on line " + line + ": " + ex.getMessage();
+            return new SQLException(msg, ex.getSQLState(), ex.getErrorCode(), ex);
+        }
+    }
+
+    /**
+     * Information about executed statement or batch of statements.
+     */
+    public static final class Progress {
+
+        private final String sql;
+        private final int line;
+        private final int statementCount;
+        private final long durationNanos;
+        private final int executedStatements;
+
+        Progress(String sql, int line, int statementCount, long durationNanos, int executedStatements) {
+            this.sql = sql;
+            this.line = line;
+            this.statementCount = statementCount;
+            this.durationNanos = durationNanos;
+            this.executedStatements = executedStatements;
+        }
+
+        /**
+         * Returns executed statement, or the first statement of the batch.
+         *
+         * @return SQL of the statement
+         */
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * Returns line on which the statement (or the first statement of the
+         * batch) starts.
+         *
+         * @return line number starting from 1
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * Returns number of statements executed together.
+         *
+         * @return 1 or size of the batch
+         */
+        public int getStatementCount() {
+            return statementCount;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * Returns number of statements of the script executed so far.
+         *
+         * @return total number of executed statements
+         */
+        public int getExecutedStatements() {
+            return executedStatements;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{"
+                    + "line=" + line
+                    + ", statementCount=" + statementCount
+                    + ", durationNanos=" + durationNanos
+                    + ", executedStatements=" + executedStatements
+                    + ", sql=" + sql
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits SQL script into statements while reading it. Statements are
+ * separated by semicolon; semicolons inside of string literals, quoted
+ * identifiers and comments are ignored. Line ({@code --}) and block
+ * ({@code /* *}{@code /}) comments are removed from returned statements.
+ *
+ * @author agent
+ */
+class SqlScriptTokenizer {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int line = 1;
+    private int statementLine;
+
+    SqlScriptTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Returns line on which the statement returned by last call of
+     * {@link #next()} starts.
+     *
+     * @return line number starting from 1
+     */
+    int getStatementLine() {
+        return statementLine;
+    }
+
+    /**
+     * Reads next statement.
+     *
+     * @return statement without terminating semicolon and surrounding white
+     * space, or null if there is no more statement
+     * @throws IOException when the script can not be read
+     */
+    String next() throws IOException {
+        StringBuilder statement = new StringBuilder();
+        statementLine = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            switch (c) {
+                case ';':
+                    if (statementLine != 0) {
+                        return statement.toString().trim();
+                    }
+                    break;
+                case '\'':
+                case '"':
+                    start(statement);
+                    readQuoted(statement, (char) c);
+                    break;
+                case '-':
+                    if (peek() == '-') {
+                        skipLineComment();
+                        appendSeparator(statement);
+                    } else {
+                        start(statement);
+                        statement.append('-');
+                    }
+                    break;
+                case '/':
+                    if (peek() == '*') {
+                        read();
+                        skipBlockComment();
+                        appendSeparator(statement);
+                    } else {
+                        start(statement);
+                        statement.append('/');
+                    }
+                    break;
+                default:
+                    if (Character.isWhitespace(c)) {
+                        appendSeparator(statement);
+                    } else {
+                        start(statement);
+                        statement.append((char) c);
+                    }
+                    break;
+            }
+        }
+        if (statementLine != 0) {
+            return statement.toString().trim();
+        }
+        return null;
+    }
+
+    private void start(StringBuilder statement) {
+        if (statementLine == 0) {
+            statementLine = line;
+        }
+    }
+
+    private void appendSeparator(StringBuilder statement) {
+        if (statementLine != 0 && statement.charAt(statement.length() - 1) != ' ') {
+            statement.append(' ');
+        }
+    }
+
+    private void readQuoted(StringBuilder statement, char quote) throws IOException {
+        statement.append(quote);
+        int c;
+        while ((c = read()) >= 0) {
+            statement.append((char) c);
+            if (c == quote) {
+                if (peek() == quote) {
+                    // doubled quote is escaped quote
+                    statement.append((char) read());
+                } else {
+                    return;
+                }
+            }
+        }
+        throw new IOException("Unterminated " + (quote == '\'' ? "string literal" : "quoted identifier")
+                + " starting on line " + statementLine);
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != '\n') {
+            // skip comment
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '*' && peek() == '/') {
+                read();
+                return;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        char c = buffer[position++];
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, BUFFER_SIZE);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
@@ -0,0 +1,326 @@
+package cz.muni.fi.pv168.common;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Executes several operations of managers in single database transaction.
+ *
+ * <p>Managers must use DataSource returned by {@link #getDataSource()}. When
+ * a manager is called outside of {@link #inTransaction(Work)}, this DataSource
+ * behaves exactly as the target DataSource. Inside of the transaction, all
+ * connections obtained from it share single physical connection and the
+ * transaction is controlled by the runner: calling {@code setAutoCommit},
+ * {@code commit} or {@code close} on such connection has no effect, and
+ * {@code rollback} called after an unfinished unit of work (i.e. after
+ * {@code setAutoCommit(false)} without subsequent {@code commit}) marks the
+ * transaction as rollback only. So existing manager methods join the
+ * transaction without any change and whole workflow costs one commit.</p>
+ *
+ * <pre>
+ * TransactionRunner tx = new TransactionRunner(dataSource);
+ * bodyManager.setDataSource(tx.getDataSource());
+ * cemeteryManager.setDataSource(tx.getDataSource());
+ * tx.inTransaction(() -&gt; {
+ *     bodyManager.createBody(body);
+ *     cemeteryManager.putBodyIntoGrave(body, grave);
+ * });
+ * </pre>
+ *
+ * <p>Nested calls of {@code inTransaction} join the outer transaction.</p>
+ *
+ * @author agent
+ */
+public class TransactionRunner {
+
+    private static final Logger logger = Logger.getLogger(
+            TransactionRunner.class.getName());
+
+    private static final ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>();
+
+    private final DataSource target;
+    private final DataSource transactionAwareDataSource = new TransactionAwareDataSource();
+
+    /**
+     * Unit of work executed in transaction.
+     *
+     * @param <T> type of result
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T execute();
+    }
+
+    public TransactionRunner(DataSource target) {
+        if (target == null) {
+            throw new IllegalArgumentException("target is null");
+        }
+        this.target = target;
+    }
+
+    /**
+     * Returns DataSource which should be used by managers to take part in
+     * transactions of this runner.
+     *
+     * @return transaction aware DataSource
+     */
+    public DataSource getDataSource() {
+        return transactionAwareDataSource;
+    }
+
+    /**
+     * Executes given work in transaction and returns its result. Transaction
+     * is committed when the work is finished, or rolled back when the work
+     * throws an exception.
+     *
+     * @param <T> type of result
+     * @param work work to be executed
+     * @return result of the work
+     * @throws ServiceFailureException when transaction can not be started or
+     * committed, or when the transaction was marked as rollback only by
+     * some operation whose failure was suppressed by the work
+     */
+    public <T> T inTransaction(Work<T> work) throws ServiceFailureException {
+        if (work == null) {
+            throw new IllegalArgumentException("work is null");
+        }
+        Transaction current = currentTransaction.get();
+        if (current != null) {
+            if (current.runner != this) {
+                throw new IllegalStateException("Another transaction is already active in this thread");
+            }
+            return work.execute();
+        }
+        Connection conn = null;
+        Transaction transaction = null;
+        try {
+            conn = target.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            transaction = new Transaction(this, conn);
+            currentTransaction.set(transaction);
+            T result = work.execute();
+            if (transaction.rollbackOnly) {
+                throw new ServiceFailureException("Transaction was marked as rollback only");
+            }
+            conn.commit();
+            currentTransaction.remove();
+            transaction.runAfterCommitCallbacks();
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when executing transaction";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            if (transaction != null && currentTransaction.get() == transaction) {
+                currentTransaction.remove();
+            }
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Executes given work in transaction. See {@link #inTransaction(Work)}.
+     *
+     * @param work work to be executed
+     * @throws ServiceFailureException when transaction can not be started or
+     * committed
+     */
+    public void inTransaction(Runnable work) throws ServiceFailureException {
+        if (work == null) {
+            throw new IllegalArgumentException("work is null");
+        }
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Returns true if some transaction is active in the current thread.
+     *
+     * @return true if some transaction is active
+     */
+    public static boolean isTransactionActive() {
+        return currentTransaction.get() != null;
+    }
+
+    /**
+     * Executes given callback after the transaction active in the current
+     * thread is committed. Callbacks are not executed when the transaction is
+     * rolled back. When there is no active transaction, the callback is
+     * executed immediately. This is useful for updating of in-memory
+     * structures which must reflect only committed data.
+     *
+     * @param callback callback to be executed
+     */
+    public static void afterCommit(Runnable callback) {
+        Transaction transaction = currentTransaction.get();
+        if (transaction == null) {
+            callback.run();
+        } else {
+            transaction.afterCommitCallbacks.add(callback);
+        }
+    }
+
+    private static final class Transaction {
+
+        private final TransactionRunner runner;
+        private final Connection connection;
+        private final List<Runnable> afterCommitCallbacks = new ArrayList<>();
+        private boolean rollbackOnly;
+
+        Transaction(TransactionRunner runner, Connection connection) {
+            this.runner = runner;
+            this.connection = connection;
+        }
+
+        void runAfterCommitCallbacks() {
+            for (Runnable callback : afterCommitCallbacks) {
+                try {
+                    callback.run();
+                } catch (RuntimeException ex) {
+                    logger.log(Level.SEVERE, "Error when executing after commit callback", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connection handle used by manager inside of transaction.
+     */
+    private static final class ParticipantHandle implements InvocationHandler {
+
+        private final Transaction transaction;
+        private boolean unitOfWorkStarted;
+        private boolean closed;
+
+        ParticipantHandle(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "TransactionParticipant" + transaction.connection;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection is closed", "08003");
+            }
+            switch (method.getName()) {
+                case "setAutoCommit":
+                    if (!(Boolean) args[0]) {
+                        unitOfWorkStarted = true;
+                    }
+                    return null;
+                case "getAutoCommit":
+                    return false;
+                case "commit":
+                    unitOfWorkStarted = false;
+                    return null;
+                case "rollback":
+                    if (args == null || args.length == 0) {
+                        if (unitOfWorkStarted) {
+                            transaction.rollbackOnly = true;
+                            unitOfWorkStarted = false;
+                        }
+                        return null;
+                    }
+                    break;
+                case "setTransactionIsolation":
+                    // Isolation level can not be changed inside of transaction
+                    return null;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(transaction.connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+
+    private final class TransactionAwareDataSource implements DataSource {
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Transaction transaction = currentTransaction.get();
+            if (transaction == null || transaction.runner != TransactionRunner.this) {
+                return target.getConnection();
+            }
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new ParticipantHandle(transaction));
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new SQLFeatureNotSupportedException("Use getConnection() instead");
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return target.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            target.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            target.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return target.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return target.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return iface.cast(this);
+            }
+            return target.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || target.isWrapperFor(iface);
+        }
+    }
+}
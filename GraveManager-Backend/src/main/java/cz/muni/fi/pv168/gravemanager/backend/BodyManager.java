@@ -1,9 +1,12 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
+import cz.muni.fi.pv168.common.BatchResult;
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import cz.muni.fi.pv168.common.ValidationException;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This service allows to manipulate with bodies.
@@ -26,6 +29,25 @@ public interface BodyManager {
      */
     void createBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException;
     
+    /**
+     * Stores new bodies into database. Bodies are validated one by one and
+     * inserted in batches, which are committed periodically, so the whole
+     * input is never held in the memory. Bodies which break validation rules
+     * (see {@link #createBody(Body)}), have already assigned id or are null are
+     * skipped and reported in the returned result; the rest of bodies is
+     * stored. Id for each stored body is automatically generated and stored
+     * into id attribute.
+     * 
+     * <p>When db operation fails, bodies from already committed batches stay
+     * stored in the database and have their id set.</p>
+     * 
+     * @param bodies bodies to be created.
+     * @return result with number of created bodies and list of skipped bodies.
+     * @throws IllegalArgumentException when bodies is null.
+     * @throws ServiceFailureException when db operation fails.
+     */
+    BatchResult<Body> createBodies(Iterable<Body> bodies) throws ServiceFailureException;
+    
     /**
      * Returns body with given id.
      * 
@@ -66,5 +88,44 @@ public interface BodyManager {
      * @throws ServiceFailureException when db operation fails.
      */
     List<Body> findAllBodies() throws ServiceFailureException;
+
+    /**
+     * Returns one page of bodies ordered by id. Use this method instead of
+     * {@link #findAllBodies()} for iterating over large number of bodies.
+     * 
+     * @param afterId continuation token returned with the previous page 
+     * (only bodies with greater id are returned), or null for the first page
+     * @param pageSize maximal number of bodies on the page
+     * @return page of bodies
+     * @throws IllegalArgumentException when pageSize is not positive number
+     * @throws ServiceFailureException when db operation fails.
+     */
+    Page<Body> findAllBodies(Long afterId, int pageSize) throws ServiceFailureException;
+
+    /**
+     * Passes all bodies in the database, ordered by id, to given action.
+     * Bodies are read from the database continuously, they are not loaded
+     * into memory at once. Same as {@code forEachBody(action, false)}.
+     * 
+     * @param action action to be performed for each body
+     * @throws IllegalArgumentException when action is null
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void forEachBody(Consumer<? super Body> action) throws ServiceFailureException;
+
+    /**
+     * Passes all bodies in the database, ordered by id, to given action.
+     * Bodies are read from the database continuously, they are not loaded
+     * into memory at once. When reuseInstance is true, the same body 
+     * instance is filled with values of each row and passed to the action, so
+     * the action must not keep reference to it. Exceptions thrown by the 
+     * action stop the iteration and they are propagated to the caller.
+     * 
+     * @param action action to be performed for each body
+     * @param reuseInstance if single body instance should be reused for all rows
+     * @throws IllegalArgumentException when action is null
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void forEachBody(Consumer<? super Body> action, boolean reuseInstance) throws ServiceFailureException;
     
 }
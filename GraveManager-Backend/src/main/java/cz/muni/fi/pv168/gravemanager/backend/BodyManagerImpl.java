@@ -1,7 +1,11 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
+import cz.muni.fi.pv168.common.BatchInsert;
+import cz.muni.fi.pv168.common.BatchResult;
 import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.Dialect;
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import cz.muni.fi.pv168.common.ValidationException;
 import java.sql.Connection;
@@ -13,7 +17,9 @@ import java.sql.Statement;
 import java.time.Clock;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -28,8 +34,31 @@ public class BodyManagerImpl implements BodyManager {
     private static final Logger logger = Logger.getLogger(
             BodyManagerImpl.class.getName());    
     
+    /**
+     * Default number of rows sent to the database in single batch by
+     * {@link #createBodies(Iterable)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default number of rows committed in single transaction by
+     * {@link #createBodies(Iterable)}.
+     */
+    public static final int DEFAULT_COMMIT_INTERVAL = 5000;
+
+    /**
+     * Default number of rows fetched from the database at once by
+     * {@link #forEachBody(Consumer, boolean)}.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     private DataSource dataSource;
+    private volatile Dialect dialect;
     private final Clock clock;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private CemeteryEventBus eventBus;
 
     public BodyManagerImpl(Clock clock) {
         this.clock = clock;
@@ -37,6 +66,65 @@ public class BodyManagerImpl implements BodyManager {
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
+        this.dialect = null;
+    }
+
+    /**
+     * Sets SQL dialect of the database. When it is not set, it is detected
+     * from the first connection.
+     * 
+     * @param dialect dialect or null for detecting it
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Sets number of rows sent to the database in single batch by
+     * {@link #createBodies(Iterable)}.
+     * 
+     * @param batchSize batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive number");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets number of rows fetched from the database at once by 
+     * {@link #forEachBody(Consumer, boolean)}.
+     * 
+     * @param fetchSize fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize is not positive number");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Sets number of rows committed in single transaction by
+     * {@link #createBodies(Iterable)}.
+     * 
+     * @param commitInterval number of rows per transaction
+     */
+    public void setCommitInterval(int commitInterval) {
+        if (commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval is not positive number");
+        }
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Sets bus to which changes of bodies are published after commit.
+     * 
+     * @param eventBus event bus or null for not publishing the changes
+     */
+    public void setEventBus(CemeteryEventBus eventBus) {
+        this.eventBus = eventBus;
     }
 
     private void checkDataSource() {
@@ -45,6 +133,21 @@ public class BodyManagerImpl implements BodyManager {
         }
     }
 
+    private Dialect getDialect(Connection conn) throws SQLException {
+        Dialect result = dialect;
+        if (result == null) {
+            result = Dialect.of(conn);
+            dialect = result;
+        }
+        return result;
+    }
+
+    private void publishAfterCommit(CemeteryEvent.Type type, Long bodyId) {
+        if (eventBus != null) {
+            eventBus.publishAfterCommit(CemeteryEvent.bodyChanged(type, bodyId));
+        }
+    }
+
     @Override
     public List<Body> findAllBodies() throws ServiceFailureException {
         checkDataSource();
@@ -52,7 +155,7 @@ public class BodyManagerImpl implements BodyManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT id, name, gender, born, died, vampire FROM Body");
             return executeQueryForMultipleBodies(st);
         } catch (SQLException ex) {
@@ -64,6 +167,64 @@ public class BodyManagerImpl implements BodyManager {
         }          
     }
 
+    @Override
+    public void forEachBody(Consumer<? super Body> action) throws ServiceFailureException {
+        forEachBody(action, false);
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action, boolean reuseInstance) throws ServiceFailureException {
+        checkDataSource();
+        if (action == null) {
+            throw new IllegalArgumentException("action is null");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, name, gender, born, died, vampire FROM Body ORDER BY id");
+            st.setFetchSize(fetchSize);
+            ResultSet rs = st.executeQuery();
+            Body reused = reuseInstance ? new Body() : null;
+            while (rs.next()) {
+                action.accept(rowToBody(rs, reuseInstance ? reused : new Body()));
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when iterating over all bodies in DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public Page<Body> findAllBodies(Long afterId, int pageSize) throws ServiceFailureException {
+        checkDataSource();
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize is not positive number");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // One extra row is fetched to find out if there is the next page
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, name, gender, born, died, vampire FROM Body " +
+                    "WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, afterId == null ? 0 : afterId);
+            st.setInt(2, Math.min(pageSize, Integer.MAX_VALUE - 1) + 1);
+            return Page.fromRows(executeQueryForMultipleBodies(st), pageSize, Body::getId);
+        } catch (SQLException ex) {
+            String msg = "Error when getting page of bodies after id " + afterId + " from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
     @Override
     public void createBody(Body body) throws ServiceFailureException {
         checkDataSource();
@@ -78,7 +239,7 @@ public class BodyManagerImpl implements BodyManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "INSERT INTO Body (name,gender,born,died,vampire) VALUES (?,?,?,?,?)",
                     Statement.RETURN_GENERATED_KEYS);
             st.setString(1, body.getName());
@@ -99,6 +260,7 @@ public class BodyManagerImpl implements BodyManager {
             Long id = DBUtils.getId(st.getGeneratedKeys());
             body.setId(id);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.BODY_CREATED, id);
         } catch (SQLException ex) {
             String msg = "Error when inserting grave into db";
             logger.log(Level.SEVERE, msg, ex);
@@ -109,6 +271,98 @@ public class BodyManagerImpl implements BodyManager {
         }
     }
 
+    @Override
+    public BatchResult<Body> createBodies(Iterable<Body> bodies) throws ServiceFailureException {
+        checkDataSource();
+        if (bodies == null) {
+            throw new IllegalArgumentException("bodies is null");
+        }
+        BatchResult<Body> result = new BatchResult<>();
+        List<Body> uncommitted = new ArrayList<>(Math.min(commitInterval, 1024));
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            BatchInsert insert = getDialect(conn).prepareBatchInsert(conn, "Body",
+                    "INSERT INTO Body (name,gender,born,died,vampire) VALUES (?,?,?,?,?)");
+            st = insert.getStatement();
+            int rowsInBatch = 0;
+            for (Body body : bodies) {
+                try {
+                    validate(body);
+                    if (body.getId() != null) {
+                        throw new IllegalEntityException("body id is already set");
+                    }
+                } catch (IllegalArgumentException | ValidationException | IllegalEntityException ex) {
+                    result.addFailure(body, ex);
+                    continue;
+                }
+                if (uncommitted.isEmpty()) {
+                    insert.begin();
+                }
+                st.setString(1, body.getName());
+                st.setString(2, toString(body.getGender()));
+                st.setDate(3, toSqlDate(body.getBorn()));
+                st.setDate(4, toSqlDate(body.getDied()));
+                st.setInt(5, body.isVampire()?1:0);
+                st.addBatch();
+                uncommitted.add(body);
+                if (++rowsInBatch == batchSize) {
+                    insert.executeBatch();
+                    rowsInBatch = 0;
+                }
+                if (uncommitted.size() == commitInterval) {
+                    if (rowsInBatch > 0) {
+                        insert.executeBatch();
+                        rowsInBatch = 0;
+                    }
+                    commitBodies(conn, insert, uncommitted, result);
+                }
+            }
+            if (rowsInBatch > 0) {
+                insert.executeBatch();
+            }
+            if (!uncommitted.isEmpty()) {
+                commitBodies(conn, insert, uncommitted, result);
+            }
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when inserting bodies into db, "
+                    + result.getProcessedCount() + " bodies already stored";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private void commitBodies(Connection conn, BatchInsert insert, List<Body> uncommitted,
+            BatchResult<Body> result) throws SQLException {
+        List<Long> ids = insert.getGeneratedIds();
+        if (ids.size() != uncommitted.size()) {
+            throw new ServiceFailureException("Internal integrity error: "
+                    + uncommitted.size() + " bodies inserted, but " + ids.size() + " ids generated");
+        }
+        conn.commit();
+        Iterator<Long> idIterator = ids.iterator();
+        for (Body body : uncommitted) {
+            body.setId(idIterator.next());
+        }
+        if (eventBus != null) {
+            List<CemeteryEvent> events = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                events.add(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_CREATED, id));
+            }
+            eventBus.publishAfterCommit(events);
+        }
+        result.addProcessed(uncommitted.size());
+        uncommitted.clear();
+    }
+
     @Override
     public Body getBody(Long id) throws ServiceFailureException {
 
@@ -122,7 +376,7 @@ public class BodyManagerImpl implements BodyManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT id, name, gender, born, died, vampire FROM Body WHERE id = ?");
             st.setLong(1, id);
             return executeQueryForSingleBody(st);
@@ -150,7 +404,7 @@ public class BodyManagerImpl implements BodyManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);            
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "UPDATE Body SET name = ?, gender = ?, born = ?, died = ?, vampire = ? WHERE id = ?");
             st.setString(1, body.getName());
             st.setString(2, toString(body.getGender()));
@@ -168,6 +422,7 @@ public class BodyManagerImpl implements BodyManager {
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, body, false);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.BODY_UPDATED, body.getId());
         } catch (SQLException ex) {
             String msg = "Error when updating body in the db";
             logger.log(Level.SEVERE, msg, ex);
@@ -189,26 +444,35 @@ public class BodyManagerImpl implements BodyManager {
             throw new IllegalEntityException("body id is null");
         }        
         Connection conn = null;
+        PreparedStatement occupancySt = null;
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            // Release the place in grave, if the body is buried
+            occupancySt = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET occupied = occupied - 1 " +
+                    "WHERE id = (SELECT graveId FROM Body WHERE id = ?)");
+            occupancySt.setLong(1, body.getId());
+            occupancySt.executeUpdate();
+
+            st = DBUtils.prepareStatement(conn,
                     "DELETE FROM Body WHERE id = ?");
             st.setLong(1, body.getId());
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, body, false);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.BODY_DELETED, body.getId());
         } catch (SQLException ex) {
             String msg = "Error when deleting body from the db";
             logger.log(Level.SEVERE, msg, ex);
             throw new ServiceFailureException(msg, ex);
         } finally {
             DBUtils.doRollbackQuietly(conn);
-            DBUtils.closeQuietly(conn, st);
+            DBUtils.closeQuietly(conn, occupancySt, st);
         }
     }
 
@@ -235,8 +499,11 @@ public class BodyManagerImpl implements BodyManager {
         return result;
     }
 
-    static private Body rowToBody(ResultSet rs) throws SQLException {
-        Body result = new Body();
+    static Body rowToBody(ResultSet rs) throws SQLException {
+        return rowToBody(rs, new Body());
+    }
+
+    static private Body rowToBody(ResultSet rs, Body result) throws SQLException {
         result.setId(rs.getLong("id"));
         result.setName(rs.getString("name"));
         result.setGender(toGender(rs.getString("gender")));
@@ -0,0 +1,189 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.BatchResult;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.LruCache;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.TransactionRunner;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link BodyManager} which caches bodies returned by
+ * {@link #getBody(Long)}. The cache is limited by size, the least recently 
+ * used bodies are evicted. Cached body is invalidated when it is updated
+ * or deleted through this manager. To follow changes made by other
+ * managers (e.g. bodies deleted together with their graves by
+ * {@link GraveManager#deleteGraves}), subscribe this manager to the
+ * {@link CemeteryEventBus} shared with them. Changes made by other means
+ * (e.g. by another application) are not detected, call
+ * {@link #invalidate(Long)} or {@link #invalidateAll()} in such case.
+ *
+ * <p>Inside of {@link TransactionRunner} transaction, the changed body is
+ * invalidated again after the commit, because it could be cached by 
+ * concurrent reader before the change was committed.</p>
+ *
+ * <p>Bodies are mutable, so copies of cached bodies are returned.</p>
+ *
+ * @author agent
+ */
+public class CachingBodyManager implements BodyManager, CemeteryEventListener {
+
+    /**
+     * Default maximal number of cached bodies.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final BodyManager delegate;
+    private final LruCache<Long, Body> cache;
+
+    public CachingBodyManager(BodyManager delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingBodyManager(BodyManager delegate, int maxSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    @Override
+    public void createBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        delegate.createBody(body);
+    }
+
+    @Override
+    public BatchResult<Body> createBodies(Iterable<Body> bodies) throws ServiceFailureException {
+        return delegate.createBodies(bodies);
+    }
+
+    @Override
+    public Body getBody(Long id) throws ServiceFailureException {
+        if (id == null) {
+            return delegate.getBody(id);
+        }
+        Body cached = cache.get(id);
+        if (cached != null) {
+            return copy(cached);
+        }
+        long invalidationCount = cache.getInvalidationCount();
+        Body body = delegate.getBody(id);
+        if (body != null) {
+            cache.putIfNotInvalidatedSince(id, copy(body), invalidationCount);
+        }
+        return body;
+    }
+
+    @Override
+    public void updateBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        try {
+            delegate.updateBody(body);
+        } finally {
+            invalidateNowAndAfterCommit(body == null ? null : body.getId());
+        }
+    }
+
+    @Override
+    public void deleteBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        Long id = body == null ? null : body.getId();
+        try {
+            delegate.deleteBody(body);
+        } finally {
+            invalidateNowAndAfterCommit(id);
+        }
+    }
+
+    @Override
+    public List<Body> findAllBodies() throws ServiceFailureException {
+        return delegate.findAllBodies();
+    }
+
+    @Override
+    public Page<Body> findAllBodies(Long afterId, int pageSize) throws ServiceFailureException {
+        return delegate.findAllBodies(afterId, pageSize);
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action) throws ServiceFailureException {
+        delegate.forEachBody(action);
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action, boolean reuseInstance) throws ServiceFailureException {
+        delegate.forEachBody(action, reuseInstance);
+    }
+
+    /**
+     * Invalidates cached body which was updated or deleted.
+     *
+     * @param event the change
+     */
+    @Override
+    public void onEvent(CemeteryEvent event) {
+        switch (event.getType()) {
+            case BODY_UPDATED:
+            case BODY_DELETED:
+                invalidate(event.getBodyId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Invalidates all cached bodies, because some changes were not delivered.
+     */
+    @Override
+    public void onEventsDropped() {
+        invalidateAll();
+    }
+
+    /**
+     * Removes body with given id from the cache.
+     *
+     * @param id id of the body
+     */
+    public void invalidate(Long id) {
+        if (id != null) {
+            cache.remove(id);
+        }
+    }
+
+    private void invalidateNowAndAfterCommit(Long id) {
+        invalidate(id);
+        if (id != null && TransactionRunner.isTransactionActive()) {
+            TransactionRunner.afterCommit(() -> invalidate(id));
+        }
+    }
+
+    /**
+     * Removes all bodies from the cache.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * Returns statistics of the cache usage.
+     *
+     * @return cache statistics
+     */
+    public LruCache.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    private static Body copy(Body body) {
+        Body result = new Body();
+        result.setId(body.getId());
+        result.setName(body.getName());
+        result.setGender(body.getGender());
+        result.setBorn(body.getBorn());
+        result.setDied(body.getDied());
+        result.setVampire(body.isVampire());
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.LruCache;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.TransactionRunner;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link GraveManager} which caches graves returned by
+ * {@link #getGrave(Long)}. The cache is limited by size, the least recently 
+ * used graves are evicted. Cached grave is invalidated when it is updated
+ * or deleted through this manager. To follow changes made by other
+ * managers, subscribe this manager to the {@link CemeteryEventBus} 
+ * shared with them. Changes made by other means (e.g. by another 
+ * application) are not detected, call {@link #invalidate(Long)} or 
+ * {@link #invalidateAll()} in such case.
+ *
+ * <p>Inside of {@link TransactionRunner} transaction, the changed grave is
+ * invalidated again after the commit, because it could be cached by 
+ * concurrent reader before the change was committed.</p>
+ *
+ * <p>Graves are mutable, so copies of cached graves are returned.</p>
+ *
+ * @author agent
+ */
+public class CachingGraveManager implements GraveManager, CemeteryEventListener {
+
+    /**
+     * Default maximal number of cached graves.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final GraveManager delegate;
+    private final LruCache<Long, Grave> cache;
+
+    public CachingGraveManager(GraveManager delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingGraveManager(GraveManager delegate, int maxSize) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    @Override
+    public void createGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        delegate.createGrave(grave);
+    }
+
+    @Override
+    public void createGraves(Collection<Grave> graves) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        delegate.createGraves(graves);
+    }
+
+    @Override
+    public Grave getGrave(Long id) throws ServiceFailureException {
+        if (id == null) {
+            return delegate.getGrave(id);
+        }
+        Grave cached = cache.get(id);
+        if (cached != null) {
+            return copy(cached);
+        }
+        long invalidationCount = cache.getInvalidationCount();
+        Grave grave = delegate.getGrave(id);
+        if (grave != null) {
+            cache.putIfNotInvalidatedSince(id, copy(grave), invalidationCount);
+        }
+        return grave;
+    }
+
+    @Override
+    public void updateGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        try {
+            delegate.updateGrave(grave);
+        } finally {
+            invalidateNowAndAfterCommit(grave == null ? null : grave.getId());
+        }
+    }
+
+    @Override
+    public void deleteGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        Long id = grave == null ? null : grave.getId();
+        try {
+            delegate.deleteGrave(grave);
+        } finally {
+            invalidateNowAndAfterCommit(id);
+        }
+    }
+
+    @Override
+    public void deleteGraves(Collection<Grave> graves, OccupiedGravePolicy policy) throws ServiceFailureException, IllegalEntityException {
+        try {
+            delegate.deleteGraves(graves, policy);
+        } finally {
+            if (graves != null) {
+                for (Grave grave : graves) {
+                    if (grave != null) {
+                        invalidateNowAndAfterCommit(grave.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Grave> findAllGraves() throws ServiceFailureException {
+        return delegate.findAllGraves();
+    }
+
+    @Override
+    public Page<Grave> findAllGraves(Long afterId, int pageSize) throws ServiceFailureException {
+        return delegate.findAllGraves(afterId, pageSize);
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action) throws ServiceFailureException {
+        delegate.forEachGrave(action);
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action, boolean reuseInstance) throws ServiceFailureException {
+        delegate.forEachGrave(action, reuseInstance);
+    }
+
+    @Override
+    public Grave getGraveAt(int row, int column) throws ServiceFailureException {
+        return delegate.getGraveAt(row, column);
+    }
+
+    @Override
+    public List<Grave> findGravesInArea(int rowFrom, int rowTo, int columnFrom, int columnTo) throws ServiceFailureException {
+        return delegate.findGravesInArea(rowFrom, rowTo, columnFrom, columnTo);
+    }
+
+    /**
+     * Invalidates cached grave which was updated or deleted.
+     *
+     * @param event the change
+     */
+    @Override
+    public void onEvent(CemeteryEvent event) {
+        switch (event.getType()) {
+            case GRAVE_UPDATED:
+            case GRAVE_DELETED:
+                invalidate(event.getGraveId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Invalidates all cached graves, because some changes were not delivered.
+     */
+    @Override
+    public void onEventsDropped() {
+        invalidateAll();
+    }
+
+    /**
+     * Removes grave with given id from the cache.
+     *
+     * @param id id of the grave
+     */
+    public void invalidate(Long id) {
+        if (id != null) {
+            cache.remove(id);
+        }
+    }
+
+    private void invalidateNowAndAfterCommit(Long id) {
+        invalidate(id);
+        if (id != null && TransactionRunner.isTransactionActive()) {
+            TransactionRunner.afterCommit(() -> invalidate(id));
+        }
+    }
+
+    /**
+     * Removes all graves from the cache.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     * Returns statistics of the cache usage.
+     *
+     * @return cache statistics
+     */
+    public LruCache.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
+    private static Grave copy(Grave grave) {
+        Grave result = new Grave();
+        result.setId(grave.getId());
+        result.setRow(grave.getRow());
+        result.setColumn(grave.getColumn());
+        result.setCapacity(grave.getCapacity());
+        result.setNote(grave.getNote());
+        return result;
+    }
+}
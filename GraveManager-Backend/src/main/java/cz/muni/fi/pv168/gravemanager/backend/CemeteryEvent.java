@@ -0,0 +1,144 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import java.util.Objects;
+
+/**
+ * Change of graves or bodies published by managers to
+ * {@link CemeteryEventBus} after the change is committed. Event carries only
+ * ids of changed entities, listeners which need current state of the entity
+ * should load it from the manager.
+ *
+ * <p>This class is immutable.</p>
+ *
+ * @author agent
+ */
+public final class CemeteryEvent {
+
+    /**
+     * Type of the change.
+     */
+    public enum Type {
+        /** Grave was created. */
+        GRAVE_CREATED,
+        /** Grave was updated, or its occupancy was repaired. */
+        GRAVE_UPDATED,
+        /** Grave was deleted. */
+        GRAVE_DELETED,
+        /**
+         * All bodies were removed from the grave, or they were deleted
+         * together with the grave. Removed bodies are not reported one by
+         * one, deleted bodies are reported by {@link #BODY_DELETED} before
+         * this event.
+         */
+        GRAVE_EMPTIED,
+        /** Places in the grave were reserved. */
+        GRAVE_RESERVED,
+        /** Reservation of places in the grave was cancelled. */
+        GRAVE_RESERVATION_CANCELLED,
+        /** Body was created. */
+        BODY_CREATED,
+        /** Body was updated. */
+        BODY_UPDATED,
+        /** Body was deleted. */
+        BODY_DELETED,
+        /** Body was put into the grave. */
+        BODY_BURIED,
+        /** Body was removed from the grave. */
+        BODY_EXHUMED,
+        /** Body was moved from the previous grave into the grave. */
+        BODY_MOVED
+    }
+
+    private final Type type;
+    private final Long bodyId;
+    private final Long graveId;
+    private final Long previousGraveId;
+
+    private CemeteryEvent(Type type, Long bodyId, Long graveId, Long previousGraveId) {
+        this.type = type;
+        this.bodyId = bodyId;
+        this.graveId = graveId;
+        this.previousGraveId = previousGraveId;
+    }
+
+    static CemeteryEvent graveChanged(Type type, Long graveId) {
+        return new CemeteryEvent(type, null, graveId, null);
+    }
+
+    static CemeteryEvent bodyChanged(Type type, Long bodyId) {
+        return new CemeteryEvent(type, bodyId, null, null);
+    }
+
+    static CemeteryEvent bodyBuried(Long bodyId, Long graveId) {
+        return new CemeteryEvent(Type.BODY_BURIED, bodyId, graveId, null);
+    }
+
+    static CemeteryEvent bodyExhumed(Long bodyId, Long graveId) {
+        return new CemeteryEvent(Type.BODY_EXHUMED, bodyId, graveId, null);
+    }
+
+    static CemeteryEvent bodyMoved(Long bodyId, Long fromGraveId, Long toGraveId) {
+        return new CemeteryEvent(Type.BODY_MOVED, bodyId, toGraveId, fromGraveId);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns id of changed body, or null for changes of graves.
+     *
+     * @return id of the body
+     */
+    public Long getBodyId() {
+        return bodyId;
+    }
+
+    /**
+     * Returns id of changed grave. For changes of bodies, it is id of the
+     * grave into which the body was put ({@link Type#BODY_BURIED},
+     * {@link Type#BODY_MOVED}) or from which it was removed
+     * ({@link Type#BODY_EXHUMED}), and null for other changes.
+     *
+     * @return id of the grave
+     */
+    public Long getGraveId() {
+        return graveId;
+    }
+
+    /**
+     * Returns id of the grave from which the body was moved, or null for
+     * other types than {@link Type#BODY_MOVED}.
+     *
+     * @return id of the previous grave
+     */
+    public Long getPreviousGraveId() {
+        return previousGraveId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CemeteryEvent)) {
+            return false;
+        }
+        CemeteryEvent other = (CemeteryEvent) obj;
+        return type == other.type
+                && Objects.equals(bodyId, other.bodyId)
+                && Objects.equals(graveId, other.graveId)
+                && Objects.equals(previousGraveId, other.previousGraveId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, bodyId, graveId, previousGraveId);
+    }
+
+    @Override
+    public String toString() {
+        return "CemeteryEvent{" + type + ", bodyId=" + bodyId + ", graveId=" + graveId
+                + (previousGraveId == null ? "" : ", previousGraveId=" + previousGraveId) + '}';
+    }
+}
@@ -0,0 +1,363 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.TransactionRunner;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Distributes changes of graves and bodies to listeners, so caches, search
+ * indexes or dashboards don't need to poll the managers. Managers publish
+ * events when the bus is set by their {@code setEventBus} method; events are
+ * published after the change is committed, so listeners never see changes
+ * which were rolled back. Inside of {@link TransactionRunner} transaction,
+ * events are published after commit of the whole transaction.
+ *
+ * <p>Synchronous listeners are invoked directly by the thread which made the
+ * change, so they must be fast. Asynchronous listeners have their own thread
+ * and bounded queue. Publishing never blocks: it takes no lock and when the
+ * queue of asynchronous listener is full, the event is dropped for this
+ * listener and counted by {@link #getDroppedCount()}. The listener is then
+ * notified by {@link CemeteryEventListener#onEventsDropped()}, invoked by its
+ * own thread. Exceptions thrown by listeners are logged and counted by
+ * {@link #getFailedCount()}.</p>
+ *
+ * <pre>
+ * CemeteryEventBus eventBus = new CemeteryEventBus();
+ * graveManager.setEventBus(eventBus);
+ * bodyManager.setEventBus(eventBus);
+ * cemeteryManager.setEventBus(eventBus);
+ * eventBus.subscribeAsync(event -&gt; searchIndex.refresh(event), 10_000);
+ * </pre>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class CemeteryEventBus implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(
+            CemeteryEventBus.class.getName());
+
+    /**
+     * Default capacity of queue of asynchronous listener.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    /**
+     * Subscribes listener which is invoked by the thread which published the
+     * event.
+     *
+     * @param listener listener
+     * @return subscription, which can be used for unsubscribing
+     */
+    public Subscription subscribe(CemeteryEventListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        Subscription subscription = new Subscription(listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Subscribes listener which is invoked by its own thread with queue of
+     * {@link #DEFAULT_QUEUE_CAPACITY} events.
+     *
+     * @param listener listener
+     * @return subscription, which can be used for unsubscribing
+     */
+    public Subscription subscribeAsync(CemeteryEventListener listener) {
+        return subscribeAsync(listener, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Subscribes listener which is invoked by its own thread. Events which
+     * don't fit into the queue are dropped and the listener is notified by
+     * {@link CemeteryEventListener#onEventsDropped()}.
+     *
+     * @param listener listener
+     * @param queueCapacity maximal number of events waiting for the listener
+     * @return subscription, which can be used for unsubscribing
+     */
+    public Subscription subscribeAsync(CemeteryEventListener listener, int queueCapacity) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is null");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity is not positive number");
+        }
+        AsyncSubscription subscription = new AsyncSubscription(listener, queueCapacity);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Publishes event to all subscribed listeners immediately.
+     *
+     * @param event event
+     */
+    public void publish(CemeteryEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event is null");
+        }
+        publishedCount.increment();
+        for (Subscription subscription : subscriptions) {
+            subscription.deliver(event);
+        }
+    }
+
+    /**
+     * Publishes events after the transaction active in the current thread is
+     * committed, or immediately when there is no active transaction. See
+     * {@link TransactionRunner#afterCommit(Runnable)}.
+     *
+     * @param events events
+     */
+    public void publishAfterCommit(List<CemeteryEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        TransactionRunner.afterCommit(() -> {
+            for (CemeteryEvent event : events) {
+                publish(event);
+            }
+        });
+    }
+
+    /**
+     * Publishes event after the transaction active in the current thread is
+     * committed, or immediately when there is no active transaction.
+     *
+     * @param event event
+     */
+    public void publishAfterCommit(CemeteryEvent event) {
+        publishAfterCommit(Collections.singletonList(event));
+    }
+
+    /**
+     * Returns number of published events.
+     *
+     * @return number of published events
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * Returns number of events which were not delivered to some asynchronous
+     * listener, because its queue was full. Event dropped for several
+     * listeners is counted several times.
+     *
+     * @return number of dropped events
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Returns number of invocations of listeners which threw an exception.
+     *
+     * @return number of failed invocations
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * Returns total number of events waiting in queues of asynchronous
+     * listeners.
+     *
+     * @return number of waiting events
+     */
+    public long getLag() {
+        long result = 0;
+        for (Subscription subscription : subscriptions) {
+            result += subscription.getLag();
+        }
+        return result;
+    }
+
+    /**
+     * Unsubscribes all listeners and stops threads of asynchronous listeners.
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : new ArrayList<>(subscriptions)) {
+            subscription.unsubscribe();
+        }
+    }
+
+    /**
+     * Subscription of listener to the bus.
+     */
+    public class Subscription {
+
+        final CemeteryEventListener listener;
+        final LongAdder deliveredCount = new LongAdder();
+
+        Subscription(CemeteryEventListener listener) {
+            this.listener = listener;
+        }
+
+        void deliver(CemeteryEvent event) {
+            invoke(event);
+        }
+
+        final void invoke(CemeteryEvent event) {
+            try {
+                listener.onEvent(event);
+            } catch (RuntimeException ex) {
+                failedCount.increment();
+                logger.log(Level.WARNING, "Listener " + listener + " failed to process " + event, ex);
+            }
+            deliveredCount.increment();
+        }
+
+        final void invokeEventsDropped() {
+            try {
+                listener.onEventsDropped();
+            } catch (RuntimeException ex) {
+                failedCount.increment();
+                logger.log(Level.WARNING, "Listener " + listener + " failed to process dropped events", ex);
+            }
+        }
+
+        /**
+         * Returns number of events delivered to the listener.
+         *
+         * @return number of delivered events
+         */
+        public long getDeliveredCount() {
+            return deliveredCount.sum();
+        }
+
+        /**
+         * Returns number of events dropped for the listener because its
+         * queue was full. It is always 0 for synchronous listeners.
+         *
+         * @return number of dropped events
+         */
+        public long getDroppedCount() {
+            return 0;
+        }
+
+        /**
+         * Returns number of events waiting for the listener. It is always 0
+         * for synchronous listeners.
+         *
+         * @return number of waiting events
+         */
+        public int getLag() {
+            return 0;
+        }
+
+        /**
+         * Returns the highest number of events which were waiting for the
+         * listener. It is always 0 for synchronous listeners.
+         *
+         * @return maximal lag
+         */
+        public int getMaxLag() {
+            return 0;
+        }
+
+        /**
+         * Unsubscribes the listener. Events waiting for asynchronous listener
+         * are discarded.
+         */
+        public void unsubscribe() {
+            subscriptions.remove(this);
+        }
+    }
+
+    private final class AsyncSubscription extends Subscription implements Runnable {
+
+        // Events are counted before they are queued, so the queue never
+        // exceeds its capacity
+        private final Queue<CemeteryEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger lag = new AtomicInteger();
+        private final AtomicInteger maxLag = new AtomicInteger();
+        private final LongAdder subscriptionDroppedCount = new LongAdder();
+        private final AtomicBoolean eventsDropped = new AtomicBoolean();
+        private final int capacity;
+        private final Thread thread;
+        private volatile boolean active = true;
+
+        AsyncSubscription(CemeteryEventListener listener, int capacity) {
+            super(listener);
+            this.capacity = capacity;
+            this.thread = new Thread(this, "CemeteryEventBus-" + listener);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        void deliver(CemeteryEvent event) {
+            int currentLag = lag.incrementAndGet();
+            if (currentLag > capacity) {
+                lag.decrementAndGet();
+                subscriptionDroppedCount.increment();
+                droppedCount.increment();
+                eventsDropped.set(true);
+                LockSupport.unpark(thread);
+                return;
+            }
+            maxLag.accumulateAndGet(currentLag, Math::max);
+            queue.offer(event);
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            while (active) {
+                if (eventsDropped.getAndSet(false)) {
+                    invokeEventsDropped();
+                }
+                CemeteryEvent event = queue.poll();
+                if (event == null) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                lag.decrementAndGet();
+                invoke(event);
+            }
+        }
+
+        @Override
+        public long getDroppedCount() {
+            return subscriptionDroppedCount.sum();
+        }
+
+        @Override
+        public int getLag() {
+            return lag.get();
+        }
+
+        @Override
+        public int getMaxLag() {
+            return maxLag.get();
+        }
+
+        @Override
+        public void unsubscribe() {
+            super.unsubscribe();
+            active = false;
+            LockSupport.unpark(thread);
+        }
+    }
+}
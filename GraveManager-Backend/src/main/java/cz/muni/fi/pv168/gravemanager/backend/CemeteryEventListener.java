@@ -0,0 +1,26 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+/**
+ * Listener of changes published to {@link CemeteryEventBus}.
+ *
+ * @author agent
+ */
+@FunctionalInterface
+public interface CemeteryEventListener {
+
+    /**
+     * Invoked when a change of graves or bodies was committed.
+     *
+     * @param event the change
+     */
+    void onEvent(CemeteryEvent event);
+
+    /**
+     * Invoked when some events were not delivered to the listener, because
+     * its queue was full (see {@link CemeteryEventBus#subscribeAsync}).
+     * Listeners which keep state derived from the events should discard it.
+     * The default implementation does nothing.
+     */
+    default void onEventsDropped() {
+    }
+}
@@ -2,7 +2,9 @@ package cz.muni.fi.pv168.gravemanager.backend;
 
 import cz.muni.fi.pv168.common.IllegalEntityException;
 import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This service allows to manipulate with associations between graves and 
@@ -35,6 +37,34 @@ public interface CemeteryManager {
      */
     List<Body> findBodiesInGrave(Grave grave) throws ServiceFailureException, IllegalEntityException;
     
+    /**
+     * Find graves that contain given bodies. This is the same as calling
+     * {@link #findGraveWithBody(Body)} for each body, but bodies are searched
+     * with few database queries.
+     * 
+     * @param bodies bodies that we want to find
+     * @return map containing all given bodies, the value is the grave that
+     * contains the body or null if the body is not placed in any grave
+     * @throws IllegalArgumentException when bodies or some body is null.
+     * @throws IllegalEntityException when some body has null id 
+     * @throws ServiceFailureException when db operation fails
+     */
+    Map<Body, Grave> findGravesWithBodies(Collection<Body> bodies) throws ServiceFailureException, IllegalEntityException;
+    
+    /**
+     * Find all bodies that are placed in given graves. This is the same as
+     * calling {@link #findBodiesInGrave(Grave)} for each grave, but graves are 
+     * searched with few database queries.
+     * 
+     * @param graves graves that we want to search
+     * @return map containing all given graves, the value is list of bodies
+     * placed in the grave (ordered by id)
+     * @throws IllegalArgumentException when graves or some grave is null
+     * @throws IllegalEntityException when some grave has null id 
+     * @throws ServiceFailureException when db operation fails
+     */
+    Map<Grave, List<Body>> findBodiesInGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException;
+    
     /**
      * Find all bodies that are not placed in any grave. 
      * 
@@ -44,7 +74,8 @@ public interface CemeteryManager {
     List<Body> findUnburiedBodies() throws ServiceFailureException;
 
     /**
-     * Find all graves that contain no body. 
+     * Find all graves that contain no body and have no place reserved with
+     * {@link #allocateGrave(int)}.
      * 
      * @return collection of all empty graves
      * @throws ServiceFailureException when db operation fails.
@@ -52,7 +83,8 @@ public interface CemeteryManager {
     List<Grave> findEmptyGraves() throws ServiceFailureException;
 
     /**
-     * Find all graves that are not full.
+     * Find all graves that are not full. Places reserved with 
+     * {@link #allocateGrave(int)} are not considered to be free.
      * 
      * @return collection of all empty graves
      * @throws ServiceFailureException when db operation fails.
@@ -60,17 +92,49 @@ public interface CemeteryManager {
     List<Grave> findGravesWithSomeFreeSpace() throws ServiceFailureException;
 
     /**
-     * Inserts body into given grave.
+     * Finds graves with some free space nearest to given position. Distance
+     * between graves is euclidean distance of their positions. Places 
+     * reserved with {@link #allocateGrave(int)} are not considered to be free.
+     * 
+     * @param row row of the position
+     * @param column column of the position
+     * @param count maximal number of returned graves
+     * @return list of at most count graves with some free space, ordered by
+     * distance from given position (graves with the same distance are 
+     * ordered by id)
+     * @throws IllegalArgumentException when count is not positive number
+     * @throws ServiceFailureException when db operation fails.
+     */
+    List<Grave> findNearestGraveWithFreeSpace(int row, int column, int count) throws ServiceFailureException;
+
+    /**
+     * Inserts body into given grave. Places reserved in the grave (see 
+     * {@link #allocateGrave(int)}) are not used, some unreserved free place 
+     * is needed.
      * 
      * @param body body to be placed to given grave
      * @param grave grave for placing given body
      * @throws IllegalArgumentException when body or grave is null
      * @throws IllegalEntityException when body is already placed in some grave,
-     * when grave is already full or when body or grave have null id or do 
-     * not exist in database 
+     * when grave has no unreserved free place or when body or grave have null
+     * id or do not exist in database 
      * @throws ServiceFailureException when db operation fails.
      */
     void putBodyIntoGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Inserts body into one of places reserved in given grave with 
+     * {@link #allocateGrave(int)}. The reservation is decreased by one.
+     * 
+     * @param body body to be placed to given grave
+     * @param grave grave returned by {@link #allocateGrave(int)}
+     * @throws IllegalArgumentException when body or grave is null
+     * @throws IllegalEntityException when body is already placed in some grave,
+     * when grave has no reserved place or when body or grave have null id or
+     * do not exist in database 
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void putBodyIntoReservedPlace(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException;
     
     /**
      * Removes body from given grave.
@@ -83,5 +147,108 @@ public interface CemeteryManager {
      * @throws ServiceFailureException when db operation fails.
      */
     void removeBodyFromGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException;    
+
+    /**
+     * Removes all bodies from given grave.
+     * 
+     * @param grave grave to be emptied
+     * @return number of removed bodies
+     * @throws IllegalArgumentException when grave is null
+     * @throws IllegalEntityException when grave has null id or does not exist
+     * in database
+     * @throws ServiceFailureException when db operation fails.
+     */
+    int removeAllBodiesFromGrave(Grave grave) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Removes all bodies from given graves, e.g. when cemetery section is 
+     * closed. All graves are emptied in single transaction, so either all
+     * bodies are removed, or nothing is changed.
+     * 
+     * @param graves graves to be emptied
+     * @return number of removed bodies
+     * @throws IllegalArgumentException when graves or some grave is null
+     * @throws IllegalEntityException when some grave has null id or does not
+     * exist in database
+     * @throws ServiceFailureException when db operation fails.
+     */
+    int removeAllBodiesFromGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Moves body from one grave to another. The body is never unburied during
+     * the move, capacity of the target grave is checked and body is moved in
+     * single transaction. Places reserved in the target grave (see 
+     * {@link #allocateGrave(int)}) are not used.
+     * 
+     * @param body body to be moved
+     * @param fromGrave grave where the body is placed now
+     * @param toGrave grave where the body should be placed
+     * @throws IllegalArgumentException when body or some grave is null, or 
+     * when both graves are the same grave
+     * @throws IllegalEntityException when body is not placed in fromGrave,
+     * when toGrave has no unreserved free place or when body or some grave 
+     * have null id or do not exist in database 
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void moveBody(Body body, Grave fromGrave, Grave toGrave) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Moves all bodies from each grave in the keys of given map to the grave 
+     * stored as its value, e.g. when the whole section of cemetery is 
+     * relocated. All bodies are moved in single transaction, so either all 
+     * bodies are moved, or nothing is changed. Target graves may also be 
+     * source graves of other moves (bodies are moved from their original 
+     * graves only). Places reserved in target graves are not used.
+     * 
+     * @param targetGraves map from source grave to target grave
+     * @return number of moved bodies
+     * @throws IllegalArgumentException when targetGraves or some grave is null
+     * @throws IllegalEntityException when some target grave does not have 
+     * enough free places after all moves, or when some grave has null id or
+     * does not exist in database
+     * @throws ServiceFailureException when db operation fails.
+     */
+    int moveAllBodies(Map<Grave, Grave> targetGraves) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Finds grave with the smallest number of free places which is sufficient
+     * for given number of bodies (best fit) and reserves these places, so they
+     * can not be used by another allocation or burial. Reserved places are
+     * consumed only by {@link #putBodyIntoReservedPlace(Body, Grave)} calls 
+     * for the returned grave; unused reservation should be released with 
+     * {@link #cancelReservation(Grave, int)}.
+     * 
+     * @param slotsNeeded number of places needed
+     * @return grave with reserved places or null if there is no grave with
+     * enough free places
+     * @throws IllegalArgumentException when slotsNeeded is not positive number
+     * @throws ServiceFailureException when db operation fails.
+     */
+    Grave allocateGrave(int slotsNeeded) throws ServiceFailureException;
+
+    /**
+     * Releases places reserved with {@link #allocateGrave(int)}.
+     * 
+     * @param grave grave with reserved places
+     * @param slots number of places to be released
+     * @throws IllegalArgumentException when grave is null or slots is not 
+     * positive number
+     * @throws IllegalEntityException when grave has null id, does not exist in
+     * database or it has less reserved places than given number
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void cancelReservation(Grave grave, int slots) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Checks that the stored number of bodies placed in each grave (which is
+     * used for fast searching of graves with free space) corresponds to the 
+     * real number of bodies placed in the grave. Inconsistent counters are
+     * logged and optionally rebuilt.
+     * 
+     * @param repair if inconsistent counters should be rebuilt
+     * @return number of graves with inconsistent counter
+     * @throws ServiceFailureException when db operation fails.
+     */
+    int checkGraveOccupancy(boolean repair) throws ServiceFailureException;
     
 }
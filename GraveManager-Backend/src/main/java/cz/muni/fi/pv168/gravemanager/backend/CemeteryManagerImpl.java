@@ -1,13 +1,23 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
 import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.Dialect;
 import cz.muni.fi.pv168.common.IllegalEntityException;
 import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.TransactionRunner;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -22,17 +32,96 @@ public class CemeteryManagerImpl implements CemeteryManager {
     private static final Logger logger = Logger.getLogger(
             GraveManagerImpl.class.getName());
 
+    /**
+     * Maximal number of graves changed by single operation, for which the 
+     * free space index is updated. The index is reloaded when more graves
+     * are changed.
+     */
+    private static final int MAX_INDEX_UPDATES = 32;
+
     private DataSource dataSource;
+    private volatile Dialect dialect;
+    private final FreeSpaceIndex freeSpaceIndex = new FreeSpaceIndex();
+    private CemeteryEventBus eventBus;
+    private CemeteryEventBus.Subscription eventSubscription;
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
+        this.dialect = null;
+        freeSpaceIndex.invalidate();
     }    
 
+    /**
+     * Sets SQL dialect of the database. When it is not set, it is detected
+     * from the first connection.
+     * 
+     * @param dialect dialect or null for detecting it
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Sets bus to which burials, exhumations and reservations are published
+     * after commit. The manager also listens to changes published by other
+     * managers which free places in graves (capacity updates and deletions
+     * of buried bodies) and drops its free space index when they happen.
+     * 
+     * @param eventBus event bus or null for not publishing the changes
+     */
+    public void setEventBus(CemeteryEventBus eventBus) {
+        if (eventSubscription != null) {
+            eventSubscription.unsubscribe();
+            eventSubscription = null;
+        }
+        this.eventBus = eventBus;
+        if (eventBus != null) {
+            eventSubscription = eventBus.subscribe(this::onEvent);
+        }
+    }
+
+    private void onEvent(CemeteryEvent event) {
+        switch (event.getType()) {
+            case GRAVE_UPDATED:
+            case BODY_DELETED:
+                freeSpaceIndex.invalidate();
+                break;
+            default:
+                // Other changes are made by this manager or they don't
+                // free any place
+        }
+    }
+
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
         }
     }
+
+    private Dialect getDialect(Connection conn) throws SQLException {
+        Dialect result = dialect;
+        if (result == null) {
+            result = Dialect.of(conn);
+            dialect = result;
+        }
+        return result;
+    }
+
+    private void publishAfterCommit(CemeteryEvent event) {
+        if (eventBus != null) {
+            eventBus.publishAfterCommit(event);
+        }
+    }
+
+    private void publishAfterCommit(CemeteryEvent.Type type, Collection<Long> graveIds) {
+        if (eventBus != null) {
+            List<CemeteryEvent> events = new ArrayList<>(graveIds.size());
+            for (Long graveId : graveIds) {
+                events.add(CemeteryEvent.graveChanged(type, graveId));
+            }
+            eventBus.publishAfterCommit(events);
+        }
+    }
     
     @Override
     public Grave findGraveWithBody(Body body) throws ServiceFailureException, IllegalEntityException {
@@ -47,7 +136,7 @@ public class CemeteryManagerImpl implements CemeteryManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT Grave.id, col, row, capacity, note " +
                     "FROM Grave JOIN Body ON Grave.id = Body.graveId " +
                     "WHERE Body.id = ?");
@@ -75,7 +164,7 @@ public class CemeteryManagerImpl implements CemeteryManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT Body.id, name, gender, born, died, vampire " +
                     "FROM Body JOIN Grave ON Grave.id = Body.graveId " +
                     "WHERE Grave.id = ?");
@@ -90,6 +179,131 @@ public class CemeteryManagerImpl implements CemeteryManager {
         }
     }
 
+    @Override
+    public Map<Body, Grave> findGravesWithBodies(Collection<Body> bodies) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (bodies == null) {
+            throw new IllegalArgumentException("bodies is null");
+        }
+        Map<Body, Grave> result = new LinkedHashMap<>();
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Body body : bodies) {
+            if (body == null) {
+                throw new IllegalArgumentException("body is null");
+            }
+            if (body.getId() == null) {
+                throw new IllegalEntityException("body id is null");
+            }
+            result.put(body, null);
+            ids.add(body.getId());
+        }
+        if (ids.isEmpty()) {
+            return result;
+        }
+        Connection conn = null;
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
+        try {
+            conn = dataSource.getConnection();
+            Map<Long, Grave> gravesByBody = new HashMap<>();
+            List<Long> idList = new ArrayList<>(ids);
+            for (int from = 0; from < idList.size(); from += DBUtils.MAX_IN_LIST_SIZE) {
+                List<Long> chunk = idList.subList(from, Math.min(idList.size(), from + DBUtils.MAX_IN_LIST_SIZE));
+                int size = DBUtils.inListSize(chunk.size());
+                PreparedStatement st = statements.get(size);
+                if (st == null) {
+                    st = DBUtils.prepareStatement(conn,
+                            "SELECT Body.id AS bodyId, Grave.id, col, row, capacity, note " +
+                            "FROM Grave JOIN Body ON Grave.id = Body.graveId " +
+                            "WHERE Body.id IN (" + DBUtils.inListPlaceholders(size) + ")");
+                    statements.put(size, st);
+                }
+                DBUtils.setInListIds(st, 1, size, chunk);
+                ResultSet rs = st.executeQuery();
+                Map<Long, Grave> graves = new HashMap<>();
+                while (rs.next()) {
+                    // Bodies placed in the same grave share single instance
+                    Grave grave = graves.get(rs.getLong("id"));
+                    if (grave == null) {
+                        grave = GraveManagerImpl.rowToGrave(rs);
+                        graves.put(grave.getId(), grave);
+                    }
+                    gravesByBody.put(rs.getLong("bodyId"), grave);
+                }
+            }
+            for (Map.Entry<Body, Grave> entry : result.entrySet()) {
+                entry.setValue(gravesByBody.get(entry.getKey().getId()));
+            }
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when trying to find graves with " + ids.size() + " bodies";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statements.values().toArray(new PreparedStatement[0]));
+        }
+    }
+
+    @Override
+    public Map<Grave, List<Body>> findBodiesInGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (graves == null) {
+            throw new IllegalArgumentException("graves is null");
+        }
+        Map<Grave, List<Body>> result = new LinkedHashMap<>();
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Grave grave : graves) {
+            if (grave == null) {
+                throw new IllegalArgumentException("grave is null");
+            }
+            if (grave.getId() == null) {
+                throw new IllegalEntityException("grave id is null");
+            }
+            result.put(grave, new ArrayList<>());
+            ids.add(grave.getId());
+        }
+        if (ids.isEmpty()) {
+            return result;
+        }
+        Connection conn = null;
+        Map<Integer, PreparedStatement> statements = new HashMap<>();
+        try {
+            conn = dataSource.getConnection();
+            Map<Long, List<Body>> bodiesByGrave = new HashMap<>();
+            List<Long> idList = new ArrayList<>(ids);
+            for (int from = 0; from < idList.size(); from += DBUtils.MAX_IN_LIST_SIZE) {
+                List<Long> chunk = idList.subList(from, Math.min(idList.size(), from + DBUtils.MAX_IN_LIST_SIZE));
+                int size = DBUtils.inListSize(chunk.size());
+                PreparedStatement st = statements.get(size);
+                if (st == null) {
+                    st = DBUtils.prepareStatement(conn,
+                            "SELECT id, name, gender, born, died, vampire, graveId " +
+                            "FROM Body WHERE graveId IN (" + DBUtils.inListPlaceholders(size) + ") " +
+                            "ORDER BY id");
+                    statements.put(size, st);
+                }
+                DBUtils.setInListIds(st, 1, size, chunk);
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) {
+                    bodiesByGrave.computeIfAbsent(rs.getLong("graveId"), k -> new ArrayList<>())
+                            .add(BodyManagerImpl.rowToBody(rs));
+                }
+            }
+            for (Map.Entry<Grave, List<Body>> entry : result.entrySet()) {
+                List<Body> bodies = bodiesByGrave.get(entry.getKey().getId());
+                if (bodies != null) {
+                    entry.setValue(bodies);
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when trying to find bodies in " + ids.size() + " graves";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statements.values().toArray(new PreparedStatement[0]));
+        }
+    }
+
     @Override
     public List<Body> findUnburiedBodies() throws ServiceFailureException {
         checkDataSource();        
@@ -97,7 +311,7 @@ public class CemeteryManagerImpl implements CemeteryManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT id, name, gender, born, died, vampire " +
                     "FROM Body WHERE graveId IS NULL");
             return BodyManagerImpl.executeQueryForMultipleBodies(st);
@@ -117,11 +331,9 @@ public class CemeteryManagerImpl implements CemeteryManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
-                    "SELECT Grave.id, col, row, capacity, note " +
-                    "FROM Grave LEFT JOIN Body ON Grave.id = Body.graveId " +
-                    "GROUP BY Grave.id, col, row, capacity, note " +
-                    "HAVING COUNT(Body.id) = 0");
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note " +
+                    "FROM Grave WHERE occupied = 0 AND reserved = 0");
             return GraveManagerImpl.executeQueryForMultipleGraves(st);
         } catch (SQLException ex) {
             String msg = "Error when trying to find empty graves";
@@ -139,11 +351,9 @@ public class CemeteryManagerImpl implements CemeteryManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
-                    "SELECT Grave.id, col, row, capacity, note " +
-                    "FROM Grave LEFT JOIN Body ON Grave.id = Body.graveId " +
-                    "GROUP BY Grave.id, col, row, capacity, note " +
-                    "HAVING COUNT(Body.id) < capacity");
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note " +
+                    "FROM Grave WHERE occupied + reserved < capacity");
             return GraveManagerImpl.executeQueryForMultipleGraves(st);
         } catch (SQLException ex) {
             String msg = "Error when trying to find graves with some free space";
@@ -156,6 +366,15 @@ public class CemeteryManagerImpl implements CemeteryManager {
 
     @Override
     public void putBodyIntoGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        putBodyIntoGrave(body, grave, false);
+    }
+
+    @Override
+    public void putBodyIntoReservedPlace(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        putBodyIntoGrave(body, grave, true);
+    }
+
+    private void putBodyIntoGrave(Body body, Grave grave, boolean reserved) throws ServiceFailureException, IllegalEntityException {
         checkDataSource();
         if (grave == null) {
             throw new IllegalArgumentException("grave is null");
@@ -176,9 +395,16 @@ public class CemeteryManagerImpl implements CemeteryManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            checkIfGraveHasSpace(conn, grave);
+            // Checking of capacity and reserving of the place is done with 
+            // single conditional update, which holds the row lock until 
+            // commit. Concurrent burials into the same grave are serialized
+            // by this lock, so READ_COMMITTED isolation level is sufficient.
+            if (conn.getTransactionIsolation() != Connection.TRANSACTION_READ_COMMITTED) {
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+            takePlaceInGrave(conn, grave, reserved);
             
-            updateSt = conn.prepareStatement(
+            updateSt = DBUtils.prepareStatement(conn,
                     "UPDATE Body SET graveId = ? WHERE id = ? AND graveId IS NULL");
             updateSt.setLong(1, grave.getId());
             updateSt.setLong(2, body.getId());
@@ -187,7 +413,10 @@ public class CemeteryManagerImpl implements CemeteryManager {
                 throw new IllegalEntityException("Body " + body + " not found or it is already placed in some grave");
             }
             DBUtils.checkUpdatesCount(count, body, false);            
+            FreeSpaceIndex.Entry freeSpace = readFreeSpaceForIndex(conn, grave.getId());
             conn.commit();
+            updateFreeSpaceIndex(grave.getId(), freeSpace);
+            publishAfterCommit(CemeteryEvent.bodyBuried(body.getId(), grave.getId()));
         } catch (SQLException ex) {
             String msg = "Error when putting body into grave";
             logger.log(Level.SEVERE, msg, ex);
@@ -198,28 +427,56 @@ public class CemeteryManagerImpl implements CemeteryManager {
         }
     }
 
-    private static void checkIfGraveHasSpace(Connection conn, Grave grave) throws IllegalEntityException, SQLException {
-        PreparedStatement checkSt = null;
+    private static void takePlaceInGrave(Connection conn, Grave grave, boolean reserved) throws IllegalEntityException, SQLException {
+        PreparedStatement reserveSt = null;
         try {
-            checkSt = conn.prepareStatement(
-                    "SELECT capacity, COUNT(Body.id) as bodiesCount " +
-                    "FROM Grave LEFT JOIN Body ON Grave.id = Body.graveId " +
-                    "WHERE Grave.id = ? " +
-                    "GROUP BY Grave.id, capacity");
-            checkSt.setLong(1, grave.getId());
-            ResultSet rs = checkSt.executeQuery();
-            if (rs.next()) {
-                if (rs.getInt("capacity") <= rs.getInt("bodiesCount")) {
+            // Reserved place is used only when requested explicitly, otherwise
+            // some unreserved free place is needed
+            reserveSt = DBUtils.prepareStatement(conn, reserved
+                    ? "UPDATE Grave SET occupied = occupied + 1, reserved = reserved - 1 " +
+                      "WHERE id = ? AND reserved > 0"
+                    : "UPDATE Grave SET occupied = occupied + 1 " +
+                      "WHERE id = ? AND occupied + reserved < capacity");
+            reserveSt.setLong(1, grave.getId());
+            if (reserveSt.executeUpdate() == 0) {
+                if (!graveExists(conn, grave)) {
+                    throw new IllegalEntityException("Grave " + grave + " does not exist in the database");
+                } else if (reserved) {
+                    throw new IllegalEntityException("Grave " + grave + " has no reserved place");
+                } else {
                     throw new IllegalEntityException("Grave " + grave + " is already full");
                 }
-            } else {
-                throw new IllegalEntityException("Grave " + grave + " does not exist in the database");
             }
+        } finally {
+            DBUtils.closeQuietly(null, reserveSt);
+        }
+    }
+
+    private static boolean graveExists(Connection conn, Grave grave) throws SQLException {
+        PreparedStatement checkSt = null;
+        try {
+            checkSt = DBUtils.prepareStatement(conn,
+                    "SELECT id FROM Grave WHERE id = ?");
+            checkSt.setLong(1, grave.getId());
+            return checkSt.executeQuery().next();
         } finally {
             DBUtils.closeQuietly(null, checkSt);
         }
     }
 
+    private static void updateOccupancy(Connection conn, Grave grave, int difference) throws SQLException {
+        PreparedStatement st = null;
+        try {
+            st = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET occupied = occupied + ? WHERE id = ?");
+            st.setInt(1, difference);
+            st.setLong(2, grave.getId());
+            DBUtils.checkUpdatesCount(st.executeUpdate(), grave, false);
+        } finally {
+            DBUtils.closeQuietly(null, st);
+        }
+    }
+
     @Override
     public void removeBodyFromGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
         checkDataSource();
@@ -242,13 +499,17 @@ public class CemeteryManagerImpl implements CemeteryManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "UPDATE Body SET graveId = NULL WHERE id = ? AND graveId = ?");
             st.setLong(1, body.getId());
             st.setLong(2, grave.getId());
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, body, false);            
+            updateOccupancy(conn, grave, -1);
+            FreeSpaceIndex.Entry freeSpace = readFreeSpaceForIndex(conn, grave.getId());
             conn.commit();
+            updateFreeSpaceIndex(grave.getId(), freeSpace);
+            publishAfterCommit(CemeteryEvent.bodyExhumed(body.getId(), grave.getId()));
         } catch (SQLException ex) {
             String msg = "Error when putting body into grave";
             logger.log(Level.SEVERE, msg, ex);
@@ -258,4 +519,606 @@ public class CemeteryManagerImpl implements CemeteryManager {
             DBUtils.closeQuietly(conn, st);
         }
     }    
+
+    @Override
+    public int removeAllBodiesFromGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        checkGrave(grave);
+        return removeAllBodiesFromGraves(Collections.singletonList(grave));
+    }
+
+    @Override
+    public int removeAllBodiesFromGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (graves == null) {
+            throw new IllegalArgumentException("graves is null");
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Grave grave : graves) {
+            checkGrave(grave);
+            ids.add(grave.getId());
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        List<Long> idList = new ArrayList<>(ids);
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            int bodies = DBUtils.executeUpdateForIds(conn,
+                    "UPDATE Body SET graveId = NULL WHERE graveId IN (%s)", idList);
+            int count = DBUtils.executeUpdateForIds(conn,
+                    "UPDATE Grave SET occupied = 0 WHERE id IN (%s)", idList);
+            if (count != idList.size()) {
+                throw new IllegalEntityException((idList.size() - count) 
+                        + " of given graves do not exist in the database");
+            }
+            List<FreeSpaceIndex.Entry> freeSpaces = new ArrayList<>();
+            if (idList.size() <= MAX_INDEX_UPDATES) {
+                for (Long graveId : idList) {
+                    freeSpaces.add(readFreeSpaceForIndex(conn, graveId));
+                }
+            }
+            conn.commit();
+            if (idList.size() <= MAX_INDEX_UPDATES) {
+                for (int i = 0; i < idList.size(); i++) {
+                    updateFreeSpaceIndex(idList.get(i), freeSpaces.get(i));
+                }
+            } else {
+                // Reloading is cheaper than updating of many graves one by one
+                TransactionRunner.afterCommit(freeSpaceIndex::invalidate);
+            }
+            publishAfterCommit(CemeteryEvent.Type.GRAVE_EMPTIED, idList);
+            return bodies;
+        } catch (SQLException ex) {
+            String msg = "Error when removing bodies from " + idList.size() + " graves";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    @Override
+    public void moveBody(Body body, Grave fromGrave, Grave toGrave) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (body == null) {
+            throw new IllegalArgumentException("body is null");
+        }        
+        if (body.getId() == null) {
+            throw new IllegalEntityException("body id is null");
+        }        
+        checkGrave(fromGrave);
+        checkGrave(toGrave);
+        if (fromGrave.getId().equals(toGrave.getId())) {
+            throw new IllegalArgumentException("fromGrave and toGrave are the same grave");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            takePlaceInGrave(conn, toGrave, false);
+            st = DBUtils.prepareStatement(conn,
+                    "UPDATE Body SET graveId = ? WHERE id = ? AND graveId = ?");
+            st.setLong(1, toGrave.getId());
+            st.setLong(2, body.getId());
+            st.setLong(3, fromGrave.getId());
+            if (st.executeUpdate() == 0) {
+                throw new IllegalEntityException("Body " + body + " not found or it is not placed in grave " + fromGrave);
+            }
+            updateOccupancy(conn, fromGrave, -1);
+            FreeSpaceIndex.Entry fromFreeSpace = readFreeSpaceForIndex(conn, fromGrave.getId());
+            FreeSpaceIndex.Entry toFreeSpace = readFreeSpaceForIndex(conn, toGrave.getId());
+            conn.commit();
+            updateFreeSpaceIndex(fromGrave.getId(), fromFreeSpace);
+            updateFreeSpaceIndex(toGrave.getId(), toFreeSpace);
+            publishAfterCommit(CemeteryEvent.bodyMoved(body.getId(), fromGrave.getId(), toGrave.getId()));
+        } catch (SQLException ex) {
+            String msg = "Error when moving body " + body + " to grave " + toGrave;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public int moveAllBodies(Map<Grave, Grave> targetGraves) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (targetGraves == null) {
+            throw new IllegalArgumentException("targetGraves is null");
+        }
+        Map<Long, Grave> targets = new LinkedHashMap<>();
+        for (Map.Entry<Grave, Grave> entry : targetGraves.entrySet()) {
+            checkGrave(entry.getKey());
+            checkGrave(entry.getValue());
+            if (!entry.getKey().getId().equals(entry.getValue().getId())) {
+                targets.put(entry.getKey().getId(), entry.getValue());
+            }
+        }
+        if (targets.isEmpty()) {
+            return 0;
+        }
+        Connection conn = null;
+        PreparedStatement selectSt = null;
+        PreparedStatement moveSt = null;
+        PreparedStatement releaseSt = null;
+        PreparedStatement occupySt = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            
+            // Bodies are moved by id, so bodies moved into a grave which is 
+            // also a source grave are not moved again
+            selectSt = DBUtils.prepareStatement(conn, "SELECT id FROM Body WHERE graveId = ?");
+            moveSt = DBUtils.prepareStatement(conn, "UPDATE Body SET graveId = ? WHERE id = ?");
+            releaseSt = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET occupied = occupied - ? WHERE id = ?");
+            Map<Long, Integer> movedIn = new LinkedHashMap<>();
+            List<CemeteryEvent> events = eventBus == null ? null : new ArrayList<>();
+            int moved = 0;
+            for (Map.Entry<Long, Grave> entry : targets.entrySet()) {
+                selectSt.setLong(1, entry.getKey());
+                ResultSet rs = selectSt.executeQuery();
+                int count = 0;
+                while (rs.next()) {
+                    long bodyId = rs.getLong("id");
+                    moveSt.setLong(1, entry.getValue().getId());
+                    moveSt.setLong(2, bodyId);
+                    moveSt.addBatch();
+                    if (events != null) {
+                        events.add(CemeteryEvent.bodyMoved(bodyId, entry.getKey(), entry.getValue().getId()));
+                    }
+                    count++;
+                }
+                rs.close();
+                releaseSt.setInt(1, count);
+                releaseSt.setLong(2, entry.getKey());
+                releaseSt.addBatch();
+                movedIn.merge(entry.getValue().getId(), count, Integer::sum);
+                moved += count;
+            }
+            DBUtils.checkBatchUpdatesCount(moveSt.executeBatch());
+            int[] released = releaseSt.executeBatch();
+            int i = 0;
+            for (Long sourceId : targets.keySet()) {
+                if (released[i++] == 0) {
+                    throw new IllegalEntityException("Grave with id " + sourceId + " does not exist in the database");
+                }
+            }
+
+            // Capacity of target graves is checked after all graves were 
+            // released, so the bodies can be moved also within a section
+            occupySt = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET occupied = occupied + ? " +
+                    "WHERE id = ? AND occupied + reserved + ? <= capacity");
+            for (Map.Entry<Long, Integer> entry : movedIn.entrySet()) {
+                occupySt.setInt(1, entry.getValue());
+                occupySt.setLong(2, entry.getKey());
+                occupySt.setInt(3, entry.getValue());
+                occupySt.addBatch();
+            }
+            int[] occupied = occupySt.executeBatch();
+            i = 0;
+            for (Long targetId : movedIn.keySet()) {
+                if (occupied[i++] == 0) {
+                    Grave target = new Grave();
+                    target.setId(targetId);
+                    if (graveExists(conn, target)) {
+                        throw new IllegalEntityException("Grave with id " + targetId
+                                + " does not have enough free places for " + movedIn.get(targetId) + " bodies");
+                    } else {
+                        throw new IllegalEntityException("Grave with id " + targetId + " does not exist in the database");
+                    }
+                }
+            }
+
+            Set<Long> changedGraves = new LinkedHashSet<>(targets.keySet());
+            changedGraves.addAll(movedIn.keySet());
+            Map<Long, FreeSpaceIndex.Entry> freeSpaces = new LinkedHashMap<>();
+            for (Long graveId : changedGraves) {
+                freeSpaces.put(graveId, readFreeSpaceForIndex(conn, graveId));
+            }
+            conn.commit();
+            for (Map.Entry<Long, FreeSpaceIndex.Entry> entry : freeSpaces.entrySet()) {
+                updateFreeSpaceIndex(entry.getKey(), entry.getValue());
+            }
+            if (events != null) {
+                eventBus.publishAfterCommit(events);
+            }
+            return moved;
+        } catch (SQLException ex) {
+            String msg = "Error when moving bodies between " + targets.size() + " graves";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, selectSt, moveSt, releaseSt, occupySt);
+        }
+    }
+
+    private static void checkGrave(Grave grave) {
+        if (grave == null) {
+            throw new IllegalArgumentException("grave is null");
+        }        
+        if (grave.getId() == null) {
+            throw new IllegalEntityException("grave id is null");
+        }        
+    }
+
+    @Override
+    public int checkGraveOccupancy(boolean repair) throws ServiceFailureException {
+        checkDataSource();
+        Connection conn = null;
+        PreparedStatement checkSt = null;
+        PreparedStatement repairSt = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            checkSt = DBUtils.prepareStatement(conn,
+                    "SELECT Grave.id, occupied, COUNT(Body.id) AS bodiesCount " +
+                    "FROM Grave LEFT JOIN Body ON Grave.id = Body.graveId " +
+                    "GROUP BY Grave.id, occupied " +
+                    "HAVING COUNT(Body.id) <> occupied");
+            repairSt = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET occupied = ? WHERE id = ?");
+            ResultSet rs = checkSt.executeQuery();
+            int inconsistent = 0;
+            List<Long> repaired = new ArrayList<>();
+            while (rs.next()) {
+                inconsistent++;
+                logger.log(Level.WARNING, "Inconsistent occupancy of grave with id = {0}: "
+                        + "stored {1}, real {2}", new Object[]{
+                            rs.getLong("id"), rs.getInt("occupied"), rs.getInt("bodiesCount")});
+                if (repair) {
+                    repairSt.setInt(1, rs.getInt("bodiesCount"));
+                    repairSt.setLong(2, rs.getLong("id"));
+                    repairSt.addBatch();
+                    repaired.add(rs.getLong("id"));
+                }
+            }
+            if (repair && inconsistent > 0) {
+                DBUtils.checkBatchUpdatesCount(repairSt.executeBatch());
+            }
+            conn.commit();
+            if (repair && inconsistent > 0) {
+                TransactionRunner.afterCommit(freeSpaceIndex::invalidate);
+                publishAfterCommit(CemeteryEvent.Type.GRAVE_UPDATED, repaired);
+            }
+            return inconsistent;
+        } catch (SQLException ex) {
+            String msg = "Error when checking occupancy of graves";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, checkSt, repairSt);
+        }
+    }
+
+    @Override
+    public Grave allocateGrave(int slotsNeeded) throws ServiceFailureException {
+        checkDataSource();
+        if (slotsNeeded <= 0) {
+            throw new IllegalArgumentException("slotsNeeded is not positive number");
+        }
+        Connection conn = null;
+        PreparedStatement reserveSt = null;
+        PreparedStatement selectSt = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            boolean indexReloaded = refreshFreeSpaceIndex(conn);
+            Dialect dialect = getDialect(conn);
+            boolean updateReturning = dialect.supportsUpdateReturning();
+            String reserve = "UPDATE Grave SET reserved = reserved + ? " +
+                    "WHERE id = ? AND capacity - occupied - reserved >= ?";
+            String columns = "id, col, row, capacity, note, " +
+                    "capacity - occupied - reserved AS freeSpace";
+            reserveSt = DBUtils.prepareStatement(conn, updateReturning 
+                    ? dialect.updateReturning(reserve, columns) : reserve);
+            selectSt = DBUtils.prepareStatement(conn,
+                    "SELECT " + columns + " FROM Grave WHERE id = ?");
+            while (true) {
+                Long graveId = freeSpaceIndex.findBestFit(slotsNeeded);
+                if (graveId == null) {
+                    if (indexReloaded) {
+                        return null;
+                    }
+                    // Index could miss graves created or changed by 
+                    // another service, so try it again with fresh data
+                    loadFreeSpaceIndex(conn);
+                    indexReloaded = true;
+                    continue;
+                }
+                reserveSt.setInt(1, slotsNeeded);
+                reserveSt.setLong(2, graveId);
+                reserveSt.setInt(3, slotsNeeded);
+                ResultSet rs = null;
+                int count;
+                if (updateReturning) {
+                    // Reserved grave is returned by the update itself, so 
+                    // it needs to be selected only when reservation fails
+                    rs = reserveSt.executeQuery();
+                    count = rs.next() ? 1 : 0;
+                } else {
+                    count = reserveSt.executeUpdate();
+                }
+
+                if (count == 0 || !updateReturning) {
+                    selectSt.setLong(1, graveId);
+                    rs = selectSt.executeQuery();
+                    if (!rs.next()) {
+                        // Grave was deleted in the meantime
+                        freeSpaceIndex.remove(graveId);
+                        continue;
+                    }
+                }
+                int freeSpace = rs.getInt("freeSpace");
+                Grave grave = GraveManagerImpl.rowToGrave(rs);
+                if (count == 0) {
+                    // Index was not up to date, fix it and try another grave
+                    freeSpaceIndex.update(graveId, grave.getRow(), grave.getColumn(), freeSpace);
+                    continue;
+                }
+                conn.commit();
+                updateFreeSpaceIndex(graveId, 
+                        new FreeSpaceIndex.Entry(graveId, grave.getRow(), grave.getColumn(), freeSpace));
+                publishAfterCommit(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_RESERVED, graveId));
+                return grave;
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when allocating grave for " + slotsNeeded + " bodies";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, reserveSt, selectSt);
+        }
+    }
+
+    @Override
+    public void cancelReservation(Grave grave, int slots) throws ServiceFailureException, IllegalEntityException {
+        checkDataSource();
+        if (grave == null) {
+            throw new IllegalArgumentException("grave is null");
+        }        
+        if (grave.getId() == null) {
+            throw new IllegalEntityException("grave id is null");
+        }        
+        if (slots <= 0) {
+            throw new IllegalArgumentException("slots is not positive number");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            st = DBUtils.prepareStatement(conn,
+                    "UPDATE Grave SET reserved = reserved - ? WHERE id = ? AND reserved >= ?");
+            st.setInt(1, slots);
+            st.setLong(2, grave.getId());
+            st.setInt(3, slots);
+            if (st.executeUpdate() == 0) {
+                throw new IllegalEntityException("Grave " + grave + " does not exist " +
+                        "or it has less than " + slots + " reserved places");
+            }
+            FreeSpaceIndex.Entry freeSpace = readFreeSpaceForIndex(conn, grave.getId());
+            conn.commit();
+            updateFreeSpaceIndex(grave.getId(), freeSpace);
+            publishAfterCommit(CemeteryEvent.graveChanged(
+                    CemeteryEvent.Type.GRAVE_RESERVATION_CANCELLED, grave.getId()));
+        } catch (SQLException ex) {
+            String msg = "Error when cancelling reservation in grave " + grave;
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public List<Grave> findNearestGraveWithFreeSpace(int row, int column, int count) throws ServiceFailureException {
+        checkDataSource();
+        if (count <= 0) {
+            throw new IllegalArgumentException("count is not positive number");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            boolean indexReloaded = refreshFreeSpaceIndex(conn);
+            while (true) {
+                List<FreeSpaceIndex.Entry> candidates = freeSpaceIndex.findNearest(row, column, count);
+                if (candidates.isEmpty()) {
+                    if (indexReloaded) {
+                        return new ArrayList<>();
+                    }
+                    // Graves which got free space by changes made by other
+                    // services are missing in the index
+                    loadFreeSpaceIndex(conn);
+                    indexReloaded = true;
+                    continue;
+                }
+                List<Long> candidateIds = new ArrayList<>(candidates.size());
+                for (FreeSpaceIndex.Entry candidate : candidates) {
+                    candidateIds.add(candidate.getGraveId());
+                }
+                Map<Long, Grave> graves = new HashMap<>();
+                Map<Long, Integer> freeSpaces = new HashMap<>();
+                // Ids are queried in chunks, so the number of distinct 
+                // statements does not depend on the requested count
+                for (int from = 0; from < candidateIds.size(); from += DBUtils.MAX_IN_LIST_SIZE) {
+                    List<Long> chunk = candidateIds.subList(from, 
+                            Math.min(candidateIds.size(), from + DBUtils.MAX_IN_LIST_SIZE));
+                    int size = DBUtils.inListSize(chunk.size());
+                    st = DBUtils.prepareStatement(conn,
+                            "SELECT id, col, row, capacity, note, " +
+                            "capacity - occupied - reserved AS freeSpace " +
+                            "FROM Grave WHERE id IN (" + DBUtils.inListPlaceholders(size) + ")");
+                    DBUtils.setInListIds(st, 1, size, chunk);
+                    ResultSet rs = st.executeQuery();
+                    while (rs.next()) {
+                        Grave grave = GraveManagerImpl.rowToGrave(rs);
+                        graves.put(grave.getId(), grave);
+                        freeSpaces.put(grave.getId(), rs.getInt("freeSpace"));
+                    }
+                    st.close();
+                    st = null;
+                }
+                List<Grave> result = new ArrayList<>();
+                boolean indexChanged = false;
+                for (FreeSpaceIndex.Entry candidate : candidates) {
+                    Grave grave = graves.get(candidate.getGraveId());
+                    if (grave == null) {
+                        // Grave was deleted in the meantime
+                        freeSpaceIndex.remove(candidate.getGraveId());
+                        indexChanged = true;
+                        continue;
+                    }
+                    int freeSpace = freeSpaces.get(grave.getId());
+                    if (freeSpace != candidate.getFreeSpace()
+                            || grave.getRow() != candidate.getRow()
+                            || grave.getColumn() != candidate.getColumn()) {
+                        freeSpaceIndex.update(grave.getId(), grave.getRow(), grave.getColumn(), freeSpace);
+                    }
+                    if (freeSpace <= 0 || grave.getRow() != candidate.getRow()
+                            || grave.getColumn() != candidate.getColumn()) {
+                        // Grave is full or it was moved, so the result 
+                        // would not be valid
+                        indexChanged = true;
+                    } else {
+                        result.add(grave);
+                    }
+                }
+                if (!indexChanged) {
+                    if (result.size() == count || indexReloaded) {
+                        return result;
+                    }
+                    // Graves which got free space by changes made by other
+                    // services are missing in the index
+                    loadFreeSpaceIndex(conn);
+                    indexReloaded = true;
+                }
+                // Index was not up to date, it is fixed now so try it again
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when finding nearest graves with free space";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private void loadFreeSpaceIndex(Connection conn) throws SQLException {
+        long lastGraveId = readLastGraveId(conn);
+        freeSpaceIndex.load(readFreeSpaces(conn, 0, lastGraveId), lastGraveId);
+    }
+
+    /**
+     * Loads the free space index if it is not loaded yet, otherwise adds
+     * graves created since the index was loaded. Changes of existing graves
+     * made by other services are not detected (unless they are published to
+     * the event bus). Graves which became full are fixed when they are 
+     * verified, graves which got free space are found when the index is 
+     * loaded again after a search returned too few graves.
+     *
+     * @return true if the index was loaded from scratch
+     */
+    private boolean refreshFreeSpaceIndex(Connection conn) throws SQLException {
+        if (!freeSpaceIndex.isLoaded()) {
+            loadFreeSpaceIndex(conn);
+            return true;
+        }
+        long knownLastGraveId = freeSpaceIndex.getLastGraveId();
+        long lastGraveId = readLastGraveId(conn);
+        if (lastGraveId > knownLastGraveId) {
+            freeSpaceIndex.addNewGraves(
+                    readFreeSpaces(conn, knownLastGraveId, lastGraveId), lastGraveId);
+        }
+        return false;
+    }
+
+    private static long readLastGraveId(Connection conn) throws SQLException {
+        PreparedStatement st = null;
+        try {
+            st = DBUtils.prepareStatement(conn, "SELECT MAX(id) FROM Grave");
+            ResultSet rs = st.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            DBUtils.closeQuietly(null, st);
+        }
+    }
+
+    private static List<FreeSpaceIndex.Entry> readFreeSpaces(Connection conn, 
+            long idFrom, long idTo) throws SQLException {
+        PreparedStatement st = null;
+        try {
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, row, col, capacity - occupied - reserved AS freeSpace " +
+                    "FROM Grave WHERE id > ? AND id <= ? AND occupied + reserved < capacity");
+            st.setLong(1, idFrom);
+            st.setLong(2, idTo);
+            ResultSet rs = st.executeQuery();
+            List<FreeSpaceIndex.Entry> freeSpaces = new ArrayList<>();
+            while (rs.next()) {
+                freeSpaces.add(new FreeSpaceIndex.Entry(rs.getLong("id"), 
+                        rs.getInt("row"), rs.getInt("col"), rs.getInt("freeSpace")));
+            }
+            return freeSpaces;
+        } finally {
+            DBUtils.closeQuietly(null, st);
+        }
+    }
+
+    /**
+     * Reads free space of given grave for updating free space index after 
+     * commit. Nothing is read when the index is not used.
+     */
+    private FreeSpaceIndex.Entry readFreeSpaceForIndex(Connection conn, long graveId) throws SQLException {
+        if (!freeSpaceIndex.isLoaded()) {
+            return null;
+        }
+        PreparedStatement st = null;
+        try {
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT row, col, capacity - occupied - reserved FROM Grave WHERE id = ?");
+            st.setLong(1, graveId);
+            ResultSet rs = st.executeQuery();
+            return rs.next()
+                    ? new FreeSpaceIndex.Entry(graveId, rs.getInt(1), rs.getInt(2), rs.getInt(3))
+                    : new FreeSpaceIndex.Entry(graveId, 0, 0, 0);
+        } finally {
+            DBUtils.closeQuietly(null, st);
+        }
+    }
+
+    /**
+     * Updates free space index after commit, so it reflects only committed
+     * data even if the operation is part of larger transaction.
+     */
+    private void updateFreeSpaceIndex(long graveId, FreeSpaceIndex.Entry freeSpace) {
+        if (freeSpace != null) {
+            TransactionRunner.afterCommit(() -> freeSpaceIndex.update(graveId, 
+                    freeSpace.getRow(), freeSpace.getColumn(), freeSpace.getFreeSpace()));
+        }
+    }
 }
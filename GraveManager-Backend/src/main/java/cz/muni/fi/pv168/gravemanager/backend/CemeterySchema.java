@@ -0,0 +1,83 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.Dialect;
+import cz.muni.fi.pv168.common.SchemaMigrator;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Versions of the database schema used by managers of this package. New
+ * version of the schema is added as new migration script, scripts of
+ * already released versions (including {@code createTables.sql}, which is
+ * version 1) must not be modified.
+ *
+ * <ol>
+ * <li>Tables GRAVE and BODY</li>
+ * <li>Column GRAVE.OCCUPIED, filled with number of bodies in the grave</li>
+ * <li>Column GRAVE.RESERVED</li>
+ * <li>Unique index of grave position</li>
+ * </ol>
+ *
+ * <pre>
+ * CemeterySchema.migrate(dataSource);
+ * </pre>
+ *
+ * @author agent
+ */
+public final class CemeterySchema {
+
+    private static final Logger logger = Logger.getLogger(
+            CemeterySchema.class.getName());
+
+    /**
+     * The latest version of the schema.
+     */
+    public static final int CURRENT_VERSION = 4;
+
+    private CemeterySchema() {
+    }
+
+    /**
+     * Creates migrator with all versions of the schema. Scripts specific
+     * for dialect of the database are used when they exist, see
+     * {@link Dialect#getScript(Class, String)}. Databases created by
+     * {@code DBUtils.tryCreateTables(...)} before versioning was introduced
+     * are recorded as version 1 and the following versions are applied to
+     * them.
+     *
+     * @param dataSource data source
+     * @return migrator
+     * @throws ServiceFailureException when dialect can not be detected
+     */
+    public static SchemaMigrator createMigrator(DataSource dataSource) {
+        Dialect dialect;
+        try {
+            dialect = Dialect.of(dataSource);
+        } catch (SQLException ex) {
+            String msg = "Error when detecting dialect of the database";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        }
+        SchemaMigrator migrator = new SchemaMigrator(dataSource);
+        migrator.addMigration(1, "Create tables", dialect.getScript(CemeterySchema.class, "createTables"));
+        migrator.addMigration(2, "Grave occupancy", dialect.getScript(CemeterySchema.class, "V2__grave_occupied"));
+        migrator.addMigration(3, "Grave reservations", dialect.getScript(CemeterySchema.class, "V3__grave_reserved"));
+        migrator.addMigration(4, "Unique grave position", dialect.getScript(CemeterySchema.class, "V4__grave_position_index"));
+        migrator.setBaseline(1, "GRAVE");
+        return migrator;
+    }
+
+    /**
+     * Brings the schema to the latest version.
+     *
+     * @param dataSource data source
+     * @return number of applied migrations
+     * @throws ServiceFailureException when migration fails
+     */
+    public static int migrate(DataSource dataSource) throws ServiceFailureException {
+        return createMigrator(dataSource).migrate();
+    }
+}
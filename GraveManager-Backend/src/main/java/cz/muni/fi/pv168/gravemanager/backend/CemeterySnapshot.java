@@ -0,0 +1,309 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable in-memory copy of all graves, bodies and their placement, which
+ * answers read queries without accessing the database. Snapshots are
+ * created and kept up to date by {@link SnapshotCemeteryManager}; changes
+ * are never made in place, new snapshot sharing unchanged entities is
+ * created instead, so the snapshot can be read by any number of threads
+ * without locking.
+ *
+ * <p>Entities are mutable, so all methods return new copies.</p>
+ *
+ * @author agent
+ */
+public final class CemeterySnapshot {
+
+    private static final long[] NO_IDS = new long[0];
+
+    private final Instant loadedAt;
+    private final Map<Long, GraveEntry> graves;
+    private final Map<Long, BodyEntry> bodies;
+    private final Map<Long, long[]> bodyIdsByGrave;
+    // Sorted ids of graves and bodies matching the most frequent queries
+    private final long[] graveIds;
+    private final long[] emptyGraveIds;
+    private final long[] graveIdsWithFreeSpace;
+    private final long[] unburiedBodyIds;
+
+    /**
+     * Grave with its occupancy. Instances are never modified.
+     */
+    static final class GraveEntry {
+
+        final Grave grave;
+        final int occupied;
+        final int reserved;
+
+        GraveEntry(Grave grave, int occupied, int reserved) {
+            this.grave = grave;
+            this.occupied = occupied;
+            this.reserved = reserved;
+        }
+    }
+
+    /**
+     * Body with id of grave where it is placed. Instances are never
+     * modified.
+     */
+    static final class BodyEntry {
+
+        final Body body;
+        final Long graveId;
+
+        BodyEntry(Body body, Long graveId) {
+            this.body = body;
+            this.graveId = graveId;
+        }
+    }
+
+    /**
+     * Creates snapshot. Given maps must not be modified after that.
+     *
+     * @param graves graves by id
+     * @param bodies bodies by id
+     * @param loadedAt time when the data were loaded from the database
+     */
+    CemeterySnapshot(Map<Long, GraveEntry> graves, Map<Long, BodyEntry> bodies, Instant loadedAt) {
+        this.graves = graves;
+        this.bodies = bodies;
+        this.loadedAt = loadedAt;
+
+        graveIds = sortedIds(graves.keySet());
+        int empty = 0;
+        int withFreeSpace = 0;
+        long[] emptyIds = new long[graveIds.length];
+        long[] freeSpaceIds = new long[graveIds.length];
+        for (long id : graveIds) {
+            GraveEntry entry = graves.get(id);
+            if (entry.occupied == 0 && entry.reserved == 0) {
+                emptyIds[empty++] = id;
+            }
+            if (entry.occupied + entry.reserved < entry.grave.getCapacity()) {
+                freeSpaceIds[withFreeSpace++] = id;
+            }
+        }
+        emptyGraveIds = Arrays.copyOf(emptyIds, empty);
+        graveIdsWithFreeSpace = Arrays.copyOf(freeSpaceIds, withFreeSpace);
+
+        long[] bodyIds = sortedIds(bodies.keySet());
+        Map<Long, List<Long>> bodiesByGrave = new HashMap<>();
+        long[] unburiedIds = new long[bodyIds.length];
+        int unburied = 0;
+        for (long id : bodyIds) {
+            Long graveId = bodies.get(id).graveId;
+            if (graveId == null) {
+                unburiedIds[unburied++] = id;
+            } else {
+                bodiesByGrave.computeIfAbsent(graveId, k -> new ArrayList<>()).add(id);
+            }
+        }
+        unburiedBodyIds = Arrays.copyOf(unburiedIds, unburied);
+        bodyIdsByGrave = new HashMap<>(bodiesByGrave.size() * 2);
+        for (Map.Entry<Long, List<Long>> entry : bodiesByGrave.entrySet()) {
+            bodyIdsByGrave.put(entry.getKey(), sortedIds(entry.getValue()));
+        }
+    }
+
+    private static long[] sortedIds(Collection<Long> ids) {
+        long[] result = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids) {
+            result[i++] = id;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns new snapshot with given changes applied. Unchanged entities
+     * are shared with this snapshot.
+     *
+     * @param changedGraves new state of created or changed graves
+     * @param removedGraves ids of deleted graves
+     * @param changedBodies new state of created or changed bodies
+     * @param removedBodies ids of deleted bodies
+     * @return new snapshot
+     */
+    CemeterySnapshot withChanges(Collection<GraveEntry> changedGraves, Collection<Long> removedGraves,
+            Collection<BodyEntry> changedBodies, Collection<Long> removedBodies) {
+        Map<Long, GraveEntry> newGraves = new HashMap<>(graves);
+        newGraves.keySet().removeAll(removedGraves);
+        for (GraveEntry entry : changedGraves) {
+            newGraves.put(entry.grave.getId(), entry);
+        }
+        Map<Long, BodyEntry> newBodies = new HashMap<>(bodies);
+        newBodies.keySet().removeAll(removedBodies);
+        for (BodyEntry entry : changedBodies) {
+            newBodies.put(entry.body.getId(), entry);
+        }
+        return new CemeterySnapshot(newGraves, newBodies, loadedAt);
+    }
+
+    /**
+     * Returns time when all data of the snapshot were loaded from the
+     * database. Changes applied later don't change this time.
+     *
+     * @return time of loading
+     */
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    public int getGraveCount() {
+        return graves.size();
+    }
+
+    public int getBodyCount() {
+        return bodies.size();
+    }
+
+    public Grave getGrave(Long id) {
+        GraveEntry entry = graves.get(id);
+        return entry == null ? null : copy(entry.grave);
+    }
+
+    public Body getBody(Long id) {
+        BodyEntry entry = bodies.get(id);
+        return entry == null ? null : copy(entry.body);
+    }
+
+    /**
+     * Returns number of bodies in the grave with given id, or 0 when there
+     * is no such grave.
+     *
+     * @param graveId id of the grave
+     * @return number of occupied places
+     */
+    public int getOccupied(Long graveId) {
+        GraveEntry entry = graves.get(graveId);
+        return entry == null ? 0 : entry.occupied;
+    }
+
+    /**
+     * Returns number of places reserved in the grave with given id, or 0
+     * when there is no such grave.
+     *
+     * @param graveId id of the grave
+     * @return number of reserved places
+     */
+    public int getReserved(Long graveId) {
+        GraveEntry entry = graves.get(graveId);
+        return entry == null ? 0 : entry.reserved;
+    }
+
+    /**
+     * Returns all graves ordered by id.
+     *
+     * @return all graves
+     */
+    public List<Grave> findAllGraves() {
+        return toGraves(graveIds);
+    }
+
+    /**
+     * Returns grave where the body with given id is placed.
+     *
+     * @param bodyId id of the body
+     * @return grave or null if the body is not placed in any grave or it
+     * does not exist
+     */
+    public Grave findGraveWithBody(Long bodyId) {
+        BodyEntry entry = bodies.get(bodyId);
+        return entry == null || entry.graveId == null ? null : getGrave(entry.graveId);
+    }
+
+    /**
+     * Returns bodies placed in the grave with given id, ordered by id.
+     *
+     * @param graveId id of the grave
+     * @return bodies in the grave
+     */
+    public List<Body> findBodiesInGrave(Long graveId) {
+        return toBodies(getBodyIdsInGrave(graveId));
+    }
+
+    long[] getBodyIdsInGrave(Long graveId) {
+        long[] ids = bodyIdsByGrave.get(graveId);
+        return ids == null ? NO_IDS : ids;
+    }
+
+    /**
+     * Returns bodies which are not placed in any grave, ordered by id.
+     *
+     * @return unburied bodies
+     */
+    public List<Body> findUnburiedBodies() {
+        return toBodies(unburiedBodyIds);
+    }
+
+    /**
+     * Returns graves without bodies and reserved places, ordered by id.
+     *
+     * @return empty graves
+     */
+    public List<Grave> findEmptyGraves() {
+        return toGraves(emptyGraveIds);
+    }
+
+    /**
+     * Returns graves with some place which is neither occupied nor
+     * reserved, ordered by id.
+     *
+     * @return graves with some free space
+     */
+    public List<Grave> findGravesWithSomeFreeSpace() {
+        return toGraves(graveIdsWithFreeSpace);
+    }
+
+    private List<Grave> toGraves(long[] ids) {
+        List<Grave> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            result.add(copy(graves.get(id).grave));
+        }
+        return result;
+    }
+
+    private List<Body> toBodies(long[] ids) {
+        List<Body> result = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            result.add(copy(bodies.get(id).body));
+        }
+        return result;
+    }
+
+    private static Grave copy(Grave grave) {
+        Grave result = new Grave();
+        result.setId(grave.getId());
+        result.setRow(grave.getRow());
+        result.setColumn(grave.getColumn());
+        result.setCapacity(grave.getCapacity());
+        result.setNote(grave.getNote());
+        return result;
+    }
+
+    private static Body copy(Body body) {
+        Body result = new Body();
+        result.setId(body.getId());
+        result.setName(body.getName());
+        result.setGender(body.getGender());
+        result.setBorn(body.getBorn());
+        result.setDied(body.getDied());
+        result.setVampire(body.isVampire());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CemeterySnapshot{graves=" + graves.size() + ", bodies=" + bodies.size()
+                + ", loadedAt=" + loadedAt + '}';
+    }
+}
@@ -0,0 +1,271 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Aggregated statistics of the cemetery, returned by
+ * {@link CemeteryStatisticsManager}. Instances are immutable.
+ *
+ * @author agent
+ */
+public final class CemeteryStatistics {
+
+    /**
+     * Average length of year in days, used for converting age in days to
+     * years.
+     */
+    private static final double DAYS_PER_YEAR = 365.2425;
+
+    private final SortedMap<Integer, RowStatistics> rows;
+    private final Map<Gender, Long> bodiesByGender;
+    private final long vampireCount;
+    private final long totalAgeAtDeathDays;
+    private final long bodiesWithKnownAge;
+    private final long graveCount;
+    private final long totalCapacity;
+    private final long occupiedSlots;
+    private final long bodyCount;
+
+    /**
+     * Creates statistics.
+     *
+     * @param rows statistics of graves in each row, rows without graves
+     * are omitted
+     * @param bodiesByGender number of bodies of each gender
+     * @param vampireCount number of vampires
+     * @param totalAgeAtDeathDays sum of age at death in days of bodies with
+     * known date of birth and death
+     * @param bodiesWithKnownAge number of bodies with known date of birth
+     * and death
+     */
+    CemeteryStatistics(Map<Integer, RowStatistics> rows, Map<Gender, Long> bodiesByGender,
+            long vampireCount, long totalAgeAtDeathDays, long bodiesWithKnownAge) {
+        this.rows = Collections.unmodifiableSortedMap(new TreeMap<>(rows));
+        EnumMap<Gender, Long> genders = new EnumMap<>(Gender.class);
+        for (Gender gender : Gender.values()) {
+            genders.put(gender, bodiesByGender.getOrDefault(gender, 0L));
+        }
+        this.bodiesByGender = Collections.unmodifiableMap(genders);
+        this.vampireCount = vampireCount;
+        this.totalAgeAtDeathDays = totalAgeAtDeathDays;
+        this.bodiesWithKnownAge = bodiesWithKnownAge;
+        long graves = 0;
+        long capacity = 0;
+        long occupied = 0;
+        for (RowStatistics row : rows.values()) {
+            graves += row.getGraveCount();
+            capacity += row.getCapacity();
+            occupied += row.getOccupiedSlots();
+        }
+        this.graveCount = graves;
+        this.totalCapacity = capacity;
+        this.occupiedSlots = occupied;
+        long bodies = 0;
+        for (Long count : bodiesByGender.values()) {
+            bodies += count;
+        }
+        this.bodyCount = bodies;
+    }
+
+    public long getGraveCount() {
+        return graveCount;
+    }
+
+    /**
+     * Returns total number of places in all graves.
+     *
+     * @return total capacity
+     */
+    public long getTotalCapacity() {
+        return totalCapacity;
+    }
+
+    /**
+     * Returns number of places occupied by buried bodies. Reserved places
+     * are not included.
+     *
+     * @return number of used places
+     */
+    public long getOccupiedSlots() {
+        return occupiedSlots;
+    }
+
+    /**
+     * Returns ratio of occupied places to total capacity.
+     *
+     * @return utilization between 0 and 1, or 0 if there is no grave
+     */
+    public double getUtilization() {
+        return utilization(occupiedSlots, totalCapacity);
+    }
+
+    /**
+     * Returns statistics of graves in each row, ordered by row. Rows without
+     * graves are not included.
+     *
+     * @return unmodifiable map of row numbers to statistics of the row
+     */
+    public SortedMap<Integer, RowStatistics> getRows() {
+        return rows;
+    }
+
+    public long getBodyCount() {
+        return bodyCount;
+    }
+
+    public long getVampireCount() {
+        return vampireCount;
+    }
+
+    /**
+     * Returns number of bodies of each gender.
+     *
+     * @return unmodifiable map containing all genders
+     */
+    public Map<Gender, Long> getBodiesByGender() {
+        return bodiesByGender;
+    }
+
+    /**
+     * Returns number of bodies with known date of birth and death, which
+     * are included in {@link #getAverageAgeAtDeath()}.
+     *
+     * @return number of bodies with known age
+     */
+    public long getBodiesWithKnownAge() {
+        return bodiesWithKnownAge;
+    }
+
+    /**
+     * Returns average age at death of bodies with known date of birth and
+     * death.
+     *
+     * @return average age in years or null if age of no body is known
+     */
+    public Double getAverageAgeAtDeath() {
+        if (bodiesWithKnownAge == 0) {
+            return null;
+        }
+        return totalAgeAtDeathDays / DAYS_PER_YEAR / bodiesWithKnownAge;
+    }
+
+    long getTotalAgeAtDeathDays() {
+        return totalAgeAtDeathDays;
+    }
+
+    private static double utilization(long occupied, long capacity) {
+        return capacity == 0 ? 0 : (double) occupied / capacity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final CemeteryStatistics other = (CemeteryStatistics) obj;
+        return this.vampireCount == other.vampireCount
+                && this.totalAgeAtDeathDays == other.totalAgeAtDeathDays
+                && this.bodiesWithKnownAge == other.bodiesWithKnownAge
+                && this.rows.equals(other.rows)
+                && this.bodiesByGender.equals(other.bodiesByGender);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rows, bodiesByGender, vampireCount, totalAgeAtDeathDays, bodiesWithKnownAge);
+    }
+
+    @Override
+    public String toString() {
+        return "CemeteryStatistics{"
+                + "graveCount=" + graveCount
+                + ", totalCapacity=" + totalCapacity
+                + ", occupiedSlots=" + occupiedSlots
+                + ", bodyCount=" + bodyCount
+                + ", vampireCount=" + vampireCount
+                + ", bodiesByGender=" + bodiesByGender
+                + ", averageAgeAtDeath=" + getAverageAgeAtDeath()
+                + '}';
+    }
+
+    /**
+     * Statistics of graves in single row.
+     */
+    public static final class RowStatistics {
+
+        private final int row;
+        private final long graveCount;
+        private final long capacity;
+        private final long occupiedSlots;
+
+        RowStatistics(int row, long graveCount, long capacity, long occupiedSlots) {
+            this.row = row;
+            this.graveCount = graveCount;
+            this.capacity = capacity;
+            this.occupiedSlots = occupiedSlots;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public long getGraveCount() {
+            return graveCount;
+        }
+
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public long getOccupiedSlots() {
+            return occupiedSlots;
+        }
+
+        /**
+         * Returns ratio of occupied places to capacity of graves in the row.
+         *
+         * @return utilization between 0 and 1
+         */
+        public double getUtilization() {
+            return utilization(occupiedSlots, capacity);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final RowStatistics other = (RowStatistics) obj;
+            return this.row == other.row
+                    && this.graveCount == other.graveCount
+                    && this.capacity == other.capacity
+                    && this.occupiedSlots == other.occupiedSlots;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(row, graveCount, capacity, occupiedSlots);
+        }
+
+        @Override
+        public String toString() {
+            return "RowStatistics{"
+                    + "row=" + row
+                    + ", graveCount=" + graveCount
+                    + ", capacity=" + capacity
+                    + ", occupiedSlots=" + occupiedSlots
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.ServiceFailureException;
+
+/**
+ * This service provides aggregated statistics of the cemetery for reports
+ * and dashboards.
+ *
+ * @author agent
+ */
+public interface CemeteryStatisticsManager {
+
+    /**
+     * Returns statistics of all graves and bodies.
+     *
+     * @return statistics
+     * @throws ServiceFailureException when db operation fails.
+     */
+    CemeteryStatistics getStatistics() throws ServiceFailureException;
+}
@@ -0,0 +1,110 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.Dialect;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * This class implements CemeteryStatisticsManager service. Statistics are
+ * computed by the database with two aggregate queries, one grouped by row of
+ * graves and one grouped by gender and vampire flag of bodies, so only few
+ * rows are transferred regardless of size of the cemetery.
+ *
+ * @author agent
+ */
+public class CemeteryStatisticsManagerImpl implements CemeteryStatisticsManager {
+
+    private static final Logger logger = Logger.getLogger(
+            CemeteryStatisticsManagerImpl.class.getName());
+
+    private DataSource dataSource;
+    private volatile Dialect dialect;
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.dialect = null;
+    }
+
+    /**
+     * Sets SQL dialect of the database. When it is not set, it is detected
+     * from the first connection.
+     *
+     * @param dialect dialect or null for detecting it
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    private void checkDataSource() {
+        if (dataSource == null) {
+            throw new IllegalStateException("DataSource is not set");
+        }
+    }
+
+    private Dialect getDialect(Connection conn) throws SQLException {
+        Dialect result = dialect;
+        if (result == null) {
+            result = Dialect.of(conn);
+            dialect = result;
+        }
+        return result;
+    }
+
+    @Override
+    public CemeteryStatistics getStatistics() throws ServiceFailureException {
+        checkDataSource();
+        Connection conn = null;
+        PreparedStatement gravesSt = null;
+        PreparedStatement bodiesSt = null;
+        try {
+            conn = dataSource.getConnection();
+            gravesSt = DBUtils.prepareStatement(conn,
+                    "SELECT row, COUNT(*), SUM(CAST(capacity AS BIGINT)), SUM(CAST(occupied AS BIGINT)) " +
+                    "FROM Grave GROUP BY row");
+            ResultSet rs = gravesSt.executeQuery();
+            Map<Integer, CemeteryStatistics.RowStatistics> rows = new HashMap<>();
+            while (rs.next()) {
+                int row = rs.getInt(1);
+                rows.put(row, new CemeteryStatistics.RowStatistics(
+                        row, rs.getLong(2), rs.getLong(3), rs.getLong(4)));
+            }
+
+            String age = getDialect(conn).daysBetween("born", "died");
+            bodiesSt = DBUtils.prepareStatement(conn,
+                    "SELECT gender, vampire, COUNT(*), SUM(CAST(" + age + " AS BIGINT)), " +
+                    "COUNT(" + age + ") FROM Body GROUP BY gender, vampire");
+            rs = bodiesSt.executeQuery();
+            Map<Gender, Long> bodiesByGender = new EnumMap<>(Gender.class);
+            long vampireCount = 0;
+            long totalAgeDays = 0;
+            long bodiesWithKnownAge = 0;
+            while (rs.next()) {
+                long count = rs.getLong(3);
+                bodiesByGender.merge(Gender.valueOf(rs.getString(1)), count, Long::sum);
+                if (rs.getInt(2) != 0) {
+                    vampireCount += count;
+                }
+                totalAgeDays += rs.getLong(4);
+                bodiesWithKnownAge += rs.getLong(5);
+            }
+            return new CemeteryStatistics(rows, bodiesByGender, vampireCount,
+                    totalAgeDays, bodiesWithKnownAge);
+        } catch (SQLException ex) {
+            String msg = "Error when computing statistics of the cemetery";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, gravesSt, bodiesSt);
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Read-only copy of all bodies stored by columns in primitive arrays,
+ * intended for analytic scans over millions of bodies. Each body takes about
+ * 30 bytes (id, epoch days of birth and death, gender code, vampire bit,
+ * grave id and code of the name), names are stored only once in the
+ * dictionary. Compared to {@code List<Body>}, there are no per-body objects,
+ * so the store needs a fraction of memory and it does not burden the
+ * garbage collector.
+ *
+ * <p>Bodies are addressed by row index from 0 to {@link #size()} - 1, rows
+ * are ordered by id. Results of filters are {@link BitSet}s of matching
+ * rows, so they can be combined with {@code and}/{@code or} and passed to
+ * {@link #toBodies(BitSet)}. Filters can be evaluated in parallel with
+ * {@link ForkJoinPool}.</p>
+ *
+ * <pre>
+ * ColumnarBodyStore store = ColumnarBodyStore.load(dataSource);
+ * BitSet rows = store.parallelFilter(store.vampire()
+ *         .and(store.diedBetween(LocalDate.of(1900, 1, 1), LocalDate.of(1999, 12, 31))));
+ * </pre>
+ *
+ * <p>This class is immutable and thread safe.</p>
+ *
+ * @author agent
+ */
+public final class ColumnarBodyStore {
+
+    private static final Logger logger = Logger.getLogger(
+            ColumnarBodyStore.class.getName());
+
+    /**
+     * Number of rows fetched from the database at once by
+     * {@link #load(DataSource)}.
+     */
+    static final int FETCH_SIZE = 1000;
+
+    /**
+     * Minimal number of rows processed by single fork-join task. It is
+     * multiple of 64, so tasks never share words of result bit set.
+     */
+    static final int PARALLEL_CHUNK_SIZE = 1 << 16;
+
+    private static final double DAYS_PER_YEAR = 365.2425;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final byte NO_GENDER = -1;
+    private static final long NO_GRAVE = 0;
+    private static final Gender[] GENDERS = Gender.values();
+
+    private final int size;
+    private final long[] ids;
+    private final int[] born;
+    private final int[] died;
+    private final BitSet vampires;
+    private final byte[] genders;
+    private final long[] graveIds;
+    private final int[] nameCodes;
+    private final String[] names;
+    private final Map<String, Integer> nameDictionary;
+
+    /**
+     * Condition evaluated for a row of the store.
+     *
+     * <p>Filters evaluate predicates column by column with
+     * {@link #retain(BitSet, int, int)}, so each predicate is tested only on
+     * rows matching the previous predicates of {@link #and(RowPredicate)}.
+     * Predicates created by the store override it with a loop over single
+     * column.</p>
+     */
+    @FunctionalInterface
+    public interface RowPredicate {
+
+        boolean test(int row);
+
+        /**
+         * Clears rows which don't match this predicate. Bit {@code i} of
+         * given bit set represents row {@code offset + i}.
+         *
+         * @param rows rows to filter
+         * @param offset first row represented by the bit set
+         * @param length number of rows represented by the bit set
+         */
+        default void retain(BitSet rows, int offset, int length) {
+            for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                if (!test(offset + i)) {
+                    rows.clear(i);
+                }
+            }
+        }
+
+        default RowPredicate and(RowPredicate other) {
+            RowPredicate first = this;
+            return new RowPredicate() {
+                @Override
+                public boolean test(int row) {
+                    return first.test(row) && other.test(row);
+                }
+
+                @Override
+                public void retain(BitSet rows, int offset, int length) {
+                    first.retain(rows, offset, length);
+                    other.retain(rows, offset, length);
+                }
+            };
+        }
+
+        default RowPredicate or(RowPredicate other) {
+            RowPredicate first = this;
+            return new RowPredicate() {
+                @Override
+                public boolean test(int row) {
+                    return first.test(row) || other.test(row);
+                }
+
+                @Override
+                public void retain(BitSet rows, int offset, int length) {
+                    BitSet matching = (BitSet) rows.clone();
+                    first.retain(matching, offset, length);
+                    rows.andNot(matching);
+                    other.retain(rows, offset, length);
+                    rows.or(matching);
+                }
+            };
+        }
+
+        default RowPredicate negate() {
+            RowPredicate predicate = this;
+            return new RowPredicate() {
+                @Override
+                public boolean test(int row) {
+                    return !predicate.test(row);
+                }
+
+                @Override
+                public void retain(BitSet rows, int offset, int length) {
+                    BitSet matching = (BitSet) rows.clone();
+                    predicate.retain(matching, offset, length);
+                    rows.andNot(matching);
+                }
+            };
+        }
+    }
+
+    /**
+     * Builder of the store. Bodies must be added ordered by id.
+     */
+    public static final class Builder {
+
+        private int size;
+        private long[] ids = new long[1024];
+        private int[] born = new int[1024];
+        private int[] died = new int[1024];
+        private final BitSet vampires = new BitSet();
+        private byte[] genders = new byte[1024];
+        private long[] graveIds = new long[1024];
+        private int[] nameCodes = new int[1024];
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> nameDictionary = new HashMap<>();
+
+        /**
+         * Adds body.
+         *
+         * @param body body
+         * @param graveId id of grave where the body is placed, or null
+         * @return this builder
+         */
+        public Builder add(Body body, Long graveId) {
+            if (body == null) {
+                throw new IllegalArgumentException("body is null");
+            }
+            return add(body.getId(), body.getName(), body.getGender(), body.getBorn(),
+                    body.getDied(), body.isVampire(), graveId);
+        }
+
+        Builder add(Long id, String name, Gender gender, LocalDate born, LocalDate died,
+                boolean vampire, Long graveId) {
+            if (id == null) {
+                throw new IllegalArgumentException("id is null");
+            }
+            if (size > 0 && id <= ids[size - 1]) {
+                throw new IllegalArgumentException("bodies are not ordered by id");
+            }
+            if (size == ids.length) {
+                grow();
+            }
+            ids[size] = id;
+            this.born[size] = born == null ? NO_DATE : (int) born.toEpochDay();
+            this.died[size] = died == null ? NO_DATE : (int) died.toEpochDay();
+            vampires.set(size, vampire);
+            genders[size] = gender == null ? NO_GENDER : (byte) gender.ordinal();
+            graveIds[size] = graveId == null ? NO_GRAVE : graveId;
+            Integer code = nameDictionary.get(name);
+            if (code == null) {
+                code = names.size();
+                names.add(name);
+                nameDictionary.put(name, code);
+            }
+            nameCodes[size] = code;
+            size++;
+            return this;
+        }
+
+        private void grow() {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            born = Arrays.copyOf(born, capacity);
+            died = Arrays.copyOf(died, capacity);
+            genders = Arrays.copyOf(genders, capacity);
+            graveIds = Arrays.copyOf(graveIds, capacity);
+            nameCodes = Arrays.copyOf(nameCodes, capacity);
+        }
+
+        public ColumnarBodyStore build() {
+            return new ColumnarBodyStore(this);
+        }
+    }
+
+    private ColumnarBodyStore(Builder builder) {
+        size = builder.size;
+        ids = Arrays.copyOf(builder.ids, size);
+        born = Arrays.copyOf(builder.born, size);
+        died = Arrays.copyOf(builder.died, size);
+        vampires = (BitSet) builder.vampires.clone();
+        genders = Arrays.copyOf(builder.genders, size);
+        graveIds = Arrays.copyOf(builder.graveIds, size);
+        nameCodes = Arrays.copyOf(builder.nameCodes, size);
+        names = builder.names.toArray(new String[builder.names.size()]);
+        nameDictionary = new HashMap<>(builder.nameDictionary);
+    }
+
+    /**
+     * Loads all bodies from the database. Rows are read one by one, no
+     * {@link Body} instances are created.
+     *
+     * @param dataSource data source
+     * @return store with all bodies
+     * @throws ServiceFailureException when db operation fails.
+     */
+    public static ColumnarBodyStore load(DataSource dataSource) throws ServiceFailureException {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, name, gender, born, died, vampire, graveId FROM Body ORDER BY id");
+            st.setFetchSize(FETCH_SIZE);
+            ResultSet rs = st.executeQuery();
+            Builder builder = new Builder();
+            while (rs.next()) {
+                long graveId = rs.getLong("graveId");
+                boolean buried = !rs.wasNull();
+                String gender = rs.getString("gender");
+                builder.add(rs.getLong("id"), rs.getString("name"),
+                        gender == null ? null : Gender.valueOf(gender),
+                        toLocalDate(rs.getDate("born")), toLocalDate(rs.getDate("died")),
+                        rs.getInt("vampire") != 0, buried ? graveId : null);
+            }
+            return builder.build();
+        } catch (SQLException ex) {
+            String msg = "Error when loading columnar store of all bodies";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private static LocalDate toLocalDate(Date date) {
+        return date == null ? null : date.toLocalDate();
+    }
+
+    /**
+     * Returns number of bodies.
+     *
+     * @return number of bodies
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns number of distinct names.
+     *
+     * @return size of name dictionary
+     */
+    public int getNameCount() {
+        return names.length;
+    }
+
+    public long getId(int row) {
+        return ids[checkRow(row)];
+    }
+
+    public String getName(int row) {
+        return names[nameCodes[checkRow(row)]];
+    }
+
+    public Gender getGender(int row) {
+        byte gender = genders[checkRow(row)];
+        return gender == NO_GENDER ? null : GENDERS[gender];
+    }
+
+    public LocalDate getBorn(int row) {
+        int day = born[checkRow(row)];
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    public LocalDate getDied(int row) {
+        int day = died[checkRow(row)];
+        return day == NO_DATE ? null : LocalDate.ofEpochDay(day);
+    }
+
+    public boolean isVampire(int row) {
+        return vampires.get(checkRow(row));
+    }
+
+    /**
+     * Returns id of grave where the body is placed.
+     *
+     * @param row row index
+     * @return grave id or null if the body is not buried
+     */
+    public Long getGraveId(int row) {
+        long graveId = graveIds[checkRow(row)];
+        return graveId == NO_GRAVE ? null : graveId;
+    }
+
+    /**
+     * Returns age at death in days.
+     *
+     * @param row row index
+     * @return age at death or -1 when date of birth or death is unknown
+     */
+    public int getAgeAtDeathDays(int row) {
+        checkRow(row);
+        return born[row] == NO_DATE || died[row] == NO_DATE ? -1 : died[row] - born[row];
+    }
+
+    /**
+     * Returns row of body with given id.
+     *
+     * @param id body id
+     * @return row index or -1 if there is no such body
+     */
+    public int findRow(long id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row < 0 ? -1 : row;
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " is out of range 0.." + (size - 1));
+        }
+        return row;
+    }
+
+    /**
+     * Creates body at given row.
+     *
+     * @param row row index
+     * @return new body
+     */
+    public Body toBody(int row) {
+        Body body = new Body();
+        body.setId(getId(row));
+        body.setName(getName(row));
+        body.setGender(getGender(row));
+        body.setBorn(getBorn(row));
+        body.setDied(getDied(row));
+        body.setVampire(isVampire(row));
+        return body;
+    }
+
+    /**
+     * Creates bodies at given rows.
+     *
+     * @param rows row indexes
+     * @return new bodies ordered by id
+     */
+    public List<Body> toBodies(BitSet rows) {
+        List<Body> result = new ArrayList<>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            result.add(toBody(row));
+        }
+        return result;
+    }
+
+    public RowPredicate vampire() {
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return vampires.get(row);
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                // Whole words are compared at once
+                rows.and(offset == 0 ? vampires : vampires.get(offset, offset + length));
+            }
+        };
+    }
+
+    public RowPredicate gender(Gender gender) {
+        byte code = gender == null ? NO_GENDER : (byte) gender.ordinal();
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return genders[row] == code;
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                    if (genders[offset + i] != code) {
+                        rows.clear(i);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching bodies with given name. The name is
+     * compared only once with names in the dictionary.
+     *
+     * @param name name
+     * @return predicate
+     */
+    public RowPredicate name(String name) {
+        Integer code = nameDictionary.get(name);
+        // Codes are not negative, so unknown name never matches
+        int nameCode = code == null ? -1 : code;
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return nameCodes[row] == nameCode;
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                    if (nameCodes[offset + i] != nameCode) {
+                        rows.clear(i);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching bodies born in given period.
+     *
+     * @param from first day of the period
+     * @param to last day of the period
+     * @return predicate
+     */
+    public RowPredicate bornBetween(LocalDate from, LocalDate to) {
+        return between(born, from, to);
+    }
+
+    /**
+     * Returns predicate matching bodies which died in given period.
+     *
+     * @param from first day of the period
+     * @param to last day of the period
+     * @return predicate
+     */
+    public RowPredicate diedBetween(LocalDate from, LocalDate to) {
+        return between(died, from, to);
+    }
+
+    private static RowPredicate between(int[] days, LocalDate from, LocalDate to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from or to is null");
+        }
+        // Unknown dates are stored as the lowest int, so they never match
+        int first = (int) Math.max(from.toEpochDay(), NO_DATE + 1L);
+        int last = (int) Math.min(to.toEpochDay(), Integer.MAX_VALUE);
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return days[row] >= first && days[row] <= last;
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                    if (days[offset + i] < first || days[offset + i] > last) {
+                        rows.clear(i);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching bodies placed in the grave with given id.
+     *
+     * @param graveId grave id
+     * @return predicate
+     */
+    public RowPredicate buriedIn(long graveId) {
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return graveIds[row] == graveId;
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                    if (graveIds[offset + i] != graveId) {
+                        rows.clear(i);
+                    }
+                }
+            }
+        };
+    }
+
+    public RowPredicate buried() {
+        return new RowPredicate() {
+            @Override
+            public boolean test(int row) {
+                return graveIds[row] != NO_GRAVE;
+            }
+
+            @Override
+            public void retain(BitSet rows, int offset, int length) {
+                for (int i = rows.nextSetBit(0); i >= 0; i = rows.nextSetBit(i + 1)) {
+                    if (graveIds[offset + i] == NO_GRAVE) {
+                        rows.clear(i);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns rows matching given predicate.
+     *
+     * @param predicate predicate
+     * @return matching rows
+     */
+    public BitSet filter(RowPredicate predicate) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("predicate is null");
+        }
+        return filter(predicate, 0, size);
+    }
+
+    /**
+     * Returns rows matching given predicate. Rows are evaluated in parallel
+     * in the common {@link ForkJoinPool}, so the predicate must be thread
+     * safe.
+     *
+     * @param predicate predicate
+     * @return matching rows
+     */
+    public BitSet parallelFilter(RowPredicate predicate) {
+        return parallelFilter(predicate, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns rows matching given predicate. Rows are evaluated in parallel
+     * in given pool, so the predicate must be thread safe.
+     *
+     * @param predicate predicate
+     * @param pool fork-join pool
+     * @return matching rows
+     */
+    public BitSet parallelFilter(RowPredicate predicate, ForkJoinPool pool) {
+        if (predicate == null) {
+            throw new IllegalArgumentException("predicate is null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("pool is null");
+        }
+        if (size <= PARALLEL_CHUNK_SIZE) {
+            return filter(predicate, 0, size);
+        }
+        long[] words = new long[(size + 63) / 64];
+        pool.invoke(new FilterTask(predicate, words, 0, size));
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Returns number of rows matching given predicate.
+     *
+     * @param predicate predicate
+     * @return number of matching rows
+     */
+    public int count(RowPredicate predicate) {
+        return filter(predicate).cardinality();
+    }
+
+    /**
+     * Returns number of rows matching given predicate, evaluated in parallel
+     * in the common {@link ForkJoinPool}.
+     *
+     * @param predicate predicate
+     * @return number of matching rows
+     */
+    public int parallelCount(RowPredicate predicate) {
+        return parallelFilter(predicate).cardinality();
+    }
+
+    /**
+     * Returns average age at death in years of bodies at given rows with
+     * known dates of birth and death.
+     *
+     * @param rows row indexes
+     * @return average age or null if no such body has known age
+     */
+    public Double getAverageAgeAtDeath(BitSet rows) {
+        long totalDays = 0;
+        int count = 0;
+        for (int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+            if (born[row] != NO_DATE && died[row] != NO_DATE) {
+                totalDays += died[row] - born[row];
+                count++;
+            }
+        }
+        return count == 0 ? null : totalDays / DAYS_PER_YEAR / count;
+    }
+
+    private BitSet filter(RowPredicate predicate, int from, int to) {
+        BitSet result = new BitSet(to - from);
+        result.set(0, to - from);
+        predicate.retain(result, from, to - from);
+        return result;
+    }
+
+    /**
+     * Filters range of rows and stores matching rows into given words of
+     * bit set. Ranges are split at multiples of {@link #PARALLEL_CHUNK_SIZE},
+     * so each task writes its own words.
+     */
+    private final class FilterTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowPredicate predicate;
+        private final long[] words;
+        private final int from;
+        private final int to;
+
+        FilterTask(RowPredicate predicate, long[] words, int from, int to) {
+            this.predicate = predicate;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK_SIZE) {
+                long[] result = filter(predicate, from, to).toLongArray();
+                System.arraycopy(result, 0, words, from / 64, result.length);
+                return;
+            }
+            int middle = from + (to - from) / 2 / PARALLEL_CHUNK_SIZE * PARALLEL_CHUNK_SIZE;
+            if (middle == from) {
+                middle += PARALLEL_CHUNK_SIZE;
+            }
+            invokeAll(new FilterTask(predicate, words, from, middle),
+                    new FilterTask(predicate, words, middle, to));
+        }
+    }
+}
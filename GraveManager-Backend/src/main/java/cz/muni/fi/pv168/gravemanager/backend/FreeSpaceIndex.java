@@ -0,0 +1,384 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of graves with some free space. Graves are organized by
+ * number of free places, which allows to find the grave with the smallest
+ * sufficient free space (best fit) in O(log n) time, and by position in
+ * a grid of square cells, which allows to find graves nearest to given
+ * position without examining all graves.
+ *
+ * <p>The index is only a hint, the database is always the source of truth.
+ * Callers must verify the place in the database and update the index when
+ * the verification fails.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+final class FreeSpaceIndex {
+
+    /**
+     * Number of rows and columns covered by one cell of the grid.
+     */
+    static final int CELL_SIZE = 8;
+
+    private final TreeMap<Integer, NavigableSet<Long>> gravesByFreeSpace = new TreeMap<>();
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private int minCellRow = Integer.MAX_VALUE;
+    private int maxCellRow = Integer.MIN_VALUE;
+    private int minCellColumn = Integer.MAX_VALUE;
+    private int maxCellColumn = Integer.MIN_VALUE;
+    private boolean boundsStale;
+    private long lastGraveId;
+    private boolean loaded;
+
+    /**
+     * Replaces content of the index.
+     *
+     * @param freeSpaces free space and position of graves
+     * @param lastGraveId the highest id of grave which was considered when
+     * freeSpaces were read
+     */
+    synchronized void load(Collection<Entry> freeSpaces, long lastGraveId) {
+        clear();
+        for (Entry entry : freeSpaces) {
+            put(entry);
+        }
+        this.lastGraveId = lastGraveId;
+        loaded = true;
+    }
+
+    /**
+     * Adds graves created after the index was loaded. Updates are ignored
+     * when the index is not loaded.
+     *
+     * @param freeSpaces free space and position of new graves
+     * @param lastGraveId the highest id of grave which was considered when
+     * freeSpaces were read
+     */
+    synchronized void addNewGraves(Collection<Entry> freeSpaces, long lastGraveId) {
+        if (!loaded) {
+            return;
+        }
+        for (Entry entry : freeSpaces) {
+            remove(entry.getGraveId());
+            put(entry);
+        }
+        this.lastGraveId = Math.max(this.lastGraveId, lastGraveId);
+    }
+
+    /**
+     * Returns the highest id of grave known to the index. Graves with
+     * greater id were created after the index was loaded.
+     *
+     * @return the highest known grave id
+     */
+    synchronized long getLastGraveId() {
+        return lastGraveId;
+    }
+
+    /**
+     * Returns true if the index was loaded and is not invalidated.
+     *
+     * @return true if the index is loaded
+     */
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Drops content of the index. The index needs to be loaded again.
+     */
+    synchronized void invalidate() {
+        clear();
+        loaded = false;
+    }
+
+    /**
+     * Updates free space and position of given grave. Grave with no free
+     * space is removed from the index. Updates are ignored when the index is
+     * not loaded.
+     *
+     * @param graveId id of the grave
+     * @param row row of the grave
+     * @param column column of the grave
+     * @param freeSpace number of free places in the grave
+     */
+    synchronized void update(long graveId, int row, int column, int freeSpace) {
+        if (!loaded) {
+            return;
+        }
+        remove(graveId);
+        put(new Entry(graveId, row, column, freeSpace));
+    }
+
+    /**
+     * Removes given grave from the index.
+     *
+     * @param graveId id of the grave
+     */
+    synchronized void remove(long graveId) {
+        Entry old = entries.remove(graveId);
+        if (old != null) {
+            NavigableSet<Long> bucket = gravesByFreeSpace.get(old.getFreeSpace());
+            bucket.remove(graveId);
+            if (bucket.isEmpty()) {
+                gravesByFreeSpace.remove(old.getFreeSpace());
+            }
+            long key = cellKey(cellOf(old.getRow()), cellOf(old.getColumn()));
+            List<Entry> cell = cells.get(key);
+            cell.remove(old);
+            if (cell.isEmpty()) {
+                cells.remove(key);
+                int cellRow = cellOf(old.getRow());
+                int cellColumn = cellOf(old.getColumn());
+                if (cellRow == minCellRow || cellRow == maxCellRow
+                        || cellColumn == minCellColumn || cellColumn == maxCellColumn) {
+                    boundsStale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds grave with the smallest free space which is at least given number
+     * of places. When there are more such graves, the one with the lowest id
+     * is returned.
+     *
+     * @param slotsNeeded number of needed places
+     * @return id of the grave or null if there is no such grave in the index
+     */
+    synchronized Long findBestFit(int slotsNeeded) {
+        Map.Entry<Integer, NavigableSet<Long>> entry = gravesByFreeSpace.ceilingEntry(slotsNeeded);
+        return entry == null ? null : entry.getValue().first();
+    }
+
+    /**
+     * Finds graves nearest to given position (by euclidean distance). Cells
+     * of the grid are examined in growing square rings around the cell with
+     * given position, until no unexamined cell can contain closer grave.
+     * Rings are clipped to the bounding box of occupied cells and the search
+     * starts with the first ring reaching the box, so the cost does not
+     * depend on the distance of the position from the graves. When the grid
+     * is sparse, all graves are examined instead. Graves with the same
+     * distance are ordered by id.
+     *
+     * @param row row of the position
+     * @param column column of the position
+     * @param count maximal number of returned graves
+     * @return graves ordered by distance from given position
+     */
+    synchronized List<Entry> findNearest(int row, int column, int count) {
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (boundsStale) {
+            recomputeBounds();
+        }
+        Comparator<Entry> byDistance = Comparator
+                .comparingLong((Entry e) -> e.distanceSquared(row, column))
+                .thenComparingLong(Entry::getGraveId);
+        // The farthest of the best candidates found so far is on the top
+        PriorityQueue<Entry> nearest = new PriorityQueue<>(count + 1, byDistance.reversed());
+        long boxCells = ((long) maxCellRow - minCellRow + 1) * ((long) maxCellColumn - minCellColumn + 1);
+        if (boxCells > 4L * cells.size()) {
+            // Most cells in the box are empty, rings would examine them all
+            for (Entry entry : entries.values()) {
+                offer(nearest, entry, count);
+            }
+        } else {
+            findNearestInRings(nearest, row, column, count);
+        }
+        List<Entry> result = new ArrayList<>(nearest);
+        result.sort(byDistance);
+        return result;
+    }
+
+    private void findNearestInRings(PriorityQueue<Entry> nearest, int row, int column, int count) {
+        int centerRow = cellOf(row);
+        int centerColumn = cellOf(column);
+        int firstRing = Math.max(
+                Math.max(minCellRow - centerRow, centerRow - maxCellRow),
+                Math.max(minCellColumn - centerColumn, centerColumn - maxCellColumn));
+        int lastRing = Math.max(
+                Math.max(centerRow - minCellRow, maxCellRow - centerRow),
+                Math.max(centerColumn - minCellColumn, maxCellColumn - centerColumn));
+        for (int ring = Math.max(firstRing, 0); ring <= lastRing; ring++) {
+            int fromRow = Math.max(centerRow - ring, minCellRow);
+            int toRow = Math.min(centerRow + ring, maxCellRow);
+            int fromColumn = Math.max(centerColumn - ring, minCellColumn);
+            int toColumn = Math.min(centerColumn + ring, maxCellColumn);
+            for (int cellRow = fromRow; cellRow <= toRow; cellRow++) {
+                if (cellRow == centerRow - ring || cellRow == centerRow + ring) {
+                    for (int cellColumn = fromColumn; cellColumn <= toColumn; cellColumn++) {
+                        offerCell(nearest, cellRow, cellColumn, count);
+                    }
+                } else {
+                    // Only the left and the right side of the ring
+                    if (centerColumn - ring >= minCellColumn) {
+                        offerCell(nearest, cellRow, centerColumn - ring, count);
+                    }
+                    if (ring > 0 && centerColumn + ring <= maxCellColumn) {
+                        offerCell(nearest, cellRow, centerColumn + ring, count);
+                    }
+                }
+            }
+            // Any grave in next rings is at least ring * CELL_SIZE far away
+            if (nearest.size() == count) {
+                long bound = (long) ring * CELL_SIZE;
+                if (nearest.peek().distanceSquared(row, column) < bound * bound) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void offerCell(PriorityQueue<Entry> nearest, int cellRow, int cellColumn, int count) {
+        List<Entry> cell = cells.get(cellKey(cellRow, cellColumn));
+        if (cell != null) {
+            for (Entry entry : cell) {
+                offer(nearest, entry, count);
+            }
+        }
+    }
+
+    private static void offer(PriorityQueue<Entry> nearest, Entry entry, int count) {
+        nearest.add(entry);
+        if (nearest.size() > count) {
+            nearest.poll();
+        }
+    }
+
+    /**
+     * Returns free space of given grave stored in the index.
+     *
+     * @param graveId id of the grave
+     * @return number of free places or null if the grave is not in the index
+     */
+    synchronized Integer getFreeSpace(long graveId) {
+        Entry entry = entries.get(graveId);
+        return entry == null ? null : entry.getFreeSpace();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void put(Entry entry) {
+        if (entry.getFreeSpace() <= 0) {
+            return;
+        }
+        entries.put(entry.getGraveId(), entry);
+        gravesByFreeSpace.computeIfAbsent(entry.getFreeSpace(), k -> new TreeSet<>())
+                .add(entry.getGraveId());
+        int cellRow = cellOf(entry.getRow());
+        int cellColumn = cellOf(entry.getColumn());
+        cells.computeIfAbsent(cellKey(cellRow, cellColumn), k -> new ArrayList<>())
+                .add(entry);
+        // Bounds are only extended here, removing of the last grave of
+        // a border cell marks them stale, see recomputeBounds()
+        minCellRow = Math.min(minCellRow, cellRow);
+        maxCellRow = Math.max(maxCellRow, cellRow);
+        minCellColumn = Math.min(minCellColumn, cellColumn);
+        maxCellColumn = Math.max(maxCellColumn, cellColumn);
+    }
+
+    private void recomputeBounds() {
+        minCellRow = Integer.MAX_VALUE;
+        maxCellRow = Integer.MIN_VALUE;
+        minCellColumn = Integer.MAX_VALUE;
+        maxCellColumn = Integer.MIN_VALUE;
+        for (long key : cells.keySet()) {
+            int cellRow = (int) (key >> 32);
+            int cellColumn = (int) key;
+            minCellRow = Math.min(minCellRow, cellRow);
+            maxCellRow = Math.max(maxCellRow, cellRow);
+            minCellColumn = Math.min(minCellColumn, cellColumn);
+            maxCellColumn = Math.max(maxCellColumn, cellColumn);
+        }
+        boundsStale = false;
+    }
+
+    private void clear() {
+        gravesByFreeSpace.clear();
+        entries.clear();
+        cells.clear();
+        minCellRow = Integer.MAX_VALUE;
+        maxCellRow = Integer.MIN_VALUE;
+        minCellColumn = Integer.MAX_VALUE;
+        maxCellColumn = Integer.MIN_VALUE;
+        boundsStale = false;
+        lastGraveId = 0;
+    }
+
+    private static int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, CELL_SIZE);
+    }
+
+    private static long cellKey(int cellRow, int cellColumn) {
+        return ((long) cellRow << 32) | (cellColumn & 0xffffffffL);
+    }
+
+    /**
+     * Free space and position of one grave.
+     */
+    static final class Entry {
+
+        private final long graveId;
+        private final int row;
+        private final int column;
+        private final int freeSpace;
+
+        Entry(long graveId, int row, int column, int freeSpace) {
+            this.graveId = graveId;
+            this.row = row;
+            this.column = column;
+            this.freeSpace = freeSpace;
+        }
+
+        long getGraveId() {
+            return graveId;
+        }
+
+        int getRow() {
+            return row;
+        }
+
+        int getColumn() {
+            return column;
+        }
+
+        int getFreeSpace() {
+            return freeSpace;
+        }
+
+        long distanceSquared(int row, int column) {
+            long dr = (long) this.row - row;
+            long dc = (long) this.column - column;
+            return dr * dr + dc * dc;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{"
+                    + "graveId=" + graveId
+                    + ", row=" + row
+                    + ", column=" + column
+                    + ", freeSpace=" + freeSpace
+                    + '}';
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import cz.muni.fi.pv168.common.ValidationException;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This service allows to manipulate with graves.
@@ -20,13 +23,31 @@ public interface GraveManager {
      * @throws IllegalArgumentException when grave is null, or grave has already 
      * assigned id.
      * @throws ValidationException when grave breaks validation rules (row is
-     * negative number, column is negative number or capacity is not positive
-     * number greater than zero).
+     * negative number, column is negative number, capacity is not positive
+     * number greater than zero or there is already another grave at the same
+     * position).
      * @throws IllegalEntityException when grave has already assigned id.
      * @throws ServiceFailureException when db operation fails.
      */
     void createGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException;
     
+    /**
+     * Stores new graves into database in single transaction. All graves are
+     * validated before anything is stored, so either all graves are created or
+     * none of them. Ids for the new graves are automatically generated and
+     * stored into id attribute of each grave.
+     * 
+     * @param graves graves to be created.
+     * @throws IllegalArgumentException when graves collection is null or
+     * it contains null.
+     * @throws ValidationException when some grave breaks validation rules (see
+     * {@link #createGrave(Grave)}) or two graves in the collection have the 
+     * same position.
+     * @throws IllegalEntityException when some grave has already assigned id.
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void createGraves(Collection<Grave> graves) throws ServiceFailureException, ValidationException, IllegalEntityException;
+    
     /**
      * Returns grave with given id.
      * 
@@ -43,8 +64,9 @@ public interface GraveManager {
      * @param grave updated grave to be stored into database.
      * @throws IllegalArgumentException when grave is null, or grave has null id.
      * @throws ValidationException when grave breaks validation rules (row is
-     * negative number, column is negative number or capacity is not positive
-     * number greater than zero).
+     * negative number, column is negative number, capacity is not positive
+     * number greater than zero or there is already another grave at the same
+     * position).
      * @throws IllegalEntityException when grave has null id or does not exist in the database
      * @throws ServiceFailureException when db operation fails.
      */
@@ -59,6 +81,20 @@ public interface GraveManager {
      * @throws ServiceFailureException when db operation fails.
      */
     void deleteGrave(Grave grave) throws ServiceFailureException, IllegalEntityException;
+
+    /**
+     * Deletes all given graves from database in single transaction. Either
+     * all graves are deleted, or nothing is changed.
+     * 
+     * @param graves graves to be deleted from db.
+     * @param policy what should be done with bodies placed in given graves
+     * @throws IllegalArgumentException when graves, some grave or policy is null.
+     * @throws IllegalEntityException when some grave has null id or does not
+     * exist in the database, or when some grave contains bodies and policy is
+     * {@link OccupiedGravePolicy#FAIL}
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void deleteGraves(Collection<Grave> graves, OccupiedGravePolicy policy) throws ServiceFailureException, IllegalEntityException;
     
     /**
      * Returns list of all graves in the database.
@@ -67,5 +103,69 @@ public interface GraveManager {
      * @throws ServiceFailureException when db operation fails.
      */
     List<Grave> findAllGraves() throws ServiceFailureException;
+
+    /**
+     * Returns one page of graves ordered by id. Use this method instead of
+     * {@link #findAllGraves()} for iterating over large number of graves.
+     * 
+     * @param afterId continuation token returned with the previous page 
+     * (only graves with greater id are returned), or null for the first page
+     * @param pageSize maximal number of graves on the page
+     * @return page of graves
+     * @throws IllegalArgumentException when pageSize is not positive number
+     * @throws ServiceFailureException when db operation fails.
+     */
+    Page<Grave> findAllGraves(Long afterId, int pageSize) throws ServiceFailureException;
+
+    /**
+     * Passes all graves in the database, ordered by id, to given action.
+     * Graves are read from the database continuously, they are not loaded
+     * into memory at once. Same as {@code forEachGrave(action, false)}.
+     * 
+     * @param action action to be performed for each grave
+     * @throws IllegalArgumentException when action is null
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void forEachGrave(Consumer<? super Grave> action) throws ServiceFailureException;
+
+    /**
+     * Passes all graves in the database, ordered by id, to given action.
+     * Graves are read from the database continuously, they are not loaded
+     * into memory at once. When reuseInstance is true, the same grave 
+     * instance is filled with values of each row and passed to the action, so
+     * the action must not keep reference to it. Exceptions thrown by the 
+     * action stop the iteration and they are propagated to the caller.
+     * 
+     * @param action action to be performed for each grave
+     * @param reuseInstance if single grave instance should be reused for all rows
+     * @throws IllegalArgumentException when action is null
+     * @throws ServiceFailureException when db operation fails.
+     */
+    void forEachGrave(Consumer<? super Grave> action, boolean reuseInstance) throws ServiceFailureException;
+    
+    /**
+     * Returns grave at given position.
+     * 
+     * @param row row of the grave
+     * @param column column of the grave
+     * @return grave at given position or null if there is no such grave.
+     * @throws ServiceFailureException when db operation fails.
+     */
+    Grave getGraveAt(int row, int column) throws ServiceFailureException;
+    
+    /**
+     * Returns list of graves in given rectangular area, ordered by row and 
+     * column. Bounds are inclusive.
+     * 
+     * @param rowFrom first row of the area
+     * @param rowTo last row of the area
+     * @param columnFrom first column of the area
+     * @param columnTo last column of the area
+     * @return list of graves in given area.
+     * @throws IllegalArgumentException when rowFrom is greater than rowTo or
+     * columnFrom is greater than columnTo.
+     * @throws ServiceFailureException when db operation fails.
+     */
+    List<Grave> findGravesInArea(int rowFrom, int rowTo, int columnFrom, int columnTo) throws ServiceFailureException;
     
 }
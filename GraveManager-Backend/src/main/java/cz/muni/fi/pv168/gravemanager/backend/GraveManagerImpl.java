@@ -1,7 +1,10 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
+import cz.muni.fi.pv168.common.BatchInsert;
 import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.Dialect;
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import cz.muni.fi.pv168.common.ValidationException;
 import java.sql.Connection;
@@ -10,7 +13,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
@@ -25,10 +34,72 @@ public class GraveManagerImpl implements GraveManager {
     private static final Logger logger = Logger.getLogger(
             GraveManagerImpl.class.getName());
     
+    /**
+     * Default number of rows sent to the database in single batch by
+     * {@link #createGraves(Collection)}.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Default number of rows fetched from the database at once by
+     * {@link #forEachGrave(Consumer, boolean)}.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
     private DataSource dataSource;
+    private volatile Dialect dialect;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private CemeteryEventBus eventBus;
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
+        this.dialect = null;
+    }
+
+    /**
+     * Sets SQL dialect of the database. When it is not set, it is detected
+     * from the first connection.
+     * 
+     * @param dialect dialect or null for detecting it
+     */
+    public void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Sets number of rows sent to the database in single batch by
+     * {@link #createGraves(Collection)}.
+     * 
+     * @param batchSize batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive number");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets number of rows fetched from the database at once by 
+     * {@link #forEachGrave(Consumer, boolean)}.
+     * 
+     * @param fetchSize fetch size
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize is not positive number");
+        }
+        this.fetchSize = fetchSize;
+    }
+    
+    /**
+     * Sets bus to which changes of graves are published after commit.
+     * 
+     * @param eventBus event bus or null for not publishing the changes
+     */
+    public void setEventBus(CemeteryEventBus eventBus) {
+        this.eventBus = eventBus;
     }
     
     private void checkDataSource() {
@@ -36,6 +107,27 @@ public class GraveManagerImpl implements GraveManager {
             throw new IllegalStateException("DataSource is not set");
         }
     }
+
+    private Dialect getDialect(Connection conn) throws SQLException {
+        Dialect result = dialect;
+        if (result == null) {
+            result = Dialect.of(conn);
+            dialect = result;
+        }
+        return result;
+    }
+
+    private void publishAfterCommit(List<CemeteryEvent> events) {
+        if (eventBus != null) {
+            eventBus.publishAfterCommit(events);
+        }
+    }
+
+    private void publishAfterCommit(CemeteryEvent.Type type, Long graveId) {
+        if (eventBus != null) {
+            eventBus.publishAfterCommit(CemeteryEvent.graveChanged(type, graveId));
+        }
+    }
     
     @Override
     public List<Grave> findAllGraves() {
@@ -44,7 +136,7 @@ public class GraveManagerImpl implements GraveManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT id, col, row, capacity, note FROM Grave");
             return executeQueryForMultipleGraves(st);
         } catch (SQLException ex) {
@@ -56,6 +148,64 @@ public class GraveManagerImpl implements GraveManager {
         }          
     }
     
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action) throws ServiceFailureException {
+        forEachGrave(action, false);
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action, boolean reuseInstance) throws ServiceFailureException {
+        checkDataSource();
+        if (action == null) {
+            throw new IllegalArgumentException("action is null");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note FROM Grave ORDER BY id");
+            st.setFetchSize(fetchSize);
+            ResultSet rs = st.executeQuery();
+            Grave reused = reuseInstance ? new Grave() : null;
+            while (rs.next()) {
+                action.accept(rowToGrave(rs, reuseInstance ? reused : new Grave()));
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when iterating over all graves in DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public Page<Grave> findAllGraves(Long afterId, int pageSize) throws ServiceFailureException {
+        checkDataSource();
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize is not positive number");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // One extra row is fetched to find out if there is the next page
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note FROM Grave " +
+                    "WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, afterId == null ? 0 : afterId);
+            st.setInt(2, Math.min(pageSize, Integer.MAX_VALUE - 1) + 1);
+            return Page.fromRows(executeQueryForMultipleGraves(st), pageSize, Grave::getId);
+        } catch (SQLException ex) {
+            String msg = "Error when getting page of graves after id " + afterId + " from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
     @Override
     public void createGrave(Grave grave) {
         checkDataSource();
@@ -70,7 +220,7 @@ public class GraveManagerImpl implements GraveManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "INSERT INTO Grave (row,col,capacity,note) VALUES (?,?,?,?)",
                     Statement.RETURN_GENERATED_KEYS);
             st.setInt(1, grave.getRow());
@@ -84,7 +234,11 @@ public class GraveManagerImpl implements GraveManager {
             Long id = DBUtils.getId(st.getGeneratedKeys());
             grave.setId(id);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.GRAVE_CREATED, id);
         } catch (SQLException ex) {
+            if (DBUtils.isUniqueViolation(ex)) {
+                throw new ValidationException(positionAlreadyUsedMessage(grave));
+            }
             String msg = "Error when inserting grave into db";
             logger.log(Level.SEVERE, msg, ex);
             throw new ServiceFailureException(msg, ex);
@@ -94,6 +248,83 @@ public class GraveManagerImpl implements GraveManager {
         }
     }
 
+    @Override
+    public void createGraves(Collection<Grave> graves) {
+        checkDataSource();
+        if (graves == null) {
+            throw new IllegalArgumentException("graves is null");
+        }
+        Set<Long> positions = new HashSet<>();
+        for (Grave grave : graves) {
+            validate(grave);
+            if (grave.getId() != null) {
+                throw new IllegalEntityException("grave id is already set");
+            }
+            if (!positions.add(((long) grave.getRow() << 32) | grave.getColumn())) {
+                throw new ValidationException("there are more graves at row "
+                        + grave.getRow() + ", column " + grave.getColumn());
+            }
+        }
+        if (graves.isEmpty()) {
+            return;
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            BatchInsert insert = getDialect(conn).prepareBatchInsert(conn, "Grave",
+                    "INSERT INTO Grave (row,col,capacity,note) VALUES (?,?,?,?)");
+            st = insert.getStatement();
+            insert.begin();
+            int rowsInBatch = 0;
+            for (Grave grave : graves) {
+                st.setInt(1, grave.getRow());
+                st.setInt(2, grave.getColumn());
+                st.setInt(3, grave.getCapacity());
+                st.setString(4, grave.getNote());
+                st.addBatch();
+                if (++rowsInBatch == batchSize) {
+                    insert.executeBatch();
+                    rowsInBatch = 0;
+                }
+            }
+            if (rowsInBatch > 0) {
+                insert.executeBatch();
+            }
+
+            List<Long> ids = insert.getGeneratedIds();
+            if (ids.size() != graves.size()) {
+                throw new ServiceFailureException("Internal integrity error: "
+                        + graves.size() + " graves inserted, but " + ids.size() + " ids generated");
+            }
+            conn.commit();
+            Iterator<Long> idIterator = ids.iterator();
+            for (Grave grave : graves) {
+                grave.setId(idIterator.next());
+            }
+            if (eventBus != null) {
+                List<CemeteryEvent> events = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                    events.add(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_CREATED, id));
+                }
+                publishAfterCommit(events);
+            }
+        } catch (SQLException ex) {
+            if (DBUtils.isUniqueViolation(ex)) {
+                throw new ValidationException("position of some grave is already used by another grave");
+            }
+            String msg = "Error when inserting graves into db";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
     @Override
     public Grave getGrave(Long id) {
 
@@ -107,7 +338,7 @@ public class GraveManagerImpl implements GraveManager {
         PreparedStatement st = null;
         try {
             conn = dataSource.getConnection();
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "SELECT id, col, row, capacity, note FROM Grave WHERE id = ?");
             st.setLong(1, id);
             return executeQueryForSingleGrave(st);
@@ -134,7 +365,7 @@ public class GraveManagerImpl implements GraveManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "UPDATE Grave SET row = ?, col = ?, capacity = ?, note = ? WHERE id = ?");
             st.setInt(1, grave.getRow());
             st.setInt(2, grave.getColumn());
@@ -145,7 +376,11 @@ public class GraveManagerImpl implements GraveManager {
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, grave, false);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.GRAVE_UPDATED, grave.getId());
         } catch (SQLException ex) {
+            if (DBUtils.isUniqueViolation(ex)) {
+                throw new ValidationException(positionAlreadyUsedMessage(grave));
+            }
             String msg = "Error when updating grave in the db";
             logger.log(Level.SEVERE, msg, ex);
             throw new ServiceFailureException(msg, ex);
@@ -171,13 +406,14 @@ public class GraveManagerImpl implements GraveManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             conn.setAutoCommit(false);
-            st = conn.prepareStatement(
+            st = DBUtils.prepareStatement(conn,
                     "DELETE FROM Grave WHERE id = ?");
             st.setLong(1, grave.getId());
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, grave, false);
             conn.commit();
+            publishAfterCommit(CemeteryEvent.Type.GRAVE_DELETED, grave.getId());
         } catch (SQLException ex) {
             String msg = "Error when deleting grave from the db";
             logger.log(Level.SEVERE, msg, ex);
@@ -188,6 +424,159 @@ public class GraveManagerImpl implements GraveManager {
         }
     }
 
+    @Override
+    public void deleteGraves(Collection<Grave> graves, OccupiedGravePolicy policy) {
+        checkDataSource();
+        if (graves == null) {
+            throw new IllegalArgumentException("graves is null");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy is null");
+        }
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Grave grave : graves) {
+            if (grave == null) {
+                throw new IllegalArgumentException("grave is null");
+            }
+            if (grave.getId() == null) {
+                throw new IllegalEntityException("grave id is null");
+            }
+            ids.add(grave.getId());
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<Long> idList = new ArrayList<>(ids);
+        List<Long> deletedBodyIds = new ArrayList<>();
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            switch (policy) {
+                case UNBURY_BODIES:
+                    DBUtils.executeUpdateForIds(conn, 
+                            "UPDATE Body SET graveId = NULL WHERE graveId IN (%s)", idList);
+                    break;
+                case DELETE_BODIES:
+                    if (eventBus != null) {
+                        deletedBodyIds = findBodyIdsInGraves(conn, idList);
+                    }
+                    DBUtils.executeUpdateForIds(conn, 
+                            "DELETE FROM Body WHERE graveId IN (%s)", idList);
+                    break;
+                default:
+                    // Graves with bodies are detected by foreign key violation
+                    break;
+            }
+            int count = DBUtils.executeUpdateForIds(conn, 
+                    "DELETE FROM Grave WHERE id IN (%s)", idList);
+            if (count != idList.size()) {
+                throw new IllegalEntityException((idList.size() - count) 
+                        + " of given graves do not exist in the db");
+            }
+            conn.commit();
+            if (eventBus != null) {
+                List<CemeteryEvent> events = new ArrayList<>();
+                for (Long bodyId : deletedBodyIds) {
+                    events.add(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_DELETED, bodyId));
+                }
+                for (Long id : idList) {
+                    if (policy != OccupiedGravePolicy.FAIL) {
+                        events.add(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_EMPTIED, id));
+                    }
+                    events.add(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_DELETED, id));
+                }
+                publishAfterCommit(events);
+            }
+        } catch (SQLException ex) {
+            if (DBUtils.isForeignKeyViolation(ex)) {
+                throw new IllegalEntityException("Some of given graves contain bodies");
+            }
+            String msg = "Error when deleting " + idList.size() + " graves from the db";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    private static List<Long> findBodyIdsInGraves(Connection conn, List<Long> graveIds) throws SQLException {
+        List<Long> result = new ArrayList<>();
+        for (int from = 0; from < graveIds.size(); from += DBUtils.MAX_IN_LIST_SIZE) {
+            List<Long> chunk = graveIds.subList(from, Math.min(graveIds.size(), from + DBUtils.MAX_IN_LIST_SIZE));
+            int size = DBUtils.inListSize(chunk.size());
+            PreparedStatement st = null;
+            try {
+                st = DBUtils.prepareStatement(conn, 
+                        "SELECT id FROM Body WHERE graveId IN (" + DBUtils.inListPlaceholders(size) + ")");
+                DBUtils.setInListIds(st, 1, size, chunk);
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) {
+                    result.add(rs.getLong(1));
+                }
+            } finally {
+                DBUtils.closeQuietly(null, st);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Grave getGraveAt(int row, int column) {
+        checkDataSource();
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note FROM Grave WHERE row = ? AND col = ?");
+            st.setInt(1, row);
+            st.setInt(2, column);
+            return executeQueryForSingleGrave(st);
+        } catch (SQLException ex) {
+            String msg = "Error when getting grave at row " + row + ", column " + column + " from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public List<Grave> findGravesInArea(int rowFrom, int rowTo, int columnFrom, int columnTo) {
+        checkDataSource();
+        if (rowFrom > rowTo) {
+            throw new IllegalArgumentException("rowFrom is greater than rowTo");
+        }
+        if (columnFrom > columnTo) {
+            throw new IllegalArgumentException("columnFrom is greater than columnTo");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Uses index on (row, col)
+            st = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note FROM Grave " +
+                    "WHERE row BETWEEN ? AND ? AND col BETWEEN ? AND ? " +
+                    "ORDER BY row, col");
+            st.setInt(1, rowFrom);
+            st.setInt(2, rowTo);
+            st.setInt(3, columnFrom);
+            st.setInt(4, columnTo);
+            return executeQueryForMultipleGraves(st);
+        } catch (SQLException ex) {
+            String msg = "Error when getting graves in area from DB";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
     static Grave executeQueryForSingleGrave(PreparedStatement st) throws SQLException, ServiceFailureException {
         ResultSet rs = st.executeQuery();
         if (rs.next()) {
@@ -211,8 +600,11 @@ public class GraveManagerImpl implements GraveManager {
         return result;
     }
     
-    private static Grave rowToGrave(ResultSet rs) throws SQLException {
-        Grave result = new Grave();
+    static Grave rowToGrave(ResultSet rs) throws SQLException {
+        return rowToGrave(rs, new Grave());
+    }
+
+    private static Grave rowToGrave(ResultSet rs, Grave result) throws SQLException {
         result.setId(rs.getLong("id"));
         result.setColumn(rs.getInt("col"));
         result.setRow(rs.getInt("row"));
@@ -221,6 +613,11 @@ public class GraveManagerImpl implements GraveManager {
         return result;
     }
 
+    private static String positionAlreadyUsedMessage(Grave grave) {
+        return "there is already another grave at row " + grave.getRow()
+                + ", column " + grave.getColumn();
+    }
+
     private static void validate(Grave grave) {
         if (grave == null) {
             throw new IllegalArgumentException("grave is null");
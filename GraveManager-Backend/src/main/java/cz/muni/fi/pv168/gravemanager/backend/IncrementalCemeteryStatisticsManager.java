@@ -0,0 +1,297 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.TransactionRunner;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory statistics of the cemetery, intended for dashboards which
+ * refresh statistics every few seconds. Statistics are loaded from another
+ * {@link CemeteryStatisticsManager} (usually {@link CemeteryStatisticsManagerImpl})
+ * and then they are updated incrementally by changes made through managers
+ * returned by {@link #track(GraveManager)}, {@link #track(BodyManager)} and
+ * {@link #track(CemeteryManager)}, so refreshing of the dashboard does not
+ * need to query the database.
+ *
+ * <p>Changes with simple effect (creating of grave or body, burying or
+ * unburying of bodies) are applied to loaded statistics. Other changes
+ * (e.g. updating or deleting) invalidate the statistics and they are loaded
+ * again when they are requested next time. Statistics are also reloaded when
+ * they are older than {@link #setMaxAge(Duration) max age}, so changes made
+ * by other means (e.g. by another application) are reflected with this
+ * delay. Call {@link #invalidate()} when such change needs to be reflected
+ * immediately.</p>
+ *
+ * <p>Burying and unburying is applied to the row of grave object passed to
+ * the manager, so it must not be out of date.</p>
+ *
+ * <p>Changes made inside of {@link TransactionRunner#inTransaction} are
+ * applied (or invalidate the statistics) when the transaction is committed,
+ * changes of rolled back transaction are ignored.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * <pre>
+ * IncrementalCemeteryStatisticsManager statistics =
+ *         new IncrementalCemeteryStatisticsManager(statisticsManagerImpl, Clock.systemUTC());
+ * GraveManager graveManager = statistics.track(graveManagerImpl);
+ * BodyManager bodyManager = statistics.track(bodyManagerImpl);
+ * CemeteryManager cemeteryManager = statistics.track(cemeteryManagerImpl);
+ * </pre>
+ *
+ * @author agent
+ */
+public class IncrementalCemeteryStatisticsManager implements CemeteryStatisticsManager {
+
+    /**
+     * Default maximal age of loaded statistics.
+     */
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(1);
+
+    private static final int GRAVES = 0;
+    private static final int CAPACITY = 1;
+    private static final int OCCUPIED = 2;
+
+    private final CemeteryStatisticsManager loader;
+    private final Clock clock;
+    private Duration maxAge = DEFAULT_MAX_AGE;
+
+    // State guarded by this
+    private boolean loaded;
+    private Instant loadedAt;
+    private final Map<Integer, long[]> rows = new HashMap<>();
+    private final Map<Gender, Long> bodiesByGender = new EnumMap<>(Gender.class);
+    private long vampireCount;
+    private long totalAgeAtDeathDays;
+    private long bodiesWithKnownAge;
+    private CemeteryStatistics snapshot;
+    private long changeCount;
+    private int changesInProgress;
+    private long loadCount;
+
+    public IncrementalCemeteryStatisticsManager(CemeteryStatisticsManager loader, Clock clock) {
+        if (loader == null) {
+            throw new IllegalArgumentException("loader is null");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock is null");
+        }
+        this.loader = loader;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets maximal age of loaded statistics. Older statistics are loaded
+     * again when they are requested.
+     *
+     * @param maxAge max age
+     */
+    public synchronized void setMaxAge(Duration maxAge) {
+        if (maxAge == null || maxAge.isNegative()) {
+            throw new IllegalArgumentException("maxAge is null or negative");
+        }
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns decorator of given manager which reports its changes to these
+     * statistics.
+     *
+     * @param graveManager grave manager
+     * @return tracking grave manager
+     */
+    public GraveManager track(GraveManager graveManager) {
+        return new StatisticsTrackingGraveManager(graveManager, this);
+    }
+
+    /**
+     * Returns decorator of given manager which reports its changes to these
+     * statistics.
+     *
+     * @param bodyManager body manager
+     * @return tracking body manager
+     */
+    public BodyManager track(BodyManager bodyManager) {
+        return new StatisticsTrackingBodyManager(bodyManager, this);
+    }
+
+    /**
+     * Returns decorator of given manager which reports its changes to these
+     * statistics.
+     *
+     * @param cemeteryManager cemetery manager
+     * @return tracking cemetery manager
+     */
+    public CemeteryManager track(CemeteryManager cemeteryManager) {
+        return new StatisticsTrackingCemeteryManager(cemeteryManager, this);
+    }
+
+    @Override
+    public CemeteryStatistics getStatistics() throws ServiceFailureException {
+        long loadToken;
+        synchronized (this) {
+            if (loaded && !clock.instant().isAfter(loadedAt.plus(maxAge))) {
+                if (snapshot == null) {
+                    snapshot = createSnapshot();
+                }
+                return snapshot;
+            }
+            // Statistics loaded while some change is in progress or
+            // applied could miss that change
+            loadToken = changesInProgress == 0 ? changeCount : -1;
+        }
+        Instant now = clock.instant();
+        CemeteryStatistics statistics = loader.getStatistics();
+        synchronized (this) {
+            if (loadToken >= 0 && loadToken == changeCount) {
+                load(statistics, now);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Discards loaded statistics, so they are loaded again when they are
+     * requested next time.
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+        snapshot = null;
+        changeCount++;
+    }
+
+    /**
+     * Must be called before change which will be applied to the statistics
+     * is made.
+     */
+    synchronized void beginChange() {
+        changesInProgress++;
+        changeCount++;
+    }
+
+    /**
+     * Must be called after the change started with {@link #beginChange()}
+     * is applied, or when it fails.
+     */
+    synchronized void endChange() {
+        changesInProgress--;
+        changeCount++;
+    }
+
+    /**
+     * Applies given change when the transaction active in the current thread
+     * is committed, or immediately when there is no active transaction. Must
+     * be called between {@link #beginChange()} and {@link #endChange()}.
+     * When the statistics were loaded after the change was made but before 
+     * the callback was executed, they may or may not contain the change, so
+     * they are invalidated instead.
+     *
+     * @param change change to be applied
+     */
+    void applyAfterCommit(Runnable change) {
+        long loadsBeforeCommit;
+        synchronized (this) {
+            loadsBeforeCommit = loadCount;
+        }
+        TransactionRunner.afterCommit(() -> {
+            synchronized (this) {
+                if (loadCount != loadsBeforeCommit) {
+                    invalidate();
+                } else {
+                    change.run();
+                    // Statistics being loaded concurrently could miss the change
+                    changeCount++;
+                }
+            }
+        });
+    }
+
+    /**
+     * Invalidates the statistics when the transaction active in the current
+     * thread is committed, or immediately when there is no active 
+     * transaction.
+     */
+    void invalidateAfterCommit() {
+        TransactionRunner.afterCommit(this::invalidate);
+    }
+
+    synchronized void graveCreated(int row, int capacity) {
+        if (!loaded) {
+            return;
+        }
+        long[] statistics = rows.computeIfAbsent(row, r -> new long[3]);
+        statistics[GRAVES]++;
+        statistics[CAPACITY] += capacity;
+        snapshot = null;
+    }
+
+    synchronized void bodyCreated(Gender gender, boolean vampire, LocalDate born, LocalDate died) {
+        if (!loaded) {
+            return;
+        }
+        bodiesByGender.merge(gender, 1L, Long::sum);
+        if (vampire) {
+            vampireCount++;
+        }
+        if (born != null && died != null) {
+            totalAgeAtDeathDays += ChronoUnit.DAYS.between(born, died);
+            bodiesWithKnownAge++;
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Applies change of number of bodies buried in graves in given row.
+     *
+     * @param row row of the grave
+     * @param count number of buried bodies, negative for unburied ones
+     */
+    synchronized void bodiesBuried(int row, int count) {
+        if (!loaded) {
+            return;
+        }
+        long[] statistics = rows.get(row);
+        if (statistics == null) {
+            // Row of given grave is out of date
+            invalidate();
+            return;
+        }
+        statistics[OCCUPIED] += count;
+        snapshot = null;
+    }
+
+    private void load(CemeteryStatistics statistics, Instant now) {
+        rows.clear();
+        for (CemeteryStatistics.RowStatistics row : statistics.getRows().values()) {
+            rows.put(row.getRow(), new long[]{row.getGraveCount(), row.getCapacity(), row.getOccupiedSlots()});
+        }
+        bodiesByGender.clear();
+        bodiesByGender.putAll(statistics.getBodiesByGender());
+        vampireCount = statistics.getVampireCount();
+        totalAgeAtDeathDays = statistics.getTotalAgeAtDeathDays();
+        bodiesWithKnownAge = statistics.getBodiesWithKnownAge();
+        snapshot = statistics;
+        loadedAt = now;
+        loaded = true;
+        loadCount++;
+    }
+
+    private CemeteryStatistics createSnapshot() {
+        Map<Integer, CemeteryStatistics.RowStatistics> rowStatistics = new TreeMap<>();
+        for (Map.Entry<Integer, long[]> entry : rows.entrySet()) {
+            long[] row = entry.getValue();
+            rowStatistics.put(entry.getKey(), new CemeteryStatistics.RowStatistics(
+                    entry.getKey(), row[GRAVES], row[CAPACITY], row[OCCUPIED]));
+        }
+        return new CemeteryStatistics(rowStatistics, bodiesByGender, vampireCount,
+                totalAgeAtDeathDays, bodiesWithKnownAge);
+    }
+}
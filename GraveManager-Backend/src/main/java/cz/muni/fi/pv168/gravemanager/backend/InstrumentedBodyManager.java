@@ -0,0 +1,164 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.BatchResult;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.MetricsRegistry;
+import cz.muni.fi.pv168.common.OperationMetrics;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link BodyManager} which records call count, error counts and
+ * latency histogram of each operation into {@link MetricsRegistry}. Metrics
+ * of operation are named {@code BodyManager.<method name>}, paginated variant of
+ * {@code findAllBodies} is recorded as {@code findAllBodiesPage}.
+ *
+ * @author agent
+ */
+public class InstrumentedBodyManager implements BodyManager {
+
+    private static final String COMPONENT = "BodyManager";
+
+    private final BodyManager delegate;
+    private final OperationMetrics createBody;
+    private final OperationMetrics createBodies;
+    private final OperationMetrics getBody;
+    private final OperationMetrics updateBody;
+    private final OperationMetrics deleteBody;
+    private final OperationMetrics findAllBodies;
+    private final OperationMetrics findAllBodiesPage;
+    private final OperationMetrics forEachBody;
+
+    public InstrumentedBodyManager(BodyManager delegate, MetricsRegistry registry) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        if (registry == null) {
+            throw new IllegalArgumentException("registry is null");
+        }
+        this.delegate = delegate;
+        this.createBody = registry.getOperationMetrics(COMPONENT, "createBody");
+        this.createBodies = registry.getOperationMetrics(COMPONENT, "createBodies");
+        this.getBody = registry.getOperationMetrics(COMPONENT, "getBody");
+        this.updateBody = registry.getOperationMetrics(COMPONENT, "updateBody");
+        this.deleteBody = registry.getOperationMetrics(COMPONENT, "deleteBody");
+        this.findAllBodies = registry.getOperationMetrics(COMPONENT, "findAllBodies");
+        this.findAllBodiesPage = registry.getOperationMetrics(COMPONENT, "findAllBodiesPage");
+        this.forEachBody = registry.getOperationMetrics(COMPONENT, "forEachBody");
+    }
+
+    @Override
+    public void createBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.createBody(body);
+            createBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            createBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public BatchResult<Body> createBodies(Iterable<Body> bodies) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            BatchResult<Body> result = delegate.createBodies(bodies);
+            createBodies.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            createBodies.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Body getBody(Long id) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Body result = delegate.getBody(id);
+            getBody.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void updateBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.updateBody(body);
+            updateBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            updateBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void deleteBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteBody(body);
+            deleteBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            deleteBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Body> findAllBodies() throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Body> result = delegate.findAllBodies();
+            findAllBodies.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findAllBodies.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Page<Body> findAllBodies(Long afterId, int pageSize) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Page<Body> result = delegate.findAllBodies(afterId, pageSize);
+            findAllBodiesPage.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findAllBodiesPage.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            delegate.forEachBody(action);
+            forEachBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            forEachBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action, boolean reuseInstance) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            delegate.forEachBody(action, reuseInstance);
+            forEachBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            forEachBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+}
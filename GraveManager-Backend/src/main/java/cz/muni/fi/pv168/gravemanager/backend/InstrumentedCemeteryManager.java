@@ -0,0 +1,298 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.MetricsRegistry;
+import cz.muni.fi.pv168.common.OperationMetrics;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator of {@link CemeteryManager} which records call count, error counts and
+ * latency histogram of each operation into {@link MetricsRegistry}. Metrics
+ * of operation are named {@code CemeteryManager.<method name>}.
+ *
+ * @author agent
+ */
+public class InstrumentedCemeteryManager implements CemeteryManager {
+
+    private static final String COMPONENT = "CemeteryManager";
+
+    private final CemeteryManager delegate;
+    private final OperationMetrics findGraveWithBody;
+    private final OperationMetrics findBodiesInGrave;
+    private final OperationMetrics findGravesWithBodies;
+    private final OperationMetrics findBodiesInGraves;
+    private final OperationMetrics findUnburiedBodies;
+    private final OperationMetrics findEmptyGraves;
+    private final OperationMetrics findGravesWithSomeFreeSpace;
+    private final OperationMetrics findNearestGraveWithFreeSpace;
+    private final OperationMetrics putBodyIntoGrave;
+    private final OperationMetrics putBodyIntoReservedPlace;
+    private final OperationMetrics removeBodyFromGrave;
+    private final OperationMetrics removeAllBodiesFromGrave;
+    private final OperationMetrics removeAllBodiesFromGraves;
+    private final OperationMetrics moveBody;
+    private final OperationMetrics moveAllBodies;
+    private final OperationMetrics allocateGrave;
+    private final OperationMetrics cancelReservation;
+    private final OperationMetrics checkGraveOccupancy;
+
+    public InstrumentedCemeteryManager(CemeteryManager delegate, MetricsRegistry registry) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        if (registry == null) {
+            throw new IllegalArgumentException("registry is null");
+        }
+        this.delegate = delegate;
+        this.findGraveWithBody = registry.getOperationMetrics(COMPONENT, "findGraveWithBody");
+        this.findBodiesInGrave = registry.getOperationMetrics(COMPONENT, "findBodiesInGrave");
+        this.findGravesWithBodies = registry.getOperationMetrics(COMPONENT, "findGravesWithBodies");
+        this.findBodiesInGraves = registry.getOperationMetrics(COMPONENT, "findBodiesInGraves");
+        this.findUnburiedBodies = registry.getOperationMetrics(COMPONENT, "findUnburiedBodies");
+        this.findEmptyGraves = registry.getOperationMetrics(COMPONENT, "findEmptyGraves");
+        this.findGravesWithSomeFreeSpace = registry.getOperationMetrics(COMPONENT, "findGravesWithSomeFreeSpace");
+        this.findNearestGraveWithFreeSpace = registry.getOperationMetrics(COMPONENT, "findNearestGraveWithFreeSpace");
+        this.putBodyIntoGrave = registry.getOperationMetrics(COMPONENT, "putBodyIntoGrave");
+        this.putBodyIntoReservedPlace = registry.getOperationMetrics(COMPONENT, "putBodyIntoReservedPlace");
+        this.removeBodyFromGrave = registry.getOperationMetrics(COMPONENT, "removeBodyFromGrave");
+        this.removeAllBodiesFromGrave = registry.getOperationMetrics(COMPONENT, "removeAllBodiesFromGrave");
+        this.removeAllBodiesFromGraves = registry.getOperationMetrics(COMPONENT, "removeAllBodiesFromGraves");
+        this.moveBody = registry.getOperationMetrics(COMPONENT, "moveBody");
+        this.moveAllBodies = registry.getOperationMetrics(COMPONENT, "moveAllBodies");
+        this.allocateGrave = registry.getOperationMetrics(COMPONENT, "allocateGrave");
+        this.cancelReservation = registry.getOperationMetrics(COMPONENT, "cancelReservation");
+        this.checkGraveOccupancy = registry.getOperationMetrics(COMPONENT, "checkGraveOccupancy");
+    }
+
+    @Override
+    public Grave findGraveWithBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            Grave result = delegate.findGraveWithBody(body);
+            findGraveWithBody.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findGraveWithBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Body> findBodiesInGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            List<Body> result = delegate.findBodiesInGrave(grave);
+            findBodiesInGrave.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findBodiesInGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Map<Body, Grave> findGravesWithBodies(Collection<Body> bodies) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            Map<Body, Grave> result = delegate.findGravesWithBodies(bodies);
+            findGravesWithBodies.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findGravesWithBodies.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Map<Grave, List<Body>> findBodiesInGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            Map<Grave, List<Body>> result = delegate.findBodiesInGraves(graves);
+            findBodiesInGraves.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findBodiesInGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Body> findUnburiedBodies() throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Body> result = delegate.findUnburiedBodies();
+            findUnburiedBodies.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findUnburiedBodies.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Grave> findEmptyGraves() throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Grave> result = delegate.findEmptyGraves();
+            findEmptyGraves.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findEmptyGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Grave> findGravesWithSomeFreeSpace() throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Grave> result = delegate.findGravesWithSomeFreeSpace();
+            findGravesWithSomeFreeSpace.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findGravesWithSomeFreeSpace.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Grave> findNearestGraveWithFreeSpace(int row, int column, int count) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Grave> result = delegate.findNearestGraveWithFreeSpace(row, column, count);
+            findNearestGraveWithFreeSpace.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findNearestGraveWithFreeSpace.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void putBodyIntoGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.putBodyIntoGrave(body, grave);
+            putBodyIntoGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            putBodyIntoGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void putBodyIntoReservedPlace(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.putBodyIntoReservedPlace(body, grave);
+            putBodyIntoReservedPlace.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            putBodyIntoReservedPlace.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void removeBodyFromGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.removeBodyFromGrave(body, grave);
+            removeBodyFromGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            removeBodyFromGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public int removeAllBodiesFromGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            int result = delegate.removeAllBodiesFromGrave(grave);
+            removeAllBodiesFromGrave.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            removeAllBodiesFromGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public int removeAllBodiesFromGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            int result = delegate.removeAllBodiesFromGraves(graves);
+            removeAllBodiesFromGraves.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            removeAllBodiesFromGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void moveBody(Body body, Grave fromGrave, Grave toGrave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.moveBody(body, fromGrave, toGrave);
+            moveBody.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            moveBody.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public int moveAllBodies(Map<Grave, Grave> targetGraves) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            int result = delegate.moveAllBodies(targetGraves);
+            moveAllBodies.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            moveAllBodies.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Grave allocateGrave(int slotsNeeded) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Grave result = delegate.allocateGrave(slotsNeeded);
+            allocateGrave.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            allocateGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void cancelReservation(Grave grave, int slots) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.cancelReservation(grave, slots);
+            cancelReservation.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            cancelReservation.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public int checkGraveOccupancy(boolean repair) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            int result = delegate.checkGraveOccupancy(repair);
+            checkGraveOccupancy.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            checkGraveOccupancy.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+}
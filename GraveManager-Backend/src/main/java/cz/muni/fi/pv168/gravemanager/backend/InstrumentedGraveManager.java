@@ -0,0 +1,207 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.MetricsRegistry;
+import cz.muni.fi.pv168.common.OperationMetrics;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link GraveManager} which records call count, error counts and
+ * latency histogram of each operation into {@link MetricsRegistry}. Metrics
+ * of operation are named {@code GraveManager.<method name>}, paginated variant of
+ * {@code findAllGraves} is recorded as {@code findAllGravesPage}.
+ *
+ * @author agent
+ */
+public class InstrumentedGraveManager implements GraveManager {
+
+    private static final String COMPONENT = "GraveManager";
+
+    private final GraveManager delegate;
+    private final OperationMetrics createGrave;
+    private final OperationMetrics createGraves;
+    private final OperationMetrics getGrave;
+    private final OperationMetrics updateGrave;
+    private final OperationMetrics deleteGrave;
+    private final OperationMetrics deleteGraves;
+    private final OperationMetrics findAllGraves;
+    private final OperationMetrics findAllGravesPage;
+    private final OperationMetrics forEachGrave;
+    private final OperationMetrics getGraveAt;
+    private final OperationMetrics findGravesInArea;
+
+    public InstrumentedGraveManager(GraveManager delegate, MetricsRegistry registry) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        if (registry == null) {
+            throw new IllegalArgumentException("registry is null");
+        }
+        this.delegate = delegate;
+        this.createGrave = registry.getOperationMetrics(COMPONENT, "createGrave");
+        this.createGraves = registry.getOperationMetrics(COMPONENT, "createGraves");
+        this.getGrave = registry.getOperationMetrics(COMPONENT, "getGrave");
+        this.updateGrave = registry.getOperationMetrics(COMPONENT, "updateGrave");
+        this.deleteGrave = registry.getOperationMetrics(COMPONENT, "deleteGrave");
+        this.deleteGraves = registry.getOperationMetrics(COMPONENT, "deleteGraves");
+        this.findAllGraves = registry.getOperationMetrics(COMPONENT, "findAllGraves");
+        this.findAllGravesPage = registry.getOperationMetrics(COMPONENT, "findAllGravesPage");
+        this.forEachGrave = registry.getOperationMetrics(COMPONENT, "forEachGrave");
+        this.getGraveAt = registry.getOperationMetrics(COMPONENT, "getGraveAt");
+        this.findGravesInArea = registry.getOperationMetrics(COMPONENT, "findGravesInArea");
+    }
+
+    @Override
+    public void createGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.createGrave(grave);
+            createGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            createGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void createGraves(Collection<Grave> graves) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.createGraves(graves);
+            createGraves.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            createGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Grave getGrave(Long id) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Grave result = delegate.getGrave(id);
+            getGrave.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void updateGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.updateGrave(grave);
+            updateGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            updateGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void deleteGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteGrave(grave);
+            deleteGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            deleteGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void deleteGraves(Collection<Grave> graves, OccupiedGravePolicy policy) throws ServiceFailureException, IllegalEntityException {
+        long start = System.nanoTime();
+        try {
+            delegate.deleteGraves(graves, policy);
+            deleteGraves.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            deleteGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Grave> findAllGraves() throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Grave> result = delegate.findAllGraves();
+            findAllGraves.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findAllGraves.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Page<Grave> findAllGraves(Long afterId, int pageSize) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Page<Grave> result = delegate.findAllGraves(afterId, pageSize);
+            findAllGravesPage.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findAllGravesPage.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            delegate.forEachGrave(action);
+            forEachGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            forEachGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action, boolean reuseInstance) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            delegate.forEachGrave(action, reuseInstance);
+            forEachGrave.recordSuccess(start);
+        } catch (RuntimeException ex) {
+            forEachGrave.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public Grave getGraveAt(int row, int column) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            Grave result = delegate.getGraveAt(row, column);
+            getGraveAt.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            getGraveAt.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+
+    @Override
+    public List<Grave> findGravesInArea(int rowFrom, int rowTo, int columnFrom, int columnTo) throws ServiceFailureException {
+        long start = System.nanoTime();
+        try {
+            List<Grave> result = delegate.findGravesInArea(rowFrom, rowTo, columnFrom, columnTo);
+            findGravesInArea.recordSuccess(start);
+            return result;
+        } catch (RuntimeException ex) {
+            findGravesInArea.recordFailure(start, ex);
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+/**
+ * This enum represents what should be done with bodies placed in graves
+ * which are being deleted.
+ *
+ * @author agent
+ */
+public enum OccupiedGravePolicy {
+
+    /**
+     * Graves containing some body are not deleted and the operation fails.
+     */
+    FAIL,
+
+    /**
+     * Bodies are removed from graves and they stay in the database as
+     * unburied bodies.
+     */
+    UNBURY_BODIES,
+
+    /**
+     * Bodies placed in graves are deleted together with graves.
+     */
+    DELETE_BODIES;
+
+}
@@ -0,0 +1,495 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Decorator of {@link CemeteryManager} which answers queries for placement
+ * of bodies from {@link CemeterySnapshot} held in memory, intended for views
+ * which read much more often than the data change. Other operations are
+ * delegated.
+ *
+ * <p>The snapshot is loaded when it is needed for the first time. Changes
+ * are applied to it when this manager is subscribed to
+ * {@link CemeteryEventBus} where all managers publish their changes:
+ * received events are only queued, and the next query reloads graves and
+ * bodies affected by queued events and publishes new snapshot. Whole
+ * snapshot is loaded again when it is older than
+ * {@link #setRefreshInterval(Duration) refresh interval}, so changes which
+ * were not published to the bus (e.g. changes made by another application)
+ * are reflected with this delay. Call {@link #refresh()} when such change
+ * needs to be reflected immediately.</p>
+ *
+ * <p>Only one thread updates the snapshot at a time, concurrent queries
+ * don't wait for it and they are answered from the previous snapshot. So
+ * queries are blocked only until the first snapshot is loaded.</p>
+ *
+ * <pre>
+ * SnapshotCemeteryManager snapshotManager =
+ *         new SnapshotCemeteryManager(cemeteryManagerImpl, Clock.systemUTC());
+ * snapshotManager.setDataSource(dataSource);
+ * eventBus.subscribe(snapshotManager);
+ * </pre>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author agent
+ */
+public class SnapshotCemeteryManager implements CemeteryManager, CemeteryEventListener {
+
+    private static final Logger logger = Logger.getLogger(
+            SnapshotCemeteryManager.class.getName());
+
+    /**
+     * Default interval of loading of the whole snapshot.
+     */
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(5);
+
+    /**
+     * Maximal number of queued events. When more events are received
+     * before they are applied, whole snapshot is loaded again instead of
+     * applying them.
+     */
+    static final int MAX_PENDING_EVENTS = 10_000;
+
+    private final CemeteryManager delegate;
+    private final Clock clock;
+    private DataSource dataSource;
+    private volatile Duration refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private final AtomicReference<CemeterySnapshot> snapshot = new AtomicReference<>();
+    private final Queue<CemeteryEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingEventsCount = new AtomicInteger();
+    private volatile boolean reloadNeeded;
+    private final ReentrantLock updateLock = new ReentrantLock();
+
+    public SnapshotCemeteryManager(CemeteryManager delegate, Clock clock) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        if (clock == null) {
+            throw new IllegalArgumentException("clock is null");
+        }
+        this.delegate = delegate;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets DataSource from which the snapshot is loaded.
+     *
+     * @param dataSource data source
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        reloadNeeded = true;
+    }
+
+    /**
+     * Sets interval of loading of the whole snapshot.
+     *
+     * @param refreshInterval refresh interval
+     */
+    public void setRefreshInterval(Duration refreshInterval) {
+        if (refreshInterval == null || refreshInterval.isNegative()) {
+            throw new IllegalArgumentException("refreshInterval is null or negative");
+        }
+        this.refreshInterval = refreshInterval;
+    }
+
+    private void checkDataSource() {
+        if (dataSource == null) {
+            throw new IllegalStateException("DataSource is not set");
+        }
+    }
+
+    /**
+     * Queues the change to be applied to the snapshot. It never blocks.
+     *
+     * @param event the change
+     */
+    @Override
+    public void onEvent(CemeteryEvent event) {
+        if (pendingEventsCount.incrementAndGet() > MAX_PENDING_EVENTS) {
+            pendingEventsCount.decrementAndGet();
+            reloadNeeded = true;
+            return;
+        }
+        pendingEvents.offer(event);
+    }
+
+    /**
+     * Marks the snapshot to be loaded again, because some changes were not
+     * delivered.
+     */
+    @Override
+    public void onEventsDropped() {
+        reloadNeeded = true;
+    }
+
+    /**
+     * Returns current snapshot. When some changes are waiting to be
+     * applied or the snapshot is older than refresh interval, the snapshot
+     * is updated first, unless another thread is already updating it.
+     *
+     * @return current snapshot
+     * @throws ServiceFailureException when loading of changes fails
+     */
+    public CemeterySnapshot getSnapshot() throws ServiceFailureException {
+        CemeterySnapshot current = snapshot.get();
+        if (current == null) {
+            updateLock.lock();
+        } else if (!isOutdated(current) || !updateLock.tryLock()) {
+            return current;
+        }
+        try {
+            return update();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Loads whole snapshot again.
+     *
+     * @throws ServiceFailureException when loading fails
+     */
+    public void refresh() throws ServiceFailureException {
+        updateLock.lock();
+        try {
+            reloadNeeded = true;
+            update();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private boolean isOutdated(CemeterySnapshot current) {
+        return reloadNeeded || !pendingEvents.isEmpty()
+                || clock.instant().isAfter(current.getLoadedAt().plus(refreshInterval));
+    }
+
+    private CemeterySnapshot update() {
+        CemeterySnapshot current = snapshot.get();
+        if (current != null && !isOutdated(current)) {
+            // Updated by another thread in the meantime
+            return current;
+        }
+        checkDataSource();
+        boolean reload = current == null || reloadNeeded
+                || clock.instant().isAfter(current.getLoadedAt().plus(refreshInterval));
+        // Events are taken before loading, so changes published while
+        // the data are loaded are applied later
+        List<CemeteryEvent> events = drainPendingEvents();
+        try {
+            if (reload) {
+                reloadNeeded = false;
+                current = load();
+            } else {
+                current = applyEvents(current, events);
+            }
+        } catch (ServiceFailureException ex) {
+            // Taken events are lost, so everything must be loaded again
+            reloadNeeded = true;
+            throw ex;
+        }
+        snapshot.set(current);
+        return current;
+    }
+
+    private List<CemeteryEvent> drainPendingEvents() {
+        List<CemeteryEvent> result = new ArrayList<>();
+        CemeteryEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            pendingEventsCount.decrementAndGet();
+            result.add(event);
+        }
+        return result;
+    }
+
+    private CemeterySnapshot load() throws ServiceFailureException {
+        Instant now = clock.instant();
+        Connection conn = null;
+        PreparedStatement gravesSt = null;
+        PreparedStatement bodiesSt = null;
+        try {
+            conn = dataSource.getConnection();
+            gravesSt = DBUtils.prepareStatement(conn,
+                    "SELECT id, col, row, capacity, note, occupied, reserved FROM Grave");
+            Map<Long, CemeterySnapshot.GraveEntry> graves = new HashMap<>();
+            readGraves(gravesSt.executeQuery(), graves);
+            bodiesSt = DBUtils.prepareStatement(conn,
+                    "SELECT id, name, gender, born, died, vampire, graveId FROM Body");
+            Map<Long, CemeterySnapshot.BodyEntry> bodies = new HashMap<>();
+            readBodies(bodiesSt.executeQuery(), bodies);
+            return new CemeterySnapshot(graves, bodies, now);
+        } catch (SQLException ex) {
+            String msg = "Error when loading snapshot of the cemetery";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, gravesSt, bodiesSt);
+        }
+    }
+
+    private CemeterySnapshot applyEvents(CemeterySnapshot current, List<CemeteryEvent> events)
+            throws ServiceFailureException {
+        Set<Long> graveIds = new LinkedHashSet<>();
+        Set<Long> bodyIds = new LinkedHashSet<>();
+        for (CemeteryEvent event : events) {
+            if (event.getGraveId() != null) {
+                graveIds.add(event.getGraveId());
+            }
+            if (event.getPreviousGraveId() != null) {
+                graveIds.add(event.getPreviousGraveId());
+            }
+            if (event.getBodyId() != null) {
+                bodyIds.add(event.getBodyId());
+            }
+            switch (event.getType()) {
+                case GRAVE_EMPTIED:
+                    for (long bodyId : current.getBodyIdsInGrave(event.getGraveId())) {
+                        bodyIds.add(bodyId);
+                    }
+                    break;
+                case BODY_DELETED:
+                    // Place in the grave of deleted body was released
+                    Grave grave = current.findGraveWithBody(event.getBodyId());
+                    if (grave != null) {
+                        graveIds.add(grave.getId());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (graveIds.isEmpty() && bodyIds.isEmpty()) {
+            return current;
+        }
+        Connection conn = null;
+        List<PreparedStatement> statements = new ArrayList<>();
+        try {
+            conn = dataSource.getConnection();
+            Map<Long, CemeterySnapshot.GraveEntry> graves = new LinkedHashMap<>();
+            for (ResultSet rs : queryForIds(conn, statements,
+                    "SELECT id, col, row, capacity, note, occupied, reserved FROM Grave WHERE id IN (%s)",
+                    new ArrayList<>(graveIds))) {
+                readGraves(rs, graves);
+            }
+            Map<Long, CemeterySnapshot.BodyEntry> bodies = new LinkedHashMap<>();
+            for (ResultSet rs : queryForIds(conn, statements,
+                    "SELECT id, name, gender, born, died, vampire, graveId FROM Body WHERE id IN (%s)",
+                    new ArrayList<>(bodyIds))) {
+                readBodies(rs, bodies);
+            }
+            // Entities which were not found were deleted
+            graveIds.removeAll(graves.keySet());
+            bodyIds.removeAll(bodies.keySet());
+            return current.withChanges(graves.values(), graveIds, bodies.values(), bodyIds);
+        } catch (SQLException ex) {
+            String msg = "Error when applying " + events.size() + " changes to snapshot of the cemetery";
+            logger.log(Level.SEVERE, msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statements.toArray(new PreparedStatement[0]));
+        }
+    }
+
+    private static List<ResultSet> queryForIds(Connection conn, List<PreparedStatement> statements,
+            String sql, List<Long> ids) throws SQLException {
+        List<ResultSet> result = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += DBUtils.MAX_IN_LIST_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + DBUtils.MAX_IN_LIST_SIZE));
+            int size = DBUtils.inListSize(chunk.size());
+            PreparedStatement st = DBUtils.prepareStatement(conn,
+                    String.format(sql, DBUtils.inListPlaceholders(size)));
+            statements.add(st);
+            DBUtils.setInListIds(st, 1, size, chunk);
+            result.add(st.executeQuery());
+        }
+        return result;
+    }
+
+    private static void readGraves(ResultSet rs, Map<Long, CemeterySnapshot.GraveEntry> graves)
+            throws SQLException {
+        while (rs.next()) {
+            Grave grave = GraveManagerImpl.rowToGrave(rs);
+            graves.put(grave.getId(), new CemeterySnapshot.GraveEntry(
+                    grave, rs.getInt("occupied"), rs.getInt("reserved")));
+        }
+    }
+
+    private static void readBodies(ResultSet rs, Map<Long, CemeterySnapshot.BodyEntry> bodies)
+            throws SQLException {
+        while (rs.next()) {
+            Body body = BodyManagerImpl.rowToBody(rs);
+            long graveId = rs.getLong("graveId");
+            bodies.put(body.getId(), new CemeterySnapshot.BodyEntry(
+                    body, rs.wasNull() ? null : graveId));
+        }
+    }
+
+    private static void checkGrave(Grave grave) {
+        if (grave == null) {
+            throw new IllegalArgumentException("grave is null");
+        }
+        if (grave.getId() == null) {
+            throw new IllegalEntityException("grave id is null");
+        }
+    }
+
+    private static void checkBody(Body body) {
+        if (body == null) {
+            throw new IllegalArgumentException("body is null");
+        }
+        if (body.getId() == null) {
+            throw new IllegalEntityException("body id is null");
+        }
+    }
+
+    @Override
+    public Grave findGraveWithBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        checkBody(body);
+        return getSnapshot().findGraveWithBody(body.getId());
+    }
+
+    @Override
+    public List<Body> findBodiesInGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        checkGrave(grave);
+        return getSnapshot().findBodiesInGrave(grave.getId());
+    }
+
+    @Override
+    public Map<Body, Grave> findGravesWithBodies(Collection<Body> bodies) throws ServiceFailureException, IllegalEntityException {
+        if (bodies == null) {
+            throw new IllegalArgumentException("bodies is null");
+        }
+        for (Body body : bodies) {
+            checkBody(body);
+        }
+        CemeterySnapshot current = getSnapshot();
+        Map<Body, Grave> result = new LinkedHashMap<>();
+        // Bodies placed in the same grave share single instance
+        Map<Long, Grave> graves = new HashMap<>();
+        for (Body body : bodies) {
+            Grave grave = current.findGraveWithBody(body.getId());
+            if (grave != null) {
+                Grave shared = graves.putIfAbsent(grave.getId(), grave);
+                if (shared != null) {
+                    grave = shared;
+                }
+            }
+            result.put(body, grave);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Grave, List<Body>> findBodiesInGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        if (graves == null) {
+            throw new IllegalArgumentException("graves is null");
+        }
+        for (Grave grave : graves) {
+            checkGrave(grave);
+        }
+        CemeterySnapshot current = getSnapshot();
+        Map<Grave, List<Body>> result = new LinkedHashMap<>();
+        for (Grave grave : graves) {
+            result.put(grave, current.findBodiesInGrave(grave.getId()));
+        }
+        return result;
+    }
+
+    @Override
+    public List<Body> findUnburiedBodies() throws ServiceFailureException {
+        return getSnapshot().findUnburiedBodies();
+    }
+
+    @Override
+    public List<Grave> findEmptyGraves() throws ServiceFailureException {
+        return getSnapshot().findEmptyGraves();
+    }
+
+    @Override
+    public List<Grave> findGravesWithSomeFreeSpace() throws ServiceFailureException {
+        return getSnapshot().findGravesWithSomeFreeSpace();
+    }
+
+    @Override
+    public List<Grave> findNearestGraveWithFreeSpace(int row, int column, int count) throws ServiceFailureException {
+        return delegate.findNearestGraveWithFreeSpace(row, column, count);
+    }
+
+    @Override
+    public void putBodyIntoGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        delegate.putBodyIntoGrave(body, grave);
+    }
+
+    @Override
+    public void putBodyIntoReservedPlace(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        delegate.putBodyIntoReservedPlace(body, grave);
+    }
+
+    @Override
+    public void removeBodyFromGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        delegate.removeBodyFromGrave(body, grave);
+    }
+
+    @Override
+    public int removeAllBodiesFromGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        return delegate.removeAllBodiesFromGrave(grave);
+    }
+
+    @Override
+    public int removeAllBodiesFromGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        return delegate.removeAllBodiesFromGraves(graves);
+    }
+
+    @Override
+    public void moveBody(Body body, Grave fromGrave, Grave toGrave) throws ServiceFailureException, IllegalEntityException {
+        delegate.moveBody(body, fromGrave, toGrave);
+    }
+
+    @Override
+    public int moveAllBodies(Map<Grave, Grave> targetGraves) throws ServiceFailureException, IllegalEntityException {
+        return delegate.moveAllBodies(targetGraves);
+    }
+
+    @Override
+    public Grave allocateGrave(int slotsNeeded) throws ServiceFailureException {
+        return delegate.allocateGrave(slotsNeeded);
+    }
+
+    @Override
+    public void cancelReservation(Grave grave, int slots) throws ServiceFailureException, IllegalEntityException {
+        delegate.cancelReservation(grave, slots);
+    }
+
+    @Override
+    public int checkGraveOccupancy(boolean repair) throws ServiceFailureException {
+        return delegate.checkGraveOccupancy(repair);
+    }
+}
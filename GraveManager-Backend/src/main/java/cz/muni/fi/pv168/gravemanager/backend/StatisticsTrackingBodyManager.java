@@ -0,0 +1,102 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.BatchResult;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link BodyManager} which reports changes to
+ * {@link IncrementalCemeteryStatisticsManager}. Body created by
+ * {@link #createBody(Body)} is applied to the statistics, other changes
+ * invalidate them. Bodies created by {@link #createBodies(Iterable)} are not
+ * applied one by one, because the bodies are usually streamed and there is
+ * lots of them. Changes made in a transaction are reported when it is
+ * committed.
+ *
+ * @author agent
+ */
+class StatisticsTrackingBodyManager implements BodyManager {
+
+    private final BodyManager delegate;
+    private final IncrementalCemeteryStatisticsManager statistics;
+
+    StatisticsTrackingBodyManager(BodyManager delegate, IncrementalCemeteryStatisticsManager statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void createBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.createBody(body);
+            Gender gender = body.getGender();
+            boolean vampire = body.isVampire();
+            LocalDate born = body.getBorn();
+            LocalDate died = body.getDied();
+            statistics.applyAfterCommit(() -> statistics.bodyCreated(gender, vampire, born, died));
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public BatchResult<Body> createBodies(Iterable<Body> bodies) throws ServiceFailureException {
+        try {
+            return delegate.createBodies(bodies);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public Body getBody(Long id) throws ServiceFailureException {
+        return delegate.getBody(id);
+    }
+
+    @Override
+    public void updateBody(Body body) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        try {
+            delegate.updateBody(body);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void deleteBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        try {
+            delegate.deleteBody(body);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public List<Body> findAllBodies() throws ServiceFailureException {
+        return delegate.findAllBodies();
+    }
+
+    @Override
+    public Page<Body> findAllBodies(Long afterId, int pageSize) throws ServiceFailureException {
+        return delegate.findAllBodies(afterId, pageSize);
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action) throws ServiceFailureException {
+        delegate.forEachBody(action);
+    }
+
+    @Override
+    public void forEachBody(Consumer<? super Body> action, boolean reuseInstance) throws ServiceFailureException {
+        delegate.forEachBody(action, reuseInstance);
+    }
+}
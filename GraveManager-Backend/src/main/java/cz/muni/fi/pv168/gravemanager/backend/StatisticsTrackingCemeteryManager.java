@@ -0,0 +1,172 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator of {@link CemeteryManager} which reports changes to
+ * {@link IncrementalCemeteryStatisticsManager}. Burying,
+ * unburying and moving of bodies in given graves is applied to the
+ * statistics, bulk changes invalidate them. Changes made in a transaction
+ * are reported when it is committed.
+ *
+ * @author agent
+ */
+class StatisticsTrackingCemeteryManager implements CemeteryManager {
+
+    private final CemeteryManager delegate;
+    private final IncrementalCemeteryStatisticsManager statistics;
+
+    StatisticsTrackingCemeteryManager(CemeteryManager delegate, IncrementalCemeteryStatisticsManager statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public Grave findGraveWithBody(Body body) throws ServiceFailureException, IllegalEntityException {
+        return delegate.findGraveWithBody(body);
+    }
+
+    @Override
+    public List<Body> findBodiesInGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        return delegate.findBodiesInGrave(grave);
+    }
+
+    @Override
+    public Map<Body, Grave> findGravesWithBodies(Collection<Body> bodies) throws ServiceFailureException, IllegalEntityException {
+        return delegate.findGravesWithBodies(bodies);
+    }
+
+    @Override
+    public Map<Grave, List<Body>> findBodiesInGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        return delegate.findBodiesInGraves(graves);
+    }
+
+    @Override
+    public List<Body> findUnburiedBodies() throws ServiceFailureException {
+        return delegate.findUnburiedBodies();
+    }
+
+    @Override
+    public List<Grave> findEmptyGraves() throws ServiceFailureException {
+        return delegate.findEmptyGraves();
+    }
+
+    @Override
+    public List<Grave> findGravesWithSomeFreeSpace() throws ServiceFailureException {
+        return delegate.findGravesWithSomeFreeSpace();
+    }
+
+    @Override
+    public List<Grave> findNearestGraveWithFreeSpace(int row, int column, int count) throws ServiceFailureException {
+        return delegate.findNearestGraveWithFreeSpace(row, column, count);
+    }
+
+    @Override
+    public void putBodyIntoGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.putBodyIntoGrave(body, grave);
+            int row = grave.getRow();
+            statistics.applyAfterCommit(() -> statistics.bodiesBuried(row, 1));
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public void putBodyIntoReservedPlace(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.putBodyIntoReservedPlace(body, grave);
+            int row = grave.getRow();
+            statistics.applyAfterCommit(() -> statistics.bodiesBuried(row, 1));
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public void removeBodyFromGrave(Body body, Grave grave) throws ServiceFailureException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.removeBodyFromGrave(body, grave);
+            int row = grave.getRow();
+            statistics.applyAfterCommit(() -> statistics.bodiesBuried(row, -1));
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public int removeAllBodiesFromGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            int count = delegate.removeAllBodiesFromGrave(grave);
+            int row = grave.getRow();
+            statistics.applyAfterCommit(() -> statistics.bodiesBuried(row, -count));
+            return count;
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public int removeAllBodiesFromGraves(Collection<Grave> graves) throws ServiceFailureException, IllegalEntityException {
+        try {
+            return delegate.removeAllBodiesFromGraves(graves);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void moveBody(Body body, Grave fromGrave, Grave toGrave) throws ServiceFailureException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.moveBody(body, fromGrave, toGrave);
+            int fromRow = fromGrave.getRow();
+            int toRow = toGrave.getRow();
+            statistics.applyAfterCommit(() -> {
+                statistics.bodiesBuried(fromRow, -1);
+                statistics.bodiesBuried(toRow, 1);
+            });
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public int moveAllBodies(Map<Grave, Grave> targetGraves) throws ServiceFailureException, IllegalEntityException {
+        try {
+            return delegate.moveAllBodies(targetGraves);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public Grave allocateGrave(int slotsNeeded) throws ServiceFailureException {
+        return delegate.allocateGrave(slotsNeeded);
+    }
+
+    @Override
+    public void cancelReservation(Grave grave, int slots) throws ServiceFailureException, IllegalEntityException {
+        delegate.cancelReservation(grave, slots);
+    }
+
+    @Override
+    public int checkGraveOccupancy(boolean repair) throws ServiceFailureException {
+        int inconsistent = delegate.checkGraveOccupancy(repair);
+        if (repair && inconsistent > 0) {
+            statistics.invalidateAfterCommit();
+        }
+        return inconsistent;
+    }
+}
@@ -0,0 +1,126 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import cz.muni.fi.pv168.common.ValidationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decorator of {@link GraveManager} which reports changes to
+ * {@link IncrementalCemeteryStatisticsManager}. Created graves are
+ * applied to the statistics, updating and deleting of graves invalidates
+ * them. Changes made in a transaction are reported when it is committed.
+ *
+ * @author agent
+ */
+class StatisticsTrackingGraveManager implements GraveManager {
+
+    private final GraveManager delegate;
+    private final IncrementalCemeteryStatisticsManager statistics;
+
+    StatisticsTrackingGraveManager(GraveManager delegate, IncrementalCemeteryStatisticsManager statistics) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void createGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.createGrave(grave);
+            int row = grave.getRow();
+            int capacity = grave.getCapacity();
+            statistics.applyAfterCommit(() -> statistics.graveCreated(row, capacity));
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public void createGraves(Collection<Grave> graves) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        statistics.beginChange();
+        try {
+            delegate.createGraves(graves);
+            List<int[]> created = new ArrayList<>();
+            for (Grave grave : graves) {
+                created.add(new int[]{grave.getRow(), grave.getCapacity()});
+            }
+            statistics.applyAfterCommit(() -> {
+                for (int[] grave : created) {
+                    statistics.graveCreated(grave[0], grave[1]);
+                }
+            });
+        } finally {
+            statistics.endChange();
+        }
+    }
+
+    @Override
+    public Grave getGrave(Long id) throws ServiceFailureException {
+        return delegate.getGrave(id);
+    }
+
+    @Override
+    public void updateGrave(Grave grave) throws ServiceFailureException, ValidationException, IllegalEntityException {
+        try {
+            delegate.updateGrave(grave);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void deleteGrave(Grave grave) throws ServiceFailureException, IllegalEntityException {
+        try {
+            delegate.deleteGrave(grave);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void deleteGraves(Collection<Grave> graves, OccupiedGravePolicy policy) throws ServiceFailureException, IllegalEntityException {
+        try {
+            delegate.deleteGraves(graves, policy);
+        } finally {
+            statistics.invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public List<Grave> findAllGraves() throws ServiceFailureException {
+        return delegate.findAllGraves();
+    }
+
+    @Override
+    public Page<Grave> findAllGraves(Long afterId, int pageSize) throws ServiceFailureException {
+        return delegate.findAllGraves(afterId, pageSize);
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action) throws ServiceFailureException {
+        delegate.forEachGrave(action);
+    }
+
+    @Override
+    public void forEachGrave(Consumer<? super Grave> action, boolean reuseInstance) throws ServiceFailureException {
+        delegate.forEachGrave(action, reuseInstance);
+    }
+
+    @Override
+    public Grave getGraveAt(int row, int column) throws ServiceFailureException {
+        return delegate.getGraveAt(row, column);
+    }
+
+    @Override
+    public List<Grave> findGravesInArea(int rowFrom, int rowTo, int columnFrom, int columnTo) throws ServiceFailureException {
+        return delegate.findGravesInArea(rowFrom, rowTo, columnFrom, columnTo);
+    }
+}
@@ -0,0 +1,4 @@
+ALTER TABLE "GRAVE" ADD COLUMN "OCCUPIED" INTEGER DEFAULT 0 NOT NULL BEFORE "NOTE";
+
+UPDATE "GRAVE" SET "OCCUPIED" = (
+    SELECT COUNT(*) FROM "BODY" WHERE "BODY"."GRAVEID" = "GRAVE"."ID");
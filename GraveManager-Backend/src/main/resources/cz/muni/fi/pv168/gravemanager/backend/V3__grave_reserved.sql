@@ -0,0 +1 @@
+ALTER TABLE "GRAVE" ADD COLUMN "RESERVED" INTEGER DEFAULT 0 NOT NULL;
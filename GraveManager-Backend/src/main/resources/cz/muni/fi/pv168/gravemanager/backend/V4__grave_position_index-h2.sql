@@ -0,0 +1 @@
+CREATE UNIQUE INDEX "GRAVE_POSITION_IDX" ON "GRAVE" ("ROW", "COL");
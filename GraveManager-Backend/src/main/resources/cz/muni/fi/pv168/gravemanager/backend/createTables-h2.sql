@@ -0,0 +1,17 @@
+CREATE TABLE "GRAVE" (
+    "ID" BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    "COL" INTEGER NOT NULL,
+    "ROW" INTEGER NOT NULL,
+    "CAPACITY" INTEGER NOT NULL,
+    "NOTE" VARCHAR(255)
+);
+
+CREATE TABLE "BODY" (
+    "ID" BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    "GRAVEID" BIGINT REFERENCES GRAVE (ID),
+    "NAME" VARCHAR(255) NOT NULL,
+    "GENDER" VARCHAR(6) NOT NULL,
+    "BORN" DATE,
+    "DIED" DATE,
+    "VAMPIRE" SMALLINT NOT NULL
+);
\ No newline at end of file
@@ -1,2 +1,3 @@
 DROP TABLE "BODY";
-DROP TABLE "GRAVE";
\ No newline at end of file
+DROP TABLE "GRAVE";
+DROP TABLE "SCHEMA_VERSION";
\ No newline at end of file
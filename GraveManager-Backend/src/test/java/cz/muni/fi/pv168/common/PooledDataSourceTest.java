@@ -0,0 +1,194 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManager;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManagerImpl;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link PooledDataSource}.
+ *
+ * @author agent
+ */
+public class PooledDataSourceTest {
+
+    private PooledDataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = new PooledDataSource(prepareDataSource(), 2, 8);
+        CemeterySchema.migrate(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+        ds.close();
+    }
+
+    @Test
+    public void physicalConnectionIsReused() throws SQLException {
+        Connection first = ds.getConnection();
+        first.close();
+        assertThat(first.isClosed()).isTrue();
+
+        Connection second = ds.getConnection();
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.isClosed()).isFalse();
+        second.close();
+
+        PooledDataSource.Statistics statistics = ds.getStatistics();
+        assertThat(statistics.getConnectionsCreated()).isEqualTo(1);
+        assertThat(statistics.getConnectionsReused())
+                .isEqualTo(statistics.getConnectionRequests() - 1);
+        assertThat(statistics.getActiveConnections()).isZero();
+        assertThat(statistics.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void closedConnectionCanNotBeUsed() throws SQLException {
+        Connection conn = ds.getConnection();
+        conn.close();
+        assertThatThrownBy(() -> conn.prepareStatement("VALUES 1"))
+                .isInstanceOf(SQLException.class);
+    }
+
+    @Test
+    public void preparedStatementIsCached() throws SQLException {
+        PooledDataSource.Statistics before = ds.getStatistics();
+        for (int i = 0; i < 3; i++) {
+            try (Connection conn = ds.getConnection();
+                    PreparedStatement st = conn.prepareStatement("SELECT COUNT(*) FROM Grave")) {
+                ResultSet rs = st.executeQuery();
+                assertThat(rs.next()).isTrue();
+                assertThat(rs.getInt(1)).isZero();
+            }
+        }
+        PooledDataSource.Statistics statistics = ds.getStatistics();
+        assertThat(statistics.getStatementCacheMisses() - before.getStatementCacheMisses())
+                .isEqualTo(1);
+        assertThat(statistics.getStatementCacheHits() - before.getStatementCacheHits())
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void statementInUseIsNotShared() throws SQLException {
+        try (Connection conn = ds.getConnection();
+                PreparedStatement st1 = conn.prepareStatement("VALUES 1");
+                PreparedStatement st2 = conn.prepareStatement("VALUES 1")) {
+            assertThat(st1.unwrap(PreparedStatement.class))
+                    .isNotSameAs(st2.unwrap(PreparedStatement.class));
+        }
+    }
+
+    @Test
+    public void unclosedStatementCanNotBeUsedByPreviousBorrower() throws SQLException {
+        Connection first = ds.getConnection();
+        PreparedStatement stale = first.prepareStatement("VALUES 1");
+        PreparedStatement cached = stale.unwrap(PreparedStatement.class);
+        first.close();
+
+        try (Connection second = ds.getConnection();
+                PreparedStatement st = second.prepareStatement("VALUES 1")) {
+            assertThat(st.unwrap(PreparedStatement.class)).isSameAs(cached);
+            assertThat(stale.isClosed()).isTrue();
+            assertThatThrownBy(() -> stale.executeQuery())
+                    .isInstanceOf(SQLException.class);
+            stale.close();
+
+            // Closing of stale statement did not release the statement of
+            // second borrower
+            try (PreparedStatement other = second.prepareStatement("VALUES 1")) {
+                assertThat(other.unwrap(PreparedStatement.class))
+                        .isNotSameAs(st.unwrap(PreparedStatement.class));
+            }
+            assertThat(st.executeQuery().next()).isTrue();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementNotInUseIsEvicted() throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            // Cache size is 8, the first statement stays in use; statements
+            // left in the cache by the schema migration are evicted first
+            PreparedStatement first = conn.prepareStatement("VALUES 0");
+            for (int i = 1; i < 8; i++) {
+                conn.prepareStatement("VALUES " + i).close();
+            }
+            long evictions = ds.getStatistics().getStatementCacheEvictions();
+
+            conn.prepareStatement("VALUES 8").close();
+
+            assertThat(ds.getStatistics().getStatementCacheEvictions() - evictions).isEqualTo(1);
+            assertThat(first.executeQuery().next()).isTrue();
+            PooledDataSource.Statistics before = ds.getStatistics();
+            conn.prepareStatement("VALUES 2").close();
+            conn.prepareStatement("VALUES 1").close();
+            PooledDataSource.Statistics after = ds.getStatistics();
+            assertThat(after.getStatementCacheHits() - before.getStatementCacheHits()).isEqualTo(1);
+            assertThat(after.getStatementCacheMisses() - before.getStatementCacheMisses()).isEqualTo(1);
+            first.close();
+        }
+    }
+
+    @Test
+    public void uncommittedWorkIsRolledBackOnClose() throws SQLException {
+        try (Connection conn = ds.getConnection()) {
+            conn.setAutoCommit(false);
+            conn.prepareStatement("INSERT INTO Grave (row,col,capacity) VALUES (1,1,1)").executeUpdate();
+        }
+        try (Connection conn = ds.getConnection()) {
+            assertThat(conn.getAutoCommit()).isTrue();
+            ResultSet rs = conn.prepareStatement("SELECT COUNT(*) FROM Grave").executeQuery();
+            rs.next();
+            assertThat(rs.getInt(1)).isZero();
+        }
+    }
+
+    @Test
+    public void exhaustedPoolTimesOut() throws SQLException {
+        ds.setMaxWaitMillis(10);
+        try (Connection c1 = ds.getConnection(); Connection c2 = ds.getConnection()) {
+            assertThat(c1).isNotSameAs(c2);
+            assertThatThrownBy(() -> ds.getConnection())
+                    .isInstanceOf(SQLException.class);
+        }
+        assertThat(ds.getStatistics().getConnectionWaits()).isEqualTo(1);
+        ds.getConnection().close();
+    }
+
+    @Test
+    public void managerWorksWithPool() {
+        GraveManagerImpl manager = new GraveManagerImpl();
+        manager.setDataSource(ds);
+        Grave grave = new Grave();
+        grave.setRow(1);
+        grave.setColumn(2);
+        grave.setCapacity(3);
+        manager.createGrave(grave);
+        for (int i = 0; i < 10; i++) {
+            assertThat(manager.getGrave(grave.getId()))
+                    .isEqualToComparingFieldByField(grave);
+        }
+        PooledDataSource.Statistics statistics = ds.getStatistics();
+        assertThat(statistics.getConnectionsCreated()).isLessThanOrEqualTo(2);
+        assertThat(statistics.getStatementCacheHits()).isGreaterThanOrEqualTo(9);
+    }
+
+}
@@ -0,0 +1,230 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManager;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link SchemaMigrator}.
+ *
+ * @author agent
+ */
+public class SchemaMigratorTest {
+
+    private static final int NEXT_VERSION = CemeterySchema.CURRENT_VERSION + 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        for (String table : new String[]{"BODY", "GRAVE", "NOTE", SchemaMigrator.METADATA_TABLE}) {
+            try (Connection conn = ds.getConnection();
+                    Statement st = conn.createStatement()) {
+                st.executeUpdate("DROP TABLE " + table);
+            } catch (SQLException ex) {
+                // table does not exist
+            }
+        }
+    }
+
+    private URL script(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file.toURI().toURL();
+    }
+
+    private long count(String table) throws SQLException {
+        try (Connection conn = ds.getConnection();
+                Statement st = conn.createStatement()) {
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + table);
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void pendingMigrationsAreApplied() throws Exception {
+        SchemaMigrator migrator = CemeterySchema.createMigrator(ds);
+        assertThat(migrator.getCurrentVersion()).isZero();
+        assertThat(migrator.migrate()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+        assertThat(migrator.getCurrentVersion()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+        assertThat(count("GRAVE")).isZero();
+
+        migrator.addMigration(NEXT_VERSION, "Notes", script("V5.sql",
+                "CREATE TABLE Note (id INT);\nINSERT INTO Note VALUES (1);\nINSERT INTO Note VALUES (2);"));
+        assertThat(migrator.migrate()).isEqualTo(1);
+        assertThat(migrator.getCurrentVersion()).isEqualTo(NEXT_VERSION);
+        assertThat(count("NOTE")).isEqualTo(2);
+
+        // nothing is pending
+        assertThat(migrator.migrate()).isZero();
+        assertThat(count("NOTE")).isEqualTo(2);
+        assertThat(count(SchemaMigrator.METADATA_TABLE)).isEqualTo(NEXT_VERSION);
+    }
+
+    @Test
+    public void failedMigrationIsNotRecorded() throws Exception {
+        SchemaMigrator migrator = CemeterySchema.createMigrator(ds);
+        migrator.addMigration(NEXT_VERSION, "Broken", script("V5.sql",
+                "CREATE TABLE Note (id INT);\nINSERT INTO Nothing VALUES (1);"));
+
+        assertThatThrownBy(migrator::migrate).isInstanceOf(ServiceFailureException.class);
+        assertThat(migrator.getCurrentVersion()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+        try (Connection conn = ds.getConnection();
+                ResultSet rs = conn.getMetaData().getTables(null, null, "NOTE", null)) {
+            assertThat(rs.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void modifiedScriptIsDetected() throws Exception {
+        URL v5 = script("V5.sql", "CREATE TABLE Note (id INT);");
+        SchemaMigrator migrator = CemeterySchema.createMigrator(ds);
+        migrator.addMigration(NEXT_VERSION, "Notes", v5);
+        migrator.migrate();
+
+        Files.write(new File(v5.toURI()).toPath(),
+                "CREATE TABLE Note (id BIGINT);".getBytes(StandardCharsets.UTF_8));
+        SchemaMigrator another = CemeterySchema.createMigrator(ds);
+        another.addMigration(NEXT_VERSION, "Notes", v5);
+        assertThatThrownBy(another::migrate)
+                .isInstanceOf(ServiceFailureException.class)
+                .hasMessageContaining("V" + NEXT_VERSION);
+
+        another.setValidateChecksums(false);
+        assertThat(another.migrate()).isZero();
+    }
+
+    @Test
+    public void unknownVersionIsDetected() throws Exception {
+        SchemaMigrator migrator = CemeterySchema.createMigrator(ds);
+        migrator.addMigration(NEXT_VERSION, "Notes", script("V5.sql", "CREATE TABLE Note (id INT);"));
+        migrator.migrate();
+
+        assertThatThrownBy(() -> CemeterySchema.migrate(ds))
+                .isInstanceOf(ServiceFailureException.class)
+                .hasMessageContaining("unknown schema version " + NEXT_VERSION);
+    }
+
+    @Test
+    public void baselineSchemaIsMigrated() throws Exception {
+        // database created by createTables.sql before versioning was introduced
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("createTables.sql"));
+        try (Connection conn = ds.getConnection();
+                Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 3)");
+            st.executeUpdate("INSERT INTO Grave (row, col, capacity) VALUES (1, 2, 1)");
+            st.executeUpdate("INSERT INTO Body (name, gender, vampire, graveId) "
+                    + "SELECT 'Body 1', 'MALE', 0, id FROM Grave WHERE col = 1");
+            st.executeUpdate("INSERT INTO Body (name, gender, vampire, graveId) "
+                    + "SELECT 'Body 2', 'FEMALE', 0, id FROM Grave WHERE col = 1");
+            st.executeUpdate("INSERT INTO Body (name, gender, vampire) VALUES ('Body 3', 'MALE', 1)");
+        }
+
+        assertThat(CemeterySchema.migrate(ds)).isEqualTo(CemeterySchema.CURRENT_VERSION - 1);
+        assertThat(CemeterySchema.createMigrator(ds).getCurrentVersion()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+        assertThat(count("GRAVE")).isEqualTo(2);
+        assertThat(count("BODY")).isEqualTo(3);
+
+        try (Connection conn = ds.getConnection();
+                Statement st = conn.createStatement()) {
+            ResultSet rs = st.executeQuery("SELECT col, occupied, reserved FROM Grave ORDER BY col");
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt("occupied")).isEqualTo(2);
+            assertThat(rs.getInt("reserved")).isZero();
+            assertThat(rs.next()).isTrue();
+            assertThat(rs.getInt("occupied")).isZero();
+            assertThat(rs.getInt("reserved")).isZero();
+            assertThat(rs.next()).isFalse();
+
+            assertThatThrownBy(() -> st.executeUpdate(
+                    "INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1)"))
+                    .isInstanceOf(SQLIntegrityConstraintViolationException.class);
+        }
+    }
+
+    @Test
+    public void baselineIsRecordedIntoEmptyMetadataTable() throws Exception {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("createTables.sql"));
+        // process failed after creating of the metadata table
+        new SchemaMigrator(ds).migrate();
+        assertThat(count(SchemaMigrator.METADATA_TABLE)).isZero();
+
+        assertThat(CemeterySchema.migrate(ds)).isEqualTo(CemeterySchema.CURRENT_VERSION - 1);
+        assertThat(CemeterySchema.createMigrator(ds).getCurrentVersion()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+    }
+
+    @Test
+    public void concurrentlyStartedMigratorsRecordBaselineOnce() throws Exception {
+        URL createTables = GraveManager.class.getResource("createTables.sql");
+        DBUtils.executeSqlScript(ds, createTables);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                try (Connection conn = ds.getConnection();
+                        Statement st = conn.createStatement()) {
+                    st.executeUpdate("DROP TABLE " + SchemaMigrator.METADATA_TABLE);
+                } catch (SQLException ex) {
+                    // table does not exist
+                }
+                CountDownLatch start = new CountDownLatch(1);
+                Callable<Integer> migration = () -> {
+                    SchemaMigrator migrator = new SchemaMigrator(ds);
+                    migrator.addMigration(1, "Create tables", createTables);
+                    migrator.setBaseline(1, "GRAVE");
+                    start.await();
+                    return migrator.migrate();
+                };
+                List<Future<Integer>> results = new ArrayList<>();
+                results.add(executor.submit(migration));
+                results.add(executor.submit(migration));
+                start.countDown();
+
+                for (Future<Integer> result : results) {
+                    assertThat(result.get(30, TimeUnit.SECONDS)).isZero();
+                }
+                assertThat(count(SchemaMigrator.METADATA_TABLE)).isEqualTo(1);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManager;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManagerImpl;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link SlowQueryLog}.
+ *
+ * @author agent
+ */
+public class SlowQueryLogTest {
+
+    private DataSource ds;
+    private GraveManagerImpl manager;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        manager = new GraveManagerImpl();
+        manager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.setSlowQueryLog(null);
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private static Grave newGrave(int row, int column) {
+        Grave grave = new Grave();
+        grave.setRow(row);
+        grave.setColumn(column);
+        grave.setCapacity(2);
+        grave.setNote("Note");
+        return grave;
+    }
+
+    @Test
+    public void statementsAreRecordedWithParametersAndRows() {
+        SlowQueryLog log = new SlowQueryLog(0, 10);
+        DBUtils.setSlowQueryLog(log);
+
+        Grave grave = newGrave(3, 4);
+        manager.createGrave(grave);
+        manager.findGravesInArea(0, 10, 0, 10);
+
+        List<SlowQueryLog.Entry> entries = log.getSlowestStatements();
+        assertThat(entries).hasSize(2);
+        SlowQueryLog.Entry insert = entries.stream()
+                .filter(e -> e.getSql().startsWith("INSERT")).findFirst().get();
+        assertThat(insert.getParameters()).containsExactly("3", "4", "2", "'Note'");
+        assertThat(insert.getRows()).isEqualTo(1);
+        assertThat(insert.getCaller()).isEqualTo(GraveManagerImpl.class.getName() + ".createGrave");
+
+        SlowQueryLog.Entry query = entries.stream()
+                .filter(e -> e.getSql().startsWith("SELECT")).findFirst().get();
+        assertThat(query.getParameters()).containsExactly("0", "10", "0", "10");
+        assertThat(query.getRows()).isEqualTo(1);
+        assertThat(query.getCaller()).isEqualTo(GraveManagerImpl.class.getName() + ".findGravesInArea");
+    }
+
+    @Test
+    public void onlySlowestStatementsAreKept() {
+        SlowQueryLog log = new SlowQueryLog(0, 3);
+        DBUtils.setSlowQueryLog(log);
+
+        for (int i = 0; i < 10; i++) {
+            manager.getGrave((long) i);
+        }
+
+        List<SlowQueryLog.Entry> entries = log.getSlowestStatements();
+        assertThat(entries).hasSize(3);
+        assertThat(entries.get(0).getDurationNanos())
+                .isGreaterThanOrEqualTo(entries.get(1).getDurationNanos());
+        assertThat(entries.get(1).getDurationNanos())
+                .isGreaterThanOrEqualTo(entries.get(2).getDurationNanos());
+
+        log.clear();
+        assertThat(log.getSlowestStatements()).isEmpty();
+    }
+
+    @Test
+    public void fasterStatementsAreNotKeptWhenLogIsFull() {
+        SlowQueryLog log = new SlowQueryLog(1000, 2);
+        log.record("SELECT 1", Collections.emptyList(), 0, 1, 300);
+        log.record("SELECT 2", Collections.emptyList(), 0, 1, 100);
+        log.record("SELECT 3", Collections.emptyList(), 0, 1, 50);
+        log.record("SELECT 4", Collections.emptyList(), 0, 1, 100);
+        log.record("SELECT 5", Collections.emptyList(), 0, 1, 200);
+
+        assertThat(log.getSlowestStatements()).extracting("sql")
+                .containsExactly("SELECT 1", "SELECT 5");
+
+        log.clear();
+        log.record("SELECT 6", Collections.emptyList(), 0, 1, 10);
+        assertThat(log.getSlowestStatements()).extracting("sql")
+                .containsExactly("SELECT 6");
+    }
+
+    @Test
+    public void batchIsRecordedAsSingleStatement() throws SQLException {
+        SlowQueryLog log = new SlowQueryLog(0, 10);
+        DBUtils.setSlowQueryLog(log);
+
+        try (Connection conn = ds.getConnection();
+                PreparedStatement st = DBUtils.prepareStatement(conn,
+                        "INSERT INTO Grave (col, row, capacity) VALUES (?, ?, 1)")) {
+            for (int i = 0; i < 5; i++) {
+                st.setInt(1, i);
+                st.setInt(2, 7);
+                st.addBatch();
+            }
+            st.executeBatch();
+        }
+
+        assertThat(log.getSlowestStatements()).hasSize(1);
+        SlowQueryLog.Entry entry = log.getSlowestStatements().get(0);
+        assertThat(entry.getBatchSize()).isEqualTo(5);
+        assertThat(entry.getRows()).isEqualTo(5);
+        assertThat(entry.getParameters()).containsExactly("0", "7");
+    }
+
+    @Test
+    public void processingOfRowsByCallerIsNotTimed() throws Exception {
+        SlowQueryLog log = new SlowQueryLog(0, 10);
+        manager.createGraves(Arrays.asList(newGrave(1, 1), newGrave(1, 2)));
+        DBUtils.setSlowQueryLog(log);
+
+        try (Connection conn = ds.getConnection();
+                PreparedStatement st = DBUtils.prepareStatement(conn, "SELECT id FROM Grave")) {
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                Thread.sleep(200);
+            }
+            rs.close();
+        }
+
+        assertThat(log.getSlowestStatements()).hasSize(1);
+        SlowQueryLog.Entry entry = log.getSlowestStatements().get(0);
+        assertThat(entry.getRows()).isEqualTo(2);
+        assertThat(entry.getDurationNanos()).isLessThan(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void statementIsNotWrappedWithoutLog() throws SQLException {
+        try (Connection conn = ds.getConnection();
+                PreparedStatement st = DBUtils.prepareStatement(conn, "VALUES 1")) {
+            assertThat(java.lang.reflect.Proxy.isProxyClass(st.getClass())).isFalse();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManager;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link SqlScriptRunner} and {@link SqlScriptTokenizer}.
+ *
+ * @author agent
+ */
+public class SqlScriptRunnerTest {
+
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private static List<String> tokenize(String script) throws IOException {
+        SqlScriptTokenizer tokenizer = new SqlScriptTokenizer(new StringReader(script));
+        List<String> result = new ArrayList<>();
+        String statement;
+        while ((statement = tokenizer.next()) != null) {
+            result.add(tokenizer.getStatementLine() + ": " + statement);
+        }
+        return result;
+    }
+
+    private int countGraves() throws SQLException {
+        try (Connection conn = ds.getConnection();
+                Statement st = conn.createStatement()) {
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM Grave");
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void tokenizer() throws IOException {
+        assertThat(tokenize(
+                "-- comment; with semicolon\n"
+                + "INSERT INTO Grave (note) VALUES ('a;b');\n"
+                + "\n"
+                + "INSERT INTO Grave (note) VALUES ('it''s /* not */ comment -- really');  \n"
+                + "/* block ; \n comment */ SELECT \"Col;umn\"\n"
+                + "   FROM   t -- trailing\n"
+                + "WHERE a - b / 2 > 0;;\n"
+                + "  -- only comment at the end\n"))
+                .containsExactly(
+                        "2: INSERT INTO Grave (note) VALUES ('a;b')",
+                        "4: INSERT INTO Grave (note) VALUES ('it''s /* not */ comment -- really')",
+                        "6: SELECT \"Col;umn\" FROM t WHERE a - b / 2 > 0");
+        assertThat(tokenize("VALUES 1")).containsExactly("1: VALUES 1");
+        assertThat(tokenize("  \n -- nothing\n;")).isEmpty();
+    }
+
+    @Test
+    public void unterminatedLiteral() {
+        assertThatThrownBy(() -> tokenize("SELECT 1;\nINSERT INTO t VALUES ('abc"))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("line 2");
+    }
+
+    @Test
+    public void statementsAreBatched() throws Exception {
+        List<SqlScriptRunner.Progress> progress = new ArrayList<>();
+        SqlScriptRunner runner = new SqlScriptRunner(ds);
+        runner.setBatchSize(2);
+        runner.setProgressListener(progress::add);
+
+        int executed = runner.run(new StringReader(
+                "INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1);\n"
+                + "INSERT INTO Grave (row, col, capacity) VALUES (1, 2, 1);\n"
+                + "INSERT INTO Grave (row, col, capacity, note) VALUES (1, 3, 1, 'x;y');\n"
+                + "UPDATE Grave SET capacity = 2 WHERE row = 1;\n"
+                + "CREATE TABLE Tmp (id INT);\n"
+                + "DROP TABLE Tmp;\n"));
+
+        assertThat(executed).isEqualTo(6);
+        assertThat(countGraves()).isEqualTo(3);
+        assertThat(progress).extracting(SqlScriptRunner.Progress::getStatementCount)
+                .containsExactly(2, 2, 1, 1);
+        assertThat(progress).extracting(SqlScriptRunner.Progress::getLine)
+                .containsExactly(1, 3, 5, 6);
+        assertThat(progress).extracting(SqlScriptRunner.Progress::getExecutedStatements)
+                .containsExactly(2, 4, 5, 6);
+    }
+
+    @Test
+    public void scriptIsExecutedInSingleTransaction() throws Exception {
+        SqlScriptRunner runner = new SqlScriptRunner(ds);
+
+        assertThatThrownBy(() -> runner.run(new StringReader(
+                "INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1);\n"
+                + "INSERT INTO Grave (row, col, capacity) VALUES (1, 2, 1);\n"
+                + "INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1);\n")))
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining("line 3")
+                .matches(ex -> "23505".equals(((SQLException) ex).getSQLState()));
+
+        assertThat(countGraves()).isZero();
+    }
+
+    @Test
+    public void failedStatementIsReportedWithLine() throws Exception {
+        SqlScriptRunner runner = new SqlScriptRunner(ds);
+
+        assertThatThrownBy(() -> runner.run(new StringReader(
+                "INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1);\n"
+                + "\n"
+                + "CREATE TABLE Grave (id INT);\n")))
+                .isInstanceOf(SQLException.class)
+                .hasMessageContaining("line 3")
+                .matches(ex -> "X0Y32".equals(((SQLException) ex).getSQLState()));
+
+        assertThat(countGraves()).isZero();
+    }
+}
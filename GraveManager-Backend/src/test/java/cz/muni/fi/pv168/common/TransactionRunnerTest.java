@@ -0,0 +1,179 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.gravemanager.backend.Body;
+import cz.muni.fi.pv168.gravemanager.backend.BodyManagerImpl;
+import cz.muni.fi.pv168.gravemanager.backend.CemeteryManagerImpl;
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.Gender;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManager;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManagerImpl;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link TransactionRunner}.
+ *
+ * @author agent
+ */
+public class TransactionRunnerTest {
+
+    private PooledDataSource ds;
+    private TransactionRunner runner;
+    private GraveManagerImpl graveManager;
+    private BodyManagerImpl bodyManager;
+    private CemeteryManagerImpl cemeteryManager;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = new PooledDataSource(prepareDataSource());
+        CemeterySchema.migrate(ds);
+        runner = new TransactionRunner(ds);
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(runner.getDataSource());
+        bodyManager = new BodyManagerImpl(Clock.systemDefaultZone());
+        bodyManager.setDataSource(runner.getDataSource());
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(runner.getDataSource());
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+        ds.close();
+    }
+
+    private static Grave newGrave(int row, int capacity) {
+        Grave grave = new Grave();
+        grave.setRow(row);
+        grave.setColumn(1);
+        grave.setCapacity(capacity);
+        return grave;
+    }
+
+    private static Body newBody(String name) {
+        Body body = new Body();
+        body.setName(name);
+        body.setGender(Gender.FEMALE);
+        return body;
+    }
+
+    @Test
+    public void workflowUsesSingleConnection() {
+        Grave grave = newGrave(1, 2);
+        graveManager.createGrave(grave);
+        Body body = newBody("Jane");
+
+        long requestsBefore = ds.getStatistics().getConnectionRequests();
+        runner.inTransaction(() -> {
+            bodyManager.createBody(body);
+            assertThat(cemeteryManager.findNearestGraveWithFreeSpace(1, 1, 1)).containsExactly(grave);
+            cemeteryManager.putBodyIntoGrave(body, grave);
+        });
+        assertThat(ds.getStatistics().getConnectionRequests() - requestsBefore).isEqualTo(1);
+
+        assertThat(bodyManager.getBody(body.getId())).isNotNull();
+        assertThat(cemeteryManager.findGraveWithBody(body)).isEqualTo(grave);
+    }
+
+    @Test
+    public void exceptionRollsBackWholeWorkflow() {
+        Body body = newBody("Jane");
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            bodyManager.createBody(body);
+            graveManager.createGrave(newGrave(1, 1));
+            throw new IllegalStateException("Workflow failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(bodyManager.findAllBodies()).isEmpty();
+        assertThat(graveManager.findAllGraves()).isEmpty();
+    }
+
+    @Test
+    public void suppressedFailureMarksTransactionRollbackOnly() {
+        Grave grave = newGrave(1, 1);
+        graveManager.createGrave(grave);
+        Body b1 = newBody("Jane");
+        Body b2 = newBody("Joe");
+        bodyManager.createBody(b1);
+        bodyManager.createBody(b2);
+
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            cemeteryManager.putBodyIntoGrave(b1, grave);
+            try {
+                // the grave is full
+                cemeteryManager.putBodyIntoGrave(b2, grave);
+            } catch (IllegalEntityException ex) {
+                // ignored
+            }
+        })).isInstanceOf(ServiceFailureException.class);
+
+        assertThat(cemeteryManager.findGraveWithBody(b1)).isNull();
+        assertThat(cemeteryManager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void resultIsReturned() {
+        Grave grave = runner.inTransaction(() -> {
+            Grave g = newGrave(3, 1);
+            graveManager.createGrave(g);
+            return graveManager.getGrave(g.getId());
+        });
+        assertThat(graveManager.getGrave(grave.getId())).isEqualToComparingFieldByField(grave);
+    }
+
+    @Test
+    public void nestedTransactionJoinsOuterOne() {
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            runner.inTransaction(() -> graveManager.createGrave(newGrave(1, 1)));
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(graveManager.findAllGraves()).isEmpty();
+    }
+
+    @Test
+    public void afterCommitCallbacks() {
+        AtomicInteger calls = new AtomicInteger();
+
+        runner.inTransaction(() -> {
+            TransactionRunner.afterCommit(calls::incrementAndGet);
+            assertThat(TransactionRunner.isTransactionActive()).isTrue();
+            assertThat(calls.get()).isZero();
+        });
+        assertThat(calls.get()).isEqualTo(1);
+
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            TransactionRunner.afterCommit(calls::incrementAndGet);
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(calls.get()).isEqualTo(1);
+
+        // without transaction, callback is executed immediately
+        TransactionRunner.afterCommit(calls::incrementAndGet);
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(TransactionRunner.isTransactionActive()).isFalse();
+    }
+
+    @Test
+    public void managersWorkOutsideOfTransaction() {
+        Grave grave = newGrave(1, 1);
+        graveManager.createGrave(grave);
+        Body body = newBody("Jane");
+        bodyManager.createBody(body);
+        cemeteryManager.putBodyIntoGrave(body, grave);
+        assertThat(cemeteryManager.findBodiesInGrave(grave)).containsExactly(body);
+    }
+}
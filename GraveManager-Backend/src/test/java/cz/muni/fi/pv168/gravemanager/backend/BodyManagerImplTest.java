@@ -3,6 +3,9 @@ package cz.muni.fi.pv168.gravemanager.backend;
 import cz.muni.fi.pv168.common.*;
 import java.sql.SQLException;
 import java.time.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.sql.DataSource;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.junit.*;
@@ -62,7 +65,7 @@ public class BodyManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         ds = prepareDataSource();
-        DBUtils.executeSqlScript(ds,GraveManager.class.getResource("createTables.sql"));
+        CemeterySchema.migrate(ds);
         manager = new BodyManagerImpl(prepareClockMock(NOW));
         manager.setDataSource(ds);
     }
@@ -174,6 +177,79 @@ public class BodyManagerImplTest {
                 .containsOnly(joe,catherine);
     }
 
+    @Test
+    public void findAllBodiesByPages() {
+
+        assertThat(manager.findAllBodies(null, 10).getItems()).isEmpty();
+
+        Body joe = sampleJoeBodyBuilder().build();
+        Body catherine = sampleCatherineBodyBuilder().build();
+        Body jane = sampleCatherineBodyBuilder().name("Jane").build();
+        manager.createBody(joe);
+        manager.createBody(catherine);
+        manager.createBody(jane);
+
+        Page<Body> page = manager.findAllBodies(null, 2);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(joe, catherine);
+        assertThat(page.hasNext()).isTrue();
+
+        page = manager.findAllBodies(page.getContinuationToken(), 2);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(jane);
+        assertThat(page.hasNext()).isFalse();
+
+        page = manager.findAllBodies(null, Integer.MAX_VALUE);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(joe, catherine, jane);
+        assertThat(page.hasNext()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findAllBodiesWithNegativePageSize() {
+        manager.findAllBodies(null, -1);
+    }
+
+    @Test
+    public void forEachBody() {
+        manager.setFetchSize(1);
+        Body joe = sampleJoeBodyBuilder().build();
+        Body catherine = sampleCatherineBodyBuilder().build();
+        manager.createBody(joe);
+        manager.createBody(catherine);
+
+        List<Body> visited = new ArrayList<>();
+        manager.forEachBody(visited::add);
+        assertThat(visited)
+                .usingFieldByFieldElementComparator()
+                .containsExactly(joe, catherine);
+    }
+
+    @Test
+    public void forEachBodyWithReusedInstance() {
+        Body joe = sampleJoeBodyBuilder().build();
+        Body catherine = sampleCatherineBodyBuilder().build();
+        manager.createBody(joe);
+        manager.createBody(catherine);
+
+        List<Body> instances = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        manager.forEachBody(body -> {
+            instances.add(body);
+            names.add(body.getName());
+        }, true);
+        assertThat(names).containsExactly(joe.getName(), catherine.getName());
+        assertThat(instances.get(0)).isSameAs(instances.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachBodyWithNullAction() {
+        manager.forEachBody(null);
+    }
+
     // Test exception with expected parameter of @Test annotation
     // it does not allow to specify exact place where the exception
     // is expected, therefor it is suitable only for simple single line tests
@@ -308,6 +384,65 @@ public class BodyManagerImplTest {
                 .isEqualToComparingFieldByField(body);
     }
 
+    //--------------------------------------------------------------------------
+    // Tests for BodyManager.createBodies(Iterable) operation
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void createBodies() {
+        manager.setBatchSize(2);
+        manager.setCommitInterval(3);
+        List<Body> bodies = Arrays.asList(
+                sampleJoeBodyBuilder().name("Body 1").build(),
+                sampleCatherineBodyBuilder().name("Body 2").build(),
+                sampleJoeBodyBuilder().name("Body 3").build(),
+                sampleCatherineBodyBuilder().name("Body 4").build(),
+                sampleJoeBodyBuilder().name("Body 5").build(),
+                sampleCatherineBodyBuilder().name("Body 6").build(),
+                sampleJoeBodyBuilder().name("Body 7").build());
+
+        BatchResult<Body> result = manager.createBodies(bodies);
+
+        assertThat(result.getProcessedCount()).isEqualTo(7);
+        assertThat(result.hasFailures()).isFalse();
+        for (Body body : bodies) {
+            assertThat(manager.getBody(body.getId()))
+                    .isEqualToComparingFieldByField(body);
+        }
+    }
+
+    @Test
+    public void createBodiesWithInvalidBodies() {
+        Body valid1 = sampleJoeBodyBuilder().build();
+        Body withNullName = sampleJoeBodyBuilder().name(null).build();
+        Body withExistingId = sampleJoeBodyBuilder().id(1L).build();
+        Body bornAfterDied = sampleCatherineBodyBuilder()
+                .born(2000,JANUARY,1).died(1999,JANUARY,1).build();
+        Body valid2 = sampleCatherineBodyBuilder().build();
+
+        BatchResult<Body> result = manager.createBodies(Arrays.asList(
+                valid1, withNullName, withExistingId, null, bornAfterDied, valid2));
+
+        assertThat(result.getProcessedCount()).isEqualTo(2);
+        assertThat(result.getFailures())
+                .extracting(BatchResult.Failure::getEntity)
+                .containsExactly(withNullName, withExistingId, null, bornAfterDied);
+        assertThat(result.getFailures())
+                .extracting(failure -> (Object) failure.getCause().getClass())
+                .containsExactly(ValidationException.class, IllegalEntityException.class,
+                        IllegalArgumentException.class, ValidationException.class);
+        assertThat(withNullName.getId()).isNull();
+        assertThat(bornAfterDied.getId()).isNull();
+        assertThat(manager.findAllBodies())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(valid1, valid2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createNullBodies() {
+        manager.createBodies(null);
+    }
+
     //--------------------------------------------------------------------------
     // Tests for BodyManager.updateBody(Body) operation
     //--------------------------------------------------------------------------
@@ -557,9 +692,25 @@ public class BodyManagerImplTest {
         testExpectedServiceFailureException((bodyManager) -> bodyManager.deleteBody(body));
     }
 
+    @Test
+    public void createBodiesWithSqlExceptionThrown() throws SQLException {
+        Body body = sampleJoeBodyBuilder().build();
+        testExpectedServiceFailureException((bodyManager) -> bodyManager.createBodies(Arrays.asList(body)));
+    }
+
     @Test
     public void findAllBodiesWithSqlExceptionThrown() throws SQLException {
         testExpectedServiceFailureException((bodyManager) -> bodyManager.findAllBodies());
     }
 
+    @Test
+    public void findAllBodiesPageWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((bodyManager) -> bodyManager.findAllBodies(null, 10));
+    }
+
+    @Test
+    public void forEachBodyWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((bodyManager) -> bodyManager.forEachBody(body -> { }));
+    }
+
 }
@@ -0,0 +1,102 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.*;
+
+import static java.time.Month.*;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link CachingBodyManager}.
+ *
+ * @author agent
+ */
+public class CachingBodyManagerTest {
+
+    private BodyManager delegate;
+    private CachingBodyManager manager;
+
+    @Before
+    public void setUp() {
+        delegate = mock(BodyManager.class);
+        manager = new CachingBodyManager(delegate);
+        when(delegate.getBody(1L)).then(invocation -> new BodyBuilder()
+                .id(1L).name("Joe").gender(Gender.MALE)
+                .born(1962, OCTOBER, 21).vampire(true).build());
+    }
+
+    @Test
+    public void getBodyIsCachedAndCopied() {
+        Body first = manager.getBody(1L);
+        first.setName("Changed by caller");
+
+        Body second = manager.getBody(1L);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getName()).isEqualTo("Joe");
+        assertThat(second.isVampire()).isTrue();
+        verify(delegate, times(1)).getBody(1L);
+    }
+
+    @Test
+    public void updateAndDeleteInvalidateCache() {
+        Body body = manager.getBody(1L);
+        manager.updateBody(body);
+        manager.getBody(1L);
+        manager.deleteBody(body);
+        manager.getBody(1L);
+
+        verify(delegate, times(3)).getBody(1L);
+        assertThat(manager.getCacheStatistics().getHits()).isZero();
+    }
+
+    @Test
+    public void deleteInTransactionInvalidatesCacheAfterCommit() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+        TransactionRunner runner = new TransactionRunner(dataSource);
+        Body body = manager.getBody(1L);
+
+        runner.inTransaction(() -> {
+            manager.deleteBody(body);
+            // Concurrent reader caches the body before the commit
+            manager.getBody(1L);
+        });
+        manager.getBody(1L);
+        verify(delegate, times(3)).getBody(1L);
+    }
+
+    @Test
+    public void eventsInvalidateCache() {
+        manager.getBody(1L);
+        manager.onEvent(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_CREATED, 1L));
+        manager.onEvent(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_DELETED, 2L));
+        manager.getBody(1L);
+        verify(delegate, times(1)).getBody(1L);
+
+        manager.onEvent(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_DELETED, 1L));
+        manager.getBody(1L);
+        manager.onEvent(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_UPDATED, 1L));
+        manager.getBody(1L);
+        verify(delegate, times(3)).getBody(1L);
+    }
+
+    @Test
+    public void droppedEventsInvalidateCache() {
+        manager.getBody(1L);
+        manager.onEventsDropped();
+        manager.getBody(1L);
+        verify(delegate, times(2)).getBody(1L);
+    }
+
+    @Test
+    public void invalidateAll() {
+        manager.getBody(1L);
+        manager.invalidateAll();
+        manager.getBody(1L);
+        verify(delegate, times(2)).getBody(1L);
+    }
+}
@@ -0,0 +1,151 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link CachingGraveManager}.
+ *
+ * @author agent
+ */
+public class CachingGraveManagerTest {
+
+    private GraveManager delegate;
+    private CachingGraveManager manager;
+    private Grave grave;
+
+    @Before
+    public void setUp() {
+        delegate = mock(GraveManager.class);
+        manager = new CachingGraveManager(delegate, 2);
+        grave = new GraveBuilder().id(1L).row(1).column(2).capacity(3).note("Grave 1").build();
+        // new instance is returned for each call, as real manager does
+        when(delegate.getGrave(1L)).then(invocation -> copy(grave));
+    }
+
+    private static Grave copy(Grave grave) {
+        return new GraveBuilder().id(grave.getId()).row(grave.getRow())
+                .column(grave.getColumn()).capacity(grave.getCapacity())
+                .note(grave.getNote()).build();
+    }
+
+    @Test
+    public void getGraveIsCached() {
+        assertThat(manager.getGrave(1L)).isEqualToComparingFieldByField(grave);
+        assertThat(manager.getGrave(1L)).isEqualToComparingFieldByField(grave);
+        assertThat(manager.getGrave(1L)).isEqualToComparingFieldByField(grave);
+
+        verify(delegate, times(1)).getGrave(1L);
+        LruCache.Statistics statistics = manager.getCacheStatistics();
+        assertThat(statistics.getHits()).isEqualTo(2);
+        assertThat(statistics.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedGraveIsCopied() {
+        Grave first = manager.getGrave(1L);
+        first.setNote("Changed by caller");
+
+        Grave second = manager.getGrave(1L);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getNote()).isEqualTo("Grave 1");
+    }
+
+    @Test
+    public void missingGraveIsNotCached() {
+        assertThat(manager.getGrave(2L)).isNull();
+        assertThat(manager.getGrave(2L)).isNull();
+        verify(delegate, times(2)).getGrave(2L);
+    }
+
+    @Test
+    public void updateInvalidatesCache() {
+        manager.getGrave(1L);
+        grave.setCapacity(10);
+        manager.updateGrave(grave);
+
+        assertThat(manager.getGrave(1L).getCapacity()).isEqualTo(10);
+        verify(delegate, times(2)).getGrave(1L);
+    }
+
+    @Test
+    public void failedUpdateInvalidatesCache() {
+        manager.getGrave(1L);
+        doThrow(new ServiceFailureException("failure")).when(delegate).updateGrave(grave);
+
+        assertThatThrownBy(() -> manager.updateGrave(grave))
+                .isInstanceOf(ServiceFailureException.class);
+        manager.getGrave(1L);
+        verify(delegate, times(2)).getGrave(1L);
+    }
+
+    @Test
+    public void deleteInvalidatesCache() {
+        manager.getGrave(1L);
+        manager.deleteGrave(grave);
+        when(delegate.getGrave(1L)).thenReturn(null);
+
+        assertThat(manager.getGrave(1L)).isNull();
+    }
+
+    @Test
+    public void updateInTransactionInvalidatesCacheAfterCommit() throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+        TransactionRunner runner = new TransactionRunner(dataSource);
+        manager.getGrave(1L);
+
+        runner.inTransaction(() -> {
+            manager.updateGrave(grave);
+            // Concurrent reader caches the grave before the commit
+            manager.getGrave(1L);
+        });
+        manager.getGrave(1L);
+        verify(delegate, times(3)).getGrave(1L);
+    }
+
+    @Test
+    public void eventsInvalidateCache() {
+        manager.getGrave(1L);
+        manager.onEvent(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_RESERVED, 1L));
+        manager.onEvent(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_DELETED, 2L));
+        manager.getGrave(1L);
+        verify(delegate, times(1)).getGrave(1L);
+
+        manager.onEvent(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_UPDATED, 1L));
+        manager.getGrave(1L);
+        manager.onEvent(CemeteryEvent.graveChanged(CemeteryEvent.Type.GRAVE_DELETED, 1L));
+        manager.getGrave(1L);
+        verify(delegate, times(3)).getGrave(1L);
+    }
+
+    @Test
+    public void droppedEventsInvalidateCache() {
+        manager.getGrave(1L);
+        manager.onEventsDropped();
+        manager.getGrave(1L);
+        verify(delegate, times(2)).getGrave(1L);
+    }
+
+    @Test
+    public void leastRecentlyUsedGraveIsEvicted() {
+        when(delegate.getGrave(anyLong())).then(invocation -> new GraveBuilder()
+                .id((Long) invocation.getArguments()[0]).row(1).column(1).capacity(1).build());
+        manager.getGrave(1L);
+        manager.getGrave(2L);
+        manager.getGrave(1L);
+        manager.getGrave(3L);
+
+        manager.getGrave(1L);
+        manager.getGrave(2L);
+        verify(delegate, times(2)).getGrave(2L);
+        verify(delegate, times(1)).getGrave(1L);
+        assertThat(manager.getCacheStatistics().getEvictions()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,390 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.TransactionRunner;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static cz.muni.fi.pv168.gravemanager.backend.CemeteryEvent.Type.*;
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link CemeteryEventBus} and publishing of events by managers.
+ *
+ * @author agent
+ */
+public class CemeteryEventBusTest {
+
+    private CemeteryEventBus eventBus;
+    private List<CemeteryEvent> events;
+    private TransactionRunner runner;
+    private GraveManagerImpl graveManager;
+    private BodyManagerImpl bodyManager;
+    private CemeteryManagerImpl cemeteryManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        eventBus = new CemeteryEventBus();
+        events = new CopyOnWriteArrayList<>();
+        eventBus.subscribe(events::add);
+        runner = new TransactionRunner(ds);
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(runner.getDataSource());
+        graveManager.setEventBus(eventBus);
+        bodyManager = new BodyManagerImpl(Clock.systemDefaultZone());
+        bodyManager.setDataSource(runner.getDataSource());
+        bodyManager.setEventBus(eventBus);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(runner.getDataSource());
+        cemeteryManager.setEventBus(eventBus);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        eventBus.close();
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private static CemeteryEvent graveEvent(CemeteryEvent.Type type, Grave grave) {
+        return CemeteryEvent.graveChanged(type, grave.getId());
+    }
+
+    private static CemeteryEvent bodyEvent(CemeteryEvent.Type type, Body body) {
+        return CemeteryEvent.bodyChanged(type, body.getId());
+    }
+
+    @Test
+    public void graveManagerPublishesEvents() {
+        Grave g1 = new GraveBuilder().row(1).column(1).build();
+        Grave g2 = new GraveBuilder().row(1).column(2).build();
+        Grave g3 = new GraveBuilder().row(1).column(3).build();
+        graveManager.createGrave(g1);
+        graveManager.createGraves(Arrays.asList(g2, g3));
+        g1.setNote("Renovated");
+        graveManager.updateGrave(g1);
+        graveManager.deleteGrave(g1);
+        graveManager.deleteGraves(Collections.singletonList(g2), OccupiedGravePolicy.UNBURY_BODIES);
+
+        assertThat(events).containsExactly(
+                graveEvent(GRAVE_CREATED, g1),
+                graveEvent(GRAVE_CREATED, g2),
+                graveEvent(GRAVE_CREATED, g3),
+                graveEvent(GRAVE_UPDATED, g1),
+                graveEvent(GRAVE_DELETED, g1),
+                graveEvent(GRAVE_EMPTIED, g2),
+                graveEvent(GRAVE_DELETED, g2));
+    }
+
+    @Test
+    public void bodyManagerPublishesEvents() {
+        Body b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE).build();
+        Body b2 = new BodyBuilder().name("Body 2").gender(Gender.MALE).build();
+        bodyManager.createBody(b1);
+        bodyManager.createBodies(Collections.singletonList(b2));
+        b1.setVampire(true);
+        bodyManager.updateBody(b1);
+        bodyManager.deleteBody(b2);
+
+        assertThat(events).containsExactly(
+                bodyEvent(BODY_CREATED, b1),
+                bodyEvent(BODY_CREATED, b2),
+                bodyEvent(BODY_UPDATED, b1),
+                bodyEvent(BODY_DELETED, b2));
+    }
+
+    @Test
+    public void cemeteryManagerPublishesEvents() {
+        Grave g1 = new GraveBuilder().row(1).column(1).capacity(2).build();
+        Grave g2 = new GraveBuilder().row(1).column(2).capacity(2).build();
+        graveManager.createGraves(Arrays.asList(g1, g2));
+        Body b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE).build();
+        Body b2 = new BodyBuilder().name("Body 2").gender(Gender.MALE).build();
+        bodyManager.createBodies(Arrays.asList(b1, b2));
+        events.clear();
+
+        cemeteryManager.putBodyIntoGrave(b1, g1);
+        cemeteryManager.putBodyIntoGrave(b2, g1);
+        cemeteryManager.moveBody(b1, g1, g2);
+        cemeteryManager.removeBodyFromGrave(b1, g2);
+        cemeteryManager.moveAllBodies(Collections.singletonMap(g1, g2));
+        cemeteryManager.removeAllBodiesFromGrave(g2);
+        Grave allocated = cemeteryManager.allocateGrave(2);
+        cemeteryManager.cancelReservation(allocated, 2);
+
+        assertThat(events).containsExactly(
+                CemeteryEvent.bodyBuried(b1.getId(), g1.getId()),
+                CemeteryEvent.bodyBuried(b2.getId(), g1.getId()),
+                CemeteryEvent.bodyMoved(b1.getId(), g1.getId(), g2.getId()),
+                CemeteryEvent.bodyExhumed(b1.getId(), g2.getId()),
+                CemeteryEvent.bodyMoved(b2.getId(), g1.getId(), g2.getId()),
+                graveEvent(GRAVE_EMPTIED, g2),
+                graveEvent(GRAVE_RESERVED, allocated),
+                graveEvent(GRAVE_RESERVATION_CANCELLED, allocated));
+    }
+
+    @Test
+    public void cemeteryManagerFollowsFreedPlaces() {
+        Grave near = new GraveBuilder().row(1).column(1).capacity(1).build();
+        Grave far = new GraveBuilder().row(9).column(9).capacity(1).build();
+        graveManager.createGraves(Arrays.asList(near, far));
+        Body body = new BodyBuilder().name("Body 1").gender(Gender.MALE).build();
+        bodyManager.createBody(body);
+        cemeteryManager.putBodyIntoGrave(body, near);
+        assertThat(cemeteryManager.findNearestGraveWithFreeSpace(1, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(far);
+
+        bodyManager.deleteBody(body);
+        assertThat(cemeteryManager.findNearestGraveWithFreeSpace(1, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(near);
+
+        Body other = new BodyBuilder().name("Body 2").gender(Gender.MALE).build();
+        bodyManager.createBody(other);
+        cemeteryManager.putBodyIntoGrave(other, near);
+        near.setCapacity(2);
+        graveManager.updateGrave(near);
+        assertThat(cemeteryManager.findNearestGraveWithFreeSpace(1, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(near);
+    }
+
+    @Test
+    public void bodiesDeletedWithGravesArePublished() {
+        Grave g1 = new GraveBuilder().row(1).column(1).capacity(2).build();
+        Grave g2 = new GraveBuilder().row(1).column(2).capacity(2).build();
+        graveManager.createGraves(Arrays.asList(g1, g2));
+        Body b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE).build();
+        Body b2 = new BodyBuilder().name("Body 2").gender(Gender.MALE).build();
+        Body b3 = new BodyBuilder().name("Body 3").gender(Gender.MALE).build();
+        bodyManager.createBodies(Arrays.asList(b1, b2, b3));
+        cemeteryManager.putBodyIntoGrave(b1, g1);
+        cemeteryManager.putBodyIntoGrave(b2, g1);
+        events.clear();
+
+        graveManager.deleteGraves(Arrays.asList(g1, g2), OccupiedGravePolicy.DELETE_BODIES);
+
+        assertThat(events).hasSize(6);
+        // Order of bodies in the grave is not defined
+        assertThat(events.subList(0, 2)).containsOnly(
+                bodyEvent(BODY_DELETED, b1),
+                bodyEvent(BODY_DELETED, b2));
+        assertThat(events.subList(2, 6)).containsExactly(
+                graveEvent(GRAVE_EMPTIED, g1),
+                graveEvent(GRAVE_DELETED, g1),
+                graveEvent(GRAVE_EMPTIED, g2),
+                graveEvent(GRAVE_DELETED, g2));
+    }
+
+    @Test
+    public void cachingManagersFollowChangesMadeByOtherManagers() {
+        CachingBodyManager cachingBodyManager = new CachingBodyManager(bodyManager);
+        CachingGraveManager cachingGraveManager = new CachingGraveManager(graveManager);
+        eventBus.subscribe(cachingBodyManager);
+        eventBus.subscribe(cachingGraveManager);
+        Grave grave = new GraveBuilder().row(1).column(1).capacity(2).note("Old").build();
+        graveManager.createGrave(grave);
+        Body buried = new BodyBuilder().name("Buried").gender(Gender.MALE).build();
+        Body other = new BodyBuilder().name("Other").gender(Gender.MALE).build();
+        bodyManager.createBodies(Arrays.asList(buried, other));
+        cemeteryManager.putBodyIntoGrave(buried, grave);
+        assertThat(cachingBodyManager.getBody(buried.getId())).isNotNull();
+        assertThat(cachingBodyManager.getBody(other.getId())).isNotNull();
+        assertThat(cachingGraveManager.getGrave(grave.getId())).isNotNull();
+
+        grave.setNote("New");
+        graveManager.updateGrave(grave);
+        assertThat(cachingGraveManager.getGrave(grave.getId()).getNote()).isEqualTo("New");
+
+        graveManager.deleteGraves(Collections.singletonList(grave), OccupiedGravePolicy.DELETE_BODIES);
+        assertThat(cachingBodyManager.getBody(buried.getId())).isNull();
+        assertThat(cachingBodyManager.getBody(other.getId())).isNotNull();
+        assertThat(cachingGraveManager.getGrave(grave.getId())).isNull();
+    }
+
+    @Test
+    public void cachingManagerIsInvalidatedWhenEventsAreDropped() throws InterruptedException {
+        CachingGraveManager cachingGraveManager = new CachingGraveManager(graveManager);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch notified = new CountDownLatch(1);
+        CemeteryEventBus.Subscription subscription = eventBus.subscribeAsync(new CemeteryEventListener() {
+            @Override
+            public void onEvent(CemeteryEvent event) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                cachingGraveManager.onEvent(event);
+            }
+
+            @Override
+            public void onEventsDropped() {
+                cachingGraveManager.onEventsDropped();
+                notified.countDown();
+            }
+        }, 1);
+        Grave g1 = new GraveBuilder().row(1).column(1).note("Old").build();
+        Grave g2 = new GraveBuilder().row(1).column(2).note("Old").build();
+        graveManager.createGrave(g1);
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        // The listener is blocked, so only creation of g2 fits in the queue
+        graveManager.createGrave(g2);
+        assertThat(cachingGraveManager.getGrave(g2.getId()).getNote()).isEqualTo("Old");
+        g2.setNote("New");
+        graveManager.updateGrave(g2);
+        assertThat(subscription.getDroppedCount()).isEqualTo(1);
+
+        release.countDown();
+        assertThat(notified.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(cachingGraveManager.getGrave(g2.getId()).getNote()).isEqualTo("New");
+    }
+
+    @Test
+    public void failedChangeIsNotPublished() {
+        Grave grave = new GraveBuilder().row(1).column(1).capacity(1).build();
+        graveManager.createGrave(grave);
+        Body b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE).build();
+        Body b2 = new BodyBuilder().name("Body 2").gender(Gender.MALE).build();
+        bodyManager.createBodies(Arrays.asList(b1, b2));
+        cemeteryManager.putBodyIntoGrave(b1, grave);
+        events.clear();
+
+        assertThatThrownBy(() -> cemeteryManager.putBodyIntoGrave(b2, grave))
+                .isInstanceOf(IllegalEntityException.class);
+
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    public void eventsArePublishedAfterCommitOfTransaction() {
+        Grave grave = new GraveBuilder().row(1).column(1).build();
+        Body body = new BodyBuilder().name("Body").gender(Gender.MALE).build();
+
+        runner.inTransaction(() -> {
+            graveManager.createGrave(grave);
+            bodyManager.createBody(body);
+            cemeteryManager.putBodyIntoGrave(body, grave);
+            assertThat(events).isEmpty();
+        });
+
+        assertThat(events).containsExactly(
+                graveEvent(GRAVE_CREATED, grave),
+                bodyEvent(BODY_CREATED, body),
+                CemeteryEvent.bodyBuried(body.getId(), grave.getId()));
+    }
+
+    @Test
+    public void eventsAreNotPublishedAfterRollback() {
+        Grave grave = new GraveBuilder().row(1).column(1).build();
+
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            graveManager.createGrave(grave);
+            throw new IllegalStateException("Cancelled");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(events).isEmpty();
+        assertThat(eventBus.getPublishedCount()).isZero();
+    }
+
+    @Test
+    public void failingListenerIsCountedAndDoesNotAffectOthers() {
+        CemeteryEventBus.Subscription failing = eventBus.subscribe(event -> {
+            throw new IllegalStateException("Listener failure");
+        });
+        List<CemeteryEvent> others = new CopyOnWriteArrayList<>();
+        eventBus.subscribe(others::add);
+        CemeteryEvent event = CemeteryEvent.bodyChanged(BODY_CREATED, 1L);
+
+        eventBus.publish(event);
+
+        assertThat(others).containsExactly(event);
+        assertThat(eventBus.getFailedCount()).isEqualTo(1);
+        assertThat(failing.getDeliveredCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void unsubscribe() {
+        CemeteryEventBus.Subscription subscription = eventBus.subscribe(events::add);
+        subscription.unsubscribe();
+
+        eventBus.publish(CemeteryEvent.bodyChanged(BODY_CREATED, 1L));
+
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    public void asyncListenerReceivesEventsInOrder() throws InterruptedException {
+        List<CemeteryEvent> received = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(100);
+        eventBus.subscribeAsync(event -> {
+            received.add(event);
+            latch.countDown();
+        });
+
+        for (long id = 1; id <= 100; id++) {
+            eventBus.publish(CemeteryEvent.bodyChanged(BODY_CREATED, id));
+        }
+
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(received).containsExactlyElementsOf(events);
+        assertThat(eventBus.getDroppedCount()).isZero();
+    }
+
+    @Test
+    public void slowAsyncListenerDropsEvents() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(3);
+        CemeteryEventBus.Subscription subscription = eventBus.subscribeAsync(event -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finished.countDown();
+        }, 2);
+
+        eventBus.publish(CemeteryEvent.bodyChanged(BODY_CREATED, 1L));
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        // The listener is blocked, so only 2 of next 5 events fit in the queue
+        for (long id = 2; id <= 6; id++) {
+            eventBus.publish(CemeteryEvent.bodyChanged(BODY_CREATED, id));
+        }
+
+        assertThat(subscription.getLag()).isEqualTo(2);
+        assertThat(subscription.getMaxLag()).isEqualTo(2);
+        assertThat(subscription.getDroppedCount()).isEqualTo(3);
+        assertThat(eventBus.getDroppedCount()).isEqualTo(3);
+        assertThat(eventBus.getLag()).isEqualTo(2);
+        assertThat(events).hasSize(6);
+
+        release.countDown();
+        assertThat(finished.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+}
@@ -1,8 +1,23 @@
 package cz.muni.fi.pv168.gravemanager.backend;
 
 import cz.muni.fi.pv168.common.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.time.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.sql.DataSource;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.junit.*;
@@ -53,7 +68,7 @@ public class CemeteryManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         ds = prepareDataSource();
-        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("createTables.sql"));
+        CemeterySchema.migrate(ds);
         manager = new CemeteryManagerImpl();
         manager.setDataSource(ds);
         bodyManager = new BodyManagerImpl(Clock.fixed(NOW.toInstant(), NOW.getZone()));
@@ -171,6 +186,85 @@ public class CemeteryManagerImplTest {
         manager.findBodiesInGrave(graveWithNullId);
     }
 
+    @Test
+    public void findGravesWithBodies() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g3);
+        manager.putBodyIntoGrave(b4, g1);
+
+        Map<Body, Grave> graves = manager.findGravesWithBodies(Arrays.asList(b1, b2, b3, b4));
+        assertThat(graves.keySet()).containsExactly(b1, b2, b3, b4);
+        assertThat(graves.get(b1)).isEqualToComparingFieldByField(g3);
+        assertThat(graves.get(b2)).isEqualToComparingFieldByField(g3);
+        assertThat(graves.get(b3)).isNull();
+        assertThat(graves.get(b4)).isEqualToComparingFieldByField(g1);
+
+        assertThat(manager.findGravesWithBodies(Collections.emptyList())).isEmpty();
+    }
+
+    @Test
+    public void findBodiesInGraves() {
+
+        manager.putBodyIntoGrave(b2, g3);
+        manager.putBodyIntoGrave(b3, g2);
+        manager.putBodyIntoGrave(b4, g3);
+        manager.putBodyIntoGrave(b5, g2);
+
+        Map<Grave, List<Body>> bodies = manager.findBodiesInGraves(Arrays.asList(g1, g2, g3));
+        assertThat(bodies.keySet()).containsExactly(g1, g2, g3);
+        assertThat(bodies.get(g1)).isEmpty();
+        assertThat(bodies.get(g2))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(b3,b5);
+        assertThat(bodies.get(g3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(b2,b4);
+    }
+
+    @Test
+    public void findBodiesInManyGraves() {
+
+        // more graves than fits into single IN list
+        List<Grave> graves = new ArrayList<>();
+        List<Body> bodies = new ArrayList<>();
+        for (int i = 0; i < DBUtils.MAX_IN_LIST_SIZE + 10; i++) {
+            graves.add(new GraveBuilder().row(100 + i).column(1).capacity(1).build());
+            bodies.add(new BodyBuilder().name("Body " + i).gender(Gender.MALE).build());
+        }
+        graveManager.createGraves(graves);
+        bodyManager.createBodies(bodies);
+        for (int i = 0; i < graves.size(); i += 2) {
+            manager.putBodyIntoGrave(bodies.get(i), graves.get(i));
+        }
+
+        Map<Grave, List<Body>> bodiesInGraves = manager.findBodiesInGraves(graves);
+        Map<Body, Grave> gravesWithBodies = manager.findGravesWithBodies(bodies);
+        assertThat(bodiesInGraves).hasSize(graves.size());
+        assertThat(gravesWithBodies).hasSize(bodies.size());
+        for (int i = 0; i < graves.size(); i++) {
+            if (i % 2 == 0) {
+                assertThat(bodiesInGraves.get(graves.get(i))).containsExactly(bodies.get(i));
+                assertThat(gravesWithBodies.get(bodies.get(i))).isEqualTo(graves.get(i));
+            } else {
+                assertThat(bodiesInGraves.get(graves.get(i))).isEmpty();
+                assertThat(gravesWithBodies.get(bodies.get(i))).isNull();
+            }
+        }
+    }
+
+    @Test
+    public void findBodiesInGravesWithNullGrave() {
+        expectedException.expect(IllegalArgumentException.class);
+        manager.findBodiesInGraves(Arrays.asList(g1, null));
+    }
+
+    @Test
+    public void findGravesWithBodiesHavingNullId() {
+        expectedException.expect(IllegalEntityException.class);
+        manager.findGravesWithBodies(Arrays.asList(b1, bodyWithNullId));
+    }
+
     @Test
     public void findUnburiedBodies() {
 
@@ -348,6 +442,64 @@ public class CemeteryManagerImplTest {
         manager.putBodyIntoGrave(b2, graveNotInDB);
     }
 
+    @Test
+    public void concurrentBurialsIntoSingleGrave() throws Exception {
+
+        final int capacity = 150;
+        final int bodiesCount = 400;
+        final int threadsCount = 16;
+
+        Grave grave = new GraveBuilder().column(50).row(50).capacity(capacity).build();
+        graveManager.createGrave(grave);
+        List<Body> bodies = new ArrayList<>();
+        for (int i = 0; i < bodiesCount; i++) {
+            bodies.add(new BodyBuilder().name("Stress body " + i).gender(Gender.FEMALE).build());
+        }
+        bodyManager.createBodies(bodies);
+
+        BlockingQueue<Body> queue = new LinkedBlockingQueue<>(bodies);
+        AtomicInteger buried = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                Body body;
+                while ((body = queue.poll()) != null) {
+                    try {
+                        manager.putBodyIntoGrave(body, grave);
+                        buried.incrementAndGet();
+                    } catch (IllegalEntityException ex) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        executor.shutdown();
+
+        Logger.getLogger(CemeteryManagerImplTest.class.getName()).info(String.format(
+                "%d burial attempts from %d threads: %d buried (%.0f burials/s), %d rejected",
+                bodiesCount, threadsCount, buried.get(), buried.get() * 1e9 / elapsedNanos,
+                rejected.get()));
+
+        assertThat(buried.get()).isEqualTo(capacity);
+        assertThat(rejected.get()).isEqualTo(bodiesCount - capacity);
+        assertThat(manager.findBodiesInGrave(grave)).hasSize(capacity);
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1,g2,g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
     //--------------------------------------------------------------------------
     // Tests for CemeteryManager.removeBodyFromGrave(Body,Grave) operation
     //--------------------------------------------------------------------------
@@ -467,6 +619,554 @@ public class CemeteryManagerImplTest {
         manager.removeBodyFromGrave(b2, graveNotInDB);
     }
 
+    //--------------------------------------------------------------------------
+    // Tests for moving bodies between graves
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void moveBody() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g3);
+
+        manager.moveBody(b1, g3, g2);
+
+        assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g2);
+        assertThat(manager.findBodiesInGrave(g3))
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b2);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void moveBodyIntoFullGrave() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g1);
+
+        expectedException.expect(IllegalEntityException.class);
+        try {
+            manager.moveBody(b1, g3, g1);
+        } finally {
+            assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g3);
+            assertThat(manager.checkGraveOccupancy(false)).isZero();
+        }
+    }
+
+    @Test
+    public void moveBodyFromWrongGrave() {
+
+        manager.putBodyIntoGrave(b1, g3);
+
+        expectedException.expect(IllegalEntityException.class);
+        try {
+            manager.moveBody(b1, g2, g1);
+        } finally {
+            assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g3);
+            assertThat(manager.findEmptyGraves())
+                    .usingFieldByFieldElementComparator()
+                    .containsOnly(g1, g2);
+        }
+    }
+
+    @Test
+    public void moveBodyDoesNotUseReservation() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+
+        assertThatThrownBy(() -> manager.moveBody(b1, g3, g2))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void moveBodyToSameGrave() {
+        manager.putBodyIntoGrave(b1, g3);
+        expectedException.expect(IllegalArgumentException.class);
+        manager.moveBody(b1, g3, g3);
+    }
+
+    @Test
+    public void moveBodyToGraveWithNullId() {
+        manager.putBodyIntoGrave(b1, g3);
+        expectedException.expect(IllegalEntityException.class);
+        manager.moveBody(b1, g3, graveWithNullId);
+    }
+
+    @Test
+    public void moveAllBodies() {
+
+        manager.putBodyIntoGrave(b1, g1);
+        manager.putBodyIntoGrave(b2, g2);
+        manager.putBodyIntoGrave(b3, g2);
+
+        Map<Grave, Grave> targets = new LinkedHashMap<>();
+        targets.put(g1, g2);
+        targets.put(g2, g3);
+        assertThat(manager.moveAllBodies(targets)).isEqualTo(3);
+
+        assertThat(manager.findBodiesInGrave(g1)).isEmpty();
+        assertThat(manager.findBodiesInGrave(g2))
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b1);
+        assertThat(manager.findBodiesInGrave(g3))
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b2, b3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void moveAllBodiesSwapsGraves() {
+
+        manager.putBodyIntoGrave(b1, g1);
+        manager.putBodyIntoGrave(b2, g2);
+
+        Map<Grave, Grave> targets = new HashMap<>();
+        targets.put(g1, g2);
+        targets.put(g2, g1);
+        assertThat(manager.moveAllBodies(targets)).isEqualTo(2);
+
+        assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g2);
+        assertThat(manager.findGraveWithBody(b2)).isEqualToComparingFieldByField(g1);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void moveAllBodiesIntoTooSmallGrave() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g3);
+        manager.putBodyIntoGrave(b3, g2);
+
+        Map<Grave, Grave> targets = new HashMap<>();
+        targets.put(g2, g3);
+        targets.put(g3, g1);
+        expectedException.expect(IllegalEntityException.class);
+        try {
+            manager.moveAllBodies(targets);
+        } finally {
+            // nothing was changed
+            assertThat(manager.findBodiesInGrave(g3))
+                    .usingFieldByFieldElementComparator()
+                    .containsOnly(b1, b2);
+            assertThat(manager.findGraveWithBody(b3)).isEqualToComparingFieldByField(g2);
+            assertThat(manager.checkGraveOccupancy(false)).isZero();
+        }
+    }
+
+    @Test
+    public void moveAllBodiesFromGraveNotInDB() {
+        expectedException.expect(IllegalEntityException.class);
+        manager.moveAllBodies(Collections.singletonMap(graveNotInDB, g1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void moveAllBodiesWithNullMap() {
+        manager.moveAllBodies(null);
+    }
+
+    //--------------------------------------------------------------------------
+    // Tests for bulk unburial and deletion of graves
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void removeAllBodiesFromGrave() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g3);
+        manager.putBodyIntoGrave(b3, g2);
+
+        assertThat(manager.removeAllBodiesFromGrave(g3)).isEqualTo(2);
+
+        assertThat(manager.findBodiesInGrave(g3)).isEmpty();
+        assertThat(manager.findGraveWithBody(b3)).isEqualToComparingFieldByField(g2);
+        assertThat(manager.findUnburiedBodies())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b1, b2, b4, b5);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void removeAllBodiesFromGraves() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g2);
+        manager.putBodyIntoGrave(b3, g2);
+        manager.putBodyIntoGrave(b4, g1);
+
+        assertThat(manager.removeAllBodiesFromGraves(Arrays.asList(g2, g3))).isEqualTo(3);
+
+        assertThat(manager.findGraveWithBody(b4)).isEqualToComparingFieldByField(g1);
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2, g3);
+        assertThat(manager.allocateGrave(3)).isEqualToComparingFieldByField(g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void removeAllBodiesFromGraveNotInDB() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        expectedException.expect(IllegalEntityException.class);
+        try {
+            manager.removeAllBodiesFromGraves(Arrays.asList(g3, graveNotInDB));
+        } finally {
+            assertThat(manager.findGraveWithBody(b1)).isEqualToComparingFieldByField(g3);
+        }
+    }
+
+    @Test
+    public void deleteGravesWithBodies() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g2);
+
+        assertThatThrownBy(() -> graveManager.deleteGraves(Arrays.asList(g1, g2, g3), OccupiedGravePolicy.FAIL))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(graveManager.findAllGraves()).hasSize(3);
+
+        graveManager.deleteGraves(Arrays.asList(g2, g3), OccupiedGravePolicy.UNBURY_BODIES);
+        assertThat(graveManager.findAllGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1);
+        assertThat(manager.findUnburiedBodies())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b1, b2, b3, b4, b5);
+    }
+
+    @Test
+    public void deleteGravesWithBodiesDeletesBodies() {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b2, g3);
+
+        graveManager.deleteGraves(Arrays.asList(g1, g3), OccupiedGravePolicy.DELETE_BODIES);
+
+        assertThat(graveManager.findAllGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2);
+        assertThat(bodyManager.findAllBodies())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b3, b4, b5);
+    }
+
+    //--------------------------------------------------------------------------
+    // Tests for CemeteryManager.allocateGrave(int) operation
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void allocateGrave() {
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1,g3);
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g3);
+        assertThat(manager.allocateGrave(2)).isNull();
+        // g1 and g3 have both one free place, g1 has lower id
+        assertThat(manager.allocateGrave(1)).isEqualToComparingFieldByField(g1);
+        assertThat(manager.allocateGrave(1)).isEqualToComparingFieldByField(g3);
+        assertThat(manager.allocateGrave(1)).isNull();
+        assertThat(manager.findGravesWithSomeFreeSpace()).isEmpty();
+    }
+
+    @Test
+    public void putBodyIntoAllocatedGrave() {
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+
+        manager.putBodyIntoReservedPlace(b1, g2);
+        manager.putBodyIntoReservedPlace(b2, g2);
+        assertThatThrownBy(() -> manager.putBodyIntoReservedPlace(b3, g2))
+                .isInstanceOf(IllegalEntityException.class);
+
+        assertThat(manager.findBodiesInGrave(g2))
+                .usingFieldByFieldElementComparator()
+                .containsOnly(b1,b2);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void putBodyIntoGraveDoesNotUseReservation() {
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+
+        assertThatThrownBy(() -> manager.putBodyIntoGrave(b1, g2))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(manager.findBodiesInGrave(g2)).isEmpty();
+
+        // Unreserved place of partially reserved grave can be used
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g3);
+        manager.putBodyIntoGrave(b1, g3);
+        assertThatThrownBy(() -> manager.putBodyIntoGrave(b2, g3))
+                .isInstanceOf(IllegalEntityException.class);
+        manager.putBodyIntoReservedPlace(b2, g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void putBodyIntoReservedPlaceWithoutReservation() {
+
+        assertThatThrownBy(() -> manager.putBodyIntoReservedPlace(b1, g3))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(manager.findGraveWithBody(b1)).isNull();
+    }
+
+    @Test
+    public void reservedGraveIsNotEmpty() {
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1, g3);
+        manager.cancelReservation(g2, 2);
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1, g2, g3);
+    }
+
+    @Test
+    public void cancelReservation() {
+
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+        manager.cancelReservation(g2, 2);
+
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1,g2,g3);
+        assertThat(manager.allocateGrave(2)).isEqualToComparingFieldByField(g2);
+        assertThatThrownBy(() -> manager.cancelReservation(g2, 3))
+                .isInstanceOf(IllegalEntityException.class);
+    }
+
+    @Test
+    public void allocateGraveFollowsBurials() {
+
+        assertThat(manager.allocateGrave(3)).isEqualToComparingFieldByField(g3);
+
+        manager.putBodyIntoGrave(b1, g1);
+        assertThat(manager.allocateGrave(1)).isEqualToComparingFieldByField(g2);
+
+        manager.removeBodyFromGrave(b1, g1);
+        assertThat(manager.allocateGrave(1)).isEqualToComparingFieldByField(g1);
+    }
+
+    @Test
+    public void allocateGraveCreatedAfterIndexWasLoaded() {
+
+        assertThat(manager.allocateGrave(1)).isEqualToComparingFieldByField(g1);
+
+        Grave bigGrave = new GraveBuilder().column(20).row(20).capacity(10).build();
+        graveManager.createGrave(bigGrave);
+
+        assertThat(manager.allocateGrave(5)).isEqualToComparingFieldByField(bigGrave);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void allocateGraveForZeroBodies() {
+        manager.allocateGrave(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cancelReservationInNullGrave() {
+        manager.cancelReservation(null, 1);
+    }
+
+    //--------------------------------------------------------------------------
+    // Tests for CemeteryManager.findNearestGraveWithFreeSpace(int,int,int)
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void findNearestGraveWithFreeSpace() {
+
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 2, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 2, 5))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3, g1, g2);
+        assertThat(manager.findNearestGraveWithFreeSpace(100, 100, 2))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g2, g3);
+    }
+
+    @Test
+    public void findNearestGraveWithFreeSpaceFollowsBurials() {
+
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g1);
+
+        manager.putBodyIntoGrave(b1, g1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3);
+
+        manager.removeBodyFromGrave(b1, g1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g1);
+    }
+
+    @Test
+    public void findNearestGraveWithFreeSpaceChangedByAnotherService() {
+
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 2, 1))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3);
+
+        // changes not visible to the free space index
+        Grave newGrave = new GraveBuilder().column(3).row(3).capacity(1).build();
+        graveManager.createGrave(newGrave);
+        g3.setRow(50);
+        graveManager.updateGrave(g3);
+        graveManager.deleteGrave(g1);
+
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 2, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(newGrave, g2, g3);
+    }
+
+    @Test
+    public void findNearestGraveWithFreeSpaceRegainedByAnotherService() {
+
+        manager.putBodyIntoGrave(b1, g1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3, g2);
+
+        // place freed without the free space index noticing it
+        bodyManager.deleteBody(b1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g1, g3, g2);
+
+        manager.putBodyIntoGrave(b2, g1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g3, g2);
+        g1.setCapacity(2);
+        graveManager.updateGrave(g1);
+        assertThat(manager.findNearestGraveWithFreeSpace(2, 1, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g1, g3, g2);
+    }
+
+    @Test
+    public void findNearestGraveWithFreeSpaceInLargeCemetery() {
+
+        // compare with sorting of all graves with free space by distance
+        List<Grave> graves = new ArrayList<>();
+        Random random = new Random(7);
+        for (int row = 30; row < 130; row++) {
+            for (int column = 30; column < 60; column++) {
+                graves.add(new GraveBuilder().row(row).column(column)
+                        .capacity(1 + random.nextInt(2)).build());
+            }
+        }
+        graveManager.createGraves(graves);
+        List<Body> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add(new BodyBuilder().name("Body " + i).gender(Gender.FEMALE).build());
+        }
+        bodyManager.createBodies(bodies);
+        for (int i = 0; i < bodies.size(); i++) {
+            manager.putBodyIntoGrave(bodies.get(i), graves.get(i * 13));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            int row = random.nextInt(160);
+            int column = random.nextInt(90);
+            Comparator<Grave> byDistance = Comparator
+                    .comparingLong((Grave g) -> distanceSquared(g, row, column))
+                    .thenComparingLong(Grave::getId);
+            List<Grave> expected = manager.findGravesWithSomeFreeSpace().stream()
+                    .sorted(byDistance).limit(5).collect(Collectors.toList());
+
+            assertThat(manager.findNearestGraveWithFreeSpace(row, column, 5))
+                    .usingFieldByFieldElementComparator()
+                    .containsExactlyElementsOf(expected);
+        }
+
+        // More graves than fit into a single IN list
+        int count = 2 * DBUtils.MAX_IN_LIST_SIZE + 3;
+        Comparator<Grave> byDistance = Comparator
+                .comparingLong((Grave g) -> distanceSquared(g, 80, 45))
+                .thenComparingLong(Grave::getId);
+        List<Grave> expected = manager.findGravesWithSomeFreeSpace().stream()
+                .sorted(byDistance).limit(count).collect(Collectors.toList());
+        assertThat(manager.findNearestGraveWithFreeSpace(80, 45, count))
+                .usingFieldByFieldElementComparator()
+                .containsExactlyElementsOf(expected);
+    }
+
+    private static long distanceSquared(Grave grave, int row, int column) {
+        long dr = grave.getRow() - row;
+        long dc = grave.getColumn() - column;
+        return dr * dr + dc * dc;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findZeroNearestGraves() {
+        manager.findNearestGraveWithFreeSpace(1, 1, 0);
+    }
+
+    //--------------------------------------------------------------------------
+    // Tests for grave occupancy counters
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void deleteBuriedBodyReleasesPlaceInGrave() {
+
+        manager.putBodyIntoGrave(b1, g1);
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2,g3);
+
+        bodyManager.deleteBody(b1);
+
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1,g2,g3);
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g1,g2,g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+    }
+
+    @Test
+    public void checkGraveOccupancy() throws SQLException {
+
+        manager.putBodyIntoGrave(b1, g3);
+        manager.putBodyIntoGrave(b3, g3);
+        manager.putBodyIntoGrave(b5, g1);
+        manager.removeBodyFromGrave(b3, g3);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+
+        try (Connection conn = ds.getConnection();
+                PreparedStatement st = conn.prepareStatement(
+                        "UPDATE Grave SET occupied = 0 WHERE id = ?")) {
+            st.setLong(1, g3.getId());
+            st.executeUpdate();
+        }
+
+        assertThat(manager.checkGraveOccupancy(false)).isEqualTo(1);
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2,g3);
+
+        assertThat(manager.checkGraveOccupancy(true)).isEqualTo(1);
+        assertThat(manager.checkGraveOccupancy(false)).isZero();
+        assertThat(manager.findEmptyGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2);
+    }
+
     //--------------------------------------------------------------------------
     // Tests if GraveManager methods throws ServiceFailureException in case of
     // DB operation failure
@@ -492,6 +1192,16 @@ public class CemeteryManagerImplTest {
         testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findBodiesInGrave(g1));
     }
 
+    @Test
+    public void findBodiesInGravesWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findBodiesInGraves(Arrays.asList(g1)));
+    }
+
+    @Test
+    public void findGravesWithBodiesWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findGravesWithBodies(Arrays.asList(b1)));
+    }
+
     @Test
     public void findEmptyGravesWithSqlExceptionThrown() throws SQLException {
         testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findEmptyGraves());
@@ -512,11 +1222,51 @@ public class CemeteryManagerImplTest {
         testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findUnburiedBodies());
     }
 
+    @Test
+    public void findNearestGraveWithFreeSpaceWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.findNearestGraveWithFreeSpace(1, 1, 1));
+    }
+
+    @Test
+    public void removeAllBodiesFromGravesWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.removeAllBodiesFromGraves(Arrays.asList(g1, g2)));
+    }
+
+    @Test
+    public void moveBodyWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.moveBody(b1, g1, g2));
+    }
+
+    @Test
+    public void moveAllBodiesWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.moveAllBodies(Collections.singletonMap(g1, g2)));
+    }
+
+    @Test
+    public void allocateGraveWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.allocateGrave(1));
+    }
+
+    @Test
+    public void cancelReservationWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.cancelReservation(g1, 1));
+    }
+
+    @Test
+    public void checkGraveOccupancyWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.checkGraveOccupancy(true));
+    }
+
     @Test
     public void putBodyIntoGraveWithSqlExceptionThrown() throws SQLException {
         testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.putBodyIntoGrave(b1, g1));
     }
 
+    @Test
+    public void putBodyIntoReservedPlaceWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.putBodyIntoReservedPlace(b1, g1));
+    }
+
     @Test
     public void removeBodyIntoGraveWithSqlExceptionThrown() throws SQLException {
         testExpectedServiceFailureException((cemeteryManager) -> cemeteryManager.removeBodyFromGrave(b1, g1));
@@ -0,0 +1,122 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.Month;
+import java.time.ZoneId;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link CemeteryStatisticsManagerImpl}.
+ *
+ * @author agent
+ */
+public class CemeteryStatisticsManagerImplTest {
+
+    private CemeteryStatisticsManagerImpl manager;
+    private GraveManagerImpl graveManager;
+    private BodyManagerImpl bodyManager;
+    private CemeteryManagerImpl cemeteryManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        manager = new CemeteryStatisticsManagerImpl();
+        manager.setDataSource(ds);
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(ds);
+        bodyManager = new BodyManagerImpl(Clock.fixed(Instant.parse("2016-02-29T14:00:00Z"), ZoneId.of("UTC")));
+        bodyManager.setDataSource(ds);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void getStatisticsOfEmptyCemetery() {
+        CemeteryStatistics statistics = manager.getStatistics();
+
+        assertThat(statistics.getGraveCount()).isZero();
+        assertThat(statistics.getTotalCapacity()).isZero();
+        assertThat(statistics.getUtilization()).isZero();
+        assertThat(statistics.getRows()).isEmpty();
+        assertThat(statistics.getBodyCount()).isZero();
+        assertThat(statistics.getBodiesByGender())
+                .containsEntry(Gender.MALE, 0L)
+                .containsEntry(Gender.FEMALE, 0L);
+        assertThat(statistics.getAverageAgeAtDeath()).isNull();
+    }
+
+    @Test
+    public void getStatistics() {
+        Grave g1 = new GraveBuilder().row(1).column(1).capacity(2).build();
+        Grave g2 = new GraveBuilder().row(1).column(2).capacity(3).build();
+        Grave g3 = new GraveBuilder().row(4).column(1).capacity(1).build();
+        graveManager.createGraves(Arrays.asList(g1, g2, g3));
+        Body joe = new BodyBuilder().name("Joe").gender(Gender.MALE)
+                .born(1900, Month.JANUARY, 1).died(1950, Month.JANUARY, 1).build();
+        Body jane = new BodyBuilder().name("Jane").gender(Gender.FEMALE).vampire(true)
+                .born(1900, Month.JANUARY, 1).died(1970, Month.JANUARY, 1).build();
+        Body unknown = new BodyBuilder().name("Unknown").gender(Gender.MALE).vampire(true).build();
+        bodyManager.createBody(joe);
+        bodyManager.createBody(jane);
+        bodyManager.createBody(unknown);
+        cemeteryManager.putBodyIntoGrave(joe, g1);
+        cemeteryManager.putBodyIntoGrave(jane, g2);
+        cemeteryManager.putBodyIntoGrave(unknown, g3);
+
+        CemeteryStatistics statistics = manager.getStatistics();
+
+        assertThat(statistics.getGraveCount()).isEqualTo(3);
+        assertThat(statistics.getTotalCapacity()).isEqualTo(6);
+        assertThat(statistics.getOccupiedSlots()).isEqualTo(3);
+        assertThat(statistics.getUtilization()).isEqualTo(0.5);
+        assertThat(statistics.getRows()).containsOnlyKeys(1, 4);
+        assertThat(statistics.getRows().get(1))
+                .isEqualTo(new CemeteryStatistics.RowStatistics(1, 2, 5, 2));
+        assertThat(statistics.getRows().get(4).getUtilization()).isEqualTo(1.0);
+        assertThat(statistics.getBodyCount()).isEqualTo(3);
+        assertThat(statistics.getVampireCount()).isEqualTo(2);
+        assertThat(statistics.getBodiesByGender())
+                .containsEntry(Gender.MALE, 2L)
+                .containsEntry(Gender.FEMALE, 1L);
+        assertThat(statistics.getBodiesWithKnownAge()).isEqualTo(2);
+        assertThat(statistics.getAverageAgeAtDeath()).isCloseTo(60.0, within(0.01));
+    }
+
+    @Test
+    public void getStatisticsWithSqlExceptionThrown() throws SQLException {
+        SQLException sqlException = new SQLException();
+        DataSource failingDataSource = mock(DataSource.class);
+        when(failingDataSource.getConnection()).thenThrow(sqlException);
+        manager.setDataSource(failingDataSource);
+
+        assertThatThrownBy(() -> manager.getStatistics())
+                .isInstanceOf(ServiceFailureException.class)
+                .hasCause(sqlException);
+    }
+}
@@ -0,0 +1,190 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link ColumnarBodyStore}.
+ *
+ * @author agent
+ */
+public class ColumnarBodyStoreTest {
+
+    private BodyManagerImpl bodyManager;
+    private CemeteryManagerImpl cemeteryManager;
+    private GraveManagerImpl graveManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        bodyManager = new BodyManagerImpl(Clock.systemDefaultZone());
+        bodyManager.setDataSource(ds);
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(ds);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private static ColumnarBodyStore generateStore(int size) {
+        Random random = new Random(42);
+        ColumnarBodyStore.Builder builder = new ColumnarBodyStore.Builder();
+        for (long id = 1; id <= size; id++) {
+            LocalDate born = LocalDate.of(1800, Month.JANUARY, 1).plusDays(random.nextInt(60000));
+            builder.add(id, "Body " + random.nextInt(100),
+                    random.nextBoolean() ? Gender.MALE : Gender.FEMALE,
+                    born, born.plusDays(random.nextInt(36500)), random.nextInt(10) == 0,
+                    random.nextInt(3) == 0 ? null : (long) random.nextInt(1000) + 1);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void loadBodies() {
+        Grave grave = new GraveBuilder().row(1).column(1).capacity(2).build();
+        graveManager.createGrave(grave);
+        Body b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE)
+                .born(1900, Month.JANUARY, 1).died(1950, Month.JANUARY, 1).build();
+        Body b2 = new BodyBuilder().name("Body 2").gender(Gender.FEMALE).vampire(true).build();
+        Body b3 = new BodyBuilder().name("Body 1").gender(Gender.FEMALE)
+                .born(1920, Month.MAY, 8).died(null).build();
+        bodyManager.createBodies(Arrays.asList(b1, b2, b3));
+        cemeteryManager.putBodyIntoGrave(b2, grave);
+
+        ColumnarBodyStore store = ColumnarBodyStore.load(ds);
+
+        assertThat(store.size()).isEqualTo(3);
+        assertThat(store.getNameCount()).isEqualTo(2);
+        assertThat(store.toBodies(store.filter(row -> true))).containsExactly(b1, b2, b3);
+        for (int row = 0; row < store.size(); row++) {
+            Body body = store.toBody(row);
+            assertThat(body).isEqualToComparingFieldByField(bodyManager.getBody(store.getId(row)));
+            assertThat(store.findRow(body.getId())).isEqualTo(row);
+        }
+        int row2 = store.findRow(b2.getId());
+        assertThat(store.getGraveId(row2)).isEqualTo(grave.getId());
+        assertThat(store.getGraveId(store.findRow(b1.getId()))).isNull();
+        assertThat(store.getAgeAtDeathDays(store.findRow(b3.getId()))).isEqualTo(-1);
+        assertThat(store.findRow(Long.MAX_VALUE)).isEqualTo(-1);
+    }
+
+    @Test
+    public void filterBodies() {
+        ColumnarBodyStore store = new ColumnarBodyStore.Builder()
+                .add(new BodyBuilder().id(1L).name("Dracula").gender(Gender.MALE).vampire(true)
+                        .born(1431, Month.NOVEMBER, 1).died(1476, Month.DECEMBER, 1).build(), null)
+                .add(new BodyBuilder().id(2L).name("Lucy").gender(Gender.FEMALE).vampire(true)
+                        .born(1870, Month.JANUARY, 1).died(1893, Month.SEPTEMBER, 20).build(), 7L)
+                .add(new BodyBuilder().id(5L).name("Mina").gender(Gender.FEMALE)
+                        .born(1870, Month.JANUARY, 1).died(1940, Month.MARCH, 1).build(), 7L)
+                .add(new BodyBuilder().id(6L).name("Renfield").gender(Gender.MALE)
+                        .born(null).died(null).build(), 8L)
+                .build();
+
+        assertThat(store.filter(store.vampire())).isEqualTo(bits(0, 1));
+        assertThat(store.filter(store.gender(Gender.FEMALE))).isEqualTo(bits(1, 2));
+        assertThat(store.filter(store.name("Mina"))).isEqualTo(bits(2));
+        assertThat(store.filter(store.name("Jonathan"))).isEqualTo(new BitSet());
+        assertThat(store.filter(store.buriedIn(7L))).isEqualTo(bits(1, 2));
+        assertThat(store.filter(store.buried().negate())).isEqualTo(bits(0));
+        assertThat(store.filter(store.bornBetween(LocalDate.MIN, LocalDate.MAX))).isEqualTo(bits(0, 1, 2));
+        assertThat(store.count(store.vampire().and(
+                store.diedBetween(LocalDate.of(1800, 1, 1), LocalDate.of(1899, 12, 31))))).isEqualTo(1);
+        assertThat(store.count(store.name("Dracula").or(store.name("Renfield")))).isEqualTo(2);
+        assertThat(store.getAverageAgeAtDeath(bits(1, 2)))
+                .isCloseTo((23.7 + 70.2) / 2, within(0.1));
+        assertThat(store.getAverageAgeAtDeath(bits(3))).isNull();
+    }
+
+    @Test
+    public void parallelFilterEqualsSequentialFilter() {
+        ColumnarBodyStore store = generateStore(ColumnarBodyStore.PARALLEL_CHUNK_SIZE * 5 + 123);
+        ColumnarBodyStore.RowPredicate predicate = store.vampire()
+                .and(store.gender(Gender.FEMALE))
+                .and(store.diedBetween(LocalDate.of(1900, 1, 1), LocalDate.of(1999, 12, 31)));
+        BitSet expected = store.filter(predicate);
+        assertThat(expected.cardinality()).isPositive();
+
+        assertThat(store.parallelFilter(predicate)).isEqualTo(expected);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertThat(store.parallelFilter(predicate, pool)).isEqualTo(expected);
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(store.parallelCount(predicate)).isEqualTo(expected.cardinality());
+        assertThat(store.count(predicate)).isEqualTo(expected.cardinality());
+        assertThat(store.getNameCount()).isEqualTo(100);
+
+        ColumnarBodyStore.RowPredicate composed = store.name("Body 1")
+                .or(store.buried().negate().and(store.vampire().negate()));
+        BitSet tested = new BitSet();
+        for (int row = 0; row < store.size(); row++) {
+            tested.set(row, composed.test(row));
+        }
+        assertThat(store.filter(composed)).isEqualTo(tested);
+        assertThat(store.parallelFilter(composed)).isEqualTo(tested);
+    }
+
+    @Test
+    public void builderWithInvalidArguments() {
+        ColumnarBodyStore.Builder builder = new ColumnarBodyStore.Builder()
+                .add(new BodyBuilder().id(2L).build(), null);
+        assertThatThrownBy(() -> builder.add(null, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add(new BodyBuilder().id(null).build(), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.add(new BodyBuilder().id(1L).build(), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> builder.build().getId(1))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void loadWithSqlExceptionThrown() throws SQLException {
+        SQLException sqlException = new SQLException();
+        DataSource failingDataSource = mock(DataSource.class);
+        when(failingDataSource.getConnection()).thenThrow(sqlException);
+
+        assertThatThrownBy(() -> ColumnarBodyStore.load(failingDataSource))
+                .isInstanceOf(ServiceFailureException.class)
+                .hasCause(sqlException);
+    }
+
+    private static BitSet bits(int... rows) {
+        BitSet result = new BitSet();
+        for (int row : rows) {
+            result.set(row);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,235 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests for {@link FreeSpaceIndex}.
+ *
+ * @author agent
+ */
+public class FreeSpaceIndexTest {
+
+    private FreeSpaceIndex index;
+
+    @Before
+    public void setUp() {
+        index = new FreeSpaceIndex();
+        index.load(Arrays.asList(
+                entry(1L, 1),
+                entry(2L, 4),
+                entry(3L, 2),
+                entry(4L, 0),
+                entry(5L, 2)), 5L);
+    }
+
+    private static FreeSpaceIndex.Entry entry(long graveId, int freeSpace) {
+        return new FreeSpaceIndex.Entry(graveId, (int) graveId, (int) graveId, freeSpace);
+    }
+
+    @Test
+    public void findBestFit() {
+        assertThat(index.findBestFit(1)).isEqualTo(1L);
+        assertThat(index.findBestFit(2)).isEqualTo(3L);
+        assertThat(index.findBestFit(3)).isEqualTo(2L);
+        assertThat(index.findBestFit(4)).isEqualTo(2L);
+        assertThat(index.findBestFit(5)).isNull();
+    }
+
+    @Test
+    public void fullGraveIsNotIndexed() {
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.getFreeSpace(4L)).isNull();
+    }
+
+    @Test
+    public void update() {
+        index.update(3L, 3, 3, 5);
+        assertThat(index.findBestFit(2)).isEqualTo(5L);
+        assertThat(index.findBestFit(5)).isEqualTo(3L);
+
+        index.update(1L, 1, 1, 0);
+        assertThat(index.getFreeSpace(1L)).isNull();
+        assertThat(index.findBestFit(1)).isEqualTo(5L);
+
+        index.update(4L, 4, 4, 1);
+        assertThat(index.findBestFit(1)).isEqualTo(4L);
+    }
+
+    @Test
+    public void remove() {
+        index.remove(2L);
+        assertThat(index.findBestFit(3)).isNull();
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void updatesAreIgnoredWhenNotLoaded() {
+        index.invalidate();
+        index.update(1L, 1, 1, 3);
+        assertThat(index.isLoaded()).isFalse();
+        assertThat(index.findBestFit(1)).isNull();
+    }
+
+    @Test
+    public void addNewGraves() {
+        index.addNewGraves(Arrays.asList(entry(6L, 3), entry(7L, 0)), 7L);
+        assertThat(index.getLastGraveId()).isEqualTo(7L);
+        assertThat(index.findBestFit(3)).isEqualTo(6L);
+        assertThat(index.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void findNearest() {
+        assertThat(index.findNearest(3, 3, 1)).extracting("graveId").containsExactly(3L);
+        // graves 1 and 3 have the same distance, 1 has lower id
+        assertThat(index.findNearest(2, 2, 3)).extracting("graveId").containsExactly(2L, 1L, 3L);
+        assertThat(index.findNearest(100, -100, 10)).extracting("graveId")
+                .containsExactly(1L, 2L, 3L, 5L);
+
+        index.update(2L, 2, 2, 0);
+        index.update(3L, 40, 40, 1);
+        assertThat(index.findNearest(2, 2, 2)).extracting("graveId").containsExactly(1L, 5L);
+    }
+
+    @Test
+    public void findNearestIsSameAsSortingByDistance() {
+        Random random = new Random(3);
+        List<FreeSpaceIndex.Entry> entries = new ArrayList<>();
+        for (long id = 1; id <= 5_000; id++) {
+            entries.add(new FreeSpaceIndex.Entry(id, random.nextInt(500),
+                    random.nextInt(100), random.nextInt(3)));
+        }
+        index.load(entries, 5_000);
+        for (int i = 0; i < 100; i++) {
+            int row = random.nextInt(700) - 100;
+            int column = random.nextInt(300) - 100;
+            List<Long> expected = sortByDistance(entries, row, column).stream()
+                    .limit(7).map(FreeSpaceIndex.Entry::getGraveId)
+                    .collect(Collectors.toList());
+            assertThat(index.findNearest(row, column, 7)).extracting("graveId")
+                    .containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void findNearestFarFromGraves() {
+        assertThat(index.findNearest(1_000_000_000, 1_000_000_000, 2)).extracting("graveId")
+                .containsExactly(5L, 3L);
+        assertThat(index.findNearest(-1_000_000_000, -1_000_000_000, 1)).extracting("graveId")
+                .containsExactly(1L);
+
+        // Graves far apart from each other make the grid sparse
+        index.update(6L, 1_000_000_000, 1_000_000_000, 1);
+        assertThat(index.findNearest(999_999_000, 999_999_000, 2)).extracting("graveId")
+                .containsExactly(6L, 5L);
+        assertThat(index.findNearest(0, 0, 1)).extracting("graveId")
+                .containsExactly(1L);
+    }
+
+    @Test(timeout = 10_000)
+    public void findNearestAfterRemovingBorderGraves() {
+        index.update(6L, 1_000_000_000, 1_000_000_000, 1);
+        index.update(7L, -1_000_000_000, 0, 1);
+        index.remove(6L);
+        index.update(7L, -1_000_000_000, 0, 0);
+        index.remove(1L);
+
+        assertThat(index.findNearest(1_000_000_000, 1_000_000_000, 1)).extracting("graveId")
+                .containsExactly(5L);
+        assertThat(index.findNearest(-1_000_000_000, 0, 2)).extracting("graveId")
+                .containsExactly(2L, 3L);
+
+        index.remove(2L);
+        index.remove(3L);
+        index.remove(5L);
+        assertThat(index.findNearest(0, 0, 1)).isEmpty();
+        index.update(8L, 100, 100, 1);
+        assertThat(index.findNearest(-100, -100, 1)).extracting("graveId")
+                .containsExactly(8L);
+    }
+
+    @Test
+    public void findNearestWithRemovedGravesIsSameAsSortingByDistance() {
+        Random random = new Random(5);
+        Map<Long, FreeSpaceIndex.Entry> entries = new HashMap<>();
+        for (long id = 1; id <= 2_000; id++) {
+            entries.put(id, new FreeSpaceIndex.Entry(id, random.nextInt(200),
+                    random.nextInt(100), 1 + random.nextInt(2)));
+        }
+        index.load(entries.values(), 2_000);
+        for (int i = 0; i < 200; i++) {
+            // Remove graves nearest to the border of the cemetery
+            long id = sortByDistance(new ArrayList<>(entries.values()), 0, 0).get(0).getGraveId();
+            entries.remove(id);
+            index.remove(id);
+            int row = random.nextInt(400) - 100;
+            int column = random.nextInt(300) - 100;
+            List<Long> expected = sortByDistance(new ArrayList<>(entries.values()), row, column).stream()
+                    .limit(5).map(FreeSpaceIndex.Entry::getGraveId)
+                    .collect(Collectors.toList());
+            assertThat(index.findNearest(row, column, 5)).extracting("graveId")
+                    .containsExactlyElementsOf(expected);
+        }
+    }
+
+    private static List<FreeSpaceIndex.Entry> sortByDistance(
+            List<FreeSpaceIndex.Entry> entries, int row, int column) {
+        return entries.stream()
+                .filter(e -> e.getFreeSpace() > 0)
+                .sorted(Comparator.comparingLong((FreeSpaceIndex.Entry e) -> e.distanceSquared(row, column))
+                        .thenComparingLong(FreeSpaceIndex.Entry::getGraveId))
+                .collect(Collectors.toList());
+    }
+
+    //--------------------------------------------------------------------------
+    // Comparison with searching in the list of graves with free space
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void bestFitEqualsListFiltering() {
+        final int gravesCount = 5_000;
+        final int allocations = 500;
+        Random random = new Random(42);
+        List<FreeSpaceIndex.Entry> entries = new ArrayList<>();
+        // list-and-filter: what callers do with findGravesWithSomeFreeSpace()
+        List<long[]> graves = new ArrayList<>();
+        for (long id = 1; id <= gravesCount; id++) {
+            int freeSpace = random.nextInt(8);
+            entries.add(entry(id, freeSpace));
+            if (freeSpace > 0) {
+                graves.add(new long[]{id, freeSpace});
+            }
+        }
+        index.load(entries, gravesCount);
+
+        for (int i = 0; i < allocations; i++) {
+            int request = 1 + random.nextInt(6);
+            long[] best = null;
+            for (long[] grave : graves) {
+                if (grave[1] >= request && (best == null || grave[1] < best[1]
+                        || (grave[1] == best[1] && grave[0] < best[0]))) {
+                    best = grave;
+                }
+            }
+            Long found = index.findBestFit(request);
+            if (best == null) {
+                assertThat(found).isNull();
+            } else {
+                assertThat(found).isEqualTo(best[0]);
+                best[1] -= request;
+                index.update(found, found.intValue(), found.intValue(),
+                        index.getFreeSpace(found) - request);
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package cz.muni.fi.pv168.gravemanager.backend;
 
 import cz.muni.fi.pv168.common.*;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.junit.*;
@@ -49,7 +53,7 @@ public class GraveManagerImplTest {
     @Before
     public void setUp() throws SQLException {
         ds = prepareDataSource();
-        DBUtils.executeSqlScript(ds,GraveManager.class.getResource("createTables.sql"));
+        CemeterySchema.migrate(ds);
         manager = new GraveManagerImpl();
         manager.setDataSource(ds);
     }
@@ -158,6 +162,103 @@ public class GraveManagerImplTest {
                 .containsOnly(g1,g2);
     }
 
+    @Test
+    public void findAllGravesByPages() {
+
+        assertThat(manager.findAllGraves(null, 2).getItems()).isEmpty();
+        assertThat(manager.findAllGraves(null, 2).hasNext()).isFalse();
+
+        List<Grave> graves = Arrays.asList(
+                sampleSmallGraveBuilder().row(1).build(),
+                sampleSmallGraveBuilder().row(2).build(),
+                sampleSmallGraveBuilder().row(3).build(),
+                sampleSmallGraveBuilder().row(4).build(),
+                sampleSmallGraveBuilder().row(5).build());
+        manager.createGraves(graves);
+
+        Page<Grave> page = manager.findAllGraves(null, 2);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(graves.get(0), graves.get(1));
+        assertThat(page.getContinuationToken()).isEqualTo(graves.get(1).getId());
+
+        page = manager.findAllGraves(page.getContinuationToken(), 2);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(graves.get(2), graves.get(3));
+
+        page = manager.findAllGraves(page.getContinuationToken(), 2);
+        assertThat(page.getItems())
+                .usingFieldByFieldElementComparator()
+                .containsExactly(graves.get(4));
+        assertThat(page.hasNext()).isFalse();
+
+        // exactly full last page
+        page = manager.findAllGraves(graves.get(2).getId(), 2);
+        assertThat(page.getItems()).hasSize(2);
+        assertThat(page.hasNext()).isFalse();
+
+        page = manager.findAllGraves(null, Integer.MAX_VALUE);
+        assertThat(page.getItems()).hasSize(5);
+        assertThat(page.hasNext()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findAllGravesWithZeroPageSize() {
+        manager.findAllGraves(null, 0);
+    }
+
+    @Test
+    public void forEachGrave() {
+        manager.setFetchSize(2);
+        List<Grave> graves = Arrays.asList(
+                sampleSmallGraveBuilder().row(1).build(),
+                sampleSmallGraveBuilder().row(2).build(),
+                sampleBigGraveBuilder().build());
+        manager.createGraves(graves);
+
+        List<Grave> visited = new ArrayList<>();
+        manager.forEachGrave(visited::add);
+        assertThat(visited)
+                .usingFieldByFieldElementComparator()
+                .containsExactlyElementsOf(graves);
+    }
+
+    @Test
+    public void forEachGraveWithReusedInstance() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        Grave g2 = sampleBigGraveBuilder().build();
+        manager.createGraves(Arrays.asList(g1, g2));
+
+        List<Grave> instances = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        manager.forEachGrave(grave -> {
+            instances.add(grave);
+            ids.add(grave.getId());
+        }, true);
+        assertThat(ids).containsExactly(g1.getId(), g2.getId());
+        assertThat(instances.get(0)).isSameAs(instances.get(1));
+    }
+
+    @Test
+    public void forEachGraveStopsOnException() {
+        manager.createGraves(Arrays.asList(
+                sampleSmallGraveBuilder().build(),
+                sampleBigGraveBuilder().build()));
+
+        List<Grave> visited = new ArrayList<>();
+        assertThatThrownBy(() -> manager.forEachGrave(grave -> {
+            visited.add(grave);
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(visited).hasSize(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachGraveWithNullAction() {
+        manager.forEachGrave(null);
+    }
+
     // Test exception with expected parameter of @Test annotation
     // it does not allow to specify exact place where the exception
     // is expected, therefor it is suitable only for simple single line tests
@@ -224,6 +325,17 @@ public class GraveManagerImplTest {
                 .isEqualToComparingFieldByField(grave);
     }
 
+    @Test
+    public void createGraveAtOccupiedPosition() {
+        Grave existing = sampleSmallGraveBuilder().build();
+        manager.createGrave(existing);
+        Grave grave = sampleBigGraveBuilder()
+                .row(existing.getRow()).column(existing.getColumn()).build();
+
+        expectedException.expect(ValidationException.class);
+        manager.createGrave(grave);
+    }
+
     @Test
     public void createGraveWithNullNote() {
         Grave grave = sampleSmallGraveBuilder().note(null).build();
@@ -234,6 +346,109 @@ public class GraveManagerImplTest {
                 .isEqualToComparingFieldByField(grave);
     }
 
+    //--------------------------------------------------------------------------
+    // Tests for GraveManager.createGraves(Collection) operation
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void createGraves() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        Grave g2 = sampleBigGraveBuilder().build();
+        Grave g3 = sampleSmallGraveBuilder().row(1).column(1).note(null).build();
+
+        manager.createGraves(Arrays.asList(g1, g2, g3));
+
+        assertThat(g1.getId()).isNotNull();
+        assertThat(g2.getId()).isNotNull();
+        assertThat(g3.getId()).isNotNull();
+        assertThat(manager.getGrave(g1.getId())).isEqualToComparingFieldByField(g1);
+        assertThat(manager.getGrave(g2.getId())).isEqualToComparingFieldByField(g2);
+        assertThat(manager.getGrave(g3.getId())).isEqualToComparingFieldByField(g3);
+    }
+
+    @Test
+    public void createGravesInMultipleBatches() {
+        manager.setBatchSize(2);
+        Grave existing = sampleBigGraveBuilder().build();
+        manager.createGrave(existing);
+
+        List<Grave> graves = Arrays.asList(
+                sampleSmallGraveBuilder().row(1).build(),
+                sampleSmallGraveBuilder().row(2).build(),
+                sampleSmallGraveBuilder().row(3).build(),
+                sampleSmallGraveBuilder().row(4).build(),
+                sampleSmallGraveBuilder().row(5).build());
+        manager.createGraves(graves);
+
+        for (Grave grave : graves) {
+            assertThat(manager.getGrave(grave.getId())).isEqualToComparingFieldByField(grave);
+        }
+        assertThat(manager.findAllGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(existing, graves.get(0), graves.get(1), graves.get(2),
+                        graves.get(3), graves.get(4));
+    }
+
+    @Test
+    public void createEmptyCollectionOfGraves() {
+        manager.createGraves(Collections.emptyList());
+        assertThat(manager.findAllGraves()).isEmpty();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createNullGraves() {
+        manager.createGraves(null);
+    }
+
+    @Test
+    public void createGravesWithInvalidGrave() {
+        Grave valid = sampleSmallGraveBuilder().build();
+        Grave invalid = sampleBigGraveBuilder().capacity(0).build();
+
+        assertThatThrownBy(() -> manager.createGraves(Arrays.asList(valid, invalid)))
+                .isInstanceOf(ValidationException.class);
+
+        // verify that failure was atomic and no data was changed
+        assertThat(valid.getId()).isNull();
+        assertThat(manager.findAllGraves()).isEmpty();
+    }
+
+    @Test
+    public void createGravesWithExistingId() {
+        Grave valid = sampleSmallGraveBuilder().build();
+        Grave withId = sampleBigGraveBuilder().id(1L).build();
+
+        assertThatThrownBy(() -> manager.createGraves(Arrays.asList(valid, withId)))
+                .isInstanceOf(IllegalEntityException.class);
+        assertThat(manager.findAllGraves()).isEmpty();
+    }
+
+    @Test
+    public void createGravesWithDuplicatePosition() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        Grave g2 = sampleBigGraveBuilder().row(g1.getRow()).column(g1.getColumn()).build();
+
+        assertThatThrownBy(() -> manager.createGraves(Arrays.asList(g1, g2)))
+                .isInstanceOf(ValidationException.class);
+        assertThat(manager.findAllGraves()).isEmpty();
+    }
+
+    @Test
+    public void createGravesAtOccupiedPosition() {
+        Grave existing = sampleSmallGraveBuilder().build();
+        manager.createGrave(existing);
+        Grave valid = sampleBigGraveBuilder().build();
+        Grave conflicting = sampleBigGraveBuilder()
+                .row(existing.getRow()).column(existing.getColumn()).build();
+
+        assertThatThrownBy(() -> manager.createGraves(Arrays.asList(valid, conflicting)))
+                .isInstanceOf(ValidationException.class);
+        assertThat(valid.getId()).isNull();
+        assertThat(manager.findAllGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(existing);
+    }
+
     //--------------------------------------------------------------------------
     // Tests for GraveManager.updateGrave(Grave) operation
     //--------------------------------------------------------------------------
@@ -325,6 +540,19 @@ public class GraveManagerImplTest {
     // Test also if attemtpt to call update with invalid grave throws
     // the correct exception.
 
+    @Test
+    public void updateGraveToOccupiedPosition() {
+        Grave grave = sampleSmallGraveBuilder().build();
+        Grave anotherGrave = sampleBigGraveBuilder().build();
+        manager.createGrave(grave);
+        manager.createGrave(anotherGrave);
+
+        grave.setRow(anotherGrave.getRow());
+        grave.setColumn(anotherGrave.getColumn());
+        expectedException.expect(ValidationException.class);
+        manager.updateGrave(grave);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void updateNullGrave() {
         manager.updateGrave(null);
@@ -424,6 +652,82 @@ public class GraveManagerImplTest {
         manager.deleteGrave(grave);
     }
 
+    @Test
+    public void deleteGraves() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        Grave g2 = sampleBigGraveBuilder().build();
+        Grave g3 = sampleSmallGraveBuilder().row(1).build();
+        manager.createGraves(Arrays.asList(g1, g2, g3));
+
+        manager.deleteGraves(Arrays.asList(g1, g3), OccupiedGravePolicy.FAIL);
+
+        assertThat(manager.findAllGraves())
+                .usingFieldByFieldElementComparator()
+                .containsOnly(g2);
+    }
+
+    @Test
+    public void deleteGravesWithNonExistingGrave() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        manager.createGrave(g1);
+        Grave notInDb = sampleBigGraveBuilder().id(g1.getId() + 1).build();
+
+        expectedException.expect(IllegalEntityException.class);
+        try {
+            manager.deleteGraves(Arrays.asList(g1, notInDb), OccupiedGravePolicy.FAIL);
+        } finally {
+            assertThat(manager.getGrave(g1.getId())).isNotNull();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deleteGravesWithNullPolicy() {
+        manager.deleteGraves(Collections.emptyList(), null);
+    }
+
+    //--------------------------------------------------------------------------
+    // Tests for spatial queries
+    //--------------------------------------------------------------------------
+
+    @Test
+    public void getGraveAt() {
+        Grave g1 = sampleSmallGraveBuilder().build();
+        Grave g2 = sampleBigGraveBuilder().build();
+        manager.createGraves(Arrays.asList(g1, g2));
+
+        assertThat(manager.getGraveAt(g1.getRow(), g1.getColumn()))
+                .isEqualToComparingFieldByField(g1);
+        assertThat(manager.getGraveAt(g2.getRow(), g2.getColumn()))
+                .isEqualToComparingFieldByField(g2);
+        assertThat(manager.getGraveAt(g1.getColumn(), g1.getRow())).isNull();
+    }
+
+    @Test
+    public void findGravesInArea() {
+        Grave g11 = sampleSmallGraveBuilder().row(1).column(1).build();
+        Grave g12 = sampleSmallGraveBuilder().row(1).column(2).build();
+        Grave g21 = sampleSmallGraveBuilder().row(2).column(1).build();
+        Grave g23 = sampleSmallGraveBuilder().row(2).column(3).build();
+        Grave g31 = sampleSmallGraveBuilder().row(3).column(1).build();
+        manager.createGraves(Arrays.asList(g31, g23, g21, g12, g11));
+
+        assertThat(manager.findGravesInArea(1, 2, 1, 2))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g11, g12, g21);
+        assertThat(manager.findGravesInArea(2, 3, 1, 3))
+                .usingFieldByFieldElementComparator()
+                .containsExactly(g21, g23, g31);
+        assertThat(manager.findGravesInArea(4, 10, 1, 10)).isEmpty();
+    }
+
+    @Test
+    public void findGravesInAreaWithInvalidBounds() {
+        assertThatThrownBy(() -> manager.findGravesInArea(2, 1, 1, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> manager.findGravesInArea(1, 2, 2, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     //--------------------------------------------------------------------------
     // Tests if GraveManager methods throws ServiceFailureException in case of
     // DB operation failure
@@ -489,9 +793,42 @@ public class GraveManagerImplTest {
         testExpectedServiceFailureException((graveManager) -> graveManager.deleteGrave(grave));
     }
 
+    @Test
+    public void createGravesWithSqlExceptionThrown() throws SQLException {
+        Grave grave = sampleSmallGraveBuilder().build();
+        testExpectedServiceFailureException((graveManager) -> graveManager.createGraves(Arrays.asList(grave)));
+    }
+
+    @Test
+    public void getGraveAtWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((graveManager) -> graveManager.getGraveAt(1, 1));
+    }
+
+    @Test
+    public void findGravesInAreaWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((graveManager) -> graveManager.findGravesInArea(1, 2, 1, 2));
+    }
+
+    @Test
+    public void deleteGravesWithSqlExceptionThrown() throws SQLException {
+        Grave grave = sampleSmallGraveBuilder().build();
+        manager.createGrave(grave);
+        testExpectedServiceFailureException((graveManager) -> graveManager.deleteGraves(Arrays.asList(grave), OccupiedGravePolicy.FAIL));
+    }
+
     @Test
     public void findAllGravesWithSqlExceptionThrown() throws SQLException {
         testExpectedServiceFailureException((graveManager) -> graveManager.findAllGraves());
     }
 
+    @Test
+    public void findAllGravesPageWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((graveManager) -> graveManager.findAllGraves(null, 10));
+    }
+
+    @Test
+    public void forEachGraveWithSqlExceptionThrown() throws SQLException {
+        testExpectedServiceFailureException((graveManager) -> graveManager.forEachGrave(grave -> { }));
+    }
+
 }
@@ -0,0 +1,237 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.Month;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Tests that managers work also with H2 database.
+ *
+ * @author agent
+ */
+public class H2CompatibilityTest {
+
+    private DataSource ds;
+    private GraveManagerImpl graveManager;
+    private BodyManagerImpl bodyManager;
+    private CemeteryManagerImpl cemeteryManager;
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private static DataSource prepareDataSource() {
+        JdbcDataSource ds = new JdbcDataSource();
+        // ROW is keyword in H2 2.x, but it is used as column name
+        ds.setURL("jdbc:h2:mem:gravemgr-h2;DB_CLOSE_DELAY=-1;NON_KEYWORDS=ROW");
+        return ds;
+    }
+
+    @Before
+    public void setUp() {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(ds);
+        bodyManager = new BodyManagerImpl(Clock.fixed(Instant.parse("2016-02-29T14:00:00Z"), ZoneId.of("UTC")));
+        bodyManager.setDataSource(ds);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    public void dialectIsDetected() throws SQLException {
+        EmbeddedDataSource derby = new EmbeddedDataSource();
+        derby.setDatabaseName("memory:gravemgr-test");
+        derby.setCreateDatabase("create");
+
+        assertThat(Dialect.of(ds)).isSameAs(H2Dialect.INSTANCE);
+        assertThat(Dialect.of(derby)).isSameAs(DerbyDialect.INSTANCE);
+    }
+
+    @Test
+    public void migrateIsNotRepeated() {
+        assertThat(CemeterySchema.createMigrator(ds).getCurrentVersion()).isEqualTo(CemeterySchema.CURRENT_VERSION);
+        assertThat(CemeterySchema.migrate(ds)).isZero();
+    }
+
+    @Test
+    public void baselineSchemaIsMigrated() throws SQLException {
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+        }
+        DBUtils.executeSqlScript(ds, H2Dialect.INSTANCE.getScript(GraveManager.class, "createTables"));
+        Grave full = new GraveBuilder().row(1).column(1).capacity(1).build();
+        Grave free = new GraveBuilder().row(1).column(2).capacity(2).build();
+        try (Connection conn = ds.getConnection(); Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Grave (row, col, capacity) VALUES (1, 1, 1)");
+            st.executeUpdate("INSERT INTO Grave (row, col, capacity) VALUES (1, 2, 2)");
+            st.executeUpdate("INSERT INTO Body (name, gender, vampire, graveId) "
+                    + "SELECT 'Body 1', 'MALE', 0, id FROM Grave WHERE col = 1");
+        }
+
+        assertThat(CemeterySchema.migrate(ds)).isEqualTo(CemeterySchema.CURRENT_VERSION - 1);
+
+        assertThat(cemeteryManager.findGravesWithSomeFreeSpace())
+                .usingElementComparatorIgnoringFields("id", "note")
+                .containsExactly(free);
+        assertThat(cemeteryManager.findEmptyGraves())
+                .usingElementComparatorIgnoringFields("id", "note")
+                .containsExactly(free);
+        assertThat(cemeteryManager.checkGraveOccupancy(false)).isZero();
+        expectedException.expect(ValidationException.class);
+        graveManager.createGrave(full);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void tryCreateTablesWithExistingTables() throws SQLException {
+        // existing tables are recognized by H2 specific SQL state
+        DBUtils.tryCreateTables(ds, H2Dialect.INSTANCE.getScript(GraveManager.class, "createTables"));
+    }
+
+    @Test
+    public void createGraves() {
+        graveManager.setBatchSize(2);
+        List<Grave> graves = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            graves.add(new GraveBuilder().row(1).column(i).capacity(i + 1).note("Grave " + i).build());
+        }
+
+        graveManager.createGraves(graves);
+
+        assertThat(graves).extracting(Grave::getId).doesNotContainNull().doesNotHaveDuplicates();
+        for (Grave grave : graves) {
+            assertThat(graveManager.getGrave(grave.getId()))
+                    .isEqualToComparingFieldByField(grave);
+        }
+    }
+
+    @Test
+    public void createGraveWithUsedPosition() {
+        graveManager.createGrave(new GraveBuilder().row(1).column(1).build());
+
+        expectedException.expect(ValidationException.class);
+        graveManager.createGrave(new GraveBuilder().row(1).column(1).build());
+    }
+
+    @Test
+    public void createBodies() {
+        bodyManager.setBatchSize(2);
+        bodyManager.setCommitInterval(3);
+        List<Body> bodies = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            bodies.add(new BodyBuilder().name("Body " + i).gender(Gender.FEMALE)
+                    .born(1900 + i, Month.MARCH, 1).died(1980, Month.MAY, 2).vampire(i % 2 == 0).build());
+        }
+
+        BatchResult<Body> result = bodyManager.createBodies(bodies);
+
+        assertThat(result.getProcessedCount()).isEqualTo(7L);
+        assertThat(bodies).extracting(Body::getId).doesNotContainNull().doesNotHaveDuplicates();
+        for (Body body : bodies) {
+            assertThat(bodyManager.getBody(body.getId()))
+                    .isEqualToComparingFieldByField(body);
+        }
+    }
+
+    @Test
+    public void allocateGrave() {
+        Grave small = new GraveBuilder().row(1).column(1).capacity(1).build();
+        Grave large = new GraveBuilder().row(1).column(2).capacity(3).note("Large").build();
+        graveManager.createGraves(Arrays.asList(small, large));
+
+        assertThat(cemeteryManager.allocateGrave(2)).isEqualToComparingFieldByField(large);
+        assertThat(cemeteryManager.allocateGrave(2)).isNull();
+        assertThat(cemeteryManager.allocateGrave(1)).isNotNull();
+        assertThat(cemeteryManager.allocateGrave(1)).isNotNull();
+        assertThat(cemeteryManager.allocateGrave(1)).isNull();
+    }
+
+    @Test
+    public void deleteGravesWithBodies() {
+        Grave grave = new GraveBuilder().row(1).column(1).capacity(2).build();
+        graveManager.createGrave(grave);
+        Body body = new BodyBuilder().name("Joe").gender(Gender.MALE).build();
+        bodyManager.createBody(body);
+        cemeteryManager.putBodyIntoGrave(body, grave);
+
+        // occupied grave is detected by foreign key violation
+        expectedException.expect(IllegalEntityException.class);
+        graveManager.deleteGraves(Arrays.asList(grave), OccupiedGravePolicy.FAIL);
+    }
+
+    @Test
+    public void deleteGravesAndUnburyBodies() {
+        Grave grave = new GraveBuilder().row(1).column(1).capacity(2).build();
+        graveManager.createGrave(grave);
+        Body body = new BodyBuilder().name("Joe").gender(Gender.MALE).build();
+        bodyManager.createBody(body);
+        cemeteryManager.putBodyIntoGrave(body, grave);
+        assertThat(cemeteryManager.findBodiesInGrave(grave)).extracting(Body::getId)
+                .containsExactly(body.getId());
+
+        graveManager.deleteGraves(Arrays.asList(grave), OccupiedGravePolicy.UNBURY_BODIES);
+
+        assertThat(graveManager.getGrave(grave.getId())).isNull();
+        assertThat(cemeteryManager.findUnburiedBodies()).extracting(Body::getId)
+                .containsExactly(body.getId());
+    }
+
+    @Test
+    public void findAllGravesByPages() {
+        List<Grave> graves = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            graves.add(new GraveBuilder().row(2).column(i).build());
+        }
+        graveManager.createGraves(graves);
+
+        Page<Grave> first = graveManager.findAllGraves(null, 3);
+        Page<Grave> second = graveManager.findAllGraves(first.getContinuationToken(), 3);
+
+        assertThat(first.getItems()).extracting(Grave::getId)
+                .containsExactly(graves.get(0).getId(), graves.get(1).getId(), graves.get(2).getId());
+        assertThat(second.getItems()).extracting(Grave::getId)
+                .containsExactly(graves.get(3).getId(), graves.get(4).getId());
+        assertThat(second.hasNext()).isFalse();
+    }
+
+    @Test
+    public void getStatistics() {
+        graveManager.createGrave(new GraveBuilder().row(3).column(1).capacity(2).build());
+        bodyManager.createBody(new BodyBuilder().name("Joe").gender(Gender.MALE)
+                .born(1900, Month.JANUARY, 1).died(1950, Month.JANUARY, 1).build());
+        CemeteryStatisticsManagerImpl statisticsManager = new CemeteryStatisticsManagerImpl();
+        statisticsManager.setDataSource(ds);
+
+        CemeteryStatistics statistics = statisticsManager.getStatistics();
+
+        assertThat(statistics.getTotalCapacity()).isEqualTo(2);
+        assertThat(statistics.getBodyCount()).isEqualTo(1);
+        assertThat(statistics.getAverageAgeAtDeath()).isCloseTo(50.0, within(0.01));
+    }
+}
@@ -0,0 +1,234 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.TransactionRunner;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Month;
+import java.time.ZoneId;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link IncrementalCemeteryStatisticsManager}. Incrementally
+ * maintained statistics are compared with statistics computed by the
+ * database.
+ *
+ * @author agent
+ */
+public class IncrementalCemeteryStatisticsManagerTest {
+
+    private static final Instant NOW = Instant.parse("2016-02-29T14:00:00Z");
+
+    private IncrementalCemeteryStatisticsManager manager;
+    private CemeteryStatisticsManagerImpl loader;
+    private CemeteryStatisticsManagerImpl databaseStatistics;
+    private Clock clock;
+    private GraveManager graveManager;
+    private BodyManager bodyManager;
+    private CemeteryManager cemeteryManager;
+    private DataSource ds;
+
+    private Grave g1, g2, g3;
+    private Body b1, b2, b3;
+
+    private static DataSource prepareDataSource() {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        databaseStatistics = new CemeteryStatisticsManagerImpl();
+        databaseStatistics.setDataSource(ds);
+        loader = spy(databaseStatistics);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        manager = new IncrementalCemeteryStatisticsManager(loader, clock);
+
+        GraveManagerImpl graveManagerImpl = new GraveManagerImpl();
+        graveManagerImpl.setDataSource(ds);
+        BodyManagerImpl bodyManagerImpl = new BodyManagerImpl(Clock.fixed(NOW, ZoneId.of("UTC")));
+        bodyManagerImpl.setDataSource(ds);
+        CemeteryManagerImpl cemeteryManagerImpl = new CemeteryManagerImpl();
+        cemeteryManagerImpl.setDataSource(ds);
+        graveManager = manager.track(graveManagerImpl);
+        bodyManager = manager.track(bodyManagerImpl);
+        cemeteryManager = manager.track(cemeteryManagerImpl);
+
+        g1 = new GraveBuilder().row(1).column(1).capacity(2).build();
+        g2 = new GraveBuilder().row(1).column(2).capacity(3).build();
+        g3 = new GraveBuilder().row(2).column(1).capacity(1).build();
+        graveManager.createGraves(Arrays.asList(g1, g2, g3));
+        b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE)
+                .born(1900, Month.JANUARY, 1).died(1950, Month.JANUARY, 1).build();
+        b2 = new BodyBuilder().name("Body 2").gender(Gender.FEMALE).vampire(true).build();
+        b3 = new BodyBuilder().name("Body 3").gender(Gender.FEMALE)
+                .born(1920, Month.MAY, 5).died(1999, Month.DECEMBER, 31).build();
+        bodyManager.createBody(b1);
+        bodyManager.createBody(b2);
+        bodyManager.createBody(b3);
+        cemeteryManager.putBodyIntoGrave(b1, g1);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private void assertStatisticsAreUpToDate(int expectedLoads) {
+        assertThat(manager.getStatistics()).isEqualTo(databaseStatistics.getStatistics());
+        verify(loader, times(expectedLoads)).getStatistics();
+    }
+
+    @Test
+    public void getStatisticsLoadsThemOnce() {
+        CemeteryStatistics first = manager.getStatistics();
+
+        assertThat(manager.getStatistics()).isSameAs(first);
+        assertStatisticsAreUpToDate(1);
+    }
+
+    @Test
+    public void createGravesAndBodies() {
+        manager.getStatistics();
+
+        graveManager.createGrave(new GraveBuilder().row(1).column(3).capacity(4).build());
+        graveManager.createGraves(Arrays.asList(
+                new GraveBuilder().row(7).column(1).capacity(1).build(),
+                new GraveBuilder().row(7).column(2).capacity(2).build()));
+        bodyManager.createBody(new BodyBuilder().name("Body 4").gender(Gender.MALE).vampire(true)
+                .born(1800, Month.MARCH, 3).died(1899, Month.APRIL, 4).build());
+
+        assertStatisticsAreUpToDate(1);
+        assertThat(manager.getStatistics().getRows()).containsOnlyKeys(1, 2, 7);
+    }
+
+    @Test
+    public void buryAndUnburyBodies() {
+        manager.getStatistics();
+
+        cemeteryManager.putBodyIntoGrave(b2, g2);
+        cemeteryManager.putBodyIntoGrave(b3, g2);
+        cemeteryManager.moveBody(b3, g2, g3);
+        cemeteryManager.removeBodyFromGrave(b2, g2);
+        cemeteryManager.putBodyIntoGrave(b2, g1);
+        assertStatisticsAreUpToDate(1);
+
+        cemeteryManager.removeAllBodiesFromGrave(g1);
+        assertStatisticsAreUpToDate(1);
+        assertThat(manager.getStatistics().getOccupiedSlots()).isEqualTo(1);
+    }
+
+    @Test
+    public void failedChangeIsNotApplied() {
+        manager.getStatistics();
+
+        // b1 is already in g1
+        assertThatThrownBy(() -> cemeteryManager.putBodyIntoGrave(b1, g2))
+                .isInstanceOf(IllegalEntityException.class);
+
+        assertStatisticsAreUpToDate(1);
+    }
+
+    @Test
+    public void updateAndDeleteInvalidateStatistics() {
+        manager.getStatistics();
+
+        b2.setVampire(false);
+        bodyManager.updateBody(b2);
+        assertStatisticsAreUpToDate(2);
+
+        cemeteryManager.removeBodyFromGrave(b1, g1);
+        graveManager.deleteGrave(g1);
+        assertStatisticsAreUpToDate(3);
+
+        cemeteryManager.putBodyIntoGrave(b1, g2);
+        cemeteryManager.removeAllBodiesFromGraves(Arrays.asList(g2, g3));
+        assertStatisticsAreUpToDate(4);
+    }
+
+    @Test
+    public void changesInTransactionAreAppliedAfterCommit() {
+        TransactionRunner runner = new TransactionRunner(ds);
+        GraveManagerImpl graveManagerImpl = new GraveManagerImpl();
+        graveManagerImpl.setDataSource(runner.getDataSource());
+        BodyManagerImpl bodyManagerImpl = new BodyManagerImpl(Clock.fixed(NOW, ZoneId.of("UTC")));
+        bodyManagerImpl.setDataSource(runner.getDataSource());
+        CemeteryManagerImpl cemeteryManagerImpl = new CemeteryManagerImpl();
+        cemeteryManagerImpl.setDataSource(runner.getDataSource());
+        GraveManager graveManager = manager.track(graveManagerImpl);
+        BodyManager bodyManager = manager.track(bodyManagerImpl);
+        CemeteryManager cemeteryManager = manager.track(cemeteryManagerImpl);
+        manager.getStatistics();
+
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            Grave grave = new GraveBuilder().row(1).column(3).capacity(5).build();
+            graveManager.createGrave(grave);
+            Body body = new BodyBuilder().name("Body 4").gender(Gender.MALE).vampire(true).build();
+            bodyManager.createBody(body);
+            cemeteryManager.putBodyIntoGrave(body, grave);
+            cemeteryManager.moveBody(b1, g1, g2);
+            throw new IllegalStateException("Cancelled");
+        })).isInstanceOf(IllegalStateException.class);
+        assertStatisticsAreUpToDate(1);
+
+        runner.inTransaction(() -> {
+            Grave grave = new GraveBuilder().row(1).column(3).capacity(5).build();
+            graveManager.createGrave(grave);
+            Body body = new BodyBuilder().name("Body 4").gender(Gender.MALE).vampire(true).build();
+            bodyManager.createBody(body);
+            cemeteryManager.putBodyIntoGrave(body, grave);
+            cemeteryManager.moveBody(b1, g1, g2);
+        });
+        assertStatisticsAreUpToDate(1);
+        assertThat(manager.getStatistics().getGraveCount()).isEqualTo(4);
+
+        assertThatThrownBy(() -> runner.inTransaction(() -> {
+            bodyManager.deleteBody(b3);
+            throw new IllegalStateException("Cancelled");
+        })).isInstanceOf(IllegalStateException.class);
+        assertStatisticsAreUpToDate(1);
+    }
+
+    @Test
+    public void externalChangesAreLoadedAfterMaxAge() {
+        manager.setMaxAge(Duration.ofSeconds(10));
+        manager.getStatistics();
+        // change made without tracking manager
+        GraveManagerImpl untracked = new GraveManagerImpl();
+        untracked.setDataSource(ds);
+        untracked.createGrave(new GraveBuilder().row(5).column(5).build());
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+        assertThat(manager.getStatistics().getGraveCount()).isEqualTo(3);
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(11));
+        assertThat(manager.getStatistics().getGraveCount()).isEqualTo(4);
+        verify(loader, times(2)).getStatistics();
+    }
+
+    @Test
+    public void invalidate() {
+        manager.getStatistics();
+
+        manager.invalidate();
+        manager.getStatistics();
+
+        verify(loader, times(2)).getStatistics();
+    }
+}
@@ -0,0 +1,113 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import org.junit.*;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link InstrumentedGraveManager} and {@link InstrumentedDataSource}.
+ *
+ * @author agent
+ */
+public class InstrumentedGraveManagerTest {
+
+    private GraveManager delegate;
+    private MetricsRegistry registry;
+    private InstrumentedGraveManager manager;
+    private Grave grave;
+
+    @Before
+    public void setUp() {
+        delegate = mock(GraveManager.class);
+        registry = new MetricsRegistry();
+        manager = new InstrumentedGraveManager(delegate, registry);
+        grave = new GraveBuilder().id(1L).row(1).column(2).capacity(3).build();
+    }
+
+    @Test
+    public void successfulCallsAreRecorded() {
+        when(delegate.getGrave(1L)).thenReturn(grave);
+
+        assertThat(manager.getGrave(1L)).isSameAs(grave);
+        assertThat(manager.getGrave(1L)).isSameAs(grave);
+
+        OperationMetrics metrics = registry.getOperationMetrics("GraveManager", "getGrave");
+        assertThat(metrics.getCalls()).isEqualTo(2);
+        assertThat(metrics.getMaxLatencyMicros()).isGreaterThan(0);
+        assertThat(metrics.getServiceFailureErrors()
+                + metrics.getIllegalEntityErrors()
+                + metrics.getValidationErrors()
+                + metrics.getOtherErrors()).isZero();
+        assertThat(registry.getOperationMetrics("GraveManager", "updateGrave").getCalls()).isZero();
+    }
+
+    @Test
+    public void errorsAreRecordedByType() {
+        doThrow(new ValidationException("invalid"))
+                .doThrow(new IllegalEntityException("not in db"))
+                .doThrow(new ServiceFailureException("db failure"))
+                .doThrow(new IllegalArgumentException("null"))
+                .doNothing()
+                .when(delegate).updateGrave(grave);
+
+        assertThatThrownBy(() -> manager.updateGrave(grave)).isInstanceOf(ValidationException.class);
+        assertThatThrownBy(() -> manager.updateGrave(grave)).isInstanceOf(IllegalEntityException.class);
+        assertThatThrownBy(() -> manager.updateGrave(grave)).isInstanceOf(ServiceFailureException.class);
+        assertThatThrownBy(() -> manager.updateGrave(grave)).isInstanceOf(IllegalArgumentException.class);
+        manager.updateGrave(grave);
+
+        OperationMetrics metrics = registry.getOperationMetrics("GraveManager", "updateGrave");
+        assertThat(metrics.getCalls()).isEqualTo(5);
+        assertThat(metrics.getValidationErrors()).isEqualTo(1);
+        assertThat(metrics.getIllegalEntityErrors()).isEqualTo(1);
+        assertThat(metrics.getServiceFailureErrors()).isEqualTo(1);
+        assertThat(metrics.getOtherErrors()).isEqualTo(1);
+    }
+
+    @Test
+    public void metricsArePublishedAsMBeans() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        registry.register(server);
+        manager.getGrave(1L);
+        ObjectName name = new ObjectName("cz.muni.fi.pv168.gravemanager:type=GraveManager,name=getGrave");
+
+        assertThat(server.isRegistered(name)).isTrue();
+        assertThat(server.getAttribute(name, "Calls")).isEqualTo(1L);
+
+        // metrics created after registration are registered immediately
+        new InstrumentedDataSource(mock(DataSource.class), registry);
+        assertThat(server.isRegistered(new ObjectName(
+                "cz.muni.fi.pv168.gravemanager:type=DataSource,name=getConnection"))).isTrue();
+
+        server.invoke(name, "reset", null, null);
+        assertThat(server.getAttribute(name, "Calls")).isEqualTo(0L);
+
+        registry.unregister();
+        assertThat(server.isRegistered(name)).isFalse();
+    }
+
+    @Test
+    public void connectionWaitIsRecorded() throws SQLException {
+        DataSource target = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(target.getConnection())
+                .thenReturn(connection)
+                .thenThrow(new SQLException("no connection"));
+        DataSource dataSource = new InstrumentedDataSource(target, registry);
+
+        assertThat(dataSource.getConnection()).isSameAs(connection);
+        assertThatThrownBy(dataSource::getConnection).isInstanceOf(SQLException.class);
+
+        OperationMetrics metrics = registry.getOperationMetrics("DataSource", "getConnection");
+        assertThat(metrics.getCalls()).isEqualTo(2);
+        assertThat(metrics.getOtherErrors()).isEqualTo(1);
+    }
+}
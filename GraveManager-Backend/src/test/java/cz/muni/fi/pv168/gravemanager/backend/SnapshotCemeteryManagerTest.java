@@ -0,0 +1,255 @@
+package cz.muni.fi.pv168.gravemanager.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.Collections;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for {@link SnapshotCemeteryManager}. Results of queries are compared
+ * with results of {@link CemeteryManagerImpl}.
+ *
+ * @author agent
+ */
+public class SnapshotCemeteryManagerTest {
+
+    private static final Instant NOW = Instant.parse("2016-02-29T14:00:00Z");
+
+    private SnapshotCemeteryManager manager;
+    private CemeteryManagerImpl cemeteryManager;
+    private GraveManagerImpl graveManager;
+    private BodyManagerImpl bodyManager;
+    private CemeteryEventBus eventBus;
+    private Clock clock;
+    private DataSource ds;
+
+    private Grave g1, g2, g3;
+    private Body b1, b2, b3;
+
+    private static DataSource prepareDataSource() {
+        EmbeddedDataSource ds = new EmbeddedDataSource();
+        ds.setDatabaseName("memory:gravemgr-test");
+        ds.setCreateDatabase("create");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        CemeterySchema.migrate(ds);
+        eventBus = new CemeteryEventBus();
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(ds);
+        graveManager.setEventBus(eventBus);
+        bodyManager = new BodyManagerImpl(Clock.systemDefaultZone());
+        bodyManager.setDataSource(ds);
+        bodyManager.setEventBus(eventBus);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(ds);
+        cemeteryManager.setEventBus(eventBus);
+        clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        manager = new SnapshotCemeteryManager(cemeteryManager, clock);
+        manager.setDataSource(ds);
+        eventBus.subscribe(manager);
+
+        g1 = new GraveBuilder().row(1).column(1).capacity(2).build();
+        g2 = new GraveBuilder().row(1).column(2).capacity(3).build();
+        g3 = new GraveBuilder().row(2).column(1).capacity(1).build();
+        graveManager.createGraves(Arrays.asList(g1, g2, g3));
+        b1 = new BodyBuilder().name("Body 1").gender(Gender.MALE)
+                .born(1900, Month.JANUARY, 1).died(1950, Month.JANUARY, 1).build();
+        b2 = new BodyBuilder().name("Body 2").gender(Gender.FEMALE).vampire(true).build();
+        b3 = new BodyBuilder().name("Body 3").gender(Gender.FEMALE).build();
+        bodyManager.createBodies(Arrays.asList(b1, b2, b3));
+        cemeteryManager.putBodyIntoGrave(b1, g1);
+        cemeteryManager.putBodyIntoGrave(b2, g2);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        eventBus.close();
+        DBUtils.executeSqlScript(ds, GraveManager.class.getResource("dropTables.sql"));
+    }
+
+    private void assertSnapshotIsUpToDate() {
+        for (Grave grave : graveManager.findAllGraves()) {
+            assertThat(manager.findBodiesInGrave(grave))
+                    .containsOnlyElementsOf(cemeteryManager.findBodiesInGrave(grave))
+                    .hasSameSizeAs(cemeteryManager.findBodiesInGrave(grave));
+        }
+        for (Body body : bodyManager.findAllBodies()) {
+            assertThat(manager.findGraveWithBody(body))
+                    .isEqualTo(cemeteryManager.findGraveWithBody(body));
+        }
+        assertThat(manager.findUnburiedBodies())
+                .containsOnlyElementsOf(cemeteryManager.findUnburiedBodies())
+                .hasSameSizeAs(cemeteryManager.findUnburiedBodies());
+        assertThat(manager.findEmptyGraves())
+                .containsOnlyElementsOf(cemeteryManager.findEmptyGraves())
+                .hasSameSizeAs(cemeteryManager.findEmptyGraves());
+        assertThat(manager.findGravesWithSomeFreeSpace())
+                .containsOnlyElementsOf(cemeteryManager.findGravesWithSomeFreeSpace())
+                .hasSameSizeAs(cemeteryManager.findGravesWithSomeFreeSpace());
+        assertThat(manager.getSnapshot().getGraveCount()).isEqualTo(graveManager.findAllGraves().size());
+        assertThat(manager.getSnapshot().getBodyCount()).isEqualTo(bodyManager.findAllBodies().size());
+    }
+
+    @Test
+    public void queriesAreAnsweredFromSnapshot() {
+        assertSnapshotIsUpToDate();
+        assertThat(manager.findGraveWithBody(b1)).isEqualTo(g1).isNotSameAs(g1);
+        assertThat(manager.findGraveWithBody(b3)).isNull();
+        assertThat(manager.findBodiesInGrave(g1)).containsExactly(b1);
+        assertThat(manager.findUnburiedBodies()).containsExactly(b3);
+        assertThat(manager.findEmptyGraves()).containsExactly(g3);
+        assertThat(manager.findGravesWithSomeFreeSpace()).containsExactly(g1, g2, g3);
+        assertThat(manager.findGravesWithBodies(Arrays.asList(b1, b2, b3)))
+                .containsEntry(b1, g1)
+                .containsEntry(b2, g2)
+                .containsEntry(b3, null);
+        assertThat(manager.findBodiesInGraves(Arrays.asList(g1, g3)))
+                .containsEntry(g1, Collections.singletonList(b1))
+                .containsEntry(g3, Collections.emptyList());
+    }
+
+    @Test
+    public void snapshotIsLoadedOnce() {
+        CemeterySnapshot snapshot = manager.getSnapshot();
+
+        manager.findEmptyGraves();
+        manager.findBodiesInGrave(g1);
+
+        assertThat(manager.getSnapshot()).isSameAs(snapshot);
+        assertThat(snapshot.getLoadedAt()).isEqualTo(NOW);
+    }
+
+    @Test
+    public void returnedEntitiesAreCopies() {
+        Grave grave = manager.findGraveWithBody(b1);
+        grave.setNote("Changed");
+        manager.findBodiesInGrave(g1).get(0).setName("Changed");
+
+        assertThat(manager.findGraveWithBody(b1).getNote()).isEqualTo(g1.getNote());
+        assertThat(manager.findBodiesInGrave(g1).get(0).getName()).isEqualTo("Body 1");
+    }
+
+    @Test
+    public void publishedChangesAreApplied() {
+        CemeterySnapshot snapshot = manager.getSnapshot();
+
+        cemeteryManager.putBodyIntoGrave(b3, g3);
+        cemeteryManager.moveBody(b2, g2, g1);
+        assertSnapshotIsUpToDate();
+
+        Grave g4 = new GraveBuilder().row(3).column(3).capacity(4).note("New").build();
+        graveManager.createGrave(g4);
+        Body b4 = new BodyBuilder().name("Body 4").gender(Gender.MALE).build();
+        bodyManager.createBody(b4);
+        cemeteryManager.putBodyIntoGrave(b4, g4);
+        b1.setName("Renamed");
+        bodyManager.updateBody(b1);
+        assertSnapshotIsUpToDate();
+
+        cemeteryManager.removeAllBodiesFromGrave(g1);
+        bodyManager.deleteBody(b3);
+        cemeteryManager.allocateGrave(3);
+        assertSnapshotIsUpToDate();
+
+        graveManager.deleteGraves(Arrays.asList(g3, g4), OccupiedGravePolicy.DELETE_BODIES);
+        assertSnapshotIsUpToDate();
+
+        // Changes were applied without loading of whole snapshot
+        assertThat(manager.getSnapshot()).isNotSameAs(snapshot);
+        assertThat(manager.getSnapshot().getLoadedAt()).isEqualTo(NOW);
+    }
+
+    @Test
+    public void unpublishedChangesAreLoadedAfterRefreshInterval() {
+        manager.setRefreshInterval(Duration.ofSeconds(10));
+        manager.getSnapshot();
+        CemeteryManagerImpl untracked = new CemeteryManagerImpl();
+        untracked.setDataSource(ds);
+        untracked.putBodyIntoGrave(b3, g3);
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+        assertThat(manager.findGraveWithBody(b3)).isNull();
+
+        when(clock.instant()).thenReturn(NOW.plusSeconds(11));
+        assertThat(manager.findGraveWithBody(b3)).isEqualTo(g3);
+        assertThat(manager.getSnapshot().getLoadedAt()).isEqualTo(NOW.plusSeconds(11));
+    }
+
+    @Test
+    public void refresh() {
+        manager.getSnapshot();
+        CemeteryManagerImpl untracked = new CemeteryManagerImpl();
+        untracked.setDataSource(ds);
+        untracked.putBodyIntoGrave(b3, g3);
+
+        manager.refresh();
+
+        assertSnapshotIsUpToDate();
+    }
+
+    @Test
+    public void tooManyPendingEventsCauseReload() {
+        CemeterySnapshot snapshot = manager.getSnapshot();
+        for (int i = 0; i <= SnapshotCemeteryManager.MAX_PENDING_EVENTS; i++) {
+            manager.onEvent(CemeteryEvent.bodyChanged(CemeteryEvent.Type.BODY_UPDATED, b1.getId()));
+        }
+        CemeteryManagerImpl untracked = new CemeteryManagerImpl();
+        untracked.setDataSource(ds);
+        untracked.putBodyIntoGrave(b3, g3);
+
+        assertThat(manager.getSnapshot()).isNotSameAs(snapshot);
+        assertSnapshotIsUpToDate();
+    }
+
+    @Test
+    public void droppedEventsCauseReload() {
+        CemeterySnapshot snapshot = manager.getSnapshot();
+        CemeteryManagerImpl untracked = new CemeteryManagerImpl();
+        untracked.setDataSource(ds);
+        untracked.putBodyIntoGrave(b3, g3);
+
+        manager.onEventsDropped();
+
+        assertThat(manager.getSnapshot()).isNotSameAs(snapshot);
+        assertSnapshotIsUpToDate();
+    }
+
+    @Test
+    public void queryWithInvalidArguments() {
+        assertThatThrownBy(() -> manager.findBodiesInGrave(null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> manager.findGraveWithBody(new BodyBuilder().id(null).build()))
+                .isInstanceOf(IllegalEntityException.class);
+    }
+
+    @Test
+    public void loadingWithSqlExceptionThrown() throws SQLException {
+        SQLException sqlException = new SQLException();
+        DataSource failingDataSource = mock(DataSource.class);
+        when(failingDataSource.getConnection()).thenThrow(sqlException);
+        manager.setDataSource(failingDataSource);
+
+        assertThatThrownBy(() -> manager.findEmptyGraves())
+                .isInstanceOf(ServiceFailureException.class)
+                .hasCause(sqlException);
+    }
+}
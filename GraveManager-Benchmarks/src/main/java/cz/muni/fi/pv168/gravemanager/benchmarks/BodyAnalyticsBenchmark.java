@@ -0,0 +1,128 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.gravemanager.backend.Body;
+import cz.muni.fi.pv168.gravemanager.backend.ColumnarBodyStore;
+import cz.muni.fi.pv168.gravemanager.backend.Gender;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analytic scans over all bodies held in {@code List<Body>} compared with
+ * the same scans over {@link ColumnarBodyStore}, both sequential and
+ * parallel. Bodies are generated in memory with random attributes, so the
+ * filters have realistic selectivity; the database is not involved.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(1)
+public class BodyAnalyticsBenchmark {
+
+    private static final LocalDate FROM = LocalDate.of(1900, 1, 1);
+    private static final LocalDate TO = LocalDate.of(1999, 12, 31);
+    private static final String NAME = "Body 42";
+
+    @State(Scope.Benchmark)
+    public static class Bodies {
+
+        @Param({"100000", "1000000", "5000000"})
+        public int bodies;
+
+        List<Body> list;
+        List<Long> graveIds;
+        ColumnarBodyStore store;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(42);
+            list = new ArrayList<>(bodies);
+            graveIds = new ArrayList<>(bodies);
+            ColumnarBodyStore.Builder builder = new ColumnarBodyStore.Builder();
+            for (long id = 1; id <= bodies; id++) {
+                Body body = new Body();
+                body.setId(id);
+                body.setName("Body " + random.nextInt(1000));
+                body.setGender(random.nextBoolean() ? Gender.MALE : Gender.FEMALE);
+                body.setBorn(LocalDate.of(1800, 1, 1).plusDays(random.nextInt(60000)));
+                body.setDied(body.getBorn().plusDays(random.nextInt(36500)));
+                body.setVampire(random.nextInt(10) == 0);
+                Long graveId = random.nextInt(3) == 0 ? null : (long) random.nextInt(bodies) + 1;
+                list.add(body);
+                graveIds.add(graveId);
+                builder.add(body, graveId);
+            }
+            store = builder.build();
+        }
+
+        ColumnarBodyStore.RowPredicate storePredicate() {
+            return store.vampire()
+                    .and(store.gender(Gender.FEMALE))
+                    .and(store.diedBetween(FROM, TO));
+        }
+    }
+
+    private static final Predicate<Body> LIST_PREDICATE = body -> body.isVampire()
+            && body.getGender() == Gender.FEMALE
+            && !body.getDied().isBefore(FROM) && !body.getDied().isAfter(TO);
+
+    @Benchmark
+    public long listCount(Bodies bodies) {
+        return bodies.list.stream().filter(LIST_PREDICATE).count();
+    }
+
+    @Benchmark
+    public long listParallelCount(Bodies bodies) {
+        return bodies.list.parallelStream().filter(LIST_PREDICATE).count();
+    }
+
+    @Benchmark
+    public int storeCount(Bodies bodies) {
+        return bodies.store.count(bodies.storePredicate());
+    }
+
+    @Benchmark
+    public int storeParallelCount(Bodies bodies) {
+        return bodies.store.parallelCount(bodies.storePredicate());
+    }
+
+    @Benchmark
+    public long listCountByName(Bodies bodies) {
+        return bodies.list.stream().filter(body -> NAME.equals(body.getName())).count();
+    }
+
+    @Benchmark
+    public int storeCountByName(Bodies bodies) {
+        return bodies.store.count(bodies.store.name(NAME));
+    }
+
+    @Benchmark
+    public long listCountBuried(Bodies bodies) {
+        return bodies.graveIds.stream().filter(graveId -> graveId != null).count();
+    }
+
+    @Benchmark
+    public int storeCountBuried(Bodies bodies) {
+        return bodies.store.count(bodies.store.buried());
+    }
+}
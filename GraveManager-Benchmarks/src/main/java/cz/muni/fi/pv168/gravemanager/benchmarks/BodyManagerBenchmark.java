@@ -0,0 +1,63 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.gravemanager.backend.Body;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link cz.muni.fi.pv168.gravemanager.backend.BodyManager}
+ * operations in single thread.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+public class BodyManagerBenchmark {
+
+    @Benchmark
+    public Body getBody(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.bodyManager.getBody(cemetery.bodyIds[worker.bodyIndex(cemetery, worker.nextInt(2) == 0)]);
+    }
+
+    @Benchmark
+    public Page<Body> findAllBodiesPage(CemeteryState cemetery, WorkerState worker) {
+        long afterId = cemetery.bodyIds[worker.bodyIndex(cemetery, true)];
+        return cemetery.bodyManager.findAllBodies(afterId, 100);
+    }
+
+    @Benchmark
+    public Body updateBody(CemeteryState cemetery, WorkerState worker) {
+        Body body = cemetery.bodyManager.getBody(cemetery.bodyIds[worker.bodyIndex(cemetery, false)]);
+        body.setVampire(!body.isVampire());
+        cemetery.bodyManager.updateBody(body);
+        return body;
+    }
+
+    /**
+     * Creates new body and deletes it again, so the size of the database
+     * does not change during the benchmark.
+     *
+     * @param cemetery cemetery
+     * @param worker state of benchmark thread
+     * @return deleted body
+     */
+    @Benchmark
+    public Body createAndDeleteBody(CemeteryState cemetery, WorkerState worker) {
+        Body body = CemeteryState.newBody("New body " + worker.threadIndex);
+        cemetery.bodyManager.createBody(body);
+        cemetery.bodyManager.deleteBody(body);
+        return body;
+    }
+}
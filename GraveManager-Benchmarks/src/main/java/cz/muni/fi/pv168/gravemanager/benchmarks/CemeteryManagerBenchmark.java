@@ -0,0 +1,148 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.gravemanager.backend.Body;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link cz.muni.fi.pv168.gravemanager.backend.CemeteryManager}
+ * operations in single thread.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+public class CemeteryManagerBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Benchmark
+    public Grave findGraveWithBody(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.cemeteryManager.findGraveWithBody(body(cemetery, worker.bodyIndex(cemetery, true)));
+    }
+
+    @Benchmark
+    public List<Body> findBodiesInGrave(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.cemeteryManager.findBodiesInGrave(grave(cemetery, worker.graveIndex(cemetery)));
+    }
+
+    @Benchmark
+    public Map<Body, Grave> findGravesWithBodies(CemeteryState cemetery, WorkerState worker) {
+        List<Body> bodies = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            bodies.add(body(cemetery, worker.bodyIndex(cemetery, i % 2 == 0)));
+        }
+        return cemetery.cemeteryManager.findGravesWithBodies(bodies);
+    }
+
+    @Benchmark
+    public Map<Grave, List<Body>> findBodiesInGraves(CemeteryState cemetery, WorkerState worker) {
+        List<Grave> graves = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            graves.add(grave(cemetery, worker.graveIndex(cemetery)));
+        }
+        return cemetery.cemeteryManager.findBodiesInGraves(graves);
+    }
+
+    @Benchmark
+    public List<Body> findUnburiedBodies(CemeteryState cemetery) {
+        return cemetery.cemeteryManager.findUnburiedBodies();
+    }
+
+    @Benchmark
+    public List<Grave> findEmptyGraves(CemeteryState cemetery) {
+        return cemetery.cemeteryManager.findEmptyGraves();
+    }
+
+    @Benchmark
+    public List<Grave> findGravesWithSomeFreeSpace(CemeteryState cemetery) {
+        return cemetery.cemeteryManager.findGravesWithSomeFreeSpace();
+    }
+
+    @Benchmark
+    public List<Grave> findNearestGraveWithFreeSpace(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.cemeteryManager.findNearestGraveWithFreeSpace(
+                worker.nextInt(cemetery.rows), worker.nextInt(CemeteryState.COLUMNS), 5);
+    }
+
+    @Benchmark
+    public int checkGraveOccupancy(CemeteryState cemetery) {
+        return cemetery.cemeteryManager.checkGraveOccupancy(false);
+    }
+
+    /**
+     * Puts unburied body into grave and removes it again. Each grave of
+     * the seeded database has at least one free place.
+     *
+     * @param cemetery cemetery
+     * @param worker state of benchmark thread
+     * @return grave
+     */
+    @Benchmark
+    public Grave putAndRemoveBody(CemeteryState cemetery, WorkerState worker) {
+        Body body = body(cemetery, worker.bodyIndex(cemetery, false));
+        Grave grave = grave(cemetery, worker.graveIndex(cemetery));
+        cemetery.cemeteryManager.putBodyIntoGrave(body, grave);
+        cemetery.cemeteryManager.removeBodyFromGrave(body, grave);
+        return grave;
+    }
+
+    /**
+     * Puts unburied body into grave, moves it to another grave and removes
+     * it from there.
+     *
+     * @param cemetery cemetery
+     * @param worker state of benchmark thread
+     * @return target grave
+     */
+    @Benchmark
+    public Grave putMoveAndRemoveBody(CemeteryState cemetery, WorkerState worker) {
+        Body body = body(cemetery, worker.bodyIndex(cemetery, false));
+        int fromIndex = worker.graveIndex(cemetery);
+        int toIndex = worker.graveIndex(cemetery);
+        if (fromIndex == toIndex) {
+            toIndex = fromIndex + worker.threadCount < cemetery.graveIds.length
+                    ? fromIndex + worker.threadCount : fromIndex - worker.threadCount;
+        }
+        Grave from = grave(cemetery, fromIndex);
+        Grave to = grave(cemetery, toIndex);
+        cemetery.cemeteryManager.putBodyIntoGrave(body, from);
+        cemetery.cemeteryManager.moveBody(body, from, to);
+        cemetery.cemeteryManager.removeBodyFromGrave(body, to);
+        return to;
+    }
+
+    @Benchmark
+    public Grave allocateGraveAndCancelReservation(CemeteryState cemetery) {
+        Grave grave = cemetery.cemeteryManager.allocateGrave(1);
+        cemetery.cemeteryManager.cancelReservation(grave, 1);
+        return grave;
+    }
+
+    private static Body body(CemeteryState cemetery, int index) {
+        Body body = CemeteryState.newBody("Body " + index);
+        body.setId(cemetery.bodyIds[index]);
+        return body;
+    }
+
+    private static Grave grave(CemeteryState cemetery, int index) {
+        Grave grave = CemeteryState.newGrave(index / CemeteryState.COLUMNS, index % CemeteryState.COLUMNS);
+        grave.setId(cemetery.graveIds[index]);
+        return grave;
+    }
+}
@@ -0,0 +1,238 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.gravemanager.backend.Body;
+import cz.muni.fi.pv168.gravemanager.backend.BodyManagerImpl;
+import cz.muni.fi.pv168.gravemanager.backend.CemeteryManagerImpl;
+import cz.muni.fi.pv168.gravemanager.backend.CemeterySchema;
+import cz.muni.fi.pv168.gravemanager.backend.Gender;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import cz.muni.fi.pv168.gravemanager.backend.GraveManagerImpl;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Embedded in-memory database seeded with given number of bodies, shared by
+ * all benchmark threads. The database engine is parameter of the benchmark,
+ * so engines can be compared with the same manager code.
+ *
+ * <p>The cemetery has one grave with capacity {@value #GRAVE_CAPACITY} for
+ * every four bodies, graves are placed in rows of {@value #COLUMNS} columns.
+ * Every second body is buried, buried bodies are spread over the first three
+ * quarters of graves, so the rest of graves is empty and no grave is full.</p>
+ *
+ * <p>Benchmarks which modify data must restore it in the same operation and
+ * must work only with graves and bodies returned by {@link #graveIndex(int, int, int)}
+ * and {@link #bodyIndex(int, int, int, boolean)}, so threads of contended
+ * benchmarks do not interfere with each other.</p>
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+public class CemeteryState {
+
+    static final int COLUMNS = 1000;
+    static final int GRAVE_CAPACITY = 4;
+
+    private static final AtomicInteger databaseCounter = new AtomicInteger();
+
+    @Param({"1000", "100000", "1000000"})
+    public int bodies;
+
+    @Param({"derby", "h2"})
+    public String engine;
+
+    DataSource dataSource;
+    GraveManagerImpl graveManager;
+    BodyManagerImpl bodyManager;
+    CemeteryManagerImpl cemeteryManager;
+
+    long[] graveIds;
+    long[] bodyIds;
+    int rows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataSource = createDataSource("gravemgr-bench-" + databaseCounter.incrementAndGet());
+        CemeterySchema.migrate(dataSource);
+
+        graveManager = new GraveManagerImpl();
+        graveManager.setDataSource(dataSource);
+        bodyManager = new BodyManagerImpl(Clock.systemDefaultZone());
+        bodyManager.setDataSource(dataSource);
+        cemeteryManager = new CemeteryManagerImpl();
+        cemeteryManager.setDataSource(dataSource);
+
+        seedGraves(Math.max(bodies / 4, 1));
+        seedBodies();
+        buryBodies();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        if (dataSource instanceof EmbeddedDataSource) {
+            EmbeddedDataSource derby = (EmbeddedDataSource) dataSource;
+            derby.setCreateDatabase(null);
+            derby.setConnectionAttributes("drop=true");
+            try {
+                derby.getConnection().close();
+            } catch (SQLException ex) {
+                // Derby always reports dropped database with exception
+            }
+        } else {
+            try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+                st.execute("SHUTDOWN");
+            }
+        }
+    }
+
+    private DataSource createDataSource(String name) {
+        switch (engine) {
+            case "derby":
+                EmbeddedDataSource derby = new EmbeddedDataSource();
+                derby.setDatabaseName("memory:" + name);
+                derby.setCreateDatabase("create");
+                return derby;
+            case "h2":
+                JdbcDataSource h2 = new JdbcDataSource();
+                // ROW is keyword in H2 2.x, but it is used as column name
+                h2.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;NON_KEYWORDS=ROW");
+                return h2;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + engine);
+        }
+    }
+
+    private void seedGraves(int count) {
+        List<Grave> graves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            graves.add(newGrave(i / COLUMNS, i % COLUMNS));
+        }
+        graveManager.createGraves(graves);
+        graveIds = graves.stream().mapToLong(Grave::getId).toArray();
+        rows = (count + COLUMNS - 1) / COLUMNS;
+    }
+
+    private void seedBodies() {
+        List<Body> seed = new ArrayList<>(bodies);
+        for (int i = 0; i < bodies; i++) {
+            seed.add(newBody("Body " + i));
+        }
+        bodyManager.createBodies(seed);
+        bodyIds = seed.stream().mapToLong(Body::getId).toArray();
+    }
+
+    private void buryBodies() throws SQLException {
+        int buriedGraves = Math.max(graveIds.length * 3 / 4, 1);
+        int[] occupied = new int[graveIds.length];
+        Connection conn = null;
+        PreparedStatement bodySt = null;
+        PreparedStatement graveSt = null;
+        try {
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+            bodySt = conn.prepareStatement("UPDATE Body SET graveId = ? WHERE id = ?");
+            for (int i = 0; i < bodyIds.length; i += 2) {
+                int grave = (i / 2) % buriedGraves;
+                occupied[grave]++;
+                bodySt.setLong(1, graveIds[grave]);
+                bodySt.setLong(2, bodyIds[i]);
+                bodySt.addBatch();
+                if (i % 2000 == 0) {
+                    bodySt.executeBatch();
+                }
+            }
+            bodySt.executeBatch();
+            graveSt = conn.prepareStatement("UPDATE Grave SET occupied = ? WHERE id = ?");
+            for (int i = 0; i < buriedGraves; i++) {
+                graveSt.setInt(1, occupied[i]);
+                graveSt.setLong(2, graveIds[i]);
+                graveSt.addBatch();
+                if (i % 1000 == 0) {
+                    graveSt.executeBatch();
+                }
+            }
+            graveSt.executeBatch();
+            conn.commit();
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, bodySt, graveSt);
+        }
+    }
+
+    /**
+     * Returns index of grave which is owned by given thread. Graves of
+     * different threads are disjoint.
+     *
+     * @param threadIndex index of benchmark thread
+     * @param threadCount number of benchmark threads
+     * @param random random number
+     * @return index into {@link #graveIds}
+     */
+    int graveIndex(int threadIndex, int threadCount, int random) {
+        int owned = Math.max((graveIds.length - threadIndex + threadCount - 1) / threadCount, 1);
+        return Math.min(threadIndex + Math.floorMod(random, owned) * threadCount, graveIds.length - 1);
+    }
+
+    /**
+     * Returns index of buried or unburied body which is owned by given
+     * thread. Bodies of different threads are disjoint.
+     *
+     * @param threadIndex index of benchmark thread
+     * @param threadCount number of benchmark threads
+     * @param random random number
+     * @param buried true for buried body, false for unburied one
+     * @return index into {@link #bodyIds}
+     */
+    int bodyIndex(int threadIndex, int threadCount, int random, boolean buried) {
+        int pairs = Math.max(bodyIds.length / 2, 1);
+        int owned = Math.max((pairs - threadIndex + threadCount - 1) / threadCount, 1);
+        int pair = Math.min(threadIndex + Math.floorMod(random, owned) * threadCount, pairs - 1);
+        return Math.min(pair * 2 + (buried ? 0 : 1), bodyIds.length - 1);
+    }
+
+    /**
+     * Returns id of grave in which given body was buried when the database
+     * was seeded.
+     *
+     * @param bodyIndex index of buried body
+     * @return grave id
+     */
+    long graveIdOfBuriedBody(int bodyIndex) {
+        int buriedGraves = Math.max(graveIds.length * 3 / 4, 1);
+        return graveIds[(bodyIndex / 2) % buriedGraves];
+    }
+
+    static Grave newGrave(int row, int column) {
+        Grave grave = new Grave();
+        grave.setRow(row);
+        grave.setColumn(column);
+        grave.setCapacity(GRAVE_CAPACITY);
+        return grave;
+    }
+
+    static Body newBody(String name) {
+        Body body = new Body();
+        body.setName(name);
+        body.setGender(Gender.FEMALE);
+        body.setBorn(LocalDate.of(1900, 1, 1));
+        body.setDied(LocalDate.of(1980, 1, 1));
+        return body;
+    }
+}
@@ -0,0 +1,13 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Throughput of {@link cz.muni.fi.pv168.gravemanager.backend.GraveManager}
+ * operations executed concurrently by several threads.
+ *
+ * @author agent
+ */
+@Threads(4)
+public class ContendedGraveManagerBenchmark extends GraveManagerBenchmark {
+}
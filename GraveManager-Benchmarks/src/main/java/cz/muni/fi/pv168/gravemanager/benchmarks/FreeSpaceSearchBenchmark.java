@@ -0,0 +1,96 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searching of graves with free space through the in-memory free space index
+ * of {@link cz.muni.fi.pv168.gravemanager.backend.CemeteryManagerImpl}
+ * compared with loading all graves with free space from the database and
+ * filtering them, which is what callers had to do before the index existed.
+ *
+ * <p>The index variant of the best fit also reserves the found places and
+ * cancels the reservation, so it does strictly more work than the list
+ * variant.</p>
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+public class FreeSpaceSearchBenchmark {
+
+    private static final int NEAREST_COUNT = 5;
+
+    @Benchmark
+    public Grave bestFitFromIndex(CemeteryState cemetery, WorkerState worker) {
+        int slots = 1 + worker.nextInt(CemeteryState.GRAVE_CAPACITY);
+        Grave grave = cemetery.cemeteryManager.allocateGrave(slots);
+        cemetery.cemeteryManager.cancelReservation(grave, slots);
+        return grave;
+    }
+
+    @Benchmark
+    public long bestFitFromList(CemeteryState cemetery, WorkerState worker) throws SQLException {
+        int slots = 1 + worker.nextInt(CemeteryState.GRAVE_CAPACITY);
+        long bestId = 0;
+        int bestFreeSpace = Integer.MAX_VALUE;
+        try (Connection conn = cemetery.dataSource.getConnection();
+                PreparedStatement st = conn.prepareStatement(
+                        "SELECT id, capacity - occupied - reserved FROM Grave "
+                        + "WHERE occupied + reserved < capacity")) {
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                long id = rs.getLong(1);
+                int freeSpace = rs.getInt(2);
+                if (freeSpace >= slots && (freeSpace < bestFreeSpace
+                        || (freeSpace == bestFreeSpace && id < bestId))) {
+                    bestId = id;
+                    bestFreeSpace = freeSpace;
+                }
+            }
+        }
+        return bestId;
+    }
+
+    @Benchmark
+    public List<Grave> nearestFromIndex(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.cemeteryManager.findNearestGraveWithFreeSpace(
+                worker.nextInt(cemetery.rows), worker.nextInt(CemeteryState.COLUMNS), NEAREST_COUNT);
+    }
+
+    @Benchmark
+    public List<Grave> nearestFromList(CemeteryState cemetery, WorkerState worker) {
+        int row = worker.nextInt(cemetery.rows);
+        int column = worker.nextInt(CemeteryState.COLUMNS);
+        return cemetery.cemeteryManager.findGravesWithSomeFreeSpace().stream()
+                .sorted(Comparator.comparingLong((Grave grave) -> distanceSquared(grave, row, column))
+                        .thenComparing(Grave::getId))
+                .limit(NEAREST_COUNT)
+                .collect(Collectors.toList());
+    }
+
+    private static long distanceSquared(Grave grave, int row, int column) {
+        long rowDistance = grave.getRow() - row;
+        long columnDistance = grave.getColumn() - column;
+        return rowDistance * rowDistance + columnDistance * columnDistance;
+    }
+}
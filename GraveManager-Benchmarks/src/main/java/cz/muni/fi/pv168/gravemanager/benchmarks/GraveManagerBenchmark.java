@@ -0,0 +1,77 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import cz.muni.fi.pv168.common.Page;
+import cz.muni.fi.pv168.gravemanager.backend.Grave;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link cz.muni.fi.pv168.gravemanager.backend.GraveManager}
+ * operations in single thread.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Threads(1)
+public class GraveManagerBenchmark {
+
+    @Benchmark
+    public Grave getGrave(CemeteryState cemetery, WorkerState worker) {
+        return cemetery.graveManager.getGrave(cemetery.graveIds[worker.graveIndex(cemetery)]);
+    }
+
+    @Benchmark
+    public Grave getGraveAt(CemeteryState cemetery, WorkerState worker) {
+        int index = worker.graveIndex(cemetery);
+        return cemetery.graveManager.getGraveAt(index / CemeteryState.COLUMNS, index % CemeteryState.COLUMNS);
+    }
+
+    @Benchmark
+    public List<Grave> findGravesInArea(CemeteryState cemetery, WorkerState worker) {
+        int row = worker.nextInt(cemetery.rows);
+        int column = worker.nextInt(CemeteryState.COLUMNS - 10);
+        return cemetery.graveManager.findGravesInArea(row, row + 9, column, column + 9);
+    }
+
+    @Benchmark
+    public Page<Grave> findAllGravesPage(CemeteryState cemetery, WorkerState worker) {
+        long afterId = cemetery.graveIds[worker.graveIndex(cemetery)];
+        return cemetery.graveManager.findAllGraves(afterId, 100);
+    }
+
+    @Benchmark
+    public Grave updateGrave(CemeteryState cemetery, WorkerState worker) {
+        Grave grave = cemetery.graveManager.getGrave(cemetery.graveIds[worker.graveIndex(cemetery)]);
+        grave.setNote("Updated " + worker.nextInt());
+        cemetery.graveManager.updateGrave(grave);
+        return grave;
+    }
+
+    /**
+     * Creates new grave and deletes it again, so the size of the database
+     * does not change during the benchmark.
+     *
+     * @param cemetery cemetery
+     * @param worker state of benchmark thread
+     * @return deleted grave
+     */
+    @Benchmark
+    public Grave createAndDeleteGrave(CemeteryState cemetery, WorkerState worker) {
+        Grave grave = CemeteryState.newGrave(cemetery.rows + worker.threadIndex, 0);
+        cemetery.graveManager.createGrave(grave);
+        cemetery.graveManager.deleteGrave(grave);
+        return grave;
+    }
+}
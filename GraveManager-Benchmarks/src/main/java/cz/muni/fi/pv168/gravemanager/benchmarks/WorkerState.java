@@ -0,0 +1,45 @@
+package cz.muni.fi.pv168.gravemanager.benchmarks;
+
+import java.util.SplittableRandom;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * State of single benchmark thread. It selects random graves and bodies
+ * owned by the thread, see {@link CemeteryState}.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+public class WorkerState {
+
+    int threadIndex;
+    int threadCount;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setUp(ThreadParams threadParams) {
+        threadIndex = threadParams.getThreadIndex();
+        threadCount = threadParams.getThreadCount();
+        random = new SplittableRandom(42 + threadIndex);
+    }
+
+    int nextInt() {
+        return random.nextInt() & Integer.MAX_VALUE;
+    }
+
+    int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    int graveIndex(CemeteryState cemetery) {
+        return cemetery.graveIndex(threadIndex, threadCount, nextInt());
+    }
+
+    int bodyIndex(CemeteryState cemetery, boolean buried) {
+        return cemetery.bodyIndex(threadIndex, threadCount, nextInt(), buried);
+    }
+}